@@ -20,6 +20,7 @@ package se.sics.nstream.util.range;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Range;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import se.sics.ktoolbox.util.reference.KReference;
 import se.sics.ktoolbox.util.reference.KReferenceException;
@@ -64,6 +65,22 @@ public class RangeKReference implements KReference<byte[]> {
         }
     }
 
+    /**
+     * Zero-copy alternative to {@link #getValue()} - a read only view over the
+     * range of the base block. The view is only valid while this reference is
+     * retained.
+     */
+    public Optional<ByteBuffer> getView() {
+        try {
+            byte[] baseVal = base.getValue().get();
+            int offset = (int)(long)range.lowerEndpoint();
+            int length = (int)(range.upperEndpoint() - range.lowerEndpoint() + 1);
+            return Optional.of(ByteBuffer.wrap(baseVal, offset, length).slice().asReadOnlyBuffer());
+        } catch (IllegalStateException ex) {
+            return Optional.absent();
+        }
+    }
+
     public static RangeKReference createInstance(KReference<byte[]> base, long blockPos, KPiece range) {
         base.retain();
         return new RangeKReference(base, range.translate(-1 * blockPos));
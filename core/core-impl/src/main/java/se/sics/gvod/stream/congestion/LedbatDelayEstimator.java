@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.gvod.stream.congestion;
+
+/**
+ * One-way delay filters of LEDBAT RFC 6817, section 3.4.2 - on nanosecond samples and primitive rings, so the per
+ * message cost is constant and allocation free.
+ * <p>
+ * Base delay - minimum over the last baseHistory rounds, each round keeping the minimum seen during it. The minima
+ * of the closed rounds are kept in a monotonic deque, so base() is min(current round, deque head).
+ * <p>
+ * Current delay - mean of the last currentFilter samples, kept as a running sum over a ring.
+ * <p>
+ * Clocks of sender and receiver are not synchronized - the sample carries a constant offset that cancels out in
+ * current - base.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class LedbatDelayEstimator {
+
+    public static final long NO_SAMPLE = Long.MAX_VALUE;
+
+    //closed round minima - ring indexed by round number
+    private final long[] roundMin;
+    private final int baseHistory;
+    private long currentRound = 0;
+    private long currentRoundMin = NO_SAMPLE;
+    //monotonic deque of round numbers with increasing minima - a ring of baseHistory entries
+    private final long[] deque;
+    private int dequeHead = 0;
+    private int dequeSize = 0;
+    //current delay samples - relative to the first sample, so the sum does not overflow on large clock offsets
+    private long origin = NO_SAMPLE;
+    private final long[] samples;
+    private int nextSample = 0;
+    private int nrSamples = 0;
+    private long samplesSum = 0;
+
+    public LedbatDelayEstimator(int baseHistory, int currentFilter) {
+        if (baseHistory < 1 || currentFilter < 1) {
+            throw new IllegalArgumentException("history sizes must be positive");
+        }
+        this.baseHistory = baseHistory;
+        this.roundMin = new long[baseHistory];
+        this.deque = new long[baseHistory];
+        this.samples = new long[currentFilter];
+    }
+
+    public void sample(long delayNs) {
+        if (delayNs < currentRoundMin) {
+            currentRoundMin = delayNs;
+        }
+        if (origin == NO_SAMPLE) {
+            origin = delayNs;
+        }
+        if (nrSamples == samples.length) {
+            samplesSum -= samples[nextSample];
+        } else {
+            nrSamples++;
+        }
+        samples[nextSample] = delayNs - origin;
+        samplesSum += delayNs - origin;
+        nextSample = (nextSample + 1) % samples.length;
+    }
+
+    /**
+     * closes the current base delay round - the oldest one falls out of the history
+     */
+    public void round() {
+        //the current round joins the history - baseHistory rounds in total, including the new current one
+        if (baseHistory > 1) {
+            roundMin[(int) (currentRound % baseHistory)] = currentRoundMin;
+            while (dequeSize > 0 && roundMin[dequeIdx(dequeSize - 1)] >= currentRoundMin) {
+                dequeSize--;
+            }
+            deque[(dequeHead + dequeSize) % baseHistory] = currentRound;
+            dequeSize++;
+            if (deque[dequeHead] <= currentRound + 1 - baseHistory) {
+                dequeHead = (dequeHead + 1) % baseHistory;
+                dequeSize--;
+            }
+        }
+        currentRound++;
+        currentRoundMin = NO_SAMPLE;
+    }
+
+    private int dequeIdx(int pos) {
+        return (int) (deque[(dequeHead + pos) % baseHistory] % baseHistory);
+    }
+
+    public boolean hasBase() {
+        return base() != NO_SAMPLE;
+    }
+
+    /**
+     * @return minimum one-way delay over the base history or NO_SAMPLE
+     */
+    public long base() {
+        if (dequeSize == 0) {
+            return currentRoundMin;
+        }
+        return Math.min(currentRoundMin, roundMin[dequeIdx(0)]);
+    }
+
+    /**
+     * @return filtered current one-way delay or NO_SAMPLE
+     */
+    public long current() {
+        if (nrSamples == 0) {
+            return NO_SAMPLE;
+        }
+        return origin + Math.floorDiv(samplesSum, nrSamples);
+    }
+
+    /**
+     * @return current - base, or NO_SAMPLE while there is no base delay
+     */
+    public long queuingDelay() {
+        long base = base();
+        if (base == NO_SAMPLE) {
+            return NO_SAMPLE;
+        }
+        return current() - base;
+    }
+}
@@ -24,10 +24,17 @@ package se.sics.gvod.stream.congestion;
  */
 public interface PLedbatState {
 
+    /**
+     * System.nanoTime() of the sender - only differences of one-way delays are used, so the clocks of the two ends
+     * need not agree. It goes on the wire in nanoseconds, see PLedbatStateImplSerializer
+     */
     public void setSendingTime(long time);
 
     public long getSendingTime();
     
+    /**
+     * System.nanoTime() of the receiver
+     */
     public void setReceivedTime(long time);
 
     public long getReceivedTime();
@@ -38,18 +45,19 @@ public interface PLedbatState {
 
     public static class Impl implements PLedbatState {
 
-        private Long sendingTime;
-        private Long receivedTime;
+        //primitives - no boxing on the per message path
+        private long sendingTime;
+        private long receivedTime;
         private Status status;
 
-        Impl(Long sendingTime) {
+        Impl(long sendingTime) {
             this.sendingTime = sendingTime;
             status = null;
-            receivedTime = null;
+            receivedTime = 0;
         }
 
         public Impl() {
-            this(null);
+            this(0);
         }
 
         @Override
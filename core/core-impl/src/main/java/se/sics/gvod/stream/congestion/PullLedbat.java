@@ -18,11 +18,8 @@
  */
 package se.sics.gvod.stream.congestion;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import se.sics.gvod.stream.congestion.event.external.PLedbatConnection;
 import se.sics.kompics.ComponentProxy;
 
@@ -36,93 +33,50 @@ public class PullLedbat {
     public static final int HISTORY_SIZE = 100;
     public static final long BASE_HISTORY_ROUND_TIME = 1000; //1 second
     public static final long TARGET = 100; //100ms 
+    public static final long TARGET_NS = TimeUnit.MILLISECONDS.toNanos(TARGET);
     public static final double GAIN = 1 / TARGET;
 
     public final PLedbatConnection.TrackRequest req;
     private final Random rand;
-    private final LinkedList<Long> baseHistory = new LinkedList<>();
-    private final LinkedList<Long> currentHistory = new LinkedList<>();
+    private final LedbatDelayEstimator delays = new LedbatDelayEstimator(HISTORY_SIZE, HISTORY_SIZE);
 
     public PullLedbat(PLedbatConnection.TrackRequest req, Random rand) {
         this.req = req;
         this.rand = rand;
-        baseHistory.add(Long.MAX_VALUE);
-        currentHistory.add(Long.MAX_VALUE);
     }
 
+    /**
+     * sending and received times are System.nanoTime() of the seeder and of this node
+     */
     public void incoming(PLedbatState pLedbatState, ComponentProxy proxy) {
-        long now = System.currentTimeMillis();
-        long delay = now - pLedbatState.getSendingTime();
-        updateBaseDelay(delay);
-        updateCurrentDelay(delay);
+        long delay = pLedbatState.getReceivedTime() - pLedbatState.getSendingTime();
+        pLedbatState.setStatus(status(delay));
+    }
 
-        Long baseDelay = Collections.min(baseHistory);
-        if (baseDelay.equals(Long.MAX_VALUE)) {
-            pLedbatState.setStatus(PLedbatState.Status.SPEED_UP);
+    PLedbatState.Status status(long delayNs) {
+        delays.sample(delayNs);
+        if (!delays.hasBase()) {
+            return PLedbatState.Status.SPEED_UP;
+        }
+        long queuingDelay = delays.queuingDelay();
+        double offTarget = ((double) (TARGET_NS - queuingDelay)) / TARGET_NS;
+        if (offTarget >= 0) {
+            return PLedbatState.Status.SPEED_UP;
         } else {
-            long queuingDelay = latestQueuingDelay() - baseDelay;
-            double offTarget = ((double) (TARGET - queuingDelay)) / TARGET;
-            if (offTarget >= 0) {
-//                if (rand.nextDouble() < offTarget) {
-                    pLedbatState.setStatus(PLedbatState.Status.SPEED_UP);
-//                } else {
-//                    pLedbatState.setStatus(PLedbatState.Status.MAINTAIN);
-//                }
-            } else {
-//                if (rand.nextDouble() < -1 * offTarget) {
-                    pLedbatState.setStatus(PLedbatState.Status.SLOW_DOWN);
-//                } else {
-//                    pLedbatState.setStatus(PLedbatState.Status.MAINTAIN);
-//                }
-            }
+            return PLedbatState.Status.SLOW_DOWN;
         }
     }
 
     //Maintain BASE_HISTORY delay-minima
     //Each minimum is measured over a period of BASE_HISTORY_ROUND_TIME
-    private void updateBaseDelay(long delay) {
-        baseHistory.set(0, Math.min(baseHistory.get(0), delay));
-    }
-
     public String round() {
-        Long baseDelay = Collections.min(baseHistory);
         String result;
-        if (baseDelay.equals(Long.MAX_VALUE)) {
+        if (!delays.hasBase()) {
             result = "qD:x";
         } else {
-            long queuingDelay = latestQueuingDelay() - baseDelay;
-            result = "qD:" + queuingDelay;
+            result = "qD:" + TimeUnit.NANOSECONDS.toMicros(delays.queuingDelay()) + "us";
         }
-        updateBaseDelayRound();
+        delays.round();
         return result;
     }
-
-    private void updateBaseDelayRound() {
-        baseHistory.addFirst(Long.MAX_VALUE);
-        if (baseHistory.size() > HISTORY_SIZE) {
-            baseHistory.removeLast();
-        }
-    }
-
-    private void updateCurrentDelay(long delay) {
-        currentHistory.addFirst(delay);
-        if (currentHistory.size() > HISTORY_SIZE) {
-            currentHistory.removeLast();
-        }
-    }
-
-    //RFC - filter method
-    private long latestQueuingDelay() {
-        return (long) Math.floor(average(currentHistory));
-    }
-
-    private Double average(List<Long> values) {
-        double avg = 0;
-        int t = 1;
-        for (double x : values) {
-            avg += (x - avg) / t;
-            ++t;
-        }
-        return avg;
-    }
 }
@@ -139,7 +139,7 @@ public class PullLedbatComp extends ComponentDefinition {
     };
 
     private void outgoing(PLedbatMsg.Response content, KContentMsg<KAddress, KHeader<KAddress>, PLedbatMsg.Response> container) {
-        long outgoingTimestamp = System.currentTimeMillis();
+        long outgoingTimestamp = System.nanoTime();
         content.setSendingTime(outgoingTimestamp);
         trigger(container, requiredNetPort);
     }
@@ -166,7 +166,7 @@ public class PullLedbatComp extends ComponentDefinition {
             LOG.warn("{}no ledbat tracking for target:{}", logPrefix, target);
             return;
         }
-        long incomingTimestamp = System.currentTimeMillis();
+        long incomingTimestamp = System.nanoTime();
         content.setReceivedTime(incomingTimestamp);
         conn.incoming(content, proxy);
         trigger(container, providedNetPort);
@@ -22,6 +22,7 @@ import com.google.common.base.Optional;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.sics.gvod.common.util.VodDescriptor;
@@ -80,9 +81,8 @@ public class DwnlConnMngrV2 {
     }
 
     public void completed(KAddress partner, PLedbatState state) {
-        long handlingTime = System.currentTimeMillis();
-        long receivedTime = state.getReceivedTime();
-        long kQueueDelay = handlingTime - receivedTime;
+        //the received time is stamped with System.nanoTime()
+        long kQueueDelay = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - state.getReceivedTime());
 
         LOG.debug("torrent comp queue delay:{}", kQueueDelay);
         if (kQueueDelay < hostParam.minQueueDelay) {
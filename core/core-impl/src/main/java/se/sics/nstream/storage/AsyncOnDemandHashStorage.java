@@ -18,9 +18,13 @@
  */
 package se.sics.nstream.storage;
 
+import com.google.common.base.Optional;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import org.javatuples.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import se.sics.kompics.util.Identifier;
 import se.sics.ktoolbox.util.managedStore.core.util.HashUtil;
 import se.sics.ktoolbox.util.reference.KReference;
@@ -32,6 +36,7 @@ import se.sics.nstream.StreamId;
 import se.sics.nstream.storage.buffer.WriteResult;
 import se.sics.nstream.storage.cache.KHint;
 import se.sics.nstream.storage.durable.util.MyStream;
+import se.sics.nstream.storage.hash.HashSidecar;
 import se.sics.nstream.util.BlockHelper;
 import se.sics.nstream.util.FileBaseDetails;
 import se.sics.nstream.util.range.KBlock;
@@ -40,22 +45,29 @@ import se.sics.nstream.util.result.ReadCallback;
 import se.sics.nstream.util.result.WriteCallback;
 
 /**
+ * Hashes are looked up in memory, then in the persisted sidecar (if any) and only then computed from the data block.
+ * Computed and written hashes are persisted in the sidecar, so a restarted seeder does not rehash its files.
+ *
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class AsyncOnDemandHashStorage implements AsyncStorage {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncOnDemandHashStorage.class);
+
     private final FileBaseDetails fileDetails;
     private final Pair<StreamId, MyStream> stream;
     private final DelayedExceptionSyncHandler exSyncHandler;
     private final Map<Integer, KReference<byte[]>> hashes = new HashMap<>();
     private final AsyncStorage storage; //someone else is controlling it, I am merely piggy backing
+    private final Optional<HashSidecar> sidecar;
 
     public AsyncOnDemandHashStorage(FileBaseDetails fileDetails, DelayedExceptionSyncHandler exSyncHandler, AsyncStorage storage,
-            Pair<StreamId, MyStream> stream) {
+            Pair<StreamId, MyStream> stream, Optional<HashSidecar> sidecar) {
         this.fileDetails = fileDetails;
         this.exSyncHandler = exSyncHandler;
         this.storage = storage;
         this.stream = stream;
+        this.sidecar = sidecar;
     }
 
     @Override
@@ -77,6 +89,10 @@ public class AsyncOnDemandHashStorage implements AsyncStorage {
                 throw new RuntimeException(ex);
             }
         }
+        hashes.clear();
+        if (sidecar.isPresent()) {
+            sidecar.get().close();
+        }
     }
 
     //**************************************************************************
@@ -93,7 +109,11 @@ public class AsyncOnDemandHashStorage implements AsyncStorage {
     //**************************************************************************
     @Override
     public void read(final KRange readRange, final ReadCallback delayedResult) {
-        KReference<byte[]> hash = hashes.get(readRange.parentBlock());
+        final int blockNr = readRange.parentBlock();
+        KReference<byte[]> hash = hashes.get(blockNr);
+        if (hash == null) {
+            hash = loadPersisted(blockNr);
+        }
         if (hash != null) {
             delayedResult.success(Result.success(hash));
         } else {
@@ -107,12 +127,14 @@ public class AsyncOnDemandHashStorage implements AsyncStorage {
                 @Override
                 public boolean success(Result<KReference<byte[]>> result) {
                     byte[] block = result.getValue().getValue().get();
-                    KReference<byte[]> hash = KReferenceFactory.getReference(HashUtil.makeHash(block, fileDetails.hashAlg));
-                    hashes.put(readRange.parentBlock(), hash);
+                    byte[] hashVal = HashUtil.makeHash(block, fileDetails.hashAlg);
+                    KReference<byte[]> hash = KReferenceFactory.getReference(hashVal);
+                    hashes.put(blockNr, hash);
+                    persist(blockNr, hashVal);
                     return delayedResult.success(Result.success(hash));
                 }
             };
-            KBlock blockRange = BlockHelper.getBlockRange(readRange.parentBlock(), fileDetails);
+            KBlock blockRange = BlockHelper.getBlockRange(blockNr, fileDetails);
             storage.read(blockRange, blockResult);
         }
     }
@@ -121,6 +143,38 @@ public class AsyncOnDemandHashStorage implements AsyncStorage {
     public void write(KBlock writeRange, KReference<byte[]> val, WriteCallback writeResult) {
         val.retain();
         hashes.put(writeRange.parentBlock(), val);
+        persist(writeRange.parentBlock(), val.getValue().get());
         writeResult.success(Result.success(new WriteResult(stream, writeRange.lowerAbsEndpoint(), val.getValue().get().length)));
     }
+
+    //*******************************SIDECAR************************************
+    private KReference<byte[]> loadPersisted(int blockNr) {
+        if (!sidecar.isPresent()) {
+            return null;
+        }
+        try {
+            Optional<byte[]> hashVal = sidecar.get().get(blockNr);
+            if (!hashVal.isPresent()) {
+                return null;
+            }
+            KReference<byte[]> hash = KReferenceFactory.getReference(hashVal.get());
+            hashes.put(blockNr, hash);
+            return hash;
+        } catch (IOException ex) {
+            LOG.warn("sidecar read block:{} failed:{}", blockNr, ex.getMessage());
+            return null;
+        }
+    }
+
+    private void persist(int blockNr, byte[] hashVal) {
+        if (!sidecar.isPresent()) {
+            return;
+        }
+        try {
+            sidecar.get().put(blockNr, hashVal);
+        } catch (IOException ex) {
+            //the sidecar is only an optimization - the hash is still kept in memory
+            LOG.warn("sidecar write block:{} failed:{}", blockNr, ex.getMessage());
+        }
+    }
 }
@@ -24,6 +24,40 @@ import se.sics.kompics.config.Config;
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class KBufferConfig {
+    public static class Names {
+        public static String MAX_BATCH_BYTES = "storage.buffer.maxBatchBytes";
+        public static String LINGER_MS = "storage.buffer.lingerMs";
+        public static String MAX_IN_FLIGHT_BYTES = "storage.buffer.maxInFlightBytes";
+    }
+    /**
+     * 0 - no coalescing, one write request per block
+     */
+    public static final long DEFAULT_MAX_BATCH_BYTES = 0;
+    /**
+     * how long a batch smaller than maxBatchBytes waits for more contiguous blocks - 0 sends it right away
+     */
+    public static final long DEFAULT_LINGER_MS = 0;
+    /**
+     * no new writes while this many bytes are written but not acked by the storage - 0 unbounded. Storages sending
+     * DStorageWrite.InFlight reports do not count bytes they hold back waiting for more
+     */
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 0;
+    
+    public final long maxBatchBytes;
+    public final long lingerMs;
+    public final long maxInFlightBytes;
+    
     public KBufferConfig(Config config) {
+        maxBatchBytes = config.getValueOrDefault(Names.MAX_BATCH_BYTES, DEFAULT_MAX_BATCH_BYTES);
+        lingerMs = config.getValueOrDefault(Names.LINGER_MS, DEFAULT_LINGER_MS);
+        maxInFlightBytes = config.getValueOrDefault(Names.MAX_IN_FLIGHT_BYTES, DEFAULT_MAX_IN_FLIGHT_BYTES);
+    }
+    
+    public boolean coalesce() {
+        return maxBatchBytes > 0;
+    }
+    
+    public boolean linger() {
+        return coalesce() && lingerMs > 0;
     }
 }
@@ -18,10 +18,11 @@
  */
 package se.sics.nstream.storage.buffer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.UUID;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +30,10 @@ import se.sics.kompics.ComponentProxy;
 import se.sics.kompics.Handler;
 import se.sics.kompics.Positive;
 import se.sics.kompics.config.Config;
+import se.sics.kompics.timer.CancelTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+import se.sics.kompics.timer.Timer;
 import se.sics.kompics.util.Identifier;
 import se.sics.ktoolbox.util.reference.KReference;
 import se.sics.ktoolbox.util.reference.KReferenceException;
@@ -39,6 +44,7 @@ import se.sics.nstream.storage.durable.DStoragePort;
 import se.sics.nstream.storage.durable.events.DStorageWrite;
 import se.sics.nstream.storage.durable.util.MyStream;
 import se.sics.nstream.util.actuator.ComponentLoadTracking;
+import se.sics.nstream.util.actuator.StreamMetrics;
 import se.sics.nstream.util.range.KBlock;
 import se.sics.nstream.util.result.WriteCallback;
 
@@ -58,15 +64,26 @@ public class SimpleAppendKBuffer implements KBuffer {
     private final Pair<StreamId, MyStream> stream;
     //**************************************************************************
     private final Positive<DStoragePort> writePort;
+    private final Positive<Timer> timerPort;
     private final ComponentProxy proxy;
     private final DelayedExceptionSyncHandler syncExHandling;
     private final ComponentLoadTracking loadTracker;
+    private final StreamMetrics metrics;
     //**************************************************************************
     private int blockPos;
     private int answeredBlockPos;
     private long appendPos;
     private final Map<Long, Pair<KReference<byte[]>, WriteCallback>> buffer = new HashMap<>();
-    private final Set<Identifier> pendingWriteReqs = new HashSet<>(); 
+    //block positions covered by each pending write request
+    private final Map<Identifier, List<Long>> pendingWriteReqs = new HashMap<>();
+    //blocks of writes still pending when the buffer was cleaned - released when their response arrives
+    private final Map<Identifier, List<KReference<byte[]>>> detachedWriteReqs = new HashMap<>();
+    private boolean closed = false;
+    //bytes written to storage but not yet acked by it
+    private long inFlightBytes = 0;
+    //<received pos, in flight bytes> - last InFlight report of the storage, null if it does not report
+    private Pair<Long, Long> storageInFlight = null;
+    private UUID lingerTid;
     //**************************************************************************
 
     public SimpleAppendKBuffer(Config config, ComponentProxy proxy, DelayedExceptionSyncHandler syncExceptionHandling, ComponentLoadTracking loadTracker,
@@ -77,10 +94,18 @@ public class SimpleAppendKBuffer implements KBuffer {
         this.syncExHandling = syncExceptionHandling;
         this.writePort = proxy.getNegative(DStoragePort.class).getPair();
         this.loadTracker = loadTracker;
+        this.metrics = loadTracker.streamMetrics(stream);
         this.appendPos = appendPos;
         this.blockPos = 0;
         this.answeredBlockPos = 0;
         proxy.subscribe(handleWriteResp, writePort);
+        proxy.subscribe(handleInFlight, writePort);
+        if (bufferConfig.linger()) {
+            this.timerPort = proxy.getNegative(Timer.class).getPair();
+            proxy.subscribe(handleLinger, timerPort);
+        } else {
+            this.timerPort = null;
+        }
     }
 
     @Override
@@ -95,12 +120,21 @@ public class SimpleAppendKBuffer implements KBuffer {
 
     @Override
     public void close() {
-        proxy.unsubscribe(handleWriteResp, writePort);
+        closed = true;
+        proxy.unsubscribe(handleInFlight, writePort);
+        if (bufferConfig.linger()) {
+            cancelLinger();
+            proxy.unsubscribe(handleLinger, timerPort);
+        }
         try {
             clean();
         } catch (KReferenceException ex) {
             syncExHandling.fail(Result.internalFailure(ex));
         }
+        //still listening for the writes in flight, to release their blocks
+        if (detachedWriteReqs.isEmpty()) {
+            proxy.unsubscribe(handleWriteResp, writePort);
+        }
     }
     
     @Override
@@ -117,43 +151,167 @@ public class SimpleAppendKBuffer implements KBuffer {
     }
 
     private void addNewTasks() {
-        while (true) {
+        if (bufferConfig.coalesce()) {
+            addBatchedTasks(false);
+            return;
+        }
+        while (!storageBusy()) {
             Pair<KReference<byte[]>, WriteCallback> next = buffer.get(appendPos);
             if (next == null) {
                 break;
             }
+            List<Long> blocks = new ArrayList<>();
+            blocks.add(appendPos);
             DStorageWrite.Request req = new DStorageWrite.Request(stream.getValue0(), appendPos, next.getValue0().getValue().get());
-            pendingWriteReqs.add(req.eventId);
+            pendingWriteReqs.put(req.eventId, blocks);
             proxy.trigger(req, writePort);
             appendPos += next.getValue0().getValue().get().length;
+            inFlightBytes += next.getValue0().getValue().get().length;
             blockPos++;
         }
     }
 
+    /**
+     * runs of contiguous blocks go out as one vectored write of at most maxBatchBytes. 
+     * A short run waits up to lingerMs for the next block, unless forced by the linger timeout.
+     */
+    private void addBatchedTasks(boolean force) {
+        while (!storageBusy()) {
+            List<Long> blocks = new ArrayList<>();
+            List<byte[]> values = new ArrayList<>();
+            long batchPos = appendPos;
+            long batchBytes = 0;
+            while (true) {
+                Pair<KReference<byte[]>, WriteCallback> next = buffer.get(batchPos + batchBytes);
+                if (next == null) {
+                    break;
+                }
+                byte[] value = next.getValue0().getValue().get();
+                if (!values.isEmpty() && batchBytes + value.length > bufferConfig.maxBatchBytes) {
+                    break;
+                }
+                blocks.add(batchPos + batchBytes);
+                values.add(value);
+                batchBytes += value.length;
+            }
+            if (values.isEmpty()) {
+                return;
+            }
+            boolean full = buffer.containsKey(batchPos + batchBytes) || batchBytes >= bufferConfig.maxBatchBytes;
+            if (!full && !force && bufferConfig.linger()) {
+                scheduleLinger();
+                return;
+            }
+            cancelLinger();
+            DStorageWrite.Request req = new DStorageWrite.Request(stream.getValue0(), batchPos, values);
+            pendingWriteReqs.put(req.eventId, blocks);
+            proxy.trigger(req, writePort);
+            appendPos += batchBytes;
+            inFlightBytes += batchBytes;
+            blockPos += blocks.size();
+            force = false;
+        }
+    }
+
+    /**
+     * backpressure from slow sinks (e.g. kafka acking on broker ack) - wait for acks before writing more
+     */
+    private boolean storageBusy() {
+        return bufferConfig.maxInFlightBytes > 0 && unackedBytes() >= bufferConfig.maxInFlightBytes;
+    }
+
+    /**
+     * a storage reporting InFlight knows better - bytes it holds back waiting for more (e.g. a partial kafka record)
+     * are not in flight and would otherwise stall us. Writes sent after its last report count fully.
+     */
+    private long unackedBytes() {
+        if (storageInFlight == null) {
+            return inFlightBytes;
+        }
+        long sentSinceReport = appendPos - storageInFlight.getValue0();
+        return Math.min(inFlightBytes, storageInFlight.getValue1() + sentSinceReport);
+    }
+
+    private void scheduleLinger() {
+        if (lingerTid != null) {
+            return;
+        }
+        ScheduleTimeout st = new ScheduleTimeout(bufferConfig.lingerMs);
+        Linger l = new Linger(st);
+        st.setTimeoutEvent(l);
+        lingerTid = l.getTimeoutId();
+        proxy.trigger(st, timerPort);
+    }
+
+    private void cancelLinger() {
+        if (lingerTid == null) {
+            return;
+        }
+        proxy.trigger(new CancelTimeout(lingerTid), timerPort);
+        lingerTid = null;
+    }
+
+    Handler handleLinger = new Handler<Linger>() {
+        @Override
+        public void handle(Linger timeout) {
+            if (lingerTid == null || !lingerTid.equals(timeout.getTimeoutId())) {
+                return;
+            }
+            lingerTid = null;
+            addBatchedTasks(true);
+        }
+    };
+
+    Handler handleInFlight = new Handler<DStorageWrite.InFlight>() {
+        @Override
+        public void handle(DStorageWrite.InFlight report) {
+            if (!stream.getValue0().equals(report.streamId)) {
+                //not mine
+                return;
+            }
+            LOG.trace("{}storage in flight:{}", logPrefix, report.inFlightBytes);
+            storageInFlight = Pair.with(report.receivedPos, report.inFlightBytes);
+            addNewTasks();
+        }
+    };
+
     Handler handleWriteResp = new Handler<DStorageWrite.Response>() {
         @Override
         public void handle(DStorageWrite.Response resp) {
-            if(!pendingWriteReqs.remove(resp.getId())) {
+            List<KReference<byte[]>> detached = detachedWriteReqs.remove(resp.getId());
+            if (detached != null) {
+                releaseDetached(detached);
+                return;
+            }
+            List<Long> blocks = pendingWriteReqs.remove(resp.getId());
+            if(blocks == null) {
                 //not mine
                 return;
             }
             LOG.debug("{}received:{}", logPrefix, resp);
+            metrics.writeLatency.recordNanos(System.nanoTime() - resp.req.createdAt);
             if (resp.result.isSuccess()) {
-                answeredBlockPos++;
-                Pair<KReference<byte[]>, WriteCallback> ref = buffer.remove(resp.req.pos);
-                if(ref == null) {
-                    LOG.error("{}pos:{}", logPrefix, resp.req.pos);
-                    LOG.error("{}buf size:{}", logPrefix, buffer.size());
-                    throw new RuntimeException("error");
+                //callbacks still complete per block
+                for (Long pos : blocks) {
+                    answeredBlockPos++;
+                    Pair<KReference<byte[]>, WriteCallback> ref = buffer.remove(pos);
+                    if (ref == null) {
+                        LOG.error("{}pos:{}", logPrefix, pos);
+                        LOG.error("{}buf size:{}", logPrefix, buffer.size());
+                        throw new RuntimeException("error");
+                    }
+                    int length = ref.getValue0().getValue().get().length;
+                    inFlightBytes -= length;
+                    try {
+                        ref.getValue0().release();
+                    } catch (KReferenceException ex) {
+                        fail(Result.internalFailure(ex));
+                        return;
+                    }
+                    WriteResult result = new WriteResult(stream, pos, length);
+                    ref.getValue1().success(Result.success(result));
                 }
                 loadTracker.setBufferSize(stream, buffer.size());
-                try {
-                    ref.getValue0().release();
-                } catch (KReferenceException ex) {
-                    fail(Result.internalFailure(ex));
-                }
-                WriteResult result = new WriteResult(stream, resp.req.pos, resp.req.value.length);
-                ref.getValue1().success(Result.success(result));
                 addNewTasks();
             } else {
                 fail(resp.result);
@@ -174,15 +332,48 @@ public class SimpleAppendKBuffer implements KBuffer {
         }
     }
 
+    /**
+     * blocks under a pending write are detached and stay retained until its response arrives - a pooled buffer must
+     * not be reused while the storage still writes it. If the response never arrives they are left to the gc.
+     */
     private void clean() throws KReferenceException {
+        for (Map.Entry<Identifier, List<Long>> pending : pendingWriteReqs.entrySet()) {
+            List<KReference<byte[]>> refs = new ArrayList<>();
+            for (Long pos : pending.getValue()) {
+                refs.add(buffer.remove(pos).getValue0());
+            }
+            detachedWriteReqs.put(pending.getKey(), refs);
+        }
+        pendingWriteReqs.clear();
+        inFlightBytes = 0;
         for (Pair<KReference<byte[]>, WriteCallback> ref : buffer.values()) {
             ref.getValue0().release();
         }
         buffer.clear();
     }
 
+    private void releaseDetached(List<KReference<byte[]>> refs) {
+        try {
+            for (KReference<byte[]> ref : refs) {
+                ref.release();
+            }
+        } catch (KReferenceException ex) {
+            syncExHandling.fail(Result.internalFailure(ex));
+        }
+        if (closed && detachedWriteReqs.isEmpty()) {
+            proxy.unsubscribe(handleWriteResp, writePort);
+        }
+    }
+
     @Override
     public KBufferReport report() {
         return new SimpleKBufferReport(blockPos, appendPos, buffer.size());
     }
+
+    public static class Linger extends Timeout {
+
+        public Linger(ScheduleTimeout st) {
+            super(st);
+        }
+    }
 }
@@ -24,6 +24,44 @@ import se.sics.kompics.config.Config;
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class KCacheConfig {
+    public static class Names {
+        public static String MAX_BYTES = "storage.cache.maxBytes";
+        public static String PROTECTED_RATIO = "storage.cache.protectedRatio";
+        public static String READ_AHEAD = "storage.cache.readAhead";
+        public static String MAX_OUTSTANDING_READS = "storage.cache.maxOutstandingReads";
+        public static String PREFETCH_TTL = "storage.cache.prefetchTTL";
+    }
+    /**
+     * 0 - unbounded, blocks live as long as some reader hints them
+     */
+    public static final long DEFAULT_MAX_BYTES = 0;
+    public static final double DEFAULT_PROTECTED_RATIO = 0.8;
+    /**
+     * blocks read ahead of a sequential reader - 0 disables read ahead
+     */
+    public static final int DEFAULT_READ_AHEAD = 0;
+    /**
+     * read ahead is not started while this many storage reads are outstanding
+     */
+    public static final int DEFAULT_MAX_OUTSTANDING_READS = 4;
+    public static final long DEFAULT_PREFETCH_TTL = 30000; //30s
+    
     public final long extendedCacheCleanPeriod = 1000;
-    public KCacheConfig(Config config) {}
+    public final long maxBytes;
+    public final double protectedRatio;
+    public final int readAhead;
+    public final int maxOutstandingReads;
+    public final long prefetchTTL;
+    
+    public KCacheConfig(Config config) {
+        maxBytes = config.getValueOrDefault(Names.MAX_BYTES, DEFAULT_MAX_BYTES);
+        protectedRatio = config.getValueOrDefault(Names.PROTECTED_RATIO, DEFAULT_PROTECTED_RATIO);
+        readAhead = config.getValueOrDefault(Names.READ_AHEAD, DEFAULT_READ_AHEAD);
+        maxOutstandingReads = config.getValueOrDefault(Names.MAX_OUTSTANDING_READS, DEFAULT_MAX_OUTSTANDING_READS);
+        prefetchTTL = config.getValueOrDefault(Names.PREFETCH_TTL, DEFAULT_PREFETCH_TTL);
+    }
+    
+    public boolean bounded() {
+        return maxBytes > 0;
+    }
 }
@@ -23,5 +23,21 @@ package se.sics.nstream.storage.cache;
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public interface KCacheReport {
-    
+    /**
+     * reads served from cached blocks
+     */
+    public long hits();
+    /**
+     * reads that had to wait for an external read
+     */
+    public long misses();
+    /**
+     * hinted blocks already cached for another reader or held by the system
+     */
+    public long sharedHits();
+    public long evictions();
+    /**
+     * bytes held by the cache
+     */
+    public long bytes();
 }
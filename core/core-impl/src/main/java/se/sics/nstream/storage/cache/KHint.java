@@ -18,10 +18,13 @@
  */
 package se.sics.nstream.storage.cache;
 
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import se.sics.nstream.util.BlockHelper;
 import se.sics.nstream.util.FileBaseDetails;
 import se.sics.nstream.util.range.KBlock;
@@ -41,13 +44,32 @@ public class KHint {
             this.blocks = blocks;
         }
         
+        public Summary(long lStamp, BitSet blocks) {
+            this(lStamp, new BlockSet(blocks));
+        }
+
         public Summary copy() {
-            return new Summary(lStamp, new TreeSet<>(blocks));
+            return new Summary(lStamp, (BitSet) bitmap().clone());
+        }
+
+        /**
+         * the blocks as a bitmap - shared, do not modify
+         */
+        public BitSet bitmap() {
+            if (blocks instanceof BlockSet) {
+                return ((BlockSet) blocks).bits;
+            }
+            BitSet bits = new BitSet();
+            for (Integer blockNr : blocks) {
+                bits.set(blockNr);
+            }
+            return bits;
         }
 
         public Expanded expand(FileBaseDetails baseDetails) {
             Map<Long, KBlock> futureReads = new TreeMap<>();
-            for (Integer blockNr : blocks) {
+            BitSet bits = bitmap();
+            for (int blockNr = bits.nextSetBit(0); blockNr >= 0; blockNr = bits.nextSetBit(blockNr + 1)) {
                 KBlock blockRange = BlockHelper.getBlockRange(blockNr, baseDetails);
                 futureReads.put(blockRange.lowerAbsEndpoint(), blockRange);
             }
@@ -65,4 +87,60 @@ public class KHint {
             this.futureReads = futureReads;
         }
     }
+
+    /**
+     * read only Set view over a bitmap of block numbers - iterates in ascending order, like the TreeSet it replaces,
+     * without boxing on contains
+     */
+    public static class BlockSet extends AbstractSet<Integer> {
+
+        private final BitSet bits;
+        private final int size;
+
+        public BlockSet(BitSet bits) {
+            this.bits = bits;
+            this.size = bits.cardinality();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Integer)) {
+                return false;
+            }
+            int blockNr = (Integer) o;
+            return blockNr >= 0 && bits.get(blockNr);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                private int next = bits.nextSetBit(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public Integer next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    int current = next;
+                    next = bits.nextSetBit(current + 1);
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("read only");
+                }
+            };
+        }
+    }
 }
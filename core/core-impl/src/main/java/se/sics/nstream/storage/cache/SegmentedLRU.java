@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte accounting and eviction order for cached blocks. New blocks enter the probation segment, a second access
+ * promotes them to the protected segment. Victims come from probation first, so a block read by a single reader does
+ * not push out blocks shared by several readers.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+class SegmentedLRU {
+
+    private final long protectedCapacity;
+    //access ordered - eldest first
+    private final LinkedHashMap<Long, Long> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Long, Long> protectedSeg = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+
+    SegmentedLRU(long protectedCapacity) {
+        this.protectedCapacity = protectedCapacity;
+    }
+
+    void add(long pos, long bytes) {
+        remove(pos);
+        probation.put(pos, bytes);
+        probationBytes += bytes;
+    }
+
+    void touch(long pos) {
+        Long bytes = probation.remove(pos);
+        if (bytes == null) {
+            //refreshes access order
+            protectedSeg.get(pos);
+            return;
+        }
+        probationBytes -= bytes;
+        protectedSeg.put(pos, bytes);
+        protectedBytes += bytes;
+        //demote overflow back to probation as most recent
+        Iterator<Map.Entry<Long, Long>> it = protectedSeg.entrySet().iterator();
+        while (protectedBytes > protectedCapacity && protectedSeg.size() > 1 && it.hasNext()) {
+            Map.Entry<Long, Long> eldest = it.next();
+            it.remove();
+            protectedBytes -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue();
+        }
+    }
+
+    void remove(long pos) {
+        Long bytes = probation.remove(pos);
+        if (bytes != null) {
+            probationBytes -= bytes;
+            return;
+        }
+        bytes = protectedSeg.remove(pos);
+        if (bytes != null) {
+            protectedBytes -= bytes;
+        }
+    }
+
+    /**
+     * @param keep block that cannot be evicted
+     * @return eldest block of probation, then of protected, null if there is nothing to evict
+     */
+    Long victim(long keep) {
+        for (Long pos : probation.keySet()) {
+            if (pos != keep) {
+                return pos;
+            }
+        }
+        for (Long pos : protectedSeg.keySet()) {
+            if (pos != keep) {
+                return pos;
+            }
+        }
+        return null;
+    }
+
+    long bytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    void clear() {
+        probation.clear();
+        protectedSeg.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+}
@@ -18,10 +18,10 @@
  */
 package se.sics.nstream.storage.cache;
 
-import com.google.common.collect.Sets;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -49,7 +49,10 @@ import se.sics.nstream.StreamId;
 import se.sics.nstream.storage.durable.DStoragePort;
 import se.sics.nstream.storage.durable.events.DStorageRead;
 import se.sics.nstream.storage.durable.util.MyStream;
+import se.sics.nstream.util.BlockHelper;
+import se.sics.nstream.util.FileBaseDetails;
 import se.sics.nstream.util.actuator.ComponentLoadTracking;
+import se.sics.nstream.util.actuator.StreamMetrics;
 import se.sics.nstream.util.range.KBlock;
 import se.sics.nstream.util.range.KPiece;
 import se.sics.nstream.util.range.KRange;
@@ -65,6 +68,7 @@ public class SimpleKCache implements KCache {
     private String logPrefix = "";
 
     private final KCacheConfig cacheConfig;
+    private final FileBaseDetails fileDetails;
     private final Pair<StreamId, MyStream> stream;
     //**************************************************************************
     private final Positive<DStoragePort> readPort;
@@ -72,6 +76,7 @@ public class SimpleKCache implements KCache {
     private final ComponentProxy proxy;
     private final DelayedExceptionSyncHandler syncExHandling;
     private final ComponentLoadTracking loadTracker;
+    private final StreamMetrics metrics;
     //**************************************************************************
     //blocks maintained by actual cache reads
     final TreeMap<Long, Pair<KBlock, CacheKReference>> cacheRef = new TreeMap<>();
@@ -84,15 +89,40 @@ public class SimpleKCache implements KCache {
     final TreeMap<Long, Pair<KBlock, List<Identifier>>> pendingCacheFetch = new TreeMap<>();
     final Map<Long, List<Pair<KRange, ReadCallback>>> delayedReads = new HashMap<>();
     //**************************************************************************
+    //byte budget - only used in bounded mode
+    private final SegmentedLRU lru;
+    //blocks evicted while still hinted - <blockPos, <blockRange, readerHeads>> - refetched on read
+    final TreeMap<Long, Pair<KBlock, Set<Identifier>>> evicted = new TreeMap<>();
+    private long pendingBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long sharedHits = 0;
+    private long fetches = 0;
+    private long evictions = 0;
+    private long evictedBytes = 0;
+    //**************************************************************************
+    //speculative reads - <blockPos, blockRange>
+    final Map<Long, KBlock> pendingPrefetch = new HashMap<>();
+    //landed speculative reads - we hold them (and they are visible in systemRef) until hinted, expired or evicted
+    //insertion ordered - eldest first
+    final Map<Long, PrefetchedBlock> prefetched = new LinkedHashMap<>();
+    private long prefetchBytes = 0;
+    private long prefetchIssued = 0;
+    private long prefetchHits = 0;
+    private long prefetchWasted = 0;
+    //**************************************************************************
     private UUID extendedCacheCleanTid;
 
     public SimpleKCache(Config config, ComponentProxy proxy, DelayedExceptionSyncHandler syncExHandling, ComponentLoadTracking loadTracker,
-            Pair<StreamId, MyStream> stream) {
+            FileBaseDetails fileDetails, Pair<StreamId, MyStream> stream) {
         this.cacheConfig = new KCacheConfig(config);
+        this.fileDetails = fileDetails;
+        this.lru = new SegmentedLRU((long) (cacheConfig.maxBytes * cacheConfig.protectedRatio));
         this.proxy = proxy;
         this.stream = stream;
         this.syncExHandling = syncExHandling;
         this.loadTracker = loadTracker;
+        this.metrics = loadTracker.streamMetrics(stream);
         this.readPort = proxy.getNegative(DStoragePort.class).getPair();
         this.timerPort = proxy.getNegative(Timer.class).getPair();
         this.proxy.subscribe(handleExtendedCacheClean, timerPort);
@@ -171,6 +201,8 @@ public class SimpleKCache implements KCache {
             }
             addToPendingFetch(reader, f.getValue());
         }
+        pruneEvicted(reader, rh);
+        readAhead(rh);
     }
 
     private boolean checkCache(ReaderHead rh, long blockPos) {
@@ -179,6 +211,8 @@ public class SimpleKCache implements KCache {
             CacheKReference cRef = cached.getValue1();
             checkCRef(cRef);
             rh.add(blockPos, cRef);
+            lru.touch(blockPos);
+            sharedHits++;
             return true;
         }
         return false;
@@ -192,9 +226,18 @@ public class SimpleKCache implements KCache {
             if (base.retain()) {
                 CacheKReference cRef = CacheKReference.createInstance(base);
                 rh.add(blockPos, cRef);
-                cacheRef.put(blockPos, Pair.with(cached.getValue0(), cRef));
+                cachePut(blockPos, cached.getValue0(), cRef);
                 silentRelease(cRef);
                 silentRelease(base);
+                PrefetchedBlock pb = prefetched.remove(blockPos);
+                if (pb != null) {
+                    //the cache holds it now
+                    silentRelease(pb.base);
+                    prefetchBytes -= blockSize(pb.blockRange);
+                    prefetchHits++;
+                } else {
+                    sharedHits++;
+                }
                 return true;
             }
         }
@@ -208,10 +251,24 @@ public class SimpleKCache implements KCache {
             List<Identifier> rhList = new LinkedList<>();
             cacheFetch = Pair.with(blockRange, rhList);
             pendingCacheFetch.put(blockPos, cacheFetch);
-            //read from external resource
-            proxy.trigger(new DStorageRead.Request(stream.getValue0(), blockRange), readPort);
+            pendingBytes += blockSize(blockRange);
+            if (pendingPrefetch.remove(blockPos) != null) {
+                //already being read ahead - the response will be handled as a cache fetch
+                prefetchBytes -= blockSize(blockRange);
+                prefetchHits++;
+            } else {
+                fetches++;
+                //read from external resource
+                proxy.trigger(new DStorageRead.Request(stream.getValue0(), blockRange), readPort);
+            }
         }
         cacheFetch.getValue1().add(reader);
+        //heads that lost this block to eviction get it with this fetch
+        Pair<KBlock, Set<Identifier>> ev = evicted.remove(blockPos);
+        if (ev != null) {
+            ev.getValue1().remove(reader);
+            cacheFetch.getValue1().addAll(ev.getValue1());
+        }
     }
 
     @Override
@@ -226,6 +283,7 @@ public class SimpleKCache implements KCache {
             //crash marker - things will already crash here, but this is hidden from java so...
             throw crashingException;
         }
+        pruneEvicted(reader, null);
         //the pendingCacheFetches are cleaned when the answers return - no need to clean that here
     }
 
@@ -263,6 +321,9 @@ public class SimpleKCache implements KCache {
                 KReference<byte[]> base = cRef.value();
                 //being enclosed by a valid cRef, base will remain valid
                 readFromBlock(blockPos, readRange, base, delayedResult);
+                lru.touch(blockPos);
+                hits++;
+                metrics.cacheHits.inc();
                 return;
             }
             if (blockRange.isConnected(readRange)) {
@@ -274,6 +335,12 @@ public class SimpleKCache implements KCache {
             }
         }
 
+        //evicted while hinted - fetch it again for the heads that lost it
+        Map.Entry<Long, Pair<KBlock, Set<Identifier>>> ev = evicted.floorEntry(readRange.lowerAbsEndpoint());
+        if (ev != null && ev.getValue().getValue0().encloses(readRange)) {
+            Identifier reader = ev.getValue().getValue1().iterator().next();
+            addToPendingFetch(reader, ev.getValue().getValue0());
+        }
         //check that there is an outstanding external resource read
         Map.Entry<Long, Pair<KBlock, List<Identifier>>> pending = pendingCacheFetch.floorEntry(readRange.lowerAbsEndpoint());
         if (pending == null) {
@@ -299,6 +366,8 @@ public class SimpleKCache implements KCache {
             delayedReads.put(blockPos, pendingReads);
         }
         pendingReads.add(Pair.with(readRange, delayedResult));
+        misses++;
+        metrics.cacheMisses.inc();
     }
 
     Handler handleExtendedCacheClean = new Handler<ExtendedCacheClean>() {
@@ -315,6 +384,7 @@ public class SimpleKCache implements KCache {
                     LOG.debug("{}ref count", logPrefix);
                 }
             }
+            expirePrefetched();
             LOG.debug("{}cache size - cache ref:{}, system ref:{}", new Object[]{logPrefix, cacheRef.size(), systemRef.size()});
         }
     };
@@ -322,8 +392,17 @@ public class SimpleKCache implements KCache {
     Handler handleReadResp = new Handler<DStorageRead.Response>() {
         @Override
         public void handle(DStorageRead.Response resp) {
+            if (!resp.req.streamId.equals(stream.getValue0())) {
+                //the read port is shared by all the caches of the component
+                return;
+            }
             LOG.debug("{}received:{}", logPrefix, resp);
+            metrics.readLatency.recordNanos(System.nanoTime() - resp.req.createdAt);
             loadTracker.setCacheSize(stream, cacheRef.size(), systemRef.size());
+            if (pendingPrefetch.containsKey(resp.req.readRange.lowerAbsEndpoint())) {
+                prefetchLanded(resp);
+                return;
+            }
             if (resp.result.isSuccess()) {
                 KBlock blockRange = resp.req.readRange;
                 long blockPos = blockRange.lowerAbsEndpoint();
@@ -334,6 +413,7 @@ public class SimpleKCache implements KCache {
                 //add cache read to waiting readHeads
                 Pair<KBlock, List<Identifier>> waitingH = pendingCacheFetch.remove(blockPos);
                 if (waitingH != null) {
+                    pendingBytes -= blockSize(blockRange);
                     for (Identifier headId : waitingH.getValue1()) {
                         ReaderHead rh = readerHeads.get(headId);
                         if (rh != null) {
@@ -356,7 +436,7 @@ public class SimpleKCache implements KCache {
                 silentRelease(cRef);
                 if (cRef.isValid()) {
                     //some reader head retained it
-                    cacheRef.put(blockPos, Pair.with(blockRange, cRef));
+                    cachePut(blockPos, blockRange, cRef);
                 } else if (base.isValid()) {
                     //someone in the system retained it
                     systemRef.put(blockPos, Pair.with(blockRange, base));
@@ -367,6 +447,175 @@ public class SimpleKCache implements KCache {
         }
     };
 
+    //*******************************EVICTION***********************************
+    private void cachePut(long blockPos, KBlock blockRange, CacheKReference cRef) {
+        cacheRef.put(blockPos, Pair.with(blockRange, cRef));
+        lru.add(blockPos, blockSize(blockRange));
+        evict(blockPos);
+    }
+
+    /**
+     * bytes of outstanding external reads count against the budget - they will land in the cache. Read ahead bytes
+     * count as well, same as when read ahead is admitted, and landed read ahead blocks are the first to go
+     *
+     * @param keep the block that was just cached - the readers wait for it
+     */
+    private void evict(long keep) {
+        if (!cacheConfig.bounded()) {
+            return;
+        }
+        while (budgetedBytes() > cacheConfig.maxBytes) {
+            if (!prefetched.isEmpty()) {
+                Map.Entry<Long, PrefetchedBlock> eldest = prefetched.entrySet().iterator().next();
+                prefetched.remove(eldest.getKey());
+                dropPrefetched(eldest.getKey(), eldest.getValue());
+                continue;
+            }
+            Long victim = lru.victim(keep);
+            if (victim == null) {
+                return;
+            }
+            evictBlock(victim);
+        }
+    }
+
+    private void evictBlock(long pos) {
+        Pair<KBlock, CacheKReference> cached = cacheRef.remove(pos);
+        lru.remove(pos);
+        if (cached == null) {
+            return;
+        }
+        KBlock blockRange = cached.getValue0();
+        CacheKReference cRef = cached.getValue1();
+        //keep the base valid while we look for other holders
+        KReference<byte[]> base = cRef.value();
+        boolean retained = base.retain();
+        Set<Identifier> heads = new HashSet<>();
+        for (Map.Entry<Identifier, ReaderHead> rh : readerHeads.entrySet()) {
+            try {
+                if (rh.getValue().evict(pos)) {
+                    heads.add(rh.getKey());
+                }
+            } catch (KReferenceException ex) {
+                //OUR fault - cRef problem - ReaderHead/cRef
+                RuntimeException crashingException = new IllegalStateException("OUR cRef problem");
+                fail(Result.internalFailure(crashingException));
+                //crash marker - things will already crash here, but this is hidden from java so...
+                throw crashingException;
+            }
+        }
+        if (!heads.isEmpty()) {
+            evicted.put(pos, Pair.with(blockRange, heads));
+        }
+        if (retained) {
+            silentRelease(base);
+            if (base.isValid()) {
+                //someone in the system still holds it - it does not count against our budget
+                systemRef.put(pos, Pair.with(blockRange, base));
+            }
+        }
+        evictions++;
+        evictedBytes += blockSize(blockRange);
+        LOG.debug("{}evicted:{} cache bytes:{} pending bytes:{}", new Object[]{logPrefix, pos, lru.bytes(), pendingBytes});
+    }
+
+    /**
+     * the reader no longer waits for blocks it stopped hinting or got back from cache/system
+     *
+     * @param rh null if the reader is gone
+     */
+    private void pruneEvicted(Identifier reader, ReaderHead rh) {
+        Iterator<Map.Entry<Long, Pair<KBlock, Set<Identifier>>>> it = evicted.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Pair<KBlock, Set<Identifier>>> ev = it.next();
+            Set<Identifier> heads = ev.getValue().getValue1();
+            if (rh != null && rh.preCaching.contains(ev.getKey())) {
+                continue;
+            }
+            if (heads.remove(reader) && heads.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    //*******************************READ_AHEAD*********************************
+    /**
+     * a reader moving forward over consecutive hints will most likely hint the next blocks soon - read them before
+     */
+    private void readAhead(ReaderHead rh) {
+        if (cacheConfig.readAhead <= 0 || !rh.sequential()) {
+            return;
+        }
+        int lastHinted = BlockHelper.getBlockNrFromPos(rh.lastHintMax, fileDetails);
+        int lastAhead = Math.min(lastHinted + cacheConfig.readAhead, fileDetails.nrBlocks - 1);
+        for (int blockNr = lastHinted + 1; blockNr <= lastAhead; blockNr++) {
+            if (pendingCacheFetch.size() + pendingPrefetch.size() >= cacheConfig.maxOutstandingReads) {
+                return;
+            }
+            KBlock blockRange = BlockHelper.getBlockRange(blockNr, fileDetails);
+            long blockPos = blockRange.lowerAbsEndpoint();
+            if (cacheRef.containsKey(blockPos) || systemRef.containsKey(blockPos)
+                    || pendingCacheFetch.containsKey(blockPos) || pendingPrefetch.containsKey(blockPos)) {
+                continue;
+            }
+            long size = blockSize(blockRange);
+            if (cacheConfig.bounded() && budgetedBytes() + size > cacheConfig.maxBytes) {
+                return;
+            }
+            pendingPrefetch.put(blockPos, blockRange);
+            prefetchBytes += size;
+            prefetchIssued++;
+            LOG.debug("{}read ahead:{}", logPrefix, blockNr);
+            proxy.trigger(new DStorageRead.Request(stream.getValue0(), blockRange), readPort);
+        }
+    }
+
+    private void prefetchLanded(DStorageRead.Response resp) {
+        KBlock blockRange = pendingPrefetch.remove(resp.req.readRange.lowerAbsEndpoint());
+        long blockPos = blockRange.lowerAbsEndpoint();
+        if (!resp.result.isSuccess()) {
+            //speculative - nobody is waiting on it
+            LOG.warn("{}read ahead:{} failed", logPrefix, blockRange.parentBlock());
+            prefetchBytes -= blockSize(blockRange);
+            return;
+        }
+        KReference<byte[]> base = KReferenceFactory.getReference(resp.result.getValue());
+        prefetched.put(blockPos, new PrefetchedBlock(blockRange, base));
+        systemRef.put(blockPos, Pair.with(blockRange, base));
+    }
+
+    private void expirePrefetched() {
+        Iterator<Map.Entry<Long, PrefetchedBlock>> it = prefetched.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, PrefetchedBlock> next = it.next();
+            PrefetchedBlock pb = next.getValue();
+            pb.age++;
+            if (pb.age * cacheConfig.extendedCacheCleanPeriod < cacheConfig.prefetchTTL) {
+                continue;
+            }
+            it.remove();
+            dropPrefetched(next.getKey(), pb);
+        }
+    }
+
+    private void dropPrefetched(long blockPos, PrefetchedBlock pb) {
+        Pair<KBlock, KReference<byte[]>> sRef = systemRef.get(blockPos);
+        if (sRef != null && sRef.getValue1() == pb.base) {
+            systemRef.remove(blockPos);
+        }
+        silentRelease(pb.base);
+        prefetchBytes -= blockSize(pb.blockRange);
+        prefetchWasted++;
+    }
+
+    private long budgetedBytes() {
+        return lru.bytes() + pendingBytes + prefetchBytes;
+    }
+
+    private long blockSize(KBlock blockRange) {
+        return blockRange.upperAbsEndpoint() - blockRange.lowerAbsEndpoint() + 1;
+    }
+
     private void fail(Result result) {
         Result cleanResult = clean();
         syncExHandling.fail(result);
@@ -393,6 +642,7 @@ public class SimpleKCache implements KCache {
             cacheRef.put(pos, cached);
             return;
         }
+        lru.remove(pos);
         KReference<byte[]> base = cRef.getValue().get();
         if (base.isValid()) {
             if (base.retain()) {
@@ -405,6 +655,15 @@ public class SimpleKCache implements KCache {
     private Result clean() {
         pendingCacheFetch.clear();
         delayedReads.clear();
+        evicted.clear();
+        lru.clear();
+        pendingBytes = 0;
+        pendingPrefetch.clear();
+        for (PrefetchedBlock pb : prefetched.values()) {
+            silentRelease(pb.base);
+        }
+        prefetched.clear();
+        prefetchBytes = 0;
         for (ReaderHead rh : readerHeads.values()) {
             try {
                 rh.releaseAll();
@@ -479,7 +738,9 @@ public class SimpleKCache implements KCache {
 
     @Override
     public KCacheReport report() {
-        return new SimpleKCacheReport(cacheRef.size(), systemRef.size());
+        return new SimpleKCacheReport(cacheRef.size(), systemRef.size(), hits, misses, sharedHits, fetches,
+                evictions, evictedBytes, lru.bytes(), pendingBytes, prefetchIssued, prefetchHits, prefetchWasted,
+                prefetchBytes);
     }
 
     public static class ExtendedCacheClean extends Timeout {
@@ -489,9 +750,26 @@ public class SimpleKCache implements KCache {
         }
     }
 
+    static class PrefetchedBlock {
+
+        final KBlock blockRange;
+        final KReference<byte[]> base;
+        //in extended cache clean rounds
+        int age = 0;
+
+        PrefetchedBlock(KBlock blockRange, KReference<byte[]> base) {
+            this.blockRange = blockRange;
+            this.base = base;
+        }
+    }
+
     private static class ReaderHead {
 
         public long hintLStamp;
+        //sequential progress detection across hints
+        public long lastHintMin = -1;
+        public long lastHintMax = -1;
+        public int seqStreak = 0;
         public final Set<Long> preCaching = new HashSet<>();
         public final Map<Long, CacheKReference> caching = new HashMap<>();
 
@@ -502,6 +780,48 @@ public class SimpleKCache implements KCache {
             }
         }
 
+        /**
+         * the block is still hinted - it goes back to preCaching until it is fetched again
+         *
+         * @return true if this head held the block
+         */
+        public boolean evict(long pos) throws KReferenceException {
+            CacheKReference sRef = caching.remove(pos);
+            if (sRef == null) {
+                return false;
+            }
+            preCaching.add(pos);
+            sRef.release();
+            return true;
+        }
+
+        /**
+         * at least two consecutive hints moved forward
+         */
+        public boolean sequential() {
+            return seqStreak > 0;
+        }
+
+        private void track(KHint.Expanded hint) {
+            if (hint.futureReads.isEmpty()) {
+                seqStreak = 0;
+                return;
+            }
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (long pos : hint.futureReads.keySet()) {
+                min = Math.min(min, pos);
+                max = Math.max(max, pos);
+            }
+            if (lastHintMax >= 0 && max > lastHintMax && min >= lastHintMin) {
+                seqStreak++;
+            } else {
+                seqStreak = 0;
+            }
+            lastHintMin = min;
+            lastHintMax = max;
+        }
+
         public void releaseAll() throws KReferenceException {
             for (CacheKReference sRef : caching.values()) {
                 sRef.release();
@@ -522,25 +842,33 @@ public class SimpleKCache implements KCache {
             if (hint.lStamp <= hintLStamp) {
                 return Pair.with(fetchMap, cleanSet);
             }
-
-            Set<Long> releaseSet = new HashSet<>(Sets.difference(caching.keySet(), hint.futureReads.keySet()));
-            releaseSet.addAll(Sets.difference(preCaching, hint.futureReads.keySet()));
-            Set<Long> fetchSet = new HashSet<>(Sets.difference(hint.futureReads.keySet(), caching.keySet()));
-
-            for (Long pos : releaseSet) {
-                preCaching.remove(pos);
-                CacheKReference sRef = caching.remove(pos);
-                if (sRef != null) {
+            track(hint);
+
+            //single pass over each side - no intermediary difference sets
+            Iterator<Map.Entry<Long, CacheKReference>> cachingIt = caching.entrySet().iterator();
+            while (cachingIt.hasNext()) {
+                Map.Entry<Long, CacheKReference> c = cachingIt.next();
+                if (!hint.futureReads.containsKey(c.getKey())) {
+                    cachingIt.remove();
+                    CacheKReference sRef = c.getValue();
                     sRef.release();
                     if (!sRef.isValid()) {
-                        cleanSet.add(pos);
+                        cleanSet.add(c.getKey());
                     }
                 }
             }
+            Iterator<Long> preCachingIt = preCaching.iterator();
+            while (preCachingIt.hasNext()) {
+                if (!hint.futureReads.containsKey(preCachingIt.next())) {
+                    preCachingIt.remove();
+                }
+            }
 
-            for (Long pos : fetchSet) {
-                preCaching.add(pos);
-                fetchMap.put(pos, hint.futureReads.get(pos));
+            for (Map.Entry<Long, KBlock> f : hint.futureReads.entrySet()) {
+                if (!caching.containsKey(f.getKey())) {
+                    preCaching.add(f.getKey());
+                    fetchMap.put(f.getKey(), f.getValue());
+                }
             }
             return Pair.with(fetchMap, cleanSet);
         }
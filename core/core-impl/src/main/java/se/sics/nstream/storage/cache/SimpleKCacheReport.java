@@ -24,9 +24,74 @@ package se.sics.nstream.storage.cache;
 public class SimpleKCacheReport implements KCacheReport {
     public final int cacheSize;
     public final int extendedCacheSize;
+    public final long hits;
+    public final long misses;
+    public final long sharedHits;
+    public final long fetches;
+    public final long evictions;
+    public final long evictedBytes;
+    public final long cachedBytes;
+    public final long pendingBytes;
+    public final long prefetchIssued;
+    public final long prefetchHits;
+    public final long prefetchWasted;
+    public final long prefetchBytes;
     
-    public SimpleKCacheReport(int cacheSize, int extendedCacheSize) {
+    public SimpleKCacheReport(int cacheSize, int extendedCacheSize, long hits, long misses, long sharedHits, 
+            long fetches, long evictions, long evictedBytes, long cachedBytes, long pendingBytes, 
+            long prefetchIssued, long prefetchHits, long prefetchWasted, long prefetchBytes) {
         this.cacheSize = cacheSize;
         this.extendedCacheSize = extendedCacheSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.sharedHits = sharedHits;
+        this.fetches = fetches;
+        this.evictions = evictions;
+        this.evictedBytes = evictedBytes;
+        this.cachedBytes = cachedBytes;
+        this.pendingBytes = pendingBytes;
+        this.prefetchIssued = prefetchIssued;
+        this.prefetchHits = prefetchHits;
+        this.prefetchWasted = prefetchWasted;
+        this.prefetchBytes = prefetchBytes;
+    }
+    
+    /**
+     * read ahead blocks that were hinted by the time they were read or while held
+     */
+    public double prefetchHitRate() {
+        return prefetchIssued == 0 ? 0 : (double) prefetchHits / prefetchIssued;
+    }
+
+    @Override
+    public long hits() {
+        return hits;
+    }
+
+    @Override
+    public long misses() {
+        return misses;
+    }
+
+    @Override
+    public long sharedHits() {
+        return sharedHits;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public long bytes() {
+        return cachedBytes;
+    }
+    
+    @Override
+    public String toString() {
+        return "cache<blocks:" + cacheSize + ",ext:" + extendedCacheSize + ",hits:" + hits + ",misses:" + misses 
+                + ",shared:" + sharedHits + ",evictions:" + evictions + ",bytes:" + cachedBytes 
+                + ",prefetch:" + prefetchHits + "/" + prefetchIssued + ">";
     }
 }
@@ -32,6 +32,7 @@ public class DStoragePort extends PortType {
         request(DStorageRead.Complete.class);
         request(DStorageWrite.Request.class);
         indication(DStorageWrite.Response.class);
+        indication(DStorageWrite.InFlight.class);
         request(DStorageWrite.Complete.class);
     }
 }
@@ -94,7 +94,14 @@ public class DStreamMngrComp extends ComponentDefinition {
     public void handle(DStreamConnect.Request req) {
       Pair<Init, Long> init = storageProvider.initiate(req.stream.getValue1().resource);
       LOG.info("{}connecting stream:{} pos:{}", logPrefix, req.stream.getValue0(), init.getValue1());
-      Component streamStorageComp = create(storageProvider.getStorageDefinition(), init.getValue0());
+      Component streamStorageComp;
+      try {
+        streamStorageComp = create(storageProvider.getStorageDefinition(), init.getValue0());
+      } catch (RuntimeException ex) {
+        LOG.warn("{}could not create storage for stream:{}", logPrefix, req.stream.getValue0());
+        storageProvider.abort(init.getValue0());
+        throw ex;
+      }
 
       storageChannel.addChannel(req.stream.getValue0(), streamStorageComp.getPositive(DStoragePort.class));
       connect(timerPort, streamStorageComp.getNegative(Timer.class), Channel.TWO_WAY);
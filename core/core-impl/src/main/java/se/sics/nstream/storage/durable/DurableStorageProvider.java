@@ -34,4 +34,6 @@ public interface DurableStorageProvider<D extends ComponentDefinition> {
     public StreamEndpoint getEndpoint();
     public Class<D> getStorageDefinition();
     public <I extends Init<D>> Pair<I, Long> initiate(StreamResource resource);
+    //the storage component could not be created - release what initiate acquired for it
+    public void abort(Init<D> init);
 }
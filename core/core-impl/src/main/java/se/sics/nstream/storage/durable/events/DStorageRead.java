@@ -35,6 +35,10 @@ public class DStorageRead {
     public final Identifier eventId;
     public final StreamId streamId;
     public final KBlock readRange;
+    /**
+     * System.nanoTime() - storage read latency
+     */
+    public final long createdAt = System.nanoTime();
 
     protected Request(Identifier eventId, StreamId streamId, KBlock readRange) {
       this.eventId = eventId;
@@ -18,6 +18,9 @@
  */
 package se.sics.nstream.storage.durable.events;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import se.sics.kompics.Direct;
 import se.sics.kompics.util.Identifier;
 import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
@@ -34,19 +37,67 @@ public class DStorageWrite {
     public final Identifier eventId;
     public final StreamId streamId;
     public final long pos;
-    public final byte[] value;
-
-    public Request(Identifier eventId, StreamId streamId, long pos, byte[] value) {
+    /**
+     * contiguous buffers - written in order starting at pos
+     */
+    public final List<byte[]> values;
+    public final long length;
+    /**
+     * System.nanoTime() - storage write latency
+     */
+    public final long createdAt = System.nanoTime();
+
+    public Request(Identifier eventId, StreamId streamId, long pos, List<byte[]> values) {
       this.eventId = eventId;
       this.streamId = streamId;
       this.pos = pos;
-      this.value = value;
+      this.values = values;
+      long l = 0;
+      for (byte[] value : values) {
+        l += value.length;
+      }
+      this.length = l;
+    }
+
+    public Request(StreamId streamId, long pos, List<byte[]> values) {
+      this(BasicIdentifiers.eventId(), streamId, pos, values);
+    }
+
+    public Request(Identifier eventId, StreamId streamId, long pos, byte[] value) {
+      this(eventId, streamId, pos, Collections.singletonList(value));
     }
 
     public Request(StreamId streamId, long pos, byte[] value) {
       this(BasicIdentifiers.eventId(), streamId, pos, value);
     }
 
+    /**
+     * @param writePos everything before it was already written
+     * @return the buffers that still need writing - the first one might be a copied tail
+     */
+    public List<byte[]> from(long writePos) {
+      if (writePos <= pos) {
+        return values;
+      }
+      List<byte[]> result = new ArrayList<>();
+      long valuePos = pos;
+      for (byte[] value : values) {
+        long valueEnd = valuePos + value.length;
+        if (valueEnd <= writePos) {
+          //already written
+        } else if (valuePos >= writePos) {
+          result.add(value);
+        } else {
+          int skip = (int) (writePos - valuePos);
+          byte[] tail = new byte[value.length - skip];
+          System.arraycopy(value, skip, tail, 0, tail.length);
+          result.add(tail);
+        }
+        valuePos = valueEnd;
+      }
+      return result;
+    }
+
     @Override
     public Identifier getId() {
       return eventId;
@@ -93,6 +144,46 @@ public class DStorageWrite {
     }
   }
 
+  /**
+   * sink side view of its writes - bytes the sink holds back waiting for more (e.g. a partial record) are not counted
+   * as in flight, so a writer bounding its unacked bytes on it does not stall on them
+   */
+  public static class InFlight implements DStreamEvent {
+
+    public final Identifier eventId;
+    public final StreamId streamId;
+    /**
+     * end of the writes the sink received
+     */
+    public final long receivedPos;
+    /**
+     * bytes the sink handed over and that are not yet acked
+     */
+    public final long inFlightBytes;
+
+    public InFlight(StreamId streamId, long receivedPos, long inFlightBytes) {
+      this.eventId = BasicIdentifiers.eventId();
+      this.streamId = streamId;
+      this.receivedPos = receivedPos;
+      this.inFlightBytes = inFlightBytes;
+    }
+
+    @Override
+    public Identifier getId() {
+      return eventId;
+    }
+
+    @Override
+    public StreamId getStreamId() {
+      return streamId;
+    }
+
+    @Override
+    public Identifier getEndpointId() {
+      return streamId.endpointId;
+    }
+  }
+
   public static class Complete implements DStreamEvent {
     public final Identifier eventId;
     public final StreamId streamId;
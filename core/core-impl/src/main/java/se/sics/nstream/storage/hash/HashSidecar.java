@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.hash;
+
+import com.google.common.base.Optional;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.javatuples.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.ktoolbox.util.managedStore.core.util.HashUtil;
+import se.sics.nstream.StreamId;
+import se.sics.nstream.storage.durable.util.MyStream;
+import se.sics.nstream.util.FileBaseDetails;
+
+/**
+ * Local file keeping the block hashes of a data stream, so that they survive restarts. Fixed size records - the record
+ * of block i is at HEADER_SIZE + i * (1 + hashSize + 4) - [present flag, hash, crc32 of blockNr and hash]. The file is
+ * memory mapped in pages of recordsPerPage records and pages are mapped on first access. A record that does not match
+ * its checksum (torn or corrupted) reads as absent.
+ * <p>
+ * The header identifies the file it was built for (length, blocks, hash alg) - on mismatch the sidecar is wiped.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HashSidecar {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashSidecar.class);
+    private String logPrefix = "";
+
+    private static final int MAGIC = 0x4b485348;
+    private static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    private static final byte PRESENT = 1;
+    private static final int CHECKSUM_SIZE = 4;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int nrBlocks;
+    private final int hashSize;
+    private final int recordSize;
+    private final int recordsPerPage;
+    private final Map<Integer, MappedByteBuffer> pages = new HashMap<>();
+
+    private HashSidecar(RandomAccessFile raf, int nrBlocks, int hashSize, int recordsPerPage, String logPrefix) {
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.nrBlocks = nrBlocks;
+        this.hashSize = hashSize;
+        this.recordSize = recordSize(hashSize);
+        this.recordsPerPage = recordsPerPage;
+        this.logPrefix = logPrefix;
+    }
+
+    public Optional<byte[]> get(int blockNr) throws IOException {
+        checkBlock(blockNr);
+        MappedByteBuffer page = page(blockNr / recordsPerPage);
+        int offset = (blockNr % recordsPerPage) * recordSize;
+        if (page.get(offset) != PRESENT) {
+            return Optional.absent();
+        }
+        byte[] hash = new byte[hashSize];
+        for (int i = 0; i < hashSize; i++) {
+            hash[i] = page.get(offset + 1 + i);
+        }
+        if (page.getInt(offset + 1 + hashSize) != checksum(blockNr, hash)) {
+            LOG.debug("{}block:{} hash record corrupted - absent", logPrefix, blockNr);
+            return Optional.absent();
+        }
+        return Optional.of(hash);
+    }
+
+    public void put(int blockNr, byte[] hash) throws IOException {
+        checkBlock(blockNr);
+        if (hash.length != hashSize) {
+            throw new IllegalArgumentException("hash size:" + hash.length + " expected:" + hashSize);
+        }
+        MappedByteBuffer page = page(blockNr / recordsPerPage);
+        int offset = (blockNr % recordsPerPage) * recordSize;
+        for (int i = 0; i < hashSize; i++) {
+            page.put(offset + 1 + i, hash[i]);
+        }
+        page.putInt(offset + 1 + hashSize, checksum(blockNr, hash));
+        //the mapped page is not forced, so the record might reach the disk in any order - get() checks the checksum
+        page.put(offset, PRESENT);
+    }
+
+    public void close() {
+        try {
+            for (MappedByteBuffer page : pages.values()) {
+                page.force();
+            }
+            pages.clear();
+            raf.close();
+        } catch (IOException ex) {
+            LOG.warn("{}closing sidecar:{}", logPrefix, ex.getMessage());
+        }
+    }
+
+    private void checkBlock(int blockNr) {
+        if (blockNr < 0 || blockNr >= nrBlocks) {
+            throw new IllegalArgumentException("block:" + blockNr + " outside [0," + nrBlocks + ")");
+        }
+    }
+
+    private static int checksum(int blockNr, byte[] hash) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(4).putInt(blockNr).array());
+        crc.update(hash);
+        return (int) crc.getValue();
+    }
+
+    static int recordSize(int hashSize) {
+        return 1 + hashSize + CHECKSUM_SIZE;
+    }
+
+    private MappedByteBuffer page(int pageNr) throws IOException {
+        MappedByteBuffer page = pages.get(pageNr);
+        if (page == null) {
+            long pageSize = (long) recordsPerPage * recordSize;
+            long pagePos = HEADER_SIZE + pageNr * pageSize;
+            //the last page only covers the remaining blocks
+            long pageRecords = Math.min(recordsPerPage, nrBlocks - (long) pageNr * recordsPerPage);
+            //mapping past the end grows the file, new records read as zero - absent
+            page = channel.map(FileChannel.MapMode.READ_WRITE, pagePos, pageRecords * recordSize);
+            pages.put(pageNr, page);
+        }
+        return page;
+    }
+
+    //**************************************************************************
+    public static Optional<HashSidecar> open(HashSidecarConfig config, FileBaseDetails fileDetails,
+            Pair<StreamId, MyStream> stream) {
+        if (!config.dir.isPresent()) {
+            return Optional.absent();
+        }
+        String logPrefix = "<" + stream.getValue1().endpoint.getEndpointName() + ":"
+                + stream.getValue1().resource.getSinkName() + ">";
+        File sidecarFile = new File(config.dir.get(), fileName(stream));
+        int hashSize = HashUtil.makeHash(new byte[0], fileDetails.hashAlg).length;
+        ByteBuffer expected = header(fileDetails.length, fileDetails.nrBlocks, fileDetails.defaultBlock.blockSize,
+                fileDetails.hashAlg, hashSize);
+        return open(sidecarFile, expected, fileDetails.nrBlocks, hashSize, config.recordsPerPage, logPrefix);
+    }
+
+    static Optional<HashSidecar> open(File sidecarFile, ByteBuffer expected, int nrBlocks, int hashSize,
+            int recordsPerPage, String logPrefix) {
+        try {
+            sidecarFile.getAbsoluteFile().getParentFile().mkdirs();
+            RandomAccessFile raf = new RandomAccessFile(sidecarFile, "rw");
+            ByteBuffer found = ByteBuffer.allocate(HEADER_SIZE);
+            raf.getChannel().read(found, 0);
+            found.flip();
+            if (!expected.equals(found)) {
+                LOG.info("{}hash sidecar:{} new or stale - resetting", logPrefix, sidecarFile);
+                raf.setLength(0);
+                raf.getChannel().write(expected, 0);
+            } else {
+                LOG.info("{}hash sidecar:{} reused", logPrefix, sidecarFile);
+            }
+            return Optional.of(new HashSidecar(raf, nrBlocks, hashSize, recordsPerPage, logPrefix));
+        } catch (IOException ex) {
+            LOG.warn("{}hash sidecar:{} unavailable - hashes kept in memory - {}",
+                    new Object[]{logPrefix, sidecarFile, ex.getMessage()});
+            return Optional.absent();
+        }
+    }
+
+    static ByteBuffer header(long length, int nrBlocks, int blockSize, String hashAlg, int hashSize) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(length);
+        header.putInt(nrBlocks);
+        header.putInt(blockSize);
+        header.putInt(hashSize);
+        header.putInt(hashAlg.hashCode());
+        header.flip();
+        return header;
+    }
+
+    private static String fileName(Pair<StreamId, MyStream> stream) {
+        String name = stream.getValue1().endpoint.getEndpointName() + "_" + stream.getValue1().resource.getSinkName();
+        return name.replaceAll("[^a-zA-Z0-9._-]", "_") + ".hashes";
+    }
+}
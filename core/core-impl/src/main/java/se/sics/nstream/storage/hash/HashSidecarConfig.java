@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.hash;
+
+import com.google.common.base.Optional;
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HashSidecarConfig {
+
+    public static class Names {
+        public static String DIR = "storage.hash.sidecar.dir";
+        public static String RECORDS_PER_PAGE = "storage.hash.sidecar.recordsPerPage";
+    }
+    /**
+     * 4096 x 20B sha hashes ~ 84KB mapped per page
+     */
+    public static final int DEFAULT_RECORDS_PER_PAGE = 4096;
+    /**
+     * absent - hashes are kept in memory only
+     */
+    public final Optional<String> dir;
+    public final int recordsPerPage;
+
+    public HashSidecarConfig(Config config) {
+        dir = Optional.fromNullable(config.getValue(Names.DIR, String.class));
+        recordsPerPage = config.getValueOrDefault(Names.RECORDS_PER_PAGE, DEFAULT_RECORDS_PER_PAGE);
+    }
+}
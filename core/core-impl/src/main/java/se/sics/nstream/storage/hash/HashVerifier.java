@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.hash;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.javatuples.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.kompics.ComponentProxy;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Positive;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.reference.KReference;
+import se.sics.ktoolbox.util.reference.KReferenceException;
+import se.sics.ktoolbox.util.result.Result;
+
+/**
+ * Owner side of the hash workers. Blocks are handed to the workers round robin and the results come back as events on
+ * the owner's thread, so callbacks run as if the check was synchronous. The queue bound is soft - verify always
+ * accepts, the owner is expected to check isFull() before requesting more blocks.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HashVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashVerifier.class);
+    private String logPrefix = "";
+
+    private final HashVerifierConfig hashConfig;
+    private final ComponentProxy proxy;
+    private final Positive<HashVerifierPort> hashPort;
+    private final List<Identifier> workers;
+    private final Backpressure backpressure;
+    //**************************************************************************
+    private final Map<Identifier, Pair<HashCheck.Request, HashCheckCallback>> pending = new HashMap<>();
+    private int nextWorker = 0;
+    private boolean wasFull = false;
+
+    public HashVerifier(HashVerifierConfig hashConfig, ComponentProxy proxy, List<Identifier> workers,
+            Backpressure backpressure) {
+        this.hashConfig = hashConfig;
+        this.proxy = proxy;
+        this.workers = workers;
+        this.backpressure = backpressure;
+        this.hashPort = proxy.getNegative(HashVerifierPort.class).getPair();
+        this.proxy.subscribe(handleChecked, hashPort);
+    }
+
+    public void close() {
+        proxy.unsubscribe(handleChecked, hashPort);
+        for (Pair<HashCheck.Request, HashCheckCallback> p : pending.values()) {
+            silentRelease(p.getValue0().block);
+            silentRelease(p.getValue0().hash);
+        }
+        pending.clear();
+    }
+
+    public boolean isFull() {
+        return pending.size() >= hashConfig.maxPending();
+    }
+
+    public int pending() {
+        return pending.size();
+    }
+
+    public void verify(String hashAlg, KReference<byte[]> block, KReference<byte[]> hash, HashCheckCallback callback) {
+        //the refs travel to another component - keep them alive until the answer
+        if (!block.retain()) {
+            callback.fail(Result.internalFailure(new IllegalStateException("released block reference")));
+            return;
+        }
+        if (!hash.retain()) {
+            silentRelease(block);
+            callback.fail(Result.internalFailure(new IllegalStateException("released hash reference")));
+            return;
+        }
+        Identifier workerId = workers.get(nextWorker);
+        nextWorker = (nextWorker + 1) % workers.size();
+        HashCheck.Request req = new HashCheck.Request(workerId, hashAlg, block, hash);
+        pending.put(req.getId(), Pair.with(req, callback));
+        if (isFull()) {
+            wasFull = true;
+        }
+        LOG.trace("{}sending:{} pending:{}", new Object[]{logPrefix, req, pending.size()});
+        proxy.trigger(req, hashPort);
+    }
+
+    Handler handleChecked = new Handler<HashCheck.Response>() {
+        @Override
+        public void handle(HashCheck.Response resp) {
+            Pair<HashCheck.Request, HashCheckCallback> p = pending.remove(resp.getId());
+            if (p == null) {
+                //closed meanwhile
+                return;
+            }
+            LOG.trace("{}received:{} pending:{}", new Object[]{logPrefix, resp, pending.size()});
+            silentRelease(p.getValue0().block);
+            silentRelease(p.getValue0().hash);
+            if (resp.result.isSuccess()) {
+                p.getValue1().success(resp.result);
+            } else {
+                p.getValue1().fail(resp.result);
+            }
+            if (wasFull && !isFull()) {
+                wasFull = false;
+                backpressure.resume();
+            }
+        }
+    };
+
+    private void silentRelease(KReference<byte[]> ref) {
+        try {
+            ref.release();
+        } catch (KReferenceException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static interface Backpressure {
+
+        /**
+         * the verifier was full and has room again
+         */
+        public void resume();
+    }
+}
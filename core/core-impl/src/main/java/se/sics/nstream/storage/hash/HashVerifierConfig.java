@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.hash;
+
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HashVerifierConfig {
+
+    public static class Names {
+        public static String WORKERS = "storage.hash.workers";
+        public static String QUEUE_PER_WORKER = "storage.hash.queuePerWorker";
+    }
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_QUEUE_PER_WORKER = 2;
+    public final int workers;
+    public final int queuePerWorker;
+
+    public HashVerifierConfig(Config config) {
+        workers = config.getValueOrDefault(Names.WORKERS, DEFAULT_WORKERS);
+        queuePerWorker = config.getValueOrDefault(Names.QUEUE_PER_WORKER, DEFAULT_QUEUE_PER_WORKER);
+    }
+
+    public int maxPending() {
+        return workers * queuePerWorker;
+    }
+}
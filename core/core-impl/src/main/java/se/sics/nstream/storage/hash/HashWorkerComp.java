@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.hash;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Start;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.managedStore.core.util.HashUtil;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.nstream.util.metrics.LatencyHistogram;
+import se.sics.nstream.util.metrics.MetricsRegistry;
+import se.sics.nstream.util.metrics.MetricsScope;
+
+/**
+ * Hashes blocks on its own scheduler slot - several workers hash in parallel and none of them block the owner.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HashWorkerComp extends ComponentDefinition {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashWorkerComp.class);
+    private String logPrefix;
+
+    Negative<HashVerifierPort> hashPort = provides(HashVerifierPort.class);
+    //shared by all the workers of the node
+    private final MetricsScope metrics;
+    private final LatencyHistogram verifyTime;
+
+    public HashWorkerComp(Init init) {
+        logPrefix = "<hw:" + init.workerId + ">";
+        metrics = MetricsRegistry.instance().scope();
+        verifyTime = metrics.latency("dela_hash_verify_us");
+        subscribe(handleStart, control);
+        subscribe(handleCheck, hashPort);
+    }
+
+    Handler handleStart = new Handler<Start>() {
+        @Override
+        public void handle(Start event) {
+            LOG.info("{}starting...", logPrefix);
+        }
+    };
+
+    Handler handleCheck = new Handler<HashCheck.Request>() {
+        @Override
+        public void handle(HashCheck.Request req) {
+            LOG.trace("{}received:{}", logPrefix, req);
+            Optional<byte[]> block = req.block.getValue();
+            Optional<byte[]> hash = req.hash.getValue();
+            if (!block.isPresent() || !hash.isPresent()) {
+                answer(req, req.answer(Result.internalFailure(new IllegalStateException("released reference"))));
+                return;
+            }
+            long start = System.nanoTime();
+            boolean valid = HashUtil.checkHash(req.hashAlg, block.get(), hash.get());
+            verifyTime.recordNanos(System.nanoTime() - start);
+            answer(req, req.answer(Result.success(valid)));
+        }
+    };
+
+    @Override
+    public void tearDown() {
+        metrics.close();
+    }
+
+    public static class Init extends se.sics.kompics.Init<HashWorkerComp> {
+
+        public final Identifier workerId;
+
+        public Init(Identifier workerId) {
+            this.workerId = workerId;
+        }
+    }
+}
@@ -20,13 +20,14 @@ package se.sics.nstream.storage.managed;
 
 import java.util.Set;
 import se.sics.kompics.util.Identifier;
-import se.sics.ktoolbox.util.managedStore.core.util.HashUtil;
 import se.sics.ktoolbox.util.reference.KReference;
 import se.sics.ktoolbox.util.result.Result;
 import se.sics.nstream.storage.AsyncIncompleteStorage;
 import se.sics.nstream.storage.AsyncOnDemandHashStorage;
 import se.sics.nstream.storage.buffer.WriteResult;
 import se.sics.nstream.storage.cache.KHint;
+import se.sics.nstream.storage.hash.HashCheckCallback;
+import se.sics.nstream.storage.hash.HashVerifier;
 import se.sics.nstream.tracker.ComponentTracker;
 import se.sics.nstream.tracker.IncompleteTracker;
 import se.sics.nstream.util.BlockHelper;
@@ -48,9 +49,12 @@ public class AppendFileMngr implements StreamControl, FileMngr.Reader, FileMngr.
     private final ComponentTracker fileTracker;
     private final AsyncOnDemandHashStorage hash;
     private final ComponentTracker hashTracker;
+    private final HashVerifier hashVerifier;
 
-    public AppendFileMngr(FileBaseDetails fileDetails, AsyncIncompleteStorage file, AsyncOnDemandHashStorage hash, int lastContainedDataBlock, int lastContainedHashBlock) {
+    public AppendFileMngr(FileBaseDetails fileDetails, AsyncIncompleteStorage file, AsyncOnDemandHashStorage hash, 
+            HashVerifier hashVerifier, int lastContainedDataBlock, int lastContainedHashBlock) {
         this.fileDetails = fileDetails;
+        this.hashVerifier = hashVerifier;
         this.file = file;
         this.fileTracker = IncompleteTracker.create(fileDetails.nrBlocks, lastContainedDataBlock);
         this.hash = hash;
@@ -170,26 +174,44 @@ public class AppendFileMngr implements StreamControl, FileMngr.Reader, FileMngr.
         hash.read(hashRange, hashRead);
     }
 
-    private void validatedWrite(final KBlock writeRange, KReference<byte[]> hash, KReference<byte[]> val, final FileBWC blockWC) {
-        if (HashUtil.checkHash(fileDetails.hashAlg, val.getValue().get(), hash.getValue().get())) {
-            fileTracker.addComponent(writeRange.parentBlock());
-            blockWC.hashResult(Result.success(true));
-            WriteCallback pieceWrite = new WriteCallback() {
+    private void validatedWrite(final KBlock writeRange, KReference<byte[]> hash, final KReference<byte[]> val, final FileBWC blockWC) {
+        HashCheckCallback hashCheck = new HashCheckCallback() {
 
-                @Override
-                public boolean fail(Result<WriteResult> result) {
-                    return blockWC.fail(result);
-                }
+            @Override
+            public boolean fail(Result<Boolean> result) {
+                blockWC.hashResult(result);
+                return false;
+            }
 
-                @Override
-                public boolean success(Result<WriteResult> result) {
-                    return blockWC.success(result);
+            @Override
+            public boolean success(Result<Boolean> result) {
+                if (result.getValue()) {
+                    write(writeRange, val, blockWC);
+                } else {
+                    blockWC.hashResult(result);
                 }
-            };
-            file.write(writeRange, val, pieceWrite);
-        } else {
-            blockWC.hashResult(Result.success(false));
-        }
+                return true;
+            }
+        };
+        hashVerifier.verify(fileDetails.hashAlg, val, hash, hashCheck);
+    }
+
+    private void write(final KBlock writeRange, KReference<byte[]> val, final FileBWC blockWC) {
+        fileTracker.addComponent(writeRange.parentBlock());
+        blockWC.hashResult(Result.success(true));
+        WriteCallback pieceWrite = new WriteCallback() {
+
+            @Override
+            public boolean fail(Result<WriteResult> result) {
+                return blockWC.fail(result);
+            }
+
+            @Override
+            public boolean success(Result<WriteResult> result) {
+                return blockWC.success(result);
+            }
+        };
+        file.write(writeRange, val, pieceWrite);
     }
     
     //TODO Alex - pos 0
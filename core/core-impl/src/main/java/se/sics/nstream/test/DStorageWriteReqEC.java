@@ -32,6 +32,14 @@ public class DStorageWriteReqEC implements EqualComparator<DStorageWrite.Request
         if(o1.pos != o2.pos) {
             return false;
         }
-        return Arrays.equals(o1.value, o2.value);
+        if(o1.values.size() != o2.values.size()) {
+            return false;
+        }
+        for(int i = 0; i < o1.values.size(); i++) {
+            if(!Arrays.equals(o1.values.get(i), o2.values.get(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 }
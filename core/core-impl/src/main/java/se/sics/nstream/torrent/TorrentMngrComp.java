@@ -18,12 +18,16 @@
  */
 package se.sics.nstream.torrent;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.sics.kompics.Channel;
+import se.sics.kompics.ClassMatchedHandler;
 import se.sics.kompics.Component;
 import se.sics.kompics.ComponentDefinition;
 import se.sics.kompics.Handler;
@@ -37,10 +41,15 @@ import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
 import se.sics.ktoolbox.util.idextractor.EventOverlayIdExtractor;
 import se.sics.ktoolbox.util.idextractor.MsgOverlayIdExtractor;
 import se.sics.ktoolbox.util.network.KAddress;
+import se.sics.ktoolbox.util.network.KContentMsg;
+import se.sics.ktoolbox.util.network.KHeader;
 import se.sics.ktoolbox.util.network.ports.One2NChannel;
 import se.sics.ktoolbox.util.result.Result;
 import se.sics.nstream.storage.durable.DStoragePort;
 import se.sics.nstream.storage.durable.DStreamControlPort;
+import se.sics.nstream.torrent.conn.msg.NetConnect;
+import se.sics.nstream.torrent.conn.msg.NetOpenTransfer;
+import se.sics.nstream.torrent.event.DormantTorrent;
 import se.sics.nstream.torrent.event.StartTorrent;
 import se.sics.nstream.torrent.event.StopTorrent;
 import se.sics.nstream.torrent.resourceMngr.ResourceMngrComp;
@@ -48,6 +57,9 @@ import se.sics.nstream.torrent.resourceMngr.ResourceMngrPort;
 import se.sics.nstream.torrent.status.event.TorrentReady;
 import se.sics.nstream.torrent.tracking.TorrentStatusPort;
 import se.sics.nstream.torrent.transfer.TransferCtrlPort;
+import se.sics.nstream.util.metrics.MetricsConfig;
+import se.sics.nstream.util.metrics.MetricsEndpoint;
+import se.sics.nstream.util.metrics.MetricsRegistry;
 
 /**
  *
@@ -78,11 +90,16 @@ public class TorrentMngrComp extends ComponentDefinition {
   private Map<UUID, OverlayId> compIdToTorrentId = new HashMap<>();
   //**************************************************************************
   private Map<OverlayId, StartTorrent.Request> pendingStarts = new HashMap<>();
+  //seeding torrents not started yet - started on the first leecher
+  private final Set<OverlayId> dormant = new HashSet<>();
+  private final MetricsConfig metricsConfig;
+  private MetricsEndpoint metricsEndpoint;
 
   public TorrentMngrComp(Init init) {
     selfAdr = init.selfAdr;
     logPrefix = "<nid:" + selfAdr.getId() + ">";
     LOG.info("{}initiating...", logPrefix);
+    metricsConfig = new MetricsConfig(config());
 
     networkChannel = One2NChannel.getChannel(logPrefix + "torrent", networkPort, new MsgOverlayIdExtractor());
     transferCtrlChannel = One2NChannel.getChannel(logPrefix + "transferCtrl", transferCtrlPort,
@@ -94,6 +111,10 @@ public class TorrentMngrComp extends ComponentDefinition {
     //TODO Alex critical - what is this for? seems fishy
     subscribe(handleTorrentReady, torrentStatusPort.getPair());
     subscribe(handleTorrentStop, torrentMngrPort);
+    subscribe(handleDormantRegister, torrentMngrPort);
+    subscribe(handleDormantUnregister, torrentMngrPort);
+    subscribe(handleNetConnect, networkPort);
+    subscribe(handleNetOpenTransfer, networkPort);
   }
 
   Handler handleStart = new Handler<Start>() {
@@ -103,9 +124,32 @@ public class TorrentMngrComp extends ComponentDefinition {
 
       baseSetup();
       baseStart();
+      startMetrics();
     }
   };
 
+  private void startMetrics() {
+    if (!metricsConfig.endpoint()) {
+      return;
+    }
+    try {
+      metricsEndpoint = MetricsEndpoint.start(MetricsRegistry.instance(), metricsConfig.httpHost,
+        metricsConfig.httpPort);
+      LOG.info("{}metrics at:http://{}:{}{}", new Object[]{logPrefix, metricsConfig.httpHost, metricsEndpoint.port(),
+        MetricsEndpoint.PATH});
+    } catch (IOException ex) {
+      LOG.warn("{}metrics endpoint not started:{}", logPrefix, ex.getMessage());
+    }
+  }
+
+  @Override
+  public void tearDown() {
+    if (metricsEndpoint != null) {
+      metricsEndpoint.stop();
+      metricsEndpoint = null;
+    }
+  }
+
   private void baseSetup() {
     resourceMngrComp = create(ResourceMngrComp.class, new ResourceMngrComp.Init(selfAdr.getId()));
     connect(resourceMngrComp.getNegative(DStreamControlPort.class), streamControlPort, Channel.TWO_WAY);
@@ -119,6 +163,7 @@ public class TorrentMngrComp extends ComponentDefinition {
     @Override
     public void handle(StartTorrent.Request req) {
       LOG.info("{}starting torrent:{}", logPrefix, req.torrentId);
+      dormant.remove(req.torrentId);
 
       Component torrentComp = create(TorrentComp.class, new TorrentComp.Init(selfAdr, req.torrentId, req.partners));
       connect(torrentComp.getNegative(Timer.class), timerPort, Channel.TWO_WAY);
@@ -169,6 +214,51 @@ public class TorrentMngrComp extends ComponentDefinition {
     }
   };
 
+  Handler handleDormantRegister = new Handler<DormantTorrent.Register>() {
+    @Override
+    public void handle(DormantTorrent.Register req) {
+      LOG.debug("{}dormant torrent:{}", logPrefix, req.torrentId);
+      if (!torrentComps.containsKey(req.torrentId)) {
+        dormant.add(req.torrentId);
+      }
+    }
+  };
+
+  Handler handleDormantUnregister = new Handler<DormantTorrent.Unregister>() {
+    @Override
+    public void handle(DormantTorrent.Unregister req) {
+      LOG.debug("{}dormant torrent:{} unregistered", logPrefix, req.torrentId);
+      dormant.remove(req.torrentId);
+    }
+  };
+
+  /**
+   * the leecher retransmits its requests - they reach the torrent once it is started
+   */
+  private void leecherKnock(OverlayId torrentId, KAddress leecher) {
+    if (dormant.remove(torrentId)) {
+      LOG.info("{}waking up torrent:{} for leecher:{}", new Object[]{logPrefix, torrentId, leecher});
+      trigger(new DormantTorrent.Wakeup(torrentId), torrentMngrPort);
+    }
+  }
+
+  ClassMatchedHandler handleNetConnect
+    = new ClassMatchedHandler<NetConnect.Request, KContentMsg<KAddress, KHeader<KAddress>, NetConnect.Request>>() {
+      @Override
+      public void handle(NetConnect.Request content, KContentMsg<KAddress, KHeader<KAddress>, NetConnect.Request> msg) {
+        leecherKnock(content.overlayId(), msg.getHeader().getSource());
+      }
+    };
+
+  ClassMatchedHandler handleNetOpenTransfer
+    = new ClassMatchedHandler<NetOpenTransfer.Request, KContentMsg<KAddress, KHeader<KAddress>, NetOpenTransfer.Request>>() {
+      @Override
+      public void handle(NetOpenTransfer.Request content,
+        KContentMsg<KAddress, KHeader<KAddress>, NetOpenTransfer.Request> msg) {
+        leecherKnock(content.overlayId(), msg.getHeader().getSource());
+      }
+    };
+
   public static class Init extends se.sics.kompics.Init<TorrentMngrComp> {
 
     public final KAddress selfAdr;
@@ -19,6 +19,7 @@
 package se.sics.nstream.torrent;
 
 import se.sics.kompics.PortType;
+import se.sics.nstream.torrent.event.DormantTorrent;
 import se.sics.nstream.torrent.event.StartTorrent;
 import se.sics.nstream.torrent.event.StopTorrent;
 
@@ -32,5 +33,8 @@ public class TorrentMngrPort extends PortType {
     indication(StartTorrent.Response.class);
     request(StopTorrent.Request.class);
     indication(StopTorrent.Response.class);
+    request(DormantTorrent.Register.class);
+    request(DormantTorrent.Unregister.class);
+    indication(DormantTorrent.Wakeup.class);
   }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.connMngr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import se.sics.nstream.FileId;
+
+/**
+ * Decides how the blocks of an advance round are spread over the open files. Each round the files that can take
+ * blocks are visited in order() and each gets up to quantum() blocks before the next one gets its turn - rounds
+ * repeat until the advance budget (the free window of the files) is spent or no file takes a block. The budget is
+ * shared by all files, so a file of a lower tier() only gets a turn in a round where no file of a higher tier placed
+ * a block.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public interface BlockScheduler {
+
+    public List<FileConnection> order(Collection<FileConnection> files);
+
+    public int quantum();
+
+    /**
+     * higher tiers are served first - files of the same tier share the budget in turns
+     */
+    public int tier(FileConnection file);
+
+    public static enum Policy {
+        SEQUENTIAL, RAREST, PRIORITY
+    }
+
+    public static class Sequential implements BlockScheduler {
+
+        /**
+         * lowest file first, as many blocks as it can take
+         */
+        @Override
+        public List<FileConnection> order(Collection<FileConnection> files) {
+            List<FileConnection> ordered = new ArrayList<>(files);
+            Collections.sort(ordered, BY_FILE_NR);
+            return ordered;
+        }
+
+        @Override
+        public int quantum() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int tier(FileConnection file) {
+            return 0;
+        }
+    }
+
+    /**
+     * all partners seed the whole torrent, so peer availability is the same for every block - what is scarce is the
+     * transfer share of a file. The file with the fewest blocks in flight goes first, one block per turn, so all open
+     * files make progress.
+     */
+    public static class Rarest implements BlockScheduler {
+
+        @Override
+        public List<FileConnection> order(Collection<FileConnection> files) {
+            List<FileConnection> ordered = new ArrayList<>(files);
+            Collections.sort(ordered, new Comparator<FileConnection>() {
+                @Override
+                public int compare(FileConnection o1, FileConnection o2) {
+                    int result = Integer.compare(o1.usedSlots(), o2.usedSlots());
+                    return result != 0 ? result : BY_FILE_NR.compare(o1, o2);
+                }
+            });
+            return ordered;
+        }
+
+        @Override
+        public int quantum() {
+            return 1;
+        }
+
+        @Override
+        public int tier(FileConnection file) {
+            return 0;
+        }
+    }
+
+    /**
+     * higher priority first - files without a priority have 0. Each priority is a tier, so a lower priority file only
+     * gets blocks the higher ones can not take. Equal priorities share in turns of quantum blocks.
+     */
+    public static class Priority implements BlockScheduler {
+
+        private final Map<Integer, Integer> priorities = new HashMap<>();
+        private final int quantum;
+
+        public Priority(Map<Integer, Integer> priorities, int quantum) {
+            this.priorities.putAll(priorities);
+            this.quantum = quantum;
+        }
+
+        private int priority(FileConnection fc) {
+            Integer priority = priorities.get(fc.getId().fileNr);
+            return priority == null ? 0 : priority;
+        }
+
+        @Override
+        public List<FileConnection> order(Collection<FileConnection> files) {
+            List<FileConnection> ordered = new ArrayList<>(files);
+            Collections.sort(ordered, new Comparator<FileConnection>() {
+                @Override
+                public int compare(FileConnection o1, FileConnection o2) {
+                    int result = Integer.compare(priority(o2), priority(o1));
+                    return result != 0 ? result : BY_FILE_NR.compare(o1, o2);
+                }
+            });
+            return ordered;
+        }
+
+        @Override
+        public int quantum() {
+            return quantum;
+        }
+
+        @Override
+        public int tier(FileConnection file) {
+            return priority(file);
+        }
+    }
+
+    /**
+     * one advance - the rounds of turns of the files
+     */
+    public static interface Turns {
+
+        /**
+         * asked at the start of each round
+         *
+         * @return the files that can take blocks, grouped by tier, highest tier first
+         */
+        public List<List<FileId>> tiers();
+
+        /**
+         * @return blocks placed, at most max - STOP ends the advance
+         */
+        public int turn(FileId fileId, int max);
+    }
+
+    public static final int STOP = -1;
+
+    public static class Rounds {
+
+        /**
+         * @return the files in scheduler order, grouped by tier
+         */
+        public static List<List<FileId>> tiers(BlockScheduler scheduler, Collection<FileConnection> files) {
+            List<List<FileId>> result = new ArrayList<>();
+            List<FileId> tier = null;
+            int tierNr = 0;
+            for (FileConnection file : scheduler.order(files)) {
+                if (tier == null || scheduler.tier(file) != tierNr) {
+                    tier = new ArrayList<>();
+                    tierNr = scheduler.tier(file);
+                    result.add(tier);
+                }
+                tier.add(file.getId());
+            }
+            return result;
+        }
+
+        /**
+         * @return the budget left
+         */
+        public static int advance(Turns turns, int budget, int quantum) {
+            boolean progress = true;
+            while (budget > 0 && progress) {
+                progress = false;
+                for (List<FileId> tier : turns.tiers()) {
+                    for (FileId fileId : tier) {
+                        int placed = turns.turn(fileId, Math.min(budget, quantum));
+                        if (placed == STOP) {
+                            return budget;
+                        }
+                        if (placed > 0) {
+                            budget -= placed;
+                            progress = true;
+                        }
+                        if (budget == 0) {
+                            return budget;
+                        }
+                    }
+                    if (progress) {
+                        //the lower tiers get what this one can not take
+                        break;
+                    }
+                }
+            }
+            return budget;
+        }
+    }
+
+    public static final Comparator<FileConnection> BY_FILE_NR = new Comparator<FileConnection>() {
+        @Override
+        public int compare(FileConnection o1, FileConnection o2) {
+            return Integer.compare(o1.getId().fileNr, o2.getId().fileNr);
+        }
+    };
+}
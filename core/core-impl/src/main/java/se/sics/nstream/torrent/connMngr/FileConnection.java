@@ -44,6 +44,8 @@ public interface FileConnection {
     //
     public void useSlot();
     public void releaseSlot();
+
+    public int usedSlots();
     //<peerId>
     public Set<Identifier> closeAll();
 }
@@ -18,6 +18,10 @@
  */
 package se.sics.nstream.torrent.connMngr;
 
+import com.google.common.base.Optional;
+import java.util.Set;
+import se.sics.nstream.util.BlockDetails;
+
 /**
  *
  * @author Alex Ormenisan <aaor@kth.se>
@@ -25,8 +29,25 @@ package se.sics.nstream.torrent.connMngr;
 public interface FilePeerConnection {
     public PeerConnection getPeerConnection();
     public FileConnection getFileConnection();
-    public void useSlot(int blockNr);
-    public void releaseSlot(int blockNr);
+    public void useSlot(int blockNr, Optional<BlockDetails> irregularBlock);
+    /**
+     * @return false if the block was not held here - already released or never assigned
+     */
+    public boolean releaseSlot(int blockNr);
+    public int usedSlots();
+    //adaptive window - sized by the SlotAllocator from the observed throughput
+    public int maxSlots();
+    public void maxSlots(int slots);
+    public boolean available();
+    /**
+     * @return observed download throughput in bytes/s, -1 until the first report
+     */
+    public double throughput();
+    public void throughput(double bytesPerSec);
+    public Set<Integer> blocks();
+    public boolean holds(int blockNr);
+    public long slotSince(int blockNr);
+    public Optional<BlockDetails> slotDetails(int blockNr);
     public boolean isActive();
     public void close();
 }
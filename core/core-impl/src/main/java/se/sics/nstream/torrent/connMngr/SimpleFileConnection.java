@@ -64,6 +64,11 @@ public class SimpleFileConnection implements FileConnection {
         totalSlots--;
     }
 
+    @Override
+    public int usedSlots() {
+        return totalSlots;
+    }
+
     @Override
     public boolean available() {
         //connection imposed limitation - like manual speed limitation or seeder communicated limitation- none so far
@@ -18,8 +18,12 @@
  */
 package se.sics.nstream.torrent.connMngr;
 
-import java.util.HashSet;
+import com.google.common.base.Optional;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import org.javatuples.Pair;
+import se.sics.nstream.util.BlockDetails;
 
 /**
  * @author Alex Ormenisan <aaor@kth.se>
@@ -27,11 +31,15 @@ import java.util.Set;
 public class SimpleFilePeerConnection implements FilePeerConnection {
     private final FileConnection fc;
     private final PeerConnection pc;
-    private final Set<Integer> blockSlots = new HashSet<>();
+    //<blockNr, <assigned at, irregular details>>
+    private final Map<Integer, Pair<Long, Optional<BlockDetails>>> blockSlots = new HashMap<>();
+    private int maxSlots;
+    private double throughput = -1;
     
-    public SimpleFilePeerConnection(FileConnection fc, PeerConnection pc) {
+    public SimpleFilePeerConnection(FileConnection fc, PeerConnection pc, int initialSlots) {
         this.fc = fc;
         this.pc = pc;
+        this.maxSlots = initialSlots;
     }
     
     @Override
@@ -45,15 +53,68 @@ public class SimpleFilePeerConnection implements FilePeerConnection {
     }
 
     @Override
-    public void useSlot(int blockNr) {
+    public void useSlot(int blockNr, Optional<BlockDetails> irregularBlock) {
         fc.useSlot();
-        blockSlots.add(blockNr);
+        blockSlots.put(blockNr, Pair.with(System.currentTimeMillis(), irregularBlock));
     }
 
     @Override
-    public void releaseSlot(int blockNr) {
+    public boolean releaseSlot(int blockNr) {
+        if (blockSlots.remove(blockNr) == null) {
+            return false;
+        }
         fc.releaseSlot();
-        blockSlots.remove(blockNr);
+        return true;
+    }
+
+    @Override
+    public int usedSlots() {
+        return blockSlots.size();
+    }
+
+    @Override
+    public int maxSlots() {
+        return maxSlots;
+    }
+
+    @Override
+    public void maxSlots(int slots) {
+        maxSlots = slots;
+    }
+
+    @Override
+    public boolean available() {
+        return blockSlots.size() < maxSlots;
+    }
+
+    @Override
+    public double throughput() {
+        return throughput;
+    }
+
+    @Override
+    public void throughput(double bytesPerSec) {
+        throughput = bytesPerSec;
+    }
+
+    @Override
+    public Set<Integer> blocks() {
+        return blockSlots.keySet();
+    }
+
+    @Override
+    public boolean holds(int blockNr) {
+        return blockSlots.containsKey(blockNr);
+    }
+
+    @Override
+    public long slotSince(int blockNr) {
+        return blockSlots.get(blockNr).getValue0();
+    }
+
+    @Override
+    public Optional<BlockDetails> slotDetails(int blockNr) {
+        return blockSlots.get(blockNr).getValue1();
     }
 
     @Override
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.connMngr;
+
+import java.util.Collection;
+
+/**
+ * Sizes the window of each peer of a file from the throughput the peer delivered in the last report. The file
+ * budget is split in proportion to throughput, so a slow or congested seeder does not hold blocks that a fast one
+ * could be fetching. Peers without a report yet get the initial window.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class SlotAllocator {
+
+    private final int fileSlots;
+    private final int minSlots;
+    private final int initialSlots;
+
+    public SlotAllocator(int fileSlots, int minSlots, int initialSlots) {
+        this.fileSlots = fileSlots;
+        this.minSlots = minSlots;
+        this.initialSlots = initialSlots;
+    }
+
+    public int fileSlots() {
+        return fileSlots;
+    }
+
+    public int initialSlots() {
+        return initialSlots;
+    }
+
+    /**
+     * Measured peers keep minSlots each and share the rest of the budget by throughput, so the windows stay within
+     * fileSlots. Only when the floors alone do not fit - more peers than fileSlots/minSlots - the windows sum past
+     * fileSlots.
+     *
+     * @param fpcs the peer connections of one file
+     */
+    public void allocate(Collection<FilePeerConnection> fpcs) {
+        double total = 0;
+        int measured = 0;
+        for (FilePeerConnection fpc : fpcs) {
+            if (fpc.throughput() >= 0) {
+                total += fpc.throughput();
+                measured++;
+            }
+        }
+        int budget = fileSlots - (fpcs.size() - measured) * initialSlots;
+        int extra = Math.max(0, budget - measured * minSlots);
+        for (FilePeerConnection fpc : fpcs) {
+            if (fpc.throughput() < 0) {
+                fpc.maxSlots(initialSlots);
+            } else if (total == 0) {
+                //nobody delivered - an even split keeps every peer probing
+                fpc.maxSlots(minSlots + extra / measured);
+            } else {
+                fpc.maxSlots(minSlots + (int) (extra * fpc.throughput() / total));
+            }
+        }
+    }
+}
@@ -20,10 +20,10 @@ package se.sics.nstream.torrent.connMngr;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Sets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -57,8 +57,23 @@ public class TorrentConnMngr {
     private final TreeMap<Identifier, KAddress> connected = new TreeMap<>();
     private final LinkedList<KAddress> connCandidates = new LinkedList<>();
 
+    private final int maxOngoingFiles;
+    private final SlotAllocator slotAllocator;
+
     public TorrentConnMngr(ComponentLoadTracking loadTracking, List<KAddress> peers) {
+        this(loadTracking, peers, MAX_ONGOING_FILES);
+    }
+
+    public TorrentConnMngr(ComponentLoadTracking loadTracking, List<KAddress> peers, int maxOngoingFiles) {
+        //a single peer may fill the whole file buffer
+        this(loadTracking, peers, maxOngoingFiles, new SlotAllocator(MAX_FILE_BUF, 1, MAX_FILE_BUF));
+    }
+
+    public TorrentConnMngr(ComponentLoadTracking loadTracking, List<KAddress> peers, int maxOngoingFiles,
+        SlotAllocator slotAllocator) {
         this.loadTracking = loadTracking;
+        this.maxOngoingFiles = maxOngoingFiles;
+        this.slotAllocator = slotAllocator;
         connCandidates.addAll(peers);
     }
 
@@ -83,26 +98,28 @@ public class TorrentConnMngr {
         return connected.firstEntry().getValue();
     }
 
-    public FileId canAdvanceFile() {
-        Iterator<FileConnection> it = fileConnections.values().iterator();
-        while (it.hasNext()) {
-            FileConnection fileConnection = it.next();
+    /**
+     * the open files that can take more blocks, grouped by scheduler tier - in the order the scheduler wants them served
+     */
+    public List<List<FileId>> advanceableFiles(BlockScheduler scheduler) {
+        List<FileConnection> available = new ArrayList<>();
+        for (FileConnection fileConnection : fileConnections.values()) {
             if (fileConnection.available()) {
-                return fileConnection.getId();
+                available.add(fileConnection);
             }
         }
-        return null;
+        return BlockScheduler.Rounds.tiers(scheduler, available);
     }
 
     public boolean canStartNewFile() {
-        if (fileConnections.size() < MAX_ONGOING_FILES) {
+        if (fileConnections.size() < maxOngoingFiles) {
             return true;
         }
         return false;
     }
 
     public void newFileConnection(FileId fileId) {
-        FileConnection fileConnection = new SimpleFileConnection(fileId, loadTracking, MAX_FILE_BUF);
+        FileConnection fileConnection = new SimpleFileConnection(fileId, loadTracking, slotAllocator.fileSlots());
         fileConnections.put(fileId, fileConnection);
     }
     
@@ -119,16 +136,23 @@ public class TorrentConnMngr {
         if (!fileConnection.available()) {
             return new FileConnectionBusy();
         }
-        //check through already established peer-file connections
+        //check through already established peer-file connections - the one with most free window gets the block
         Collection<FilePeerConnection> fileConnEstablished = fileConnection.getPeerConnections();
         Set<Identifier> checked = new HashSet<>();
+        FilePeerConnection selected = null;
         for (FilePeerConnection fpc : fileConnEstablished) {
             KAddress peer = fpc.getPeerConnection().getPeer();
-            if (fileConnection.available(peer.getId()) && fpc.getPeerConnection().available(fileId)) {
-                return new UseFileConnection(TorrentIds.connId(fileId, peer.getId(), true), peer, blockNr, irregularBlock);
+            if (fpc.available() && fileConnection.available(peer.getId()) && fpc.getPeerConnection().available(fileId)) {
+                if (selected == null || freeSlots(fpc) > freeSlots(selected)) {
+                    selected = fpc;
+                }
             }
             checked.add(peer.getId());
         }
+        if (selected != null) {
+            KAddress peer = selected.getPeerConnection().getPeer();
+            return new UseFileConnection(TorrentIds.connId(fileId, peer.getId(), true), peer, blockNr, irregularBlock);
+        }
         //check through already established peer connections - that are not established on a peer-file yet (maybe used by other files)
         Set<Identifier> peerConnEstablished = Sets.difference(peerConnections.keySet(), checked);
         for (Identifier peerId : peerConnEstablished) {
@@ -147,10 +171,121 @@ public class TorrentConnMngr {
         return new NoConnections();
     }
 
+    private static int freeSlots(FilePeerConnection fpc) {
+        return fpc.maxSlots() - fpc.usedSlots();
+    }
+
+    /**
+     * blocks the open files can take right now - the free window of their peer connections. The windows are sized
+     * from each peer's throughput, so this follows the congestion window of the peers. A file without peer
+     * connections counts for one block, which opens its first connection.
+     */
+    public int freeWindow() {
+        int free = 0;
+        for (FileConnection fc : fileConnections.values()) {
+            Collection<FilePeerConnection> fpcs = fc.getPeerConnections();
+            if (fpcs.isEmpty()) {
+                free++;
+                continue;
+            }
+            for (FilePeerConnection fpc : fpcs) {
+                free += Math.max(0, freeSlots(fpc));
+            }
+        }
+        return free;
+    }
+
+    /**
+     * endgame - blocks held longer than stallTimeout by a peer are requested once more from a faster peer with free
+     * window. Whichever copy completes first wins, the other is released with releaseDuplicates.
+     */
+    public List<UseFileConnection> endgame(FileId fileId, long now, long stallTimeout) {
+        List<UseFileConnection> result = new ArrayList<>();
+        FileConnection fc = fileConnections.get(fileId);
+        if (fc == null || fc.getPeerConnections().size() < 2) {
+            return result;
+        }
+        Collection<FilePeerConnection> fpcs = fc.getPeerConnections();
+        Map<Integer, Integer> holders = new HashMap<>();
+        for (FilePeerConnection fpc : fpcs) {
+            for (Integer blockNr : fpc.blocks()) {
+                Integer h = holders.get(blockNr);
+                holders.put(blockNr, h == null ? 1 : h + 1);
+            }
+        }
+        //slots are taken only when TransferComp uses the results - count what we hand out here
+        Map<FilePeerConnection, Integer> planned = new HashMap<>();
+        for (FilePeerConnection slow : fpcs) {
+            for (Integer blockNr : slow.blocks()) {
+                if (holders.get(blockNr) > 1 || now - slow.slotSince(blockNr) < stallTimeout) {
+                    continue;
+                }
+                FilePeerConnection fast = null;
+                for (FilePeerConnection fpc : fpcs) {
+                    Integer p = planned.get(fpc);
+                    int used = fpc.usedSlots() + (p == null ? 0 : p);
+                    if (fpc == slow || used >= fpc.maxSlots() || fpc.holds(blockNr)
+                        || !fpc.getPeerConnection().available(fileId)
+                        || fpc.throughput() <= Math.max(0, slow.throughput())) {
+                        continue;
+                    }
+                    if (fast == null || fpc.throughput() > fast.throughput()) {
+                        fast = fpc;
+                    }
+                }
+                if (fast != null) {
+                    KAddress peer = fast.getPeerConnection().getPeer();
+                    result.add(new UseFileConnection(TorrentIds.connId(fileId, peer.getId(), true), peer, blockNr,
+                        slow.slotDetails(blockNr)));
+                    holders.put(blockNr, 2);
+                    Integer p = planned.get(fast);
+                    planned.put(fast, p == null ? 1 : p + 1);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the other connections that still held the block - their slots are released here and their pieces
+     * should be cancelled
+     */
+    public Set<ConnId> releaseDuplicates(ConnId connId, int blockNr) {
+        Set<ConnId> result = new HashSet<>();
+        FileConnection fc = fileConnections.get(connId.fileId);
+        if (fc == null) {
+            return result;
+        }
+        for (FilePeerConnection fpc : fc.getPeerConnections()) {
+            Identifier peerId = fpc.getPeerConnection().getPeer().getId();
+            if (!peerId.equals(connId.peerId) && fpc.releaseSlot(blockNr)) {
+                result.add(TorrentIds.connId(connId.fileId, peerId, true));
+            }
+        }
+        return result;
+    }
+
+    public void throughput(ConnId connId, double bytesPerSec) {
+        FileConnection fc = fileConnections.get(connId.fileId);
+        if (fc == null) {
+            return;
+        }
+        FilePeerConnection fpc = fc.getFilePeerConnection(connId.peerId);
+        if (fpc != null) {
+            fpc.throughput(bytesPerSec);
+        }
+    }
+
+    public void allocateSlots() {
+        for (FileConnection fc : fileConnections.values()) {
+            slotAllocator.allocate(fc.getPeerConnections());
+        }
+    }
+
     public void connectPeerFile(ConnId connId) {
         FileConnection fc = fileConnections.get(connId.fileId);
         PeerConnection pc = peerConnections.get(connId.peerId);
-        FilePeerConnection fpc = new SimpleFilePeerConnection(fc, pc);
+        FilePeerConnection fpc = new SimpleFilePeerConnection(fc, pc, slotAllocator.initialSlots());
         fc.addFilePeerConnection(connId.peerId, fpc);
         pc.addFilePeerConnection(connId.fileId, fpc);
     }
@@ -164,10 +299,13 @@ public class TorrentConnMngr {
         if (fpc == null) {
             throw new RuntimeException("ups");
         }
-        fpc.useSlot(conn.blockNr);
+        fpc.useSlot(conn.blockNr, conn.irregularBlock);
     }
 
-    public void releaseSlot(ConnId connId, int blockNr) {
+    /**
+     * @return false if the connection no longer held the block - a duplicate that lost the endgame race
+     */
+    public boolean releaseSlot(ConnId connId, int blockNr) {
         FileConnection fc = fileConnections.get(connId.fileId);
         if (fc == null) {
             throw new RuntimeException("ups");
@@ -176,7 +314,7 @@ public class TorrentConnMngr {
         if (fpc == null) {
             throw new RuntimeException("ups");
         }
-        fpc.releaseSlot(blockNr);
+        return fpc.releaseSlot(blockNr);
     }
 
     public static interface ConnResult {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.event;
+
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.overlays.OverlayEvent;
+
+/**
+ * Seeding torrents that are known to the node but not started. The torrent manager watches for leechers of a dormant
+ * torrent and asks for it to be started when the first one knocks.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DormantTorrent {
+
+  public static class Register implements KompicsEvent, OverlayEvent {
+
+    public final Identifier eventId;
+    public final OverlayId torrentId;
+
+    public Register(OverlayId torrentId) {
+      this.eventId = BasicIdentifiers.eventId();
+      this.torrentId = torrentId;
+    }
+
+    @Override
+    public Identifier getId() {
+      return eventId;
+    }
+
+    @Override
+    public OverlayId overlayId() {
+      return torrentId;
+    }
+
+    @Override
+    public String toString() {
+      return "DormantRegister<" + torrentId + ">";
+    }
+  }
+
+  /**
+   * the torrent was stopped while dormant - leechers no longer wake it up
+   */
+  public static class Unregister implements KompicsEvent, OverlayEvent {
+
+    public final Identifier eventId;
+    public final OverlayId torrentId;
+
+    public Unregister(OverlayId torrentId) {
+      this.eventId = BasicIdentifiers.eventId();
+      this.torrentId = torrentId;
+    }
+
+    @Override
+    public Identifier getId() {
+      return eventId;
+    }
+
+    @Override
+    public OverlayId overlayId() {
+      return torrentId;
+    }
+
+    @Override
+    public String toString() {
+      return "DormantUnregister<" + torrentId + ">";
+    }
+  }
+
+  /**
+   * a leecher asked for the torrent - the dormant registration is dropped
+   */
+  public static class Wakeup implements KompicsEvent, OverlayEvent {
+
+    public final Identifier eventId;
+    public final OverlayId torrentId;
+
+    public Wakeup(OverlayId torrentId) {
+      this.eventId = BasicIdentifiers.eventId();
+      this.torrentId = torrentId;
+    }
+
+    @Override
+    public Identifier getId() {
+      return eventId;
+    }
+
+    @Override
+    public OverlayId overlayId() {
+      return torrentId;
+    }
+
+    @Override
+    public String toString() {
+      return "DormantWakeup<" + torrentId + ">";
+    }
+  }
+}
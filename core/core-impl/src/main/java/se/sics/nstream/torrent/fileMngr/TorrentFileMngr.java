@@ -41,6 +41,9 @@ import se.sics.nstream.storage.buffer.SimpleAppendKBuffer;
 import se.sics.nstream.storage.cache.SimpleKCache;
 import se.sics.nstream.storage.durable.util.FileExtendedDetails;
 import se.sics.nstream.storage.durable.util.MyStream;
+import se.sics.nstream.storage.hash.HashSidecar;
+import se.sics.nstream.storage.hash.HashSidecarConfig;
+import se.sics.nstream.storage.hash.HashVerifier;
 import se.sics.nstream.storage.managed.AppendFileMngr;
 import se.sics.nstream.torrent.core.DataReport;
 import se.sics.nstream.transfer.MyTorrent;
@@ -70,11 +73,12 @@ public class TorrentFileMngr {
   }
 
   public static TorrentFileMngr create(Config config, ComponentProxy proxy, DelayedExceptionSyncHandler exSyncHandler,
-    ComponentLoadTracking loadTracker,
+    ComponentLoadTracking loadTracker, HashVerifier hashVerifier,
     MyTorrent torrent, Map<StreamId, Long> streamsInfo) {
     Map<FileId, TFileComplete> completed = new HashMap<>();
     Map<FileId, TFileIncomplete> ongoing = new HashMap<>();
     TreeMap<FileId, TFileIncomplete> pending = new TreeMap<>();
+    HashSidecarConfig sidecarConfig = new HashSidecarConfig(config);
 
     for (Map.Entry<FileId, FileExtendedDetails> entry : torrent.extended.entrySet()) {
       Map<StreamId, Long> fileStreams = new HashMap<>();
@@ -85,7 +89,7 @@ public class TorrentFileMngr {
       LOG.info("{} found:{} expected:{}", 
           new Object[]{mainStream.getValue1().resource.toString(), streamsInfo.get(mainStream.getValue0()), 
             torrent.base.get(mainStream.getValue0().fileId).length});
-      SimpleKCache cache = new SimpleKCache(config, proxy, exSyncHandler, loadTracker, mainStream);
+      SimpleKCache cache = new SimpleKCache(config, proxy, exSyncHandler, loadTracker, fileDetails, mainStream);
 
       List<KBuffer> bufs = new ArrayList<>();
       bufs.add(new SimpleAppendKBuffer(config, proxy, exSyncHandler, loadTracker, mainStream, 0));
@@ -98,11 +102,12 @@ public class TorrentFileMngr {
       }
       KBuffer buffer = new MultiKBuffer(bufs);
       AsyncIncompleteStorage file = new AsyncIncompleteStorage(cache, buffer);
-      AsyncOnDemandHashStorage hash = new AsyncOnDemandHashStorage(fileDetails, exSyncHandler, file, mainStream);
+      AsyncOnDemandHashStorage hash = new AsyncOnDemandHashStorage(fileDetails, exSyncHandler, file, mainStream,
+        HashSidecar.open(sidecarConfig, fileDetails, mainStream));
 
       long minPos = Collections.min(fileStreams.values());
       int minBlockNr = BlockHelper.getBlockNrFromPos(minPos, fileDetails);
-      AppendFileMngr fileMngr = new AppendFileMngr(fileDetails, file, hash, minBlockNr, minBlockNr);
+      AppendFileMngr fileMngr = new AppendFileMngr(fileDetails, file, hash, hashVerifier, minBlockNr, minBlockNr);
 
       if (fileMngr.isComplete()) {
         completed.put(entry.getKey(), new TFileComplete(fileMngr.complete(), fileDetails));
@@ -18,7 +18,6 @@
  */
 package se.sics.nstream.torrent.tracking;
 
-import com.google.gson.Gson;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -26,8 +25,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.TreeMap;
-import javax.ws.rs.ProcessingException;
-import javax.ws.rs.core.MediaType;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,8 +35,6 @@ import se.sics.kompics.Positive;
 import se.sics.kompics.Start;
 import se.sics.kompics.timer.Timer;
 import se.sics.kompics.util.Identifier;
-import se.sics.ktoolbox.webclient.AsyncWebResponse;
-import se.sics.ktoolbox.webclient.WebClient;
 import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
 import se.sics.ktoolbox.util.network.KAddress;
 import se.sics.nstream.FileId;
@@ -52,6 +47,7 @@ import se.sics.nstream.torrent.tracking.event.TorrentTracking;
 import se.sics.nstream.torrent.tracking.tracker.DelaReportDTO;
 import se.sics.nstream.torrent.tracking.tracker.Hopssite;
 import se.sics.nstream.torrent.tracking.tracker.ReportDTO;
+import se.sics.nstream.torrent.tracking.tracker.TrackerReporter;
 import se.sics.nstream.torrent.transfer.tracking.DownloadReport;
 import se.sics.nstream.util.TorrentExtendedStatus;
 
@@ -202,7 +198,7 @@ public class TorrentTrackingComp extends ComponentDefinition {
     }
     if (reportConfig.reportTracker != null) {
       writeToTracker = true;
-      tracker = new Tracker(selfAdr.getId(), torrentId, reportConfig);
+      tracker = new Tracker(selfAdr.getId(), torrentId, TrackerReporter.instance(reportConfig));
     }
   }
 
@@ -222,7 +218,7 @@ public class TorrentTrackingComp extends ComponentDefinition {
     }
     if (writeToTracker) {
       ReportDTO transferValues = transferValues(transferTime, dataReport);
-      tracker.trackerDataValues(dataValues.toString());
+      tracker.trackerDataValues(dataValues.toString(), false);
       tracker.trackerTransferValues(transferValues.toString());
     }
     writeToFile = false;
@@ -237,8 +233,8 @@ public class TorrentTrackingComp extends ComponentDefinition {
       fileWrite(downloadFile, downloadHeader.toString());
     }
     if (writeToTracker) {
-      tracker.trackerDataValues(dataHeader.toString());
-      tracker.trackerDownloadValues(downloadHeader.toString());
+      tracker.trackerDataValues(dataHeader.toString(), false);
+      tracker.trackerDownloadValues(downloadHeader.toString(), false);
     }
   }
 
@@ -250,8 +246,8 @@ public class TorrentTrackingComp extends ComponentDefinition {
       fileWrite(downloadFile, downloadValues.toString());
     }
     if (writeToTracker) {
-      tracker.trackerDataValues(dataValues.toString());
-      tracker.trackerDownloadValues(downloadValues.toString());
+      tracker.trackerDataValues(dataValues.toString(), true);
+      tracker.trackerDownloadValues(downloadValues.toString(), true);
     }
   }
 
@@ -270,90 +266,41 @@ public class TorrentTrackingComp extends ComponentDefinition {
     });
   }
 
+  /**
+   * queues the reports on the node wide {@link TrackerReporter} - never blocks the component
+   */
   private static class Tracker {
 
     private final Identifier selfId;
     private final OverlayId torrentId;
     private final long reportId;
-    private final TorrentTrackingConfig reportConfig;
-    //SSLHandshakeException - thrown the very first time a new version of dela starts;
-    private boolean sslHandshakeFixed = false;
+    private final TrackerReporter reporter;
 
-    public Tracker(Identifier selfId, OverlayId torrentId, TorrentTrackingConfig reportConfig) {
+    public Tracker(Identifier selfId, OverlayId torrentId, TrackerReporter reporter) {
       this.selfId = selfId;
       this.torrentId = torrentId;
       this.reportId = System.currentTimeMillis();
-      this.reportConfig = reportConfig;
+      this.reporter = reporter;
     }
 
-    public void trackerDataValues(String reportVal) {
-      DelaReportDTO report = new DelaReportDTO(selfId.toString(), torrentId.baseId.toString(),
-        reportId, reportVal);
-      LOG.debug("reporting to:{}/{} with data:{}", 
-        new Object[]{reportConfig.reportTracker, Hopssite.dataValues(), new Gson().toJson(report)});
-      try (WebClient client = WebClient.httpsInstance()) {
-        AsyncWebResponse webResp = client
-          .setTarget(reportConfig.reportTracker)
-          .setPath(Hopssite.dataValues())
-          .setPayload(report, MediaType.APPLICATION_JSON_TYPE)
-          .doAsyncPost();
-        //eventually maybe retry failures - check future
-      } catch (ProcessingException ex) {
-        if (!sslHandshakeFixed) {
-          sslHandshakeFixed = true;
-          trackerDataValues(reportVal);
-        } else {
-          LOG.warn("problem reporting to tracker:{}", ex);
-        }
-      } catch (Exception ex) {
-        //not much to do now
-        LOG.warn("problem reporting to tracker:{}", ex);
-      }
+    public void trackerDataValues(String reportVal, boolean snapshot) {
+      report(Hopssite.dataValues(), reportVal, snapshot);
     }
 
-    public void trackerDownloadValues(String reportVal) {
-
-      DelaReportDTO report = new DelaReportDTO(selfId.toString(), torrentId.baseId.toString(),
-        reportId, reportVal);
-      LOG.debug("reporting to:{}/{} with download:{}", 
-        new Object[]{reportConfig.reportTracker, Hopssite.dataValues(), new Gson().toJson(report)});
-      try (WebClient client = WebClient.httpsInstance()) {
-        AsyncWebResponse webResp = client
-          .setTarget(reportConfig.reportTracker)
-          .setPath(Hopssite.downloadValues())
-          .setPayload(report, MediaType.APPLICATION_JSON_TYPE)
-          .doAsyncPost();
-        //eventually maybe retry failures - check future
-      } catch (ProcessingException ex) {
-        if (!sslHandshakeFixed) {
-          sslHandshakeFixed = true;
-          trackerDownloadValues(reportVal);
-        }
-      } catch (Exception ex) {
-        //not much to do now
-      }
+    public void trackerDownloadValues(String reportVal, boolean snapshot) {
+      report(Hopssite.downloadValues(), reportVal, snapshot);
     }
 
     public void trackerTransferValues(String reportVal) {
+      report(Hopssite.transferValues(), reportVal, false);
+    }
 
-      DelaReportDTO report = new DelaReportDTO(selfId.toString(), torrentId.baseId.toString(),
-        reportId, reportVal);
-      LOG.debug("reporting to:{}/{} with transfer:{}", 
-        new Object[]{reportConfig.reportTracker, Hopssite.dataValues(), new Gson().toJson(report)});
-      try (WebClient client = WebClient.httpsInstance()) {
-        AsyncWebResponse webResp = client
-          .setTarget(reportConfig.reportTracker)
-          .setPath(Hopssite.transferValues())
-          .setPayload(report, MediaType.APPLICATION_JSON_TYPE)
-          .doAsyncPost();
-        //eventually maybe retry failures - check future
-      } catch (ProcessingException ex) {
-        if (!sslHandshakeFixed) {
-          sslHandshakeFixed = true;
-          trackerTransferValues(reportVal);
-        }
-      } catch (Exception ex) {
-        //not much to do now
+    private void report(String path, String reportVal, boolean snapshot) {
+      DelaReportDTO report = new DelaReportDTO(selfId.toString(), torrentId.baseId.toString(), reportId, reportVal);
+      if (reporter.report(path, report, snapshot)) {
+        LOG.trace("queued report to:{} with:{}", path, report);
+      } else {
+        LOG.debug("tracker queue full - dropped report to:{} with:{}", path, report);
       }
     }
   }
@@ -29,13 +29,33 @@ public class TorrentTrackingConfig {
 
     public static String REPORT_DIR = "report.dir";
     public static String REPORT_TRACKER = "report.tracker"; 
+    public static String TRACKER_FLUSH_PERIOD = "report.tracker.flushPeriod";
+    public static String TRACKER_QUEUE_SIZE = "report.tracker.queueSize";
+    public static String TRACKER_BATCH_SIZE = "report.tracker.batchSize";
+    public static String TRACKER_BULK = "report.tracker.bulk";
   }
 
+  public static final long DEFAULT_TRACKER_FLUSH_PERIOD = 5000;
+  public static final int DEFAULT_TRACKER_QUEUE_SIZE = 1000;
+  public static final int DEFAULT_TRACKER_BATCH_SIZE = 100;
+  /**
+   * the tracker has to serve the /bulk report paths
+   */
+  public static final boolean DEFAULT_TRACKER_BULK = false;
+
   public final String reportDir;
   public final String reportTracker;
+  public final long trackerFlushPeriod;
+  public final int trackerQueueSize;
+  public final int trackerBatchSize;
+  public final boolean trackerBulk;
 
   public TorrentTrackingConfig(Config config) {
     reportDir = config.getValue(Names.REPORT_DIR, String.class);
     reportTracker = config.getValue(Names.REPORT_TRACKER, String.class);
+    trackerFlushPeriod = config.getValueOrDefault(Names.TRACKER_FLUSH_PERIOD, DEFAULT_TRACKER_FLUSH_PERIOD);
+    trackerQueueSize = config.getValueOrDefault(Names.TRACKER_QUEUE_SIZE, DEFAULT_TRACKER_QUEUE_SIZE);
+    trackerBatchSize = config.getValueOrDefault(Names.TRACKER_BATCH_SIZE, DEFAULT_TRACKER_BATCH_SIZE);
+    trackerBulk = config.getValueOrDefault(Names.TRACKER_BULK, DEFAULT_TRACKER_BULK);
   }
 }
@@ -33,4 +33,11 @@ public class Hopssite {
   public static String transferValues() {
     return "public/report/transfer";
   }
+
+  /**
+   * bulk variant of a report path - takes a json list of reports
+   */
+  public static String bulk(String path) {
+    return path + "/bulk";
+  }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.tracking.tracker;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.List;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.ktoolbox.webclient.WebClient;
+
+/**
+ * Posts json reports over the https WebClient, keeping its tls settings. One client serves a whole batch instead of
+ * one client per report. The posts are async, as they always were - only failures to send them are seen here.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HttpTrackerSender implements TrackerSender {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpTrackerSender.class);
+
+  private final String target;
+  private final boolean bulk;
+  private final Gson gson = new Gson();
+  //SSLHandshakeException - thrown the very first time a new version of dela starts;
+  private boolean sslHandshakeFixed = false;
+
+  public HttpTrackerSender(String target, boolean bulk) {
+    this.target = target;
+    this.bulk = bulk;
+  }
+
+  @Override
+  public void send(String path, List<DelaReportDTO> reports) throws IOException {
+    try (WebClient client = WebClient.httpsInstance()) {
+      if (bulk) {
+        post(client, Hopssite.bulk(path), gson.toJson(reports));
+      } else {
+        int sent = 0;
+        for (DelaReportDTO report : reports) {
+          try {
+            post(client, path, gson.toJson(report));
+          } catch (IOException ex) {
+            if (sent == 0) {
+              throw ex;
+            }
+            throw new PartialSend(sent, ex);
+          }
+          sent++;
+        }
+      }
+    } catch (IOException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  private void post(WebClient client, String path, String json) throws IOException {
+    try {
+      doPost(client, path, json);
+    } catch (ProcessingException ex) {
+      if (sslHandshakeFixed) {
+        throw new IOException(ex);
+      }
+      sslHandshakeFixed = true;
+      LOG.info("tracker ssl handshake failed:{} - retrying once", ex.getMessage());
+      try {
+        doPost(client, path, json);
+      } catch (ProcessingException retryEx) {
+        throw new IOException(retryEx);
+      }
+    }
+  }
+
+  private void doPost(WebClient client, String path, String json) {
+    client
+      .setTarget(target)
+      .setPath(path)
+      .setPayload(json, MediaType.APPLICATION_JSON_TYPE)
+      .doAsyncPost();
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.tracking.tracker;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.nstream.torrent.tracking.TorrentTrackingConfig;
+
+/**
+ * Node wide tracker reporting - the torrent tracking components only queue their reports, a dedicated thread sends
+ * them every flushPeriod (or as soon as batchSize are queued), grouped per report path.
+ * <p>
+ * The queue is bounded. When it is full (tracker slow or down) a snapshot report replaces the queued snapshot of the
+ * same torrent and path, if there is one, and is dropped otherwise. Other reports (headers, final values) make room
+ * by evicting the oldest queued snapshot.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class TrackerReporter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TrackerReporter.class);
+  //<tracker, reporter>
+  private static final Map<String, TrackerReporter> reporters = new HashMap<>();
+
+  private final TrackerSender sender;
+  private final int queueSize;
+  private final int batchSize;
+  private final ScheduledExecutorService executor;
+  private final ScheduledFuture<?> periodicFlush;
+  //guarded by this
+  private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+  //<path/torrent, latest queued snapshot>
+  private final Map<String, Pending> snapshots = new HashMap<>();
+  private boolean flushScheduled = false;
+  private boolean closed = false;
+  //
+  private long sent = 0;
+  private long failed = 0;
+  private long aggregated = 0;
+  private long dropped = 0;
+
+  public TrackerReporter(TrackerSender sender, long flushPeriod, int queueSize, int batchSize) {
+    this.sender = sender;
+    this.queueSize = queueSize;
+    this.batchSize = batchSize;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "dela-tracker-reporter");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.periodicFlush = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, flushPeriod, flushPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * one reporter per tracker for the whole node
+   */
+  public static synchronized TrackerReporter instance(TorrentTrackingConfig config) {
+    TrackerReporter reporter = reporters.get(config.reportTracker);
+    if (reporter == null) {
+      final TrackerReporter r = new TrackerReporter(new HttpTrackerSender(config.reportTracker, config.trackerBulk),
+        config.trackerFlushPeriod, config.trackerQueueSize, config.trackerBatchSize);
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          r.close();
+        }
+      }, "dela-tracker-reporter-close"));
+      reporters.put(config.reportTracker, r);
+      reporter = r;
+    }
+    return reporter;
+  }
+
+  /**
+   * @param snapshot a report superseded by the next one of the same torrent and path - may be aggregated or dropped
+   * @return false if the report was dropped
+   */
+  public boolean report(String path, DelaReportDTO report, boolean snapshot) {
+    synchronized (this) {
+      if (closed) {
+        dropped++;
+        return false;
+      }
+      String key = path + "/" + report.getTorrentId();
+      if (queue.size() >= queueSize) {
+        if (snapshot) {
+          Pending queued = snapshots.get(key);
+          if (queued == null) {
+            dropped++;
+            return false;
+          }
+          queued.report = report;
+          aggregated++;
+          return true;
+        }
+        if (!evictSnapshot()) {
+          dropped++;
+          return false;
+        }
+      }
+      Pending p = new Pending(path, key, report, snapshot);
+      queue.add(p);
+      if (snapshot) {
+        snapshots.put(key, p);
+      }
+      if (queue.size() < batchSize || flushScheduled) {
+        return true;
+      }
+      flushScheduled = true;
+      //under the lock - close() marks closed before it shuts the executor down, so it cannot reject this
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      });
+      return true;
+    }
+  }
+
+  private boolean evictSnapshot() {
+    Iterator<Pending> it = queue.iterator();
+    while (it.hasNext()) {
+      Pending p = it.next();
+      if (p.snapshot) {
+        it.remove();
+        snapshots.remove(p.key, p);
+        dropped++;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * only ever runs on the reporter thread (or on close, once the reporter thread is done). A failed send stops the
+   * flush - the unsent snapshots of the batch are lost, the other unsent reports go back to the front of the queue and
+   * wait for the next flush, even if that briefly takes the queue past its size
+   */
+  void flush() {
+    while (true) {
+      List<Pending> batch = new ArrayList<>();
+      synchronized (this) {
+        flushScheduled = false;
+        while (batch.size() < batchSize && !queue.isEmpty()) {
+          Pending p = queue.poll();
+          if (p.snapshot) {
+            snapshots.remove(p.key, p);
+          }
+          batch.add(p);
+        }
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+      Map<String, List<Pending>> byPath = new LinkedHashMap<>();
+      for (Pending p : batch) {
+        List<Pending> pending = byPath.get(p.path);
+        if (pending == null) {
+          pending = new ArrayList<>();
+          byPath.put(p.path, pending);
+        }
+        pending.add(p);
+      }
+      List<Pending> unsent = new ArrayList<>();
+      for (Map.Entry<String, List<Pending>> e : byPath.entrySet()) {
+        if (!unsent.isEmpty()) {
+          unsent.addAll(e.getValue());
+          continue;
+        }
+        List<DelaReportDTO> reports = new ArrayList<>();
+        for (Pending p : e.getValue()) {
+          reports.add(p.report);
+        }
+        int posted = reports.size();
+        try {
+          sender.send(e.getKey(), reports);
+        } catch (IOException | RuntimeException ex) {
+          LOG.warn("problem reporting to tracker:{}", ex.getMessage());
+          posted = ex instanceof TrackerSender.PartialSend ? ((TrackerSender.PartialSend) ex).sent : 0;
+          unsent.addAll(e.getValue().subList(posted, reports.size()));
+        }
+        synchronized (this) {
+          sent += posted;
+        }
+      }
+      if (!unsent.isEmpty()) {
+        requeue(unsent);
+        return;
+      }
+      LOG.debug("tracker reports sent:{} failed:{} aggregated:{} dropped:{}",
+        new Object[]{sent, failed, aggregated, dropped});
+    }
+  }
+
+  private synchronized void requeue(List<Pending> unsent) {
+    for (int i = unsent.size() - 1; i >= 0; i--) {
+      Pending p = unsent.get(i);
+      if (p.snapshot) {
+        failed++;
+      } else {
+        queue.addFirst(p);
+      }
+    }
+  }
+
+  public synchronized int pending() {
+    return queue.size();
+  }
+
+  public synchronized long sent() {
+    return sent;
+  }
+
+  public synchronized long failed() {
+    return failed;
+  }
+
+  public synchronized long aggregated() {
+    return aggregated;
+  }
+
+  public synchronized long dropped() {
+    return dropped;
+  }
+
+  /**
+   * stops the periodic flush and sends the remaining reports on the caller thread
+   */
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    periodicFlush.cancel(false);
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.warn("tracker reporter did not stop in time");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    synchronized (this) {
+      if (!queue.isEmpty()) {
+        LOG.warn("tracker reporter closed with:{} unsent reports", queue.size());
+        failed += queue.size();
+        queue.clear();
+        snapshots.clear();
+      }
+    }
+  }
+
+  private static class Pending {
+
+    final String path;
+    final String key;
+    final boolean snapshot;
+    DelaReportDTO report;
+
+    Pending(String path, String key, DelaReportDTO report, boolean snapshot) {
+      this.path = path;
+      this.key = key;
+      this.report = report;
+      this.snapshot = snapshot;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.tracking.tracker;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public interface TrackerSender {
+
+  /**
+   * blocking - called only from the reporter thread
+   *
+   * @throws PartialSend if the reports are posted one by one and the first ones went through
+   */
+  public void send(String path, List<DelaReportDTO> reports) throws IOException;
+
+  public static class PartialSend extends IOException {
+
+    /**
+     * reports posted before the failure
+     */
+    public final int sent;
+
+    public PartialSend(int sent, IOException cause) {
+      super(cause.getMessage(), cause);
+      this.sent = sent;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer;
+
+import java.util.HashMap;
+import java.util.Map;
+import se.sics.kompics.config.Config;
+import se.sics.nstream.torrent.connMngr.BlockScheduler;
+import se.sics.nstream.torrent.connMngr.TorrentConnMngr;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class BlockSchedulerConfig {
+  public static class Names {
+    public static String POLICY = "transfer.scheduler.policy";
+    public static String ADVANCE_BUDGET = "transfer.scheduler.advanceBudget";
+    public static String MAX_ONGOING_FILES = "transfer.scheduler.maxOngoingFiles";
+    public static String PRIORITIES = "transfer.scheduler.priorities";
+    public static String PRIORITY_QUANTUM = "transfer.scheduler.priorityQuantum";
+  }
+  
+  public static final BlockScheduler.Policy DEFAULT_POLICY = BlockScheduler.Policy.RAREST;
+  /**
+   * cap on the blocks handed out per advance - the budget is the free window of the open files, 0 means no cap. An
+   * advance runs on every completed block as well as on the timer
+   */
+  public static final int DEFAULT_ADVANCE_BUDGET = 0;
+  public static final int DEFAULT_PRIORITY_QUANTUM = 4;
+  public final BlockScheduler.Policy policy;
+  public final int advanceBudget;
+  public final int maxOngoingFiles;
+  /**
+   * fileNr:priority,fileNr:priority...
+   */
+  public final Map<Integer, Integer> priorities;
+  public final int priorityQuantum;
+  
+  public BlockSchedulerConfig(Config config) {
+    String policyName = config.getValue(Names.POLICY, String.class);
+    policy = policyName == null ? DEFAULT_POLICY : BlockScheduler.Policy.valueOf(policyName.toUpperCase());
+    advanceBudget = Math.max(0, config.getValueOrDefault(Names.ADVANCE_BUDGET, DEFAULT_ADVANCE_BUDGET));
+    maxOngoingFiles = Math.max(1, config.getValueOrDefault(Names.MAX_ONGOING_FILES, 
+      TorrentConnMngr.MAX_ONGOING_FILES));
+    priorities = parsePriorities(config.getValue(Names.PRIORITIES, String.class));
+    priorityQuantum = Math.max(1, config.getValueOrDefault(Names.PRIORITY_QUANTUM, DEFAULT_PRIORITY_QUANTUM));
+  }
+  
+  private static Map<Integer, Integer> parsePriorities(String val) {
+    Map<Integer, Integer> result = new HashMap<>();
+    if (val == null || val.trim().isEmpty()) {
+      return result;
+    }
+    for (String entry : val.split(",")) {
+      String[] kv = entry.trim().split(":");
+      if (kv.length != 2) {
+        throw new IllegalArgumentException("bad " + Names.PRIORITIES + " entry:" + entry);
+      }
+      result.put(Integer.parseInt(kv[0].trim()), Integer.parseInt(kv[1].trim()));
+    }
+    return result;
+  }
+  
+  public BlockScheduler scheduler() {
+    switch (policy) {
+      case SEQUENTIAL:
+        return new BlockScheduler.Sequential();
+      case PRIORITY:
+        return new BlockScheduler.Priority(priorities, priorityQuantum);
+      default:
+        return new BlockScheduler.Rarest();
+    }
+  }
+}
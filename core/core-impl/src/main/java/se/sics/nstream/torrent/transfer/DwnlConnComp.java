@@ -20,7 +20,9 @@ package se.sics.nstream.torrent.transfer;
 
 import com.google.common.base.Optional;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -48,6 +50,7 @@ import se.sics.ktoolbox.util.network.KContentMsg;
 import se.sics.ktoolbox.util.network.KHeader;
 import se.sics.ktoolbox.util.network.basic.BasicContentMsg;
 import se.sics.ktoolbox.util.network.basic.BasicHeader;
+import se.sics.ktoolbox.util.reference.KReference;
 import se.sics.ledbat.core.AppCongestionWindow;
 import se.sics.ledbat.core.DownloadThroughput;
 import se.sics.ledbat.core.LedbatConfig;
@@ -55,18 +58,27 @@ import se.sics.ledbat.ncore.msg.LedbatMsg;
 import se.sics.nstream.ConnId;
 import se.sics.nstream.old.torrent.event.TorrentTimeout;
 import se.sics.nstream.torrent.old.TransferConfig;
+import se.sics.nstream.torrent.transfer.dwnl.event.CancelBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.CompletedBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.DownloadBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.FPDControl;
+import se.sics.nstream.torrent.transfer.dwnl.event.WorkRequest;
 import se.sics.nstream.torrent.transfer.msg.CacheHint;
 import se.sics.nstream.torrent.transfer.msg.DownloadHash;
-import se.sics.nstream.torrent.transfer.msg.DownloadPiece;
+import se.sics.nstream.torrent.transfer.msg.DownloadPieces;
 import se.sics.nstream.torrent.transfer.tracking.DownloadTrackingReport;
 import se.sics.nstream.torrent.transfer.tracking.DownloadTrackingTrace;
 import se.sics.nstream.torrent.transfer.tracking.DwnlConnTracker;
+import se.sics.nstream.torrent.transfer.tracking.PipelineIdleTracker;
 import se.sics.nstream.torrent.transfer.tracking.TransferTrackingPort;
 import se.sics.nstream.torrent.transfer.tracking.event.TrackingConnection;
+import se.sics.nstream.transfer.BlockBufferPool;
 import se.sics.nstream.util.BlockDetails;
+import se.sics.nstream.util.metrics.Counter;
+import se.sics.nstream.util.metrics.Gauge;
+import se.sics.nstream.util.metrics.LatencyHistogram;
+import se.sics.nstream.util.metrics.MetricsRegistry;
+import se.sics.nstream.util.metrics.MetricsScope;
 import se.sics.nutil.network.bestEffort.event.BestEffortMsg;
 import se.sics.nutil.tracking.load.NetworkQueueLoadProxy;
 
@@ -95,11 +107,19 @@ public class DwnlConnComp extends ComponentDefinition {
   private final List<KAddress> self;
   private final List<KAddress> target;
   private final int parallelPorts;
+  private final int piecesPerReq;
   //**************************************************************************
   private final NetworkQueueLoadProxy networkQueueLoad;
   private final AppCongestionWindow cwnd;
   private final DwnlConnWorkCtrl workController;
   private final Optional<DwnlConnTracker> tracker;
+  private final PipelineIdleTracker pipelineIdle;
+  private final MetricsScope metrics;
+  private final LatencyHistogram pieceRtt;
+  private final Counter piecesReceived;
+  private final Gauge bytesInFlight;
+  //bytes of the pending requests
+  private long inFlight = 0;
   //**************************************************************************
   private UUID advanceDownloadTid;
   private UUID cacheTid;
@@ -132,10 +152,19 @@ public class DwnlConnComp extends ComponentDefinition {
 
     DwnlConnConfig dConfig = new DwnlConnConfig(config());
 
+    piecesPerReq = dConfig.piecesPerReq;
     ledbatConfig = new LedbatConfig(config());
     networkQueueLoad = NetworkQueueLoadProxy.instance("load_dwnl_" + logPrefix, proxy, config(), dConfig.reportDir);
     cwnd = new AppCongestionWindow(ledbatConfig, connId, dConfig.minRTO, dConfig.reportDir);
-    workController = new DwnlConnWorkCtrl(init.defaultBlockDetails, init.withHashes);
+    BlockBufferPool blockPool = BlockBufferPool.getPool(init.defaultBlockDetails.blockSize, dConfig.blockPoolSize);
+    workController = new DwnlConnWorkCtrl(init.defaultBlockDetails, init.withHashes, blockPool,
+      dConfig.lowWatermark);
+    pipelineIdle = new PipelineIdleTracker(System.currentTimeMillis());
+    metrics = MetricsRegistry.instance().scope("torrent", connId.fileId.torrentId.toString(),
+      "file", connId.fileId.toString(), "peer", connId.peerId.toString());
+    pieceRtt = metrics.latency("dela_piece_rtt_us");
+    piecesReceived = metrics.counter("dela_pieces_received_total");
+    bytesInFlight = metrics.gauge("dela_bytes_in_flight");
 
     if (dConfig.reportDir.isPresent()) {
       tracker = Optional.fromNullable(DwnlConnTracker.onDisk(dConfig.reportDir.get(), connId, parallelPorts));
@@ -148,6 +177,7 @@ public class DwnlConnComp extends ComponentDefinition {
     subscribe(handleAdvanceDownload, timerPort);
     subscribe(handleFPDControl, connPort);
     subscribe(handleNewBlocks, connPort);
+    subscribe(handleCancelBlocks, connPort);
     subscribe(handleNetworkTimeouts, networkPort);
     subscribe(handleCache, networkPort);
     subscribe(handleLedbat, networkPort);
@@ -159,30 +189,35 @@ public class DwnlConnComp extends ComponentDefinition {
       LOG.info("{}starting conn to:{}", logPrefix, target);
       networkQueueLoad.start();
       scheduleAdvanceDownload();
+      tryDownload(System.currentTimeMillis());
       scheduleReport();
     }
   };
 
   @Override
   public void tearDown() {
-    LOG.info("{}tear down", logPrefix);
+    long now = System.currentTimeMillis();
+    LOG.info("{}tear down - pipeline idle:{}ms of:{}ms", new Object[]{logPrefix, pipelineIdle.idleMs(now),
+      pipelineIdle.elapsedMs(now)});
     for (Identifiable msg : pendingMsgs.values()) {
       cancelMsg(msg);
     }
     networkQueueLoad.tearDown();
     cancelAdvanceDownload();
     cancelReport();
+    workController.close();
     cwnd.close();
     if (tracker.isPresent()) {
       tracker.get().close();
     }
+    metrics.close();
     trigger(new TrackingConnection.Close(connId), reportPort);
   }
 
   Handler handleReport = new Handler<ReportTimeout>() {
     @Override
     public void handle(ReportTimeout event) {
-      LOG.trace("{}reporting", logPrefix);
+      LOG.trace("{}reporting - pipeline idle:{}ms", logPrefix, pipelineIdle.idleDelta(System.currentTimeMillis()));
       Pair<Integer, Integer> queueDelay = networkQueueLoad.queueDelay();
       DownloadThroughput downloadThroughput = cwnd.report();
       DownloadTrackingTrace trace = new DownloadTrackingTrace(downloadThroughput, workController.blockSize(), cwnd.
@@ -191,13 +226,16 @@ public class DwnlConnComp extends ComponentDefinition {
     }
   };
 
+  /**
+   * the pipeline is refilled on every ack, timeout and new work - the tick only drives the window adjustment.
+   * A full window always has requests in flight, so a window grown here is refilled by their acks or timeouts
+   */
   Handler handleAdvanceDownload = new Handler<TorrentTimeout.AdvanceDownload>() {
     @Override
     public void handle(TorrentTimeout.AdvanceDownload event) {
-      LOG.info("{}advance download", logPrefix);
+      LOG.trace("{}advance download", logPrefix);
       long now = System.currentTimeMillis();
       cwnd.adjustState(now, networkQueueLoad.adjustment());
-      tryDownload(now);
     }
   };
 
@@ -217,6 +255,37 @@ public class DwnlConnComp extends ComponentDefinition {
     public void handle(DownloadBlocks event) {
       LOG.trace("{}new blocks:{}", logPrefix, event.blocks);
       workController.add(event.blocks, event.irregularBlocks);
+      tryDownload(System.currentTimeMillis());
+    }
+  };
+
+  /**
+   * endgame duplicates - the pieces in flight stop being retransmitted, their responses, if any, count as late.
+   * With the retransmit timeout cancelled, their bytes are released here - the window only gives back bytes on
+   * success or timeout, so they go back as a single timeout
+   */
+  private Handler handleCancelBlocks = new Handler<CancelBlocks>() {
+    @Override
+    public void handle(CancelBlocks event) {
+      LOG.debug("{}cancel blocks:{}", logPrefix, event.blocks);
+      long now = System.currentTimeMillis();
+      int cancelledBytes = 0;
+      Iterator<Identifiable> it = pendingMsgs.values().iterator();
+      while (it.hasNext()) {
+        Identifiable msg = it.next();
+        if (msg instanceof DownloadPieces.Request && event.blocks.contains(((DownloadPieces.Request) msg).blockNr)) {
+          DownloadPieces.Request req = (DownloadPieces.Request) msg;
+          cancelMsg(req);
+          it.remove();
+          cancelledBytes += workController.piecesSize(req.blockNr, req.pieces);
+        }
+      }
+      workController.cancel(event.blocks);
+      if (cancelledBytes > 0) {
+        inFlight(-cancelledBytes);
+        cwnd.timeout(now, cancelledBytes);
+      }
+      tryDownload(now);
     }
   };
   //**************************************************************************
@@ -228,8 +297,8 @@ public class DwnlConnComp extends ComponentDefinition {
         Identifiable content = (Identifiable)PatternExtractorHelper.peelAllLayers(wrappedContent);
         if (content instanceof CacheHint.Request) {
           handleCacheTimeout((CacheHint.Request) content);
-        } else if (content instanceof DownloadPiece.Request) {
-          handlePieceTimeout((DownloadPiece.Request) content);
+        } else if (content instanceof DownloadPieces.Request) {
+          handlePiecesTimeout((DownloadPieces.Request) content);
           reportTimeout(System.currentTimeMillis(), content, wrappedContent.req.rto);
         } else if (content instanceof DownloadHash.Request) {
           handleHashTimeout((DownloadHash.Request) content);
@@ -246,14 +315,14 @@ public class DwnlConnComp extends ComponentDefinition {
     throw new RuntimeException("ups");
   }
 
-  public void handlePieceTimeout(DownloadPiece.Request req) {
-    LOG.debug("{}piece timeout:<{},{}>", new Object[]{logPrefix, req.piece.getValue0(), req.piece.getValue1()});
+  public void handlePiecesTimeout(DownloadPieces.Request req) {
+    LOG.debug("{}pieces timeout:<{},{}>", new Object[]{logPrefix, req.blockNr, req.pieces});
     if (pendingMsgs.remove(req.msgId) != null) {
-      workController.pieceTimeout(req.piece);
-
+      workController.piecesTimeout(req.blockNr, req.pieces);
+      inFlight(-workController.piecesSize(req.blockNr, req.pieces));
     }
     long now = System.currentTimeMillis();
-    cwnd.timeout(now, ledbatConfig.mss);
+    cwnd.timeout(now, workController.piecesSize(req.blockNr, req.pieces));
     tryDownload(now);
   }
 
@@ -261,6 +330,7 @@ public class DwnlConnComp extends ComponentDefinition {
     LOG.debug("{}hash timeout:<{}>", new Object[]{logPrefix, req.hashes});
     if (pendingMsgs.remove(req.msgId) != null) {
       workController.hashTimeout(req.hashes);
+      inFlight(-ledbatConfig.mss);
     }
     long now = System.currentTimeMillis();
     cwnd.timeout(now, ledbatConfig.mss);
@@ -320,11 +390,11 @@ public class DwnlConnComp extends ComponentDefinition {
       public void handle(LedbatMsg.Response content,
         KContentMsg<KAddress, KHeader<KAddress>, LedbatMsg.Response> context) {
         Object baseContent = content.extractValue();
-        if (baseContent instanceof DownloadPiece.Success) {
-          handlePiece(content);
+        if (baseContent instanceof DownloadPieces.Success) {
+          handlePieces(content);
         } else if (baseContent instanceof DownloadHash.Success) {
           handleHash(content);
-        } else if (baseContent instanceof DownloadPiece.BadRequest) {
+        } else if (baseContent instanceof DownloadPieces.BadRequest) {
           LOG.warn("{}dropping bad request:{} - if this is due to retransmission - it should be fine", logPrefix,
             baseContent);
           return;
@@ -338,22 +408,26 @@ public class DwnlConnComp extends ComponentDefinition {
       }
     };
 
-  private void handlePiece(LedbatMsg.Response<DownloadPiece.Success> content) {
+  private void handlePieces(LedbatMsg.Response<DownloadPieces.Success> content) {
     LOG.trace("{}received:{}", logPrefix, content);
-    DownloadPiece.Success resp = content.extractValue();
+    DownloadPieces.Success resp = content.extractValue();
     long now = System.currentTimeMillis();
+    int bytes = workController.piecesSize(resp.blockNr, resp.pieces);
+    pieceRtt.recordMillis(now - content.leecherAppReqSendT);
+    piecesReceived.add(resp.pieces.cardinality());
     if (pendingMsgs.remove(resp.msgId) != null) {
-      workController.piece(resp.piece, resp.val.getRight());
-      cwnd.success(now, ledbatConfig.mss, content);
+      workController.pieces(resp.blockNr, resp.vals.getRight());
+      inFlight(-bytes);
+      cwnd.success(now, bytes, content);
       tryDownload(now);
     } else {
-      LOG.debug("{}late piece:<{},{}>", new Object[]{logPrefix, resp.piece.getValue0(), resp.piece.getValue1()});
-      workController.latePiece(resp.piece, resp.val.getRight());
-      cwnd.late(now, ledbatConfig.mss, content);
+      LOG.debug("{}late pieces:<{},{}>", new Object[]{logPrefix, resp.blockNr, resp.pieces});
+      workController.latePieces(resp.blockNr, resp.vals.getRight());
+      cwnd.late(now, bytes, content);
       reportLate(System.currentTimeMillis(), content);
     }
     if (workController.hasComplete()) {
-      Pair<Map<Integer, byte[]>, Map<Integer, byte[]>> completed = workController.getComplete();
+      Pair<Map<Integer, byte[]>, Map<Integer, KReference<byte[]>>> completed = workController.getComplete();
       LOG.debug("{}completed hashes:{} blocks:{}", new Object[]{logPrefix, completed.getValue0().keySet(), completed.
         getValue1().keySet()});
       trigger(new CompletedBlocks(connId, completed.getValue0(), completed.getValue1()), connPort);
@@ -366,6 +440,7 @@ public class DwnlConnComp extends ComponentDefinition {
     long now = System.currentTimeMillis();
     if (pendingMsgs.remove(resp.msgId) != null) {
       workController.hashes(resp.hashValues);
+      inFlight(-ledbatConfig.mss);
       cwnd.success(now, ledbatConfig.mss, content);
       tryDownload(now);
     } else {
@@ -375,7 +450,7 @@ public class DwnlConnComp extends ComponentDefinition {
       reportLate(System.currentTimeMillis(), content);
     }
     if (workController.hasComplete()) {
-      Pair<Map<Integer, byte[]>, Map<Integer, byte[]>> completed = workController.getComplete();
+      Pair<Map<Integer, byte[]>, Map<Integer, KReference<byte[]>>> completed = workController.getComplete();
       LOG.trace("{}completed hashes:{} blocks:{}", new Object[]{logPrefix, completed.getValue0().keySet(), completed.
         getValue1().keySet()});
       trigger(new CompletedBlocks(connId, completed.getValue0(), completed.getValue1()), connPort);
@@ -396,17 +471,31 @@ public class DwnlConnComp extends ComponentDefinition {
       sendSimpleLedbat(req, 5);
       pendingMsgs.put(req.getId(), req);
       cwnd.request(now, ledbatConfig.mss);
+      inFlight(ledbatConfig.mss);
     }
-    int batch =2;
-    while (workController.hasPiece() && cwnd.canSend() && batch > 0) {
-      batch--;
-      DownloadPiece.Request req = new DownloadPiece.Request(connId.fileId, workController.nextPiece());
+    while (workController.hasPiece() && cwnd.canSend()) {
+      Pair<Integer, BitSet> nextPieces = workController.nextPieces(piecesPerReq);
+      DownloadPieces.Request req = new DownloadPieces.Request(connId.fileId, nextPieces.getValue0(), nextPieces.
+        getValue1());
       sendSimpleLedbat(req, 1);
       pendingMsgs.put(req.getId(), req);
-      cwnd.request(now, ledbatConfig.mss);
+      //cwnd accounts bytes in flight - a range request is worth all its pieces
+      cwnd.request(now, workController.piecesSize(req.blockNr, req.pieces));
+      inFlight(workController.piecesSize(req.blockNr, req.pieces));
+    }
+    pipelineIdle.update(now, cwnd.canSend());
+    if (workController.needsWork()) {
+      workController.workRequested();
+      LOG.debug("{}low watermark - queued blocks:{}", logPrefix, workController.queuedBlocks());
+      trigger(new WorkRequest(connId, workController.queuedBlocks()), connPort);
     }
   }
 
+  private void inFlight(long delta) {
+    inFlight += delta;
+    bytesInFlight.set(inFlight);
+  }
+
   //**************************************************************************
   private void reportTimeout(long now, Identifiable event, long rto) {
     if (tracker.isPresent()) {
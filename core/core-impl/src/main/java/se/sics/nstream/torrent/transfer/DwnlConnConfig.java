@@ -28,14 +28,37 @@ public class DwnlConnConfig {
   public static class Names {
     public static String REPORT_DIR = "transfer.download.report.dir";
     public static String MIN_RTO = "transfer.download.minRTO";
+    public static String PIECES_PER_REQ = "transfer.download.piecesPerRequest";
+    public static String BLOCK_POOL_SIZE = "transfer.download.blockPoolSize";
+    public static String LOW_WATERMARK = "transfer.download.lowWatermark";
   }
   
   public static final long DEFAULT_MIN_RTO = 1000; //1s
+  /**
+   * 16 x 1KB pieces - a range response is one ~16KB udp datagram. That is over the MTU, so it is ip fragmented
+   * (well within the 64KB datagram limit) and losing any fragment loses the whole range. On lossy paths lower it,
+   * 1 keeps each response within a single MTU.
+   */
+  public static final int DEFAULT_PIECES_PER_REQ = 16;
+  /**
+   * idle block buffers kept by the node - 10 x 10MB
+   */
+  public static final int DEFAULT_BLOCK_POOL_SIZE = 10;
+  /**
+   * blocks queued on the connection, not yet requested - below it the connection asks for more work
+   */
+  public static final int DEFAULT_LOW_WATERMARK = 2;
   public final Optional<String> reportDir;
   public final long minRTO;
+  public final int piecesPerReq;
+  public final int blockPoolSize;
+  public final int lowWatermark;
   
   public DwnlConnConfig(Config config) {
     reportDir = Optional.fromNullable(config.getValue(Names.REPORT_DIR, String.class));
     minRTO = config.getValueOrDefault(Names.MIN_RTO, DEFAULT_MIN_RTO);
+    piecesPerReq = config.getValueOrDefault(Names.PIECES_PER_REQ, DEFAULT_PIECES_PER_REQ);
+    blockPoolSize = config.getValueOrDefault(Names.BLOCK_POOL_SIZE, DEFAULT_BLOCK_POOL_SIZE);
+    lowWatermark = config.getValueOrDefault(Names.LOW_WATERMARK, DEFAULT_LOW_WATERMARK);
   }
 }
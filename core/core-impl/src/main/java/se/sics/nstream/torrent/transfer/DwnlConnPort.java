@@ -19,9 +19,11 @@
 package se.sics.nstream.torrent.transfer;
 
 import se.sics.kompics.PortType;
+import se.sics.nstream.torrent.transfer.dwnl.event.CancelBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.CompletedBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.DownloadBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.FPDControl;
+import se.sics.nstream.torrent.transfer.dwnl.event.WorkRequest;
 
 /**
  *
@@ -31,6 +33,8 @@ public class DwnlConnPort extends PortType {
     {
         request(FPDControl.class);
         request(DownloadBlocks.class);
+        request(CancelBlocks.class);
         indication(CompletedBlocks.class);
+        indication(WorkRequest.class);
     }
 }
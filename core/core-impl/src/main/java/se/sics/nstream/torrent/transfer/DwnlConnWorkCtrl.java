@@ -18,18 +18,21 @@
  */
 package se.sics.nstream.torrent.transfer;
 
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import org.javatuples.Pair;
+import se.sics.ktoolbox.util.reference.KReference;
 import se.sics.nstream.storage.cache.KHint;
+import se.sics.nstream.transfer.BlockBufferPool;
 import se.sics.nstream.transfer.BlockMngr;
 import se.sics.nstream.transfer.InMemoryBlockMngr;
+import se.sics.nstream.transfer.PooledBlockMngr;
 import se.sics.nstream.util.BlockDetails;
 
 /**
@@ -40,6 +43,12 @@ public class DwnlConnWorkCtrl {
   private static final int BATCHED_HASHES = 20;
 
   private final boolean withHashes;
+  private final BlockBufferPool blockPool;
+  private final int lowWatermark;
+  /**
+   * set when we asked for more work - cleared when new blocks arrive
+   */
+  private boolean workRequested = false;
   //**************************************************************************
   private final Map<Integer, BlockMngr> completedBlocks = new HashMap<>();
   /**
@@ -63,21 +72,30 @@ public class DwnlConnWorkCtrl {
   private final Set<Integer> pendingHashes = new TreeSet<>();
   private final Map<Integer, byte[]> completedHashes = new HashMap<>();
   //**************************************************************************
-  private KHint.Summary oldHint = new KHint.Summary(0, new TreeSet<Integer>());
+  private KHint.Summary oldHint = new KHint.Summary(0, new BitSet());
   private boolean cacheHintChanged = false; //new work or finishing a block changes this to true
   private boolean cacheConfirmed = true;
   //**************************************************************************
   private final Map<Integer, BlockMngr> ongoingBlocks = new HashMap<>();
-  private final TreeMap<Integer, LinkedList<Integer>> cachedPieces = new TreeMap<>();
-  private final TreeMap<Integer, Set<Integer>> pendingPieces = new TreeMap<>();
+  private final Map<Integer, BlockDetails> ongoingBlockDetails = new HashMap<>();
+  /**
+   * pieces are handed out as ranges within a block - the lowest pieces first,
+   * so fresh blocks give contiguous runs and only retransmissions leave holes
+   */
+  private final TreeMap<Integer, BitSet> cachedPieces = new TreeMap<>();
+  private final TreeMap<Integer, BitSet> pendingPieces = new TreeMap<>();
 
-  public DwnlConnWorkCtrl(BlockDetails defaultBlocksDetails, boolean withHashes) {
+  public DwnlConnWorkCtrl(BlockDetails defaultBlocksDetails, boolean withHashes, BlockBufferPool blockPool,
+    int lowWatermark) {
     this.defaultBlockDetails = defaultBlocksDetails;
     this.withHashes = withHashes;
+    this.blockPool = blockPool;
+    this.lowWatermark = lowWatermark;
   }
 
   public void add(Set<Integer> newBlocks, Map<Integer, BlockDetails> newIrregularBlocks) {
     cacheHintChanged = true;
+    workRequested = false;
     nextBlocks.addAll(newBlocks);
     irregularBlockDetails.putAll(newIrregularBlocks);
   }
@@ -122,9 +140,13 @@ public class DwnlConnWorkCtrl {
   }
 
   public void hashes(Map<Integer, byte[]> hashes) {
-    pendingHashes.removeAll(hashes.keySet());
-    completedHashes.putAll(hashes);
-    hashReadyBlocks.addAll(hashes.keySet());
+    for (Map.Entry<Integer, byte[]> hash : hashes.entrySet()) {
+      //cancelled blocks are no longer pending
+      if (pendingHashes.remove(hash.getKey())) {
+        completedHashes.put(hash.getKey(), hash.getValue());
+        hashReadyBlocks.add(hash.getKey());
+      }
+    }
   }
 
   public void hashTimeout(Set<Integer> hashes) {
@@ -148,51 +170,115 @@ public class DwnlConnWorkCtrl {
     return !cachedPieces.isEmpty();
   }
 
-  public Pair<Integer, Integer> nextPiece() {
-    Pair<Integer, Integer> nextPiece = removeNextPiece();
-    addPendingPiece(nextPiece);
-    return nextPiece;
+  /**
+   * @param maxPieces upper limit on the pieces in the range
+   * @return <blockNr, pieces> - all pieces belong to the same block
+   */
+  public Pair<Integer, BitSet> nextPieces(int maxPieces) {
+    Pair<Integer, BitSet> nextPieces = removeNextPieces(maxPieces);
+    addPendingPieces(nextPieces.getValue0(), nextPieces.getValue1());
+    return nextPieces;
   }
 
-  public void pieceTimeout(Pair<Integer, Integer> piece) {
-    if (removePendingPiece(piece)) {
-      addNextPiece(piece);
+  public void piecesTimeout(int blockNr, BitSet pieces) {
+    BitSet timedOut = removePendingPieces(blockNr, pieces);
+    if (!timedOut.isEmpty()) {
+      addNextPieces(blockNr, timedOut);
     }
   }
 
-  public void piece(Pair<Integer, Integer> piece, byte[] val) {
-    if (removePendingPiece(piece)) {
-      addToBlock(piece, val);
+  public void pieces(int blockNr, Map<Integer, ByteBuffer> vals) {
+    for (Map.Entry<Integer, ByteBuffer> piece : vals.entrySet()) {
+      if (removePendingPiece(blockNr, piece.getKey())) {
+        addToBlock(blockNr, piece.getKey(), piece.getValue());
+      }
     }
   }
 
-  public void latePiece(Pair<Integer, Integer> piece, byte[] val) {
-    if (removePendingPiece(piece)) {
-      addToBlock(piece, val);
+  public void latePieces(int blockNr, Map<Integer, ByteBuffer> vals) {
+    for (Map.Entry<Integer, ByteBuffer> piece : vals.entrySet()) {
+      if (removePendingPiece(blockNr, piece.getKey())) {
+        addToBlock(blockNr, piece.getKey(), piece.getValue());
+      }
+      if (removeNextPiece(blockNr, piece.getKey())) {
+        addToBlock(blockNr, piece.getKey(), piece.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return the size in bytes of the given pieces of the block - used for
+   * accounting the bytes in flight
+   */
+  public int piecesSize(int blockNr, BitSet pieces) {
+    BlockDetails bd = ongoingBlockDetails.get(blockNr);
+    if (bd == null) {
+      bd = defaultBlockDetails;
     }
-    if (removeNextPiece(piece)) {
-      addToBlock(piece, val);
+    int size = pieces.cardinality() * bd.defaultPieceSize;
+    if (pieces.get(bd.nrPieces - 1)) {
+      size = size - bd.defaultPieceSize + bd.lastPieceSize;
     }
+    return size;
   }
 
   public boolean hasComplete() {
     return !completedBlocks.isEmpty();
   }
 
-  //<hashes, blocks>
-  public Pair<Map<Integer, byte[]>, Map<Integer, byte[]>> getComplete() {
+  /**
+   * the block references are owned by the caller from now on
+   *
+   * @return <hashes, blocks>
+   */
+  public Pair<Map<Integer, byte[]>, Map<Integer, KReference<byte[]>>> getComplete() {
     Map<Integer, byte[]> hResult = new HashMap<>(completedHashes);
     completedHashes.clear();
 
-    Map<Integer, byte[]> bResult = new HashMap<>();
+    Map<Integer, KReference<byte[]>> bResult = new HashMap<>();
     for (Map.Entry<Integer, BlockMngr> completedBlock : completedBlocks.entrySet()) {
-      byte[] blockValue = completedBlock.getValue().getBlock();
-      bResult.put(completedBlock.getKey(), blockValue);
+      bResult.put(completedBlock.getKey(), completedBlock.getValue().getBlockRef());
     }
     completedBlocks.clear();
     return Pair.with(hResult, bResult);
   }
 
+  /**
+   * drops all state of the blocks - in flight requests for them turn into late responses
+   */
+  public void cancel(Set<Integer> blocks) {
+    for (Integer blockNr : blocks) {
+      nextBlocks.remove(blockNr);
+      pendingCacheBlocks.remove(blockNr);
+      cachedHashes.remove(blockNr);
+      pendingHashes.remove(blockNr);
+      hashReadyBlocks.remove(blockNr);
+      irregularBlockDetails.remove(blockNr);
+      cachedPieces.remove(blockNr);
+      pendingPieces.remove(blockNr);
+      ongoingBlockDetails.remove(blockNr);
+      BlockMngr bm = ongoingBlocks.remove(blockNr);
+      if (bm != null) {
+        bm.close();
+      }
+    }
+    cacheHintChanged = true;
+  }
+
+  /**
+   * gives back the pooled buffers of blocks that were not handed over
+   */
+  public void close() {
+    for (BlockMngr bm : ongoingBlocks.values()) {
+      bm.close();
+    }
+    ongoingBlocks.clear();
+    for (BlockMngr bm : completedBlocks.values()) {
+      bm.close();
+    }
+    completedBlocks.clear();
+  }
+
   //**************************************************************************
   private void newWorkPieces() {
     if (!hashReadyBlocks.isEmpty()) {
@@ -205,13 +291,14 @@ public class DwnlConnWorkCtrl {
   private void newPendingBlock(int blockNr) {
     BlockDetails bd = irregularBlockDetails.containsKey(blockNr) ? irregularBlockDetails.remove(blockNr)
       : defaultBlockDetails;
-    BlockMngr blockMngr = new InMemoryBlockMngr(bd);
+    //irregular(last) blocks are rare and of odd size - not pooled
+    BlockMngr blockMngr = bd.blockSize == blockPool.bufSize() ? new PooledBlockMngr(bd, blockPool)
+      : new InMemoryBlockMngr(bd);
     ongoingBlocks.put(blockNr, blockMngr);
-    LinkedList<Integer> pieceList = new LinkedList<>();
-    for (int i = 0; i < bd.nrPieces; i++) {
-      pieceList.add(i);
-    }
-    cachedPieces.put(blockNr, pieceList);
+    ongoingBlockDetails.put(blockNr, bd);
+    BitSet pieces = new BitSet(bd.nrPieces);
+    pieces.set(0, bd.nrPieces);
+    cachedPieces.put(blockNr, pieces);
   }
 
   private KHint.Summary rebuildCacheHint() {
@@ -219,85 +306,135 @@ public class DwnlConnWorkCtrl {
       pendingCacheBlocks.addAll(nextBlocks);
       nextBlocks.clear();
     }
-    Set<Integer> hint = new TreeSet<>();
-    hint.addAll(pendingCacheBlocks);
-    hint.addAll(cachedHashes);
-    hint.addAll(pendingHashes);
-    hint.addAll(hashReadyBlocks);
-    hint.addAll(ongoingBlocks.keySet());
+    BitSet hint = new BitSet();
+    setAll(hint, pendingCacheBlocks);
+    setAll(hint, cachedHashes);
+    setAll(hint, pendingHashes);
+    setAll(hint, hashReadyBlocks);
+    setAll(hint, ongoingBlocks.keySet());
 
     oldHint = new KHint.Summary(oldHint.lStamp + 1, hint);
     cacheHintChanged = false;
     return oldHint.copy();
   }
 
-  private void addNextPiece(Pair<Integer, Integer> piece) {
-    LinkedList<Integer> nextBlock = cachedPieces.get(piece.getValue0());
+  private static void setAll(BitSet bits, Set<Integer> blocks) {
+    for (Integer blockNr : blocks) {
+      bits.set(blockNr);
+    }
+  }
+
+  private void addNextPieces(int blockNr, BitSet pieces) {
+    BitSet nextBlock = cachedPieces.get(blockNr);
     if (nextBlock == null) {
-      nextBlock = new LinkedList<>();
-      cachedPieces.put(piece.getValue0(), nextBlock);
+      nextBlock = new BitSet();
+      cachedPieces.put(blockNr, nextBlock);
     }
-    nextBlock.add(piece.getValue1());
+    nextBlock.or(pieces);
   }
 
-  private Pair<Integer, Integer> removeNextPiece() {
-    Map.Entry<Integer, LinkedList<Integer>> nextBlock = cachedPieces.firstEntry();
-    Integer nextPiece = nextBlock.getValue().removeFirst();
+  private Pair<Integer, BitSet> removeNextPieces(int maxPieces) {
+    Map.Entry<Integer, BitSet> nextBlock = cachedPieces.firstEntry();
+    BitSet nextPieces = new BitSet();
+    int nrPieces = 0;
+    for (int i = nextBlock.getValue().nextSetBit(0); i >= 0 && nrPieces < maxPieces;
+      i = nextBlock.getValue().nextSetBit(i + 1)) {
+      nextPieces.set(i);
+      nrPieces++;
+    }
+    nextBlock.getValue().andNot(nextPieces);
     if (nextBlock.getValue().isEmpty()) {
       cachedPieces.remove(nextBlock.getKey());
     }
-    return Pair.with(nextBlock.getKey(), nextPiece);
+    return Pair.with(nextBlock.getKey(), nextPieces);
   }
 
-  private boolean removeNextPiece(Pair<Integer, Integer> piece) {
-    boolean result = false;
-    LinkedList<Integer> block = cachedPieces.get(piece.getValue0());
-    if (block != null) {
-      result = block.remove(piece.getValue1());
-      if (block.isEmpty()) {
-        cachedPieces.remove(piece.getValue0());
-      }
+  private boolean removeNextPiece(int blockNr, int pieceNr) {
+    BitSet block = cachedPieces.get(blockNr);
+    if (block == null || !block.get(pieceNr)) {
+      return false;
     }
-    return result;
+    block.clear(pieceNr);
+    if (block.isEmpty()) {
+      cachedPieces.remove(blockNr);
+    }
+    return true;
   }
 
-  private void addPendingPiece(Pair<Integer, Integer> piece) {
-    Set<Integer> pendingBlock = pendingPieces.get(piece.getValue0());
+  private void addPendingPieces(int blockNr, BitSet pieces) {
+    BitSet pendingBlock = pendingPieces.get(blockNr);
     if (pendingBlock == null) {
-      pendingBlock = new HashSet<>();
-      pendingPieces.put(piece.getValue0(), pendingBlock);
+      pendingBlock = new BitSet();
+      pendingPieces.put(blockNr, pendingBlock);
     }
-    pendingBlock.add(piece.getValue1());
+    pendingBlock.or(pieces);
   }
 
-  private Boolean removePendingPiece(Pair<Integer, Integer> piece) {
-    Set<Integer> pendingBlock = pendingPieces.get(piece.getValue0());
+  /**
+   * @return the subset of the given pieces that was still pending
+   */
+  private BitSet removePendingPieces(int blockNr, BitSet pieces) {
+    BitSet pendingBlock = pendingPieces.get(blockNr);
     if (pendingBlock == null) {
-      return false;
+      return new BitSet();
     }
-    boolean result = pendingBlock.remove(piece.getValue1());
+    BitSet result = (BitSet) pieces.clone();
+    result.and(pendingBlock);
+    pendingBlock.andNot(result);
     if (pendingBlock.isEmpty()) {
-      pendingPieces.remove(piece.getValue0());
+      pendingPieces.remove(blockNr);
     }
     return result;
   }
 
-  private void addToBlock(Pair<Integer, Integer> piece, byte[] val) {
-    BlockMngr bm = ongoingBlocks.get(piece.getValue0());
+  private boolean removePendingPiece(int blockNr, int pieceNr) {
+    BitSet pendingBlock = pendingPieces.get(blockNr);
+    if (pendingBlock == null || !pendingBlock.get(pieceNr)) {
+      return false;
+    }
+    pendingBlock.clear(pieceNr);
+    if (pendingBlock.isEmpty()) {
+      pendingPieces.remove(blockNr);
+    }
+    return true;
+  }
+
+  private void addToBlock(int blockNr, int pieceNr, ByteBuffer val) {
+    BlockMngr bm = ongoingBlocks.get(blockNr);
     if (bm == null) {
       return;
     }
-    if (bm.hasPiece(piece.getValue1())) {
+    if (bm.hasPiece(pieceNr)) {
       return;
     }
-    bm.writePiece(piece.getValue1(), val);
+    bm.writePiece(pieceNr, val);
     if (bm.isComplete()) {
       cacheHintChanged = true;
-      ongoingBlocks.remove(piece.getValue0());
-      completedBlocks.put(piece.getValue0(), bm);
+      ongoingBlocks.remove(blockNr);
+      ongoingBlockDetails.remove(blockNr);
+      completedBlocks.put(blockNr, bm);
     }
   }
 
+  /**
+   * @return blocks that still have pieces to be requested
+   */
+  public int queuedBlocks() {
+    return nextBlocks.size() + pendingCacheBlocks.size() + cachedHashes.size() + pendingHashes.size()
+      + hashReadyBlocks.size() + cachedPieces.size();
+  }
+
+  /**
+   * one request per refill - the next one only after new blocks arrived
+   */
+  public boolean needsWork() {
+    return !workRequested && queuedBlocks() < lowWatermark;
+  }
+
+  public void workRequested() {
+    workRequested = true;
+  }
+
   public int blockSize() {
     return nextBlocks.size() + pendingCacheBlocks.size() + cachedHashes.size() + pendingHashes.size() 
       + hashReadyBlocks.size() + ongoingBlocks.size();
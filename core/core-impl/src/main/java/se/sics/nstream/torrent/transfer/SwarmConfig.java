@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer;
+
+import se.sics.kompics.config.Config;
+import se.sics.nstream.torrent.connMngr.SlotAllocator;
+import se.sics.nstream.torrent.connMngr.TorrentConnMngr;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class SwarmConfig {
+  public static class Names {
+    public static String FILE_SLOTS = "transfer.swarm.fileSlots";
+    public static String MIN_SLOTS = "transfer.swarm.minSlots";
+    public static String INITIAL_SLOTS = "transfer.swarm.initialSlots";
+    public static String ENDGAME = "transfer.swarm.endgame";
+    public static String STALL_TIMEOUT = "transfer.swarm.stallTimeout";
+  }
+  
+  /**
+   * blocks in flight per file, over all its peers
+   */
+  public static final int DEFAULT_FILE_SLOTS = TorrentConnMngr.MAX_FILE_BUF;
+  /**
+   * even the slowest peer keeps a few blocks, so its throughput can still be measured
+   */
+  public static final int DEFAULT_MIN_SLOTS = 2;
+  /**
+   * window of a peer before its first throughput report
+   */
+  public static final int DEFAULT_INITIAL_SLOTS = 20;
+  public static final boolean DEFAULT_ENDGAME = true;
+  /**
+   * a block held this long is a candidate for a duplicate request on a faster peer
+   */
+  public static final long DEFAULT_STALL_TIMEOUT = 5000;
+  public final int fileSlots;
+  public final int minSlots;
+  public final int initialSlots;
+  public final boolean endgame;
+  public final long stallTimeout;
+  
+  public SwarmConfig(Config config) {
+    fileSlots = Math.max(1, config.getValueOrDefault(Names.FILE_SLOTS, DEFAULT_FILE_SLOTS));
+    minSlots = Math.max(1, config.getValueOrDefault(Names.MIN_SLOTS, DEFAULT_MIN_SLOTS));
+    initialSlots = Math.max(minSlots, config.getValueOrDefault(Names.INITIAL_SLOTS, DEFAULT_INITIAL_SLOTS));
+    endgame = config.getValueOrDefault(Names.ENDGAME, DEFAULT_ENDGAME);
+    stallTimeout = config.getValueOrDefault(Names.STALL_TIMEOUT, DEFAULT_STALL_TIMEOUT);
+  }
+  
+  public SlotAllocator allocator() {
+    return new SlotAllocator(fileSlots, minSlots, initialSlots);
+  }
+}
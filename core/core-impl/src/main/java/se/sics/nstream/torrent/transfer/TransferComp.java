@@ -21,6 +21,8 @@ package se.sics.nstream.torrent.transfer;
 import com.google.common.base.Optional;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -47,6 +49,7 @@ import se.sics.kompics.timer.SchedulePeriodicTimeout;
 import se.sics.kompics.timer.Timeout;
 import se.sics.kompics.timer.Timer;
 import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
 import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
 import se.sics.ktoolbox.util.idextractor.MsgOverlayIdExtractor;
 import se.sics.ktoolbox.util.idextractor.SourceHostIdExtractor;
@@ -65,12 +68,18 @@ import se.sics.nstream.TorrentIds;
 import se.sics.nstream.storage.durable.DStoragePort;
 import se.sics.nstream.storage.durable.events.DStorageWrite;
 import se.sics.nstream.storage.durable.util.MyStream;
+import se.sics.nstream.storage.hash.HashVerifier;
+import se.sics.nstream.storage.hash.HashVerifierConfig;
+import se.sics.nstream.storage.hash.HashVerifierPort;
+import se.sics.nstream.storage.hash.HashWorkerComp;
+import se.sics.nstream.storage.hash.HashWorkerIdExtractor;
 import se.sics.nstream.torrent.conn.ConnectionComp;
 import se.sics.nstream.torrent.conn.ConnectionPort;
 import se.sics.nstream.torrent.conn.event.CloseTransfer;
 import se.sics.nstream.torrent.conn.event.DetailedState;
 import se.sics.nstream.torrent.conn.event.OpenTransfer;
 import se.sics.nstream.torrent.conn.event.Seeder;
+import se.sics.nstream.torrent.connMngr.BlockScheduler;
 import se.sics.nstream.torrent.connMngr.TorrentConnMngr;
 import se.sics.nstream.torrent.connMngr.TorrentConnMngr.ConnResult;
 import se.sics.nstream.torrent.fileMngr.TFileRead;
@@ -81,13 +90,16 @@ import se.sics.nstream.torrent.resourceMngr.PrepareResources;
 import se.sics.nstream.torrent.resourceMngr.ResourceMngrPort;
 import se.sics.nstream.torrent.tracking.TorrentTrackingPort;
 import se.sics.nstream.torrent.tracking.event.TorrentTracking;
+import se.sics.nstream.torrent.transfer.dwnl.event.CancelBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.CompletedBlocks;
 import se.sics.nstream.torrent.transfer.dwnl.event.DownloadBlocks;
+import se.sics.nstream.torrent.transfer.dwnl.event.WorkRequest;
 import se.sics.nstream.torrent.transfer.event.ctrl.GetRawTorrent;
 import se.sics.nstream.torrent.transfer.event.ctrl.SetupTransfer;
 import se.sics.nstream.torrent.transfer.tracking.TransferReportPort;
 import se.sics.nstream.torrent.transfer.tracking.TransferTrackingComp;
 import se.sics.nstream.torrent.transfer.tracking.TransferTrackingPort;
+import se.sics.nstream.torrent.transfer.tracking.DownloadTrackingTrace;
 import se.sics.nstream.torrent.transfer.tracking.TransferTrackingReport;
 import se.sics.nstream.torrent.transfer.upld.event.GetBlocks;
 import se.sics.nstream.torrent.util.EventTorrentConnIdExtractor;
@@ -97,6 +109,7 @@ import se.sics.nstream.transfer.MyTorrent.Manifest;
 import se.sics.nstream.transfer.MyTorrent.ManifestDef;
 import se.sics.nstream.util.BlockDetails;
 import se.sics.nstream.util.actuator.ComponentLoadTracking;
+import se.sics.nstream.util.metrics.MetricsRegistry;
 import se.sics.nstream.util.result.HashReadCallback;
 import se.sics.nstream.util.result.ReadCallback;
 import se.sics.nutil.tracking.load.QueueLoadConfig;
@@ -129,15 +142,22 @@ public class TransferComp extends ComponentDefinition {
   Positive<UpldConnPort> upldConnPort = requires(UpldConnPort.class);
   //conn ports
   Positive<ConnectionPort> connPort = requires(ConnectionPort.class);
+  //hash workers
+  Positive<HashVerifierPort> hashPort = requires(HashVerifierPort.class);
   //local multiplexing channels
   private One2NChannel<Network> connNetworkChannel;
   private One2NChannel<Network> transferNetworkChannel;
   private One2NChannel<DwnlConnPort> dwnlConnChannel;
   private One2NChannel<UpldConnPort> upldConnChannel;
+  private One2NChannel<HashVerifierPort> hashChannel;
   //**************************************************************************
   private final ComponentLoadTracking componentTracking;
   private TorrentFileMngr fileMngr;
+  private HashVerifier hashVerifier;
   private final TorrentConnMngr connMngr;
+  private final BlockSchedulerConfig schedulerConfig;
+  private final BlockScheduler scheduler;
+  private final SwarmConfig swarmConfig;
   //**************************************************************************
   private ConnectionState connState;
   private ServeDefinitionState serveDefState;
@@ -157,9 +177,14 @@ public class TransferComp extends ComponentDefinition {
     logPrefix = "<nid:" + selfAdr.getId() + ",oid:" + torrentId + ">";
     torrentConfig = new TorrentConfig();
 
-    componentTracking = new ComponentLoadTracking("torrent", this.proxy, new QueueLoadConfig(config()));
+    componentTracking = new ComponentLoadTracking("torrent", this.proxy, new QueueLoadConfig(config()),
+      MetricsRegistry.instance().scope("torrent", torrentId.toString()));
     buildChannels();
-    connMngr = new TorrentConnMngr(componentTracking, init.partners);
+    schedulerConfig = new BlockSchedulerConfig(config());
+    scheduler = schedulerConfig.scheduler();
+    swarmConfig = new SwarmConfig(config());
+    connMngr = new TorrentConnMngr(componentTracking, init.partners, schedulerConfig.maxOngoingFiles,
+      swarmConfig.allocator());
 
     subscribe(handleStart, control);
     subscribe(handleKilled, control);
@@ -181,6 +206,7 @@ public class TransferComp extends ComponentDefinition {
 
     subscribe(handleGetBlocks, upldConnPort);
     subscribe(handleCompletedBlocks, dwnlConnPort);
+    subscribe(handleWorkRequest, dwnlConnPort);
   }
 
   private void buildChannels() {
@@ -194,6 +220,7 @@ public class TransferComp extends ComponentDefinition {
       new EventTorrentConnIdExtractor());
     upldConnChannel = One2NChannel.getChannel("torrentUpldConn", (Negative) upldConnPort.getPair(),
       new EventTorrentConnIdExtractor());
+    hashChannel = One2NChannel.getChannel("torrentHash", (Negative) hashPort.getPair(), new HashWorkerIdExtractor());
   }
 
   Handler handleStart = new Handler<Start>() {
@@ -209,6 +236,10 @@ public class TransferComp extends ComponentDefinition {
 
   @Override
   public void tearDown() {
+    if (hashVerifier != null) {
+      hashVerifier.close();
+    }
+    componentTracking.close();
   }
 
   Handler handleKilled = new Handler<Killed>() {
@@ -319,7 +350,8 @@ public class TransferComp extends ComponentDefinition {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
       }
     };
-    fileMngr = TorrentFileMngr.create(config(), proxy, deh, componentTracking, torrent, streamsInfo);
+    hashVerifier = createHashWorkers();
+    fileMngr = TorrentFileMngr.create(config(), proxy, deh, componentTracking, hashVerifier, torrent, streamsInfo);
     fileMngr.start();
 
     //transfer report
@@ -333,11 +365,35 @@ public class TransferComp extends ComponentDefinition {
     @Override
     public void handle(TransferTrackingReport event) {
       LOG.debug("{}transfer report", logPrefix);
+      //peer windows follow what each connection delivered
+      for (Map.Entry<ConnId, DownloadTrackingTrace> conn : event.downloadReport.connections.entrySet()) {
+        connMngr.throughput(conn.getKey(), conn.getValue().throughput.inTimeThroughput);
+      }
+      connMngr.allocateSlots();
       TorrentTracking.Indication report = new TorrentTracking.Indication(fileMngr.report(), event.downloadReport);
       trigger(report, statusPort);
     }
   };
   //**************************************************************************
+  private HashVerifier createHashWorkers() {
+    HashVerifierConfig hashConfig = new HashVerifierConfig(config());
+    List<Identifier> workers = new ArrayList<>();
+    for (int i = 0; i < hashConfig.workers; i++) {
+      Identifier workerId = BasicIdentifiers.eventId();
+      Component hashWorker = create(HashWorkerComp.class, new HashWorkerComp.Init(workerId));
+      hashChannel.addChannel(workerId, hashWorker.getNegative(HashVerifierPort.class));
+      trigger(Start.event, hashWorker.control());
+      workers.add(workerId);
+    }
+    HashVerifier.Backpressure backpressure = new HashVerifier.Backpressure() {
+      @Override
+      public void resume() {
+        tryAdvance();
+      }
+    };
+    return new HashVerifier(hashConfig, proxy, workers, backpressure);
+  }
+
   Handler handleAdvance = new Handler<AdvanceTimeout>() {
     @Override
     public void handle(AdvanceTimeout event) {
@@ -355,42 +411,97 @@ public class TransferComp extends ComponentDefinition {
       trigger(new TorrentTracking.DownloadDone(torrentId, fileMngr.report()), statusPort);
     }
 
-    FileId fileId = connMngr.canAdvanceFile();
-    if (fileId != null) {
-      TFileWrite fileWriter = fileMngr.writeTo(fileId);
-      if (fileWriter.isComplete()) {
-        LOG.info("{}file:{} completed", new Object[]{logPrefix, fileId});
-        fileMngr.complete(fileId);
-        getFilesState.killInstances(fileId, connMngr.closeFileConnection(fileId));
-        fileWriteClose(fileId);
-        return;
+    //new files first, so they count in the window and take part in this round
+    startPendingFiles();
+    int budget = BlockScheduler.Rounds.advance(advanceTurns, advanceBudget(), scheduler.quantum());
+    LOG.debug("{}advance - budget left:{}", logPrefix, budget);
+  }
+
+  private final BlockScheduler.Turns advanceTurns = new BlockScheduler.Turns() {
+    @Override
+    public List<List<FileId>> tiers() {
+      for (List<FileId> tier : connMngr.advanceableFiles(scheduler)) {
+        for (FileId fileId : tier) {
+          if (fileMngr.writeTo(fileId).isComplete()) {
+            LOG.info("{}file:{} completed", new Object[]{logPrefix, fileId});
+            fileMngr.complete(fileId);
+            getFilesState.killInstances(fileId, connMngr.closeFileConnection(fileId));
+            fileWriteClose(fileId);
+          }
+        }
+      }
+      //slots of completed files go to pending files this round
+      startPendingFiles();
+      return connMngr.advanceableFiles(scheduler);
+    }
+
+    @Override
+    public int turn(FileId fileId, int max) {
+      if (hashVerifier.isFull()) {
+        //verified blocks free up the pipeline - we resume then
+        LOG.debug("{}advance - hash verifier full:{}", logPrefix, hashVerifier.pending());
+        return BlockScheduler.STOP;
       }
-      int batchSize = 2;
+      return advanceFile(fileId, fileMngr.writeTo(fileId), max);
+    }
+  };
+
+  private void startPendingFiles() {
+    while (connMngr.canStartNewFile() && fileMngr.hasPending()) {
+      FileId fileId = fileMngr.nextPending().getValue0();
+      LOG.debug("{}advance - new file:{}", logPrefix, fileId);
+      connMngr.newFileConnection(fileId);
+    }
+  }
+
+  /**
+   * the free window of the open files, so the blocks handed out follow the peer windows - capped by advanceBudget if
+   * set
+   */
+  private int advanceBudget() {
+    int window = connMngr.freeWindow();
+    return schedulerConfig.advanceBudget > 0 ? Math.min(window, schedulerConfig.advanceBudget) : window;
+  }
+
+  /**
+   * @return blocks placed - a block waiting on a new peer or file connection ends the turn of the file, so it does
+   * not queue a whole quantum behind a connection that is not established yet
+   */
+  private int advanceFile(FileId fileId, TFileWrite fileWriter, int quantum) {
+    int placed = 0;
+    while (placed < quantum) {
       Pair<Integer, Optional<BlockDetails>> block = nextBlock(fileWriter);
-      while (block != null && batchSize > 0) {
-        batchSize--;
-        if (!advanceConn(fileId, block.getValue0(), block.getValue1())) {
-          break;
+      if (block == null) {
+        if (swarmConfig.endgame) {
+          placed += endgame(fileId);
         }
-        block = nextBlock(fileWriter);
+        break;
       }
-      if (block != null) {
+      ConnResult result = advanceConn(fileId, block.getValue0(), block.getValue1());
+      if (result instanceof TorrentConnMngr.FailConnection) {
         fileWriter.resetBlock(block.getValue0());
+        break;
       }
-      if (batchSize == 0) {
-        return;
+      placed++;
+      if (!(result instanceof TorrentConnMngr.UseFileConnection)) {
+        break;
       }
     }
-    if (connMngr.canStartNewFile()) {
-      if (fileMngr.hasPending()) {
-        Pair<FileId, Map<StreamId, MyStream>> resource = fileMngr.nextPending();
-        fileId = resource.getValue0();
-        LOG.debug("{}advance - new file:{}", logPrefix, fileId);
-        connMngr.newFileConnection(fileId);
-        return;
-      }
+    return placed;
+  }
+
+  /**
+   * all blocks of the file are in flight - the stalled ones are requested once more from faster peers
+   */
+  private int endgame(FileId fileId) {
+    List<TorrentConnMngr.UseFileConnection> duplicates = connMngr.endgame(fileId, System.currentTimeMillis(),
+      swarmConfig.stallTimeout);
+    for (TorrentConnMngr.UseFileConnection duplicate : duplicates) {
+      LOG.debug("{}endgame - conn:{} duplicate block:{}", new Object[]{logPrefix, duplicate.connId,
+        duplicate.blockNr});
+      getFilesState.useFileConnection(duplicate);
     }
-    LOG.debug("{}advance - waiting", logPrefix);
+    return duplicates.size();
   }
 
   private void fileWriteClose(FileId fileId) {
@@ -408,22 +519,22 @@ public class TransferComp extends ComponentDefinition {
     return null;
   }
 
-  private boolean advanceConn(FileId fileId, int blockNr, Optional<BlockDetails> irregularBlock) {
+  private ConnResult advanceConn(FileId fileId, int blockNr, Optional<BlockDetails> irregularBlock) {
     ConnResult result = connMngr.attemptSlot(fileId, blockNr, irregularBlock);
     if (result instanceof TorrentConnMngr.FailConnection) {
-      return false;
+      return result;
     } else if (result instanceof TorrentConnMngr.UseFileConnection) {
       TorrentConnMngr.UseFileConnection openedConn = (TorrentConnMngr.UseFileConnection) result;
       getFilesState.useFileConnection(openedConn);
-      return true;
+      return result;
     } else if (result instanceof TorrentConnMngr.NewFileConnection) {
       TorrentConnMngr.NewFileConnection newConn = (TorrentConnMngr.NewFileConnection) result;
       getFilesState.newFileConnection(newConn);
-      return true;
+      return result;
     } else if (result instanceof TorrentConnMngr.NewPeerConnection) {
       TorrentConnMngr.NewPeerConnection newConn = (TorrentConnMngr.NewPeerConnection) result;
       getFilesState.newPeerConnection(newConn);
-      return true;
+      return result;
     } else {
       throw new RuntimeException("ups");
     }
@@ -561,32 +672,80 @@ public class TransferComp extends ComponentDefinition {
         }
         getDefState.handleBlockCompleted(event);
       } else {
-        writeToFile(event.connId.fileId, event.blocks, event.hashes);
-        updateConn(event.connId, event.blocks);
+        Set<Integer> won = updateConn(event.connId, event.blocks);
+        Map<Integer, KReference<byte[]>> blocks = new HashMap<>();
+        Map<Integer, byte[]> hashes = new HashMap<>(event.hashes);
+        for (Map.Entry<Integer, KReference<byte[]>> block : event.blocks.entrySet()) {
+          if (won.contains(block.getKey())) {
+            blocks.put(block.getKey(), block.getValue());
+          } else {
+            //the endgame duplicate that lost the race
+            hashes.remove(block.getKey());
+            silentRelease(block.getValue());
+          }
+        }
+        writeToFile(event.connId.fileId, blocks, hashes);
         tryAdvance();
       }
     }
   };
 
-  private void writeToFile(FileId fileId, Map<Integer, byte[]> blocks, Map<Integer, byte[]> hashes) {
+  /**
+   * connections pull work as they drain - the advance timer is only a fallback
+   */
+  Handler handleWorkRequest = new Handler<WorkRequest>() {
+    @Override
+    public void handle(WorkRequest event) {
+      LOG.debug("{}conn:{} work request - queued blocks:{}", new Object[]{logPrefix, event.connId,
+        event.queuedBlocks});
+      if (event.connId.fileId.fileNr != DEF_FILE_NR) {
+        tryAdvance();
+      }
+    }
+  };
+
+  private void writeToFile(FileId fileId, Map<Integer, KReference<byte[]>> blocks, Map<Integer, byte[]> hashes) {
     TFileWrite fileWriter = fileMngr.writeTo(fileId);
     fileWriter.hashes(hashes, new HashSet<Integer>());
-    for (Map.Entry<Integer, byte[]> block : blocks.entrySet()) {
-      KReference<byte[]> ref = KReferenceFactory.getReference(block.getValue());
-      fileWriter.block(block.getKey(), ref);
-      try {
-        ref.release();
-      } catch (KReferenceException ex) {
-        throw new RuntimeException(ex);
-      }
+    for (Map.Entry<Integer, KReference<byte[]>> block : blocks.entrySet()) {
+      //the writer retains what it keeps - we release the event's reference
+      fileWriter.block(block.getKey(), block.getValue());
+      silentRelease(block.getValue());
     }
   }
 
-  private void updateConn(ConnId connId, Map<Integer, byte[]> blocks) {
-    for (Integer blockNr : blocks.keySet()) {
-      connMngr.releaseSlot(connId, blockNr);
+  private void silentRelease(KReference<byte[]> ref) {
+    try {
+      ref.release();
+    } catch (KReferenceException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
 
+  /**
+   * @return the blocks this connection completed first - endgame copies held by other connections are cancelled
+   */
+  private Set<Integer> updateConn(ConnId connId, Map<Integer, KReference<byte[]>> blocks) {
+    Set<Integer> won = new HashSet<>();
+    Map<ConnId, Set<Integer>> cancel = new HashMap<>();
+    for (Integer blockNr : blocks.keySet()) {
+      if (!connMngr.releaseSlot(connId, blockNr)) {
+        continue;
+      }
+      won.add(blockNr);
+      for (ConnId other : connMngr.releaseDuplicates(connId, blockNr)) {
+        Set<Integer> otherBlocks = cancel.get(other);
+        if (otherBlocks == null) {
+          otherBlocks = new HashSet<>();
+          cancel.put(other, otherBlocks);
+        }
+        otherBlocks.add(blockNr);
+      }
+    }
+    for (Map.Entry<ConnId, Set<Integer>> c : cancel.entrySet()) {
+      trigger(new CancelBlocks(c.getKey(), c.getValue()), dwnlConnPort);
     }
+    return won;
   }
 
   //*********************************STATES***********************************
@@ -671,7 +830,14 @@ public class TransferComp extends ComponentDefinition {
         throw new RuntimeException("ups");
       }
 
-      tdBuilder.manifestBuilder.addBlocks(event.blocks);
+      //the manifest keeps its blocks - copy them out of the pooled buffers
+      Map<Integer, byte[]> blocks = new TreeMap<>();
+      for (Map.Entry<Integer, KReference<byte[]>> block : event.blocks.entrySet()) {
+        byte[] val = block.getValue().getValue().get();
+        blocks.put(block.getKey(), Arrays.copyOf(val, val.length));
+        silentRelease(block.getValue());
+      }
+      tdBuilder.manifestBuilder.addBlocks(blocks);
 
       if (tdBuilder.manifestBuilder.blocksComplete()) {
         interpretManifest(tdBuilder.manifestBuilder.build());
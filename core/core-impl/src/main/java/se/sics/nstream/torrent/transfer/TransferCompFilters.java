@@ -32,6 +32,7 @@ import se.sics.nstream.torrent.conn.msg.NetOpenTransfer;
 import se.sics.nstream.torrent.transfer.msg.CacheHint;
 import se.sics.nstream.torrent.transfer.msg.DownloadHash;
 import se.sics.nstream.torrent.transfer.msg.DownloadPiece;
+import se.sics.nstream.torrent.transfer.msg.DownloadPieces;
 
 /**
  *
@@ -73,6 +74,9 @@ public class TransferCompFilters {
             allowedClasses.add(CacheHint.Response.class);
             allowedClasses.add(DownloadPiece.Request.class);
             allowedClasses.add(DownloadPiece.Success.class);
+            allowedClasses.add(DownloadPieces.Request.class);
+            allowedClasses.add(DownloadPieces.Success.class);
+            allowedClasses.add(DownloadPieces.BadRequest.class);
             allowedClasses.add(DownloadHash.Request.class);
             allowedClasses.add(DownloadHash.Success.class);
         }
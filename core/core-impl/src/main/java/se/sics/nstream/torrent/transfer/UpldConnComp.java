@@ -19,12 +19,13 @@
 package se.sics.nstream.torrent.transfer;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.Sets;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
@@ -51,6 +52,7 @@ import se.sics.nstream.ConnId;
 import se.sics.nstream.torrent.transfer.msg.CacheHint;
 import se.sics.nstream.torrent.transfer.msg.DownloadHash;
 import se.sics.nstream.torrent.transfer.msg.DownloadPiece;
+import se.sics.nstream.torrent.transfer.msg.DownloadPieces;
 import se.sics.nstream.torrent.transfer.upld.event.GetBlocks;
 import se.sics.nstream.torrent.transfer.upld.event.UpldConnReport;
 import se.sics.nstream.util.BlockDetails;
@@ -143,21 +145,32 @@ public class UpldConnComp extends ComponentDefinition {
           LOG.debug("{}cache:{} req - ts:{} blocks:{}",
             new Object[]{logPrefix, content.getId(), content.requestCache.lStamp, content.requestCache.blocks});
           pendingCacheReq = context;
-          Set<Integer> newCache = Sets.difference(content.requestCache.blocks, servedBlocks.keySet());
-          Set<Integer> delCache = new HashSet<>(Sets.difference(servedBlocks.keySet(), content.requestCache.blocks));
+          //bitmap lookups - no boxed set differences
+          BitSet hinted = content.requestCache.bitmap();
+          Set<Integer> newCache = new TreeSet<>();
+          for (int blockNr = hinted.nextSetBit(0); blockNr >= 0; blockNr = hinted.nextSetBit(blockNr + 1)) {
+            if (!servedBlocks.containsKey(blockNr)) {
+              newCache.add(blockNr);
+            }
+          }
+          //release references that were retained when given to us
+          Iterator<Map.Entry<Integer, KReference<byte[]>>> it = servedBlocks.entrySet().iterator();
+          while (it.hasNext()) {
+            Map.Entry<Integer, KReference<byte[]>> served = it.next();
+            int blockNr = served.getKey();
+            if (!hinted.get(blockNr)) {
+              it.remove();
+              servedHashes.remove(blockNr);
+              irregularBlocks.remove(blockNr);
+              silentRelease(served.getValue());
+            }
+          }
 
           if (!newCache.isEmpty()) {
             trigger(new GetBlocks.Request(connId, newCache, withHashes, content.requestCache), connPort);
           } else {
             answerCacheHint();
           }
-          //release references that were retained when given to us
-          for (Integer blockNr : delCache) {
-            KReference<byte[]> block = servedBlocks.remove(blockNr);
-            servedHashes.remove(blockNr);
-            irregularBlocks.remove(blockNr);
-            silentRelease(block);
-          }
         }
       }
     };
@@ -184,7 +197,9 @@ public class UpldConnComp extends ComponentDefinition {
       @Override
       public void handle(LedbatMsg.Request content, KContentMsg<KAddress, KHeader<KAddress>, LedbatMsg.Request> context) {
         Object baseContent = content.extractValue();
-        if (baseContent instanceof DownloadPiece.Request) {
+        if (baseContent instanceof DownloadPieces.Request) {
+          handlePieces(context, content);
+        } else if (baseContent instanceof DownloadPiece.Request) {
           handlePiece(context, content);
         } else if (baseContent instanceof DownloadHash.Request) {
           handleHashes(context, content);
@@ -212,6 +227,27 @@ public class UpldConnComp extends ComponentDefinition {
     }
   }
 
+  public void handlePieces(KContentMsg msg, LedbatMsg.Request<DownloadPieces.Request> content) {
+    DownloadPieces.Request req = content.extractValue();
+    BlockDetails blockDetails = irregularBlocks.containsKey(req.blockNr) ? irregularBlocks.get(req.blockNr) : defaultBlock;
+    KReference<byte[]> block = servedBlocks.get(req.blockNr);
+    if (block == null || req.pieces.length() > blockDetails.nrPieces) {
+      LedbatMsg.Response ledbatContent = content.answer(req.badRequest());
+      answerMsg(msg, ledbatContent);
+    } else {
+      long blockPos = BlockHelper.getBlockPos(req.blockNr, defaultBlock);
+      Map<Integer, KReference<byte[]>> pieces = new TreeMap<>();
+      BitSet p = req.pieces;
+      for (int pieceNr = p.nextSetBit(0); pieceNr >= 0; pieceNr = p.nextSetBit(pieceNr + 1)) {
+        KPiece pieceRange = BlockHelper.getPieceRange(req.blockNr, pieceNr, blockDetails, defaultBlock);
+        //retain block here(range create) - release in serializer
+        pieces.put(pieceNr, RangeKReference.createInstance(block, blockPos, pieceRange));
+      }
+      LedbatMsg.Response ledbatContent = content.answer(req.success(pieces));
+      answerMsg(msg, ledbatContent);
+    }
+  }
+
   public void handleHashes(KContentMsg msg, LedbatMsg.Request<DownloadHash.Request> content) {
     Map<Integer, byte[]> hashValues = new TreeMap<>();
     for (Integer hashNr : content.extractValue().hashes) {
@@ -22,6 +22,7 @@ import java.util.Map;
 import se.sics.kompics.util.Identifier;
 import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
 import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.reference.KReference;
 import se.sics.nstream.ConnId;
 import se.sics.nstream.torrent.transfer.TorrentConnEvent;
 
@@ -32,9 +33,12 @@ public class CompletedBlocks implements TorrentConnEvent {
     public final Identifier eventId;
     public final ConnId connId;
     public final Map<Integer, byte[]> hashes;
-    public final Map<Integer, byte[]> blocks;
+    /**
+     * the event owns one reference to each block - the handler releases it
+     */
+    public final Map<Integer, KReference<byte[]>> blocks;
     
-    public CompletedBlocks(ConnId connId, Map<Integer, byte[]> hashes, Map<Integer, byte[]> blocks) {
+    public CompletedBlocks(ConnId connId, Map<Integer, byte[]> hashes, Map<Integer, KReference<byte[]>> blocks) {
         this.eventId = BasicIdentifiers.eventId();
         this.connId = connId;
         this.hashes = hashes;
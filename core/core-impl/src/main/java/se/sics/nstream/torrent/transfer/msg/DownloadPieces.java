@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.msg;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.Either;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.reference.KReference;
+import se.sics.nstream.ConnId;
+import se.sics.nstream.FileId;
+import se.sics.nstream.TorrentIds;
+
+/**
+ * Range request - asks for a set of pieces of a single block in one message.
+ * The pieces are usually a contiguous run, but any subset of the block is
+ * allowed (retransmissions leave holes). The serializer picks the compact
+ * encoding (run or bitmap).
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DownloadPieces {
+
+  public static class Request implements ConnectionMsg {
+
+    public final Identifier msgId;
+    public final FileId fileId;
+    public final int blockNr;
+    public final BitSet pieces;
+
+    protected Request(Identifier msgId, FileId fileId, int blockNr, BitSet pieces) {
+      this.msgId = msgId;
+      this.fileId = fileId;
+      this.blockNr = blockNr;
+      this.pieces = pieces;
+    }
+
+    public Request(FileId fileId, int blockNr, BitSet pieces) {
+      this(BasicIdentifiers.msgId(), fileId, blockNr, pieces);
+    }
+
+    @Override
+    public Identifier getId() {
+      return msgId;
+    }
+
+    @Override
+    public OverlayId overlayId() {
+      return fileId.torrentId;
+    }
+
+    @Override
+    public ConnId getConnectionId(Identifier peer) {
+      return TorrentIds.connId(fileId, peer, false);
+    }
+
+    /**
+     * @param vals one retained reference per requested piece - released by the serializer
+     */
+    public Success success(Map<Integer, KReference<byte[]>> vals) {
+      return new Success(this, vals);
+    }
+
+    public BadRequest badRequest() {
+      return new BadRequest(this);
+    }
+
+    @Override
+    public String toString() {
+      return "DwnlPiecesReq<" + fileId.toString() + ",b:" + blockNr + ",p:" + pieces + "," + msgId.toString() + ">";
+    }
+  }
+
+  public static class Success implements ConnectionMsg {
+
+    public final Identifier msgId;
+    public final FileId fileId;
+    public final int blockNr;
+    public final BitSet pieces;
+    /**
+     * left - seeder side, retained references released by the serializer;
+     * right - leecher side, views over the received payload
+     */
+    public final Either<Map<Integer, KReference<byte[]>>, Map<Integer, ByteBuffer>> vals;
+
+    private Success(Identifier msgId, FileId fileId, int blockNr, BitSet pieces, Either vals) {
+      this.msgId = msgId;
+      this.fileId = fileId;
+      this.blockNr = blockNr;
+      this.pieces = pieces;
+      this.vals = vals;
+    }
+
+    private Success(Request req, Map<Integer, KReference<byte[]>> vals) {
+      this(req.msgId, req.fileId, req.blockNr, req.pieces, Either.left(vals));
+    }
+
+    protected Success(Identifier msgId, FileId fileId, int blockNr, BitSet pieces, Map<Integer, ByteBuffer> vals) {
+      this(msgId, fileId, blockNr, pieces, Either.right(vals));
+    }
+
+    @Override
+    public Identifier getId() {
+      return msgId;
+    }
+
+    @Override
+    public OverlayId overlayId() {
+      return fileId.torrentId;
+    }
+
+    @Override
+    public ConnId getConnectionId(Identifier peer) {
+      return TorrentIds.connId(fileId, peer, true);
+    }
+
+    @Override
+    public String toString() {
+      return "DwnlPiecesSuccess<" + fileId.toString() + ",b:" + blockNr + ",p:" + pieces + "," + msgId.toString() + ">";
+    }
+  }
+
+  public static class BadRequest implements ConnectionMsg {
+
+    public final Identifier msgId;
+    public final FileId fileId;
+    public final int blockNr;
+    public final BitSet pieces;
+
+    protected BadRequest(Identifier msgId, FileId fileId, int blockNr, BitSet pieces) {
+      this.msgId = msgId;
+      this.fileId = fileId;
+      this.blockNr = blockNr;
+      this.pieces = pieces;
+    }
+
+    private BadRequest(Request req) {
+      this(req.msgId, req.fileId, req.blockNr, req.pieces);
+    }
+
+    @Override
+    public Identifier getId() {
+      return msgId;
+    }
+
+    @Override
+    public OverlayId overlayId() {
+      return fileId.torrentId;
+    }
+
+    @Override
+    public ConnId getConnectionId(Identifier peer) {
+      return TorrentIds.connId(fileId, peer, true);
+    }
+
+    @Override
+    public String toString() {
+      return "DwnlPiecesBadReq<" + fileId.toString() + ",b:" + blockNr + ",p:" + pieces + "," + msgId.toString() + ">";
+    }
+  }
+}
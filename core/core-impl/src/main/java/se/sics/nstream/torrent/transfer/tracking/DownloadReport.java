@@ -20,6 +20,7 @@ package se.sics.nstream.torrent.transfer.tracking;
 
 import java.util.Map;
 import se.sics.kompics.util.Identifier;
+import se.sics.nstream.ConnId;
 import se.sics.nstream.FileId;
 
 /**
@@ -29,10 +30,13 @@ public class DownloadReport {
     public final DownloadTrackingTrace total;
     public final Map<FileId, DownloadTrackingTrace> files;
     public final Map<Identifier, DownloadTrackingTrace> peers;
+    public final Map<ConnId, DownloadTrackingTrace> connections;
     
-    public DownloadReport(DownloadTrackingTrace total, Map<FileId, DownloadTrackingTrace> files, Map<Identifier, DownloadTrackingTrace> peers) {
+    public DownloadReport(DownloadTrackingTrace total, Map<FileId, DownloadTrackingTrace> files, Map<Identifier, DownloadTrackingTrace> peers,
+        Map<ConnId, DownloadTrackingTrace> connections) {
         this.total = total;
         this.files = files;
         this.peers = peers;
+        this.connections = connections;
     }
 }
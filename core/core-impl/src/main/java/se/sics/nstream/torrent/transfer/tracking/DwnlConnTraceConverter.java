@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.tracking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Offline converter of {@link DwnlConnTracker} traces into the timeout, late and ports csv files.
+ * <p>
+ * usage: DwnlConnTraceConverter trace... - writes trace.timeout.csv, trace.late.csv and trace.ports.csv next to each
+ * trace
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DwnlConnTraceConverter {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("usage: DwnlConnTraceConverter trace...");
+      System.exit(1);
+    }
+    for (String trace : args) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace)));
+        Writer timeouts = new BufferedWriter(new FileWriter(trace + ".timeout.csv"));
+        Writer late = new BufferedWriter(new FileWriter(trace + ".late.csv"));
+        Writer ports = new BufferedWriter(new FileWriter(trace + ".ports.csv"))) {
+        long dropped = convert(in, timeouts, late, ports);
+        if (dropped < 0) {
+          System.out.println(trace + " - truncated trace");
+        } else {
+          System.out.println(trace + " - dropped records:" + dropped);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return dropped records, or -1 if the trace has no END record
+   */
+  public static long convert(DataInputStream in, Writer timeouts, Writer late, Writer ports) throws IOException {
+    if (in.readInt() != DwnlConnTracker.MAGIC) {
+      throw new IOException("not a download connection trace");
+    }
+    short version = in.readShort();
+    if (version != DwnlConnTracker.VERSION) {
+      throw new IOException("unknown trace version:" + version);
+    }
+    in.readLong();
+    int nPorts = in.readInt();
+    in.readUTF();
+
+    long[] portEvents = new long[nPorts];
+    long portsTime = -1;
+    long dropped = -1;
+    try {
+      while (true) {
+        byte type = in.readByte();
+        long time = in.readLong();
+        if (type != DwnlConnTracker.PORTS && portsTime != -1) {
+          writePorts(ports, portsTime, portEvents);
+          portsTime = -1;
+        }
+        switch (type) {
+          case DwnlConnTracker.END:
+            dropped = time;
+            break;
+          case DwnlConnTracker.TIMEOUT:
+            timeouts.write(time + "," + Long.toHexString(in.readLong()) + "," + in.readLong() + "\n");
+            break;
+          case DwnlConnTracker.LATE:
+            late.write(time + "," + Long.toHexString(in.readLong()) + "," + in.readLong() + "," + in.readLong() + ","
+              + in.readLong() + "\n");
+            break;
+          case DwnlConnTracker.PORTS:
+            if (portsTime != -1 && portsTime != time) {
+              writePorts(ports, portsTime, portEvents);
+            }
+            portsTime = time;
+            int port = (int) in.readLong();
+            portEvents[port] = in.readLong();
+            break;
+          default:
+            throw new IOException("unknown record type:" + type);
+        }
+        if (type == DwnlConnTracker.END) {
+          break;
+        }
+      }
+    } catch (EOFException ex) {
+      //truncated - the node did not close the trace
+    }
+    if (portsTime != -1) {
+      writePorts(ports, portsTime, portEvents);
+    }
+    return dropped;
+  }
+
+  private static void writePorts(Writer ports, long time, long[] portEvents) throws IOException {
+    ports.write("" + time);
+    for (int i = 0; i < portEvents.length; i++) {
+      ports.write("," + portEvents[i]);
+      portEvents[i] = 0;
+    }
+    ports.write("\n");
+  }
+}
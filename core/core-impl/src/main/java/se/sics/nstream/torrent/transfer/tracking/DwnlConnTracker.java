@@ -18,133 +18,103 @@
  */
 package se.sics.nstream.torrent.transfer.tracking;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import se.sics.kompics.util.Identifier;
 import se.sics.ledbat.ncore.msg.LedbatMsg;
 
 /**
+ * Binary trace of a download connection - records go into a preallocated {@link TraceRing} and are written to disk by
+ * the {@link TraceWriter} thread, so tracing does not slow down the component. Times are ms since the tracker
+ * started, event ids are recorded as their hash. {@link DwnlConnTraceConverter} turns a trace into the csv files.
+ * <p>
+ * Trace file: MAGIC, VERSION, start (epoch ms), nPorts, connId, then records - a type byte, the time and
+ * PAYLOAD[type] longs:
+ * <ul>
+ * <li>TIMEOUT - eventId, rto</li>
+ * <li>LATE - eventId, leecherAppReqSendT, seederNetRespSendT, leecherNetRespT</li>
+ * <li>PORTS - port, events in the last ports period (one record per port)</li>
+ * <li>END - dropped records, in place of the time</li>
+ * </ul>
+ *
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class DwnlConnTracker {
 
-  private final BufferedWriter timeoutsFile;
-  private final BufferedWriter lateFile;
+  public static final int MAGIC = 0x44435452;
+  public static final short VERSION = 1;
+  public static final byte END = 0;
+  public static final byte TIMEOUT = 1;
+  public static final byte LATE = 2;
+  public static final byte PORTS = 3;
+  public static final int[] PAYLOAD = new int[]{0, 2, 4, 2};
+  public static final int RING_SIZE = 1024;
+  public static final long PORTS_PERIOD = 100;
+
+  private final TraceRing ring;
   private final long start;
-  private final BufferedWriter portsf;
-  private final ArrayList<Integer> portEvents;
-  private final int nPorts;
+  private final int[] portEvents;
   private long portsLastReported;
 
-  public DwnlConnTracker(BufferedWriter timeoutsFile, BufferedWriter lateFile, BufferedWriter portsf, int nPorts) {
-    this.timeoutsFile = timeoutsFile;
-    this.lateFile = lateFile;
-    this.portsf = portsf;
+  public DwnlConnTracker(TraceWriter writer, DataOutputStream out, String connId, int nPorts, int ringSize)
+    throws IOException {
     start = System.currentTimeMillis();
     portsLastReported = start;
-    this.nPorts = nPorts;
-    portEvents = new ArrayList<>(nPorts);
-    for (int i = 0; i < nPorts; i++) {
-      portEvents.add(i, 0);
-    }
-  }
-
-  private void resetPorts() {
-    for (int i = 0; i < nPorts; i++) {
-      portEvents.set(i, 0);
-    }
+    portEvents = new int[nPorts];
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeLong(start);
+    out.writeInt(nPorts);
+    out.writeUTF(connId);
+    ring = new TraceRing(ringSize, PAYLOAD);
+    writer.register(ring, out);
   }
 
   public void reportPortEvent(long now, int nPort) {
-    portEvents.set(nPort, portEvents.get(nPort) + 1);
-    if (now > portsLastReported + 100) {
+    portEvents[nPort]++;
+    if (now > portsLastReported + PORTS_PERIOD) {
       portsLastReported = now;
-      try {
-        long expTime = now - start;
-        portsf.write(expTime + "");
-        for (int i = 0; i < nPorts; i++) {
-          portsf.write("," + portEvents.get(i));
-        }
-        portsf.write("\n");
-        portsf.flush();
-      } catch (IOException ex) {
-        throw new RuntimeException(ex);
+      long expTime = now - start;
+      for (int i = 0; i < portEvents.length; i++) {
+        ring.offer(PORTS, expTime, i, portEvents[i], 0, 0);
+        portEvents[i] = 0;
       }
-      resetPorts();
     }
   }
 
   public void reportTimeout(long now, Identifier eventId, long rto) {
-    try {
-      long expTime = now - start;
-      timeoutsFile.write(expTime + "," + eventId + "," + rto + "\n");
-      timeoutsFile.flush();
-    } catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
+    ring.offer(TIMEOUT, now - start, eventId.hashCode(), rto, 0, 0);
   }
 
   public void reportLate(long now, LedbatMsg.Response late) {
-    try {
-      long expTime = now - start;
-      long t1 = late.leecherAppReqSendT - start;
-      long t2 = late.seederNetRespSendT - start;
-      long t3 = late.leecherNetRespT - start;
-      lateFile.write(expTime + "," + late.getId() + "," + t1 + "," + t2 + "," + t3 + "\n");
-      lateFile.flush();
-    } catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
+    ring.offer(LATE, now - start, late.getId().hashCode(), late.leecherAppReqSendT - start,
+      late.seederNetRespSendT - start, late.leecherNetRespT - start);
   }
 
+  /**
+   * the writer drains what is left and closes the file
+   */
   public void close() {
-    try {
-      timeoutsFile.close();
-      lateFile.close();
-      portsf.close();
-    } catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
+    ring.close();
+  }
+
+  public long dropped() {
+    return ring.dropped();
   }
 
   public static DwnlConnTracker onDisk(String dirPath, Identifier id, int nPorts) {
+    DateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
+    String tracefName = "dwnl_" + id + "_" + sdf.format(new Date()) + ".trace";
+    File tracef = new File(dirPath + File.separator + tracefName);
     try {
-      DateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
-      Date date = new Date();
-      String timeoutfName = "timeout_dwnl_" + id + "_" + sdf.format(date) + ".csv";
-      File timeoutf = new File(dirPath + File.separator + timeoutfName);
-      if (timeoutf.exists()) {
-        timeoutf.delete();
-      }
-      timeoutf.createNewFile();
-
-      String latefName = "late_dwnl_" + id + "_" + sdf.format(date) + ".csv";
-      File latef = new File(dirPath + File.separator + latefName);
-      if (latef.exists()) {
-        latef.delete();
-      }
-      latef.createNewFile();
-
-      String portsfName = "ports_be_" + id + "_" + sdf.format(date) + ".csv";
-      File portsf = new File(dirPath + File.separator + portsfName);
-      if (portsf.exists()) {
-        portsf.delete();
-      }
-      portsf.createNewFile();
-
-      return new DwnlConnTracker(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(timeoutf))),
-        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(latef))),
-        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(portsf))), nPorts);
-    } catch (FileNotFoundException ex) {
-      throw new RuntimeException(ex);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tracef), 64 * 1024));
+      return new DwnlConnTracker(TraceWriter.instance(), out, id.toString(), nPorts, RING_SIZE);
     } catch (IOException ex) {
       throw new RuntimeException(ex);
     }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.tracking;
+
+/**
+ * Time a download connection spent with an open congestion window and nothing to send.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class PipelineIdleTracker {
+
+  private final long start;
+  private long idleSince = -1;
+  private long idleMs = 0;
+  private long reportedMs = 0;
+
+  public PipelineIdleTracker(long now) {
+    this.start = now;
+  }
+
+  public void update(long now, boolean idle) {
+    if (idle) {
+      if (idleSince == -1) {
+        idleSince = now;
+      }
+    } else if (idleSince != -1) {
+      idleMs += now - idleSince;
+      idleSince = -1;
+    }
+  }
+
+  public long idleMs(long now) {
+    return idleSince == -1 ? idleMs : idleMs + (now - idleSince);
+  }
+
+  /**
+   * @return idle ms since the previous call
+   */
+  public long idleDelta(long now) {
+    long total = idleMs(now);
+    long delta = total - reportedMs;
+    reportedMs = total;
+    return delta;
+  }
+
+  public long elapsedMs(long now) {
+    return now - start;
+  }
+}
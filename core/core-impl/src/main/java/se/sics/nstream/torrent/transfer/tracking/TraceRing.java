@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.tracking;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single producer/single consumer ring of fixed width trace records - type, time and up to four longs.
+ * The producer (the component thread) never blocks or allocates - a record that finds the ring full is dropped and
+ * counted. The consumer (the {@link TraceWriter} thread) writes each record as its type, time and the first
+ * payload[type] longs.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class TraceRing {
+
+  private static final int WIDTH = 6;
+
+  private final long[] records;
+  private final int capacity;
+  private final int mask;
+  private final int[] payload;
+  //next record to read - written by the consumer only
+  private final AtomicLong head = new AtomicLong(0);
+  //next record to write - written by the producer only
+  private final AtomicLong tail = new AtomicLong(0);
+  private volatile long dropped = 0;
+  private volatile boolean closed = false;
+
+  /**
+   * @param capacity records - rounded up to a power of 2
+   * @param payload longs written per record type
+   */
+  public TraceRing(int capacity, int[] payload) {
+    this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.mask = this.capacity - 1;
+    this.records = new long[this.capacity * WIDTH];
+    this.payload = payload;
+  }
+
+  //**************************************************************************producer
+  public boolean offer(byte type, long time, long a, long b, long c, long d) {
+    long t = tail.get();
+    if (t - head.get() >= capacity) {
+      dropped++;
+      return false;
+    }
+    int i = (int) (t & mask) * WIDTH;
+    records[i] = type;
+    records[i + 1] = time;
+    records[i + 2] = a;
+    records[i + 3] = b;
+    records[i + 4] = c;
+    records[i + 5] = d;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  public void close() {
+    closed = true;
+  }
+
+  //**************************************************************************consumer
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public long dropped() {
+    return dropped;
+  }
+
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  /**
+   * @return records written
+   */
+  public int drain(DataOutputStream out) throws IOException {
+    long h = head.get();
+    long t = tail.get();
+    for (long r = h; r < t; r++) {
+      int i = (int) (r & mask) * WIDTH;
+      int type = (int) records[i];
+      out.writeByte(type);
+      out.writeLong(records[i + 1]);
+      for (int j = 0; j < payload[type]; j++) {
+        out.writeLong(records[i + 2 + j]);
+      }
+    }
+    head.lazySet(t);
+    return (int) (t - h);
+  }
+}
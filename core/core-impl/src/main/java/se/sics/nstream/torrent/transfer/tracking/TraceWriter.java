@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.tracking;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains the registered {@link TraceRing}s into their trace files every period, on its own thread. A closed ring is
+ * drained one last time, ends with an END record carrying its dropped records count, and its file is closed.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class TraceWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TraceWriter.class);
+  public static final long DEFAULT_PERIOD = 100;
+  private static TraceWriter instance;
+
+  private final ScheduledExecutorService executor;
+  //only touched by the writer thread
+  private final Map<TraceRing, DataOutputStream> traces = new HashMap<>();
+
+  public TraceWriter(long period) {
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "dela-trace-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        drain(false);
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * one writer thread for all the traced connections of the node
+   */
+  public static synchronized TraceWriter instance() {
+    if (instance == null) {
+      final TraceWriter w = new TraceWriter(DEFAULT_PERIOD);
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          w.close();
+        }
+      }, "dela-trace-writer-close"));
+      instance = w;
+    }
+    return instance;
+  }
+
+  public void register(final TraceRing ring, final DataOutputStream out) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        traces.put(ring, out);
+      }
+    });
+  }
+
+  private void drain(boolean closing) {
+    Iterator<Map.Entry<TraceRing, DataOutputStream>> it = traces.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<TraceRing, DataOutputStream> trace = it.next();
+      TraceRing ring = trace.getKey();
+      DataOutputStream out = trace.getValue();
+      //read before the drain - all records offered before close are drained by it
+      boolean closed = closing || ring.isClosed();
+      try {
+        ring.drain(out);
+        if (closed) {
+          it.remove();
+          out.writeByte(DwnlConnTracker.END);
+          out.writeLong(ring.dropped());
+          out.close();
+          if (ring.dropped() > 0) {
+            LOG.warn("trace closed with:{} dropped records", ring.dropped());
+          }
+        } else {
+          out.flush();
+        }
+      } catch (IOException ex) {
+        LOG.warn("trace write failed:{} - tracing stopped for this connection", ex.getMessage());
+        it.remove();
+        try {
+          out.close();
+        } catch (IOException ex1) {
+        }
+      }
+    }
+  }
+
+  /**
+   * closes all traces, including the ones of connections still running
+   */
+  public synchronized void close() {
+    if (executor.isShutdown()) {
+      return;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        drain(true);
+      }
+    });
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.warn("trace writer did not stop in time");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
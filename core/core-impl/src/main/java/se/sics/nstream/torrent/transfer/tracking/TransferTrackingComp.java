@@ -84,9 +84,11 @@ public class TransferTrackingComp extends ComponentDefinition {
             DownloadTrackingTrace.CrossConnectionAccumulator totalAcc = new DownloadTrackingTrace.CrossConnectionAccumulator();
             Map<Identifier, DownloadTrackingTrace.CrossConnectionAccumulator> peerAccs = new HashMap<>();
             Map<FileId, DownloadTrackingTrace.CrossConnectionAccumulator> fileAccs = new HashMap<>();
+            Map<ConnId, DownloadTrackingTrace> connReports = new HashMap<>();
             for (ConnTracking conn : seederConnections.values()) {
                 conn.tick();
                 DownloadTrackingTrace connReport = conn.report();
+                connReports.put(conn.connId, connReport);
                 totalAcc.accumulate(connReport);
                 
                 DownloadTrackingTrace.CrossConnectionAccumulator peerAcc = peerAccs.get(conn.connId.peerId);
@@ -96,10 +98,10 @@ public class TransferTrackingComp extends ComponentDefinition {
                 }
                 peerAcc.accumulate(connReport);
                 
-                DownloadTrackingTrace.CrossConnectionAccumulator fileAcc = peerAccs.get(conn.connId.fileId);
+                DownloadTrackingTrace.CrossConnectionAccumulator fileAcc = fileAccs.get(conn.connId.fileId);
                 if(fileAcc == null) {
                     fileAcc = new DownloadTrackingTrace.CrossConnectionAccumulator();
-                    fileAccs.put(conn.connId.fileId, peerAcc);
+                    fileAccs.put(conn.connId.fileId, fileAcc);
                 }
                 fileAcc.accumulate(connReport);
             }
@@ -112,7 +114,7 @@ public class TransferTrackingComp extends ComponentDefinition {
             for(Map.Entry<FileId, DownloadTrackingTrace.CrossConnectionAccumulator> acc : fileAccs.entrySet()) {
                 fileReport.put(acc.getKey(), acc.getValue().build());
             } 
-            trigger(new TransferTrackingReport(new DownloadReport(totalAcc.build(), fileReport, peerReport)), reportPort);
+            trigger(new TransferTrackingReport(new DownloadReport(totalAcc.build(), fileReport, peerReport, connReports)), reportPort);
         }
     };
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.transfer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import se.sics.ktoolbox.util.reference.KReference;
+
+/**
+ * Node wide, bounded pool of block sized buffers used to assemble blocks
+ * while they are downloaded. A buffer leaves the pool as a reference and
+ * comes back once the last holder (hash check, storage buffer, cache)
+ * released it. If the pool is empty a new buffer is allocated, if it is full
+ * the returned buffer is left to the gc - the bound is on idle memory.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class BlockBufferPool {
+
+  private static final Map<Integer, BlockBufferPool> pools = new HashMap<>();
+
+  private final int bufSize;
+  private final int capacity;
+  private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+  //**************************************************************************
+  private long allocated = 0;
+  private long reused = 0;
+
+  private BlockBufferPool(int bufSize, int capacity) {
+    this.bufSize = bufSize;
+    this.capacity = capacity;
+  }
+
+  public int bufSize() {
+    return bufSize;
+  }
+
+  /**
+   * @return a reference to a buffer of bufSize bytes - the caller owns the
+   * reference and has to release it. The content of the buffer is garbage.
+   */
+  public KReference<byte[]> acquire() {
+    byte[] buf;
+    synchronized (this) {
+      buf = free.pollFirst();
+      if (buf == null) {
+        allocated++;
+      } else {
+        reused++;
+      }
+    }
+    if (buf == null) {
+      buf = new byte[bufSize];
+    }
+    return new PooledKReference(this, buf);
+  }
+
+  synchronized void recycle(byte[] buf) {
+    if (free.size() < capacity) {
+      free.addFirst(buf);
+    }
+  }
+
+  public synchronized int idle() {
+    return free.size();
+  }
+
+  public synchronized long allocated() {
+    return allocated;
+  }
+
+  public synchronized long reused() {
+    return reused;
+  }
+
+  /**
+   * one pool per buffer size - the capacity is set by the first user
+   */
+  public static synchronized BlockBufferPool getPool(int bufSize, int capacity) {
+    BlockBufferPool pool = pools.get(bufSize);
+    if (pool == null) {
+      pool = new BlockBufferPool(bufSize, capacity);
+      pools.put(bufSize, pool);
+    }
+    return pool;
+  }
+}
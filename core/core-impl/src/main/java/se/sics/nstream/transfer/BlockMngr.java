@@ -19,7 +19,9 @@
 
 package se.sics.nstream.transfer;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
+import se.sics.ktoolbox.util.reference.KReference;
 
 /**
  * @author Alex Ormenisan <aaor@sics.se>
@@ -27,8 +29,18 @@ import java.util.Set;
 public interface BlockMngr {
     public boolean hasPiece(int pieceNr);
     public int writePiece(int pieceNr, byte[] piece);
+    public int writePiece(int pieceNr, ByteBuffer piece);
     public boolean isComplete();
     public byte[] getBlock();
+    /**
+     * hands the completed block over to the caller - the caller owns (has to
+     * release) the returned reference
+     */
+    public KReference<byte[]> getBlockRef();
+    /**
+     * drop the block without handing it over
+     */
+    public void close();
     public int nrPieces();
     public Set<Integer> pendingPieces();
 }
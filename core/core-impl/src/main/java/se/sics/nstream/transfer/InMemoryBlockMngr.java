@@ -19,8 +19,11 @@
 
 package se.sics.nstream.transfer;
 
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Set;
+import se.sics.ktoolbox.util.reference.KReference;
+import se.sics.ktoolbox.util.reference.KReferenceFactory;
 import se.sics.nstream.tracker.ComponentTracker;
 import se.sics.nstream.tracker.IncompleteTracker;
 import se.sics.nstream.util.BlockDetails;
@@ -51,6 +54,13 @@ public class InMemoryBlockMngr implements BlockMngr {
         return storage.write(writePos, piece);
     }
 
+    @Override
+    public int writePiece(int pieceNr, ByteBuffer piece) {
+        tracker.addComponent(pieceNr);
+        long writePos = pieceNr * blockDetails.defaultPieceSize;
+        return storage.write(writePos, piece);
+    }
+
     @Override
     public boolean isComplete() {
         return tracker.isComplete();
@@ -61,6 +71,15 @@ public class InMemoryBlockMngr implements BlockMngr {
         return storage.read(null, 0, blockDetails.blockSize, null);
     }
 
+    @Override
+    public KReference<byte[]> getBlockRef() {
+        return KReferenceFactory.getReference(getBlock());
+    }
+
+    @Override
+    public void close() {
+    }
+
     @Override
     public int nrPieces() {
         return blockDetails.nrPieces;
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import se.sics.ktoolbox.util.reference.KReference;
+import se.sics.ktoolbox.util.reference.KReferenceException;
+import se.sics.nstream.tracker.ComponentTracker;
+import se.sics.nstream.tracker.IncompleteTracker;
+import se.sics.nstream.util.BlockDetails;
+
+/**
+ * Assembles the block directly in a buffer taken from a {@link BlockBufferPool}.
+ * The completed block is handed over as is - no copy.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class PooledBlockMngr implements BlockMngr {
+
+  private final BlockDetails blockDetails;
+  private KReference<byte[]> ref;
+  private final RWByteBuffer storage;
+  private final ComponentTracker tracker;
+
+  public PooledBlockMngr(BlockDetails blockDetails, BlockBufferPool pool) {
+    if (blockDetails.blockSize != pool.bufSize()) {
+      throw new IllegalArgumentException("block size:" + blockDetails.blockSize + " pool buf size:" + pool.bufSize());
+    }
+    this.blockDetails = blockDetails;
+    this.ref = pool.acquire();
+    this.storage = new RWByteBuffer(ref.getValue().get());
+    this.tracker = IncompleteTracker.create(blockDetails.nrPieces, 0);
+  }
+
+  @Override
+  public boolean hasPiece(int pieceNr) {
+    return tracker.hasComponent(pieceNr);
+  }
+
+  @Override
+  public int writePiece(int pieceNr, byte[] piece) {
+    tracker.addComponent(pieceNr);
+    long writePos = pieceNr * blockDetails.defaultPieceSize;
+    return storage.write(writePos, piece);
+  }
+
+  @Override
+  public int writePiece(int pieceNr, ByteBuffer piece) {
+    tracker.addComponent(pieceNr);
+    long writePos = pieceNr * blockDetails.defaultPieceSize;
+    return storage.write(writePos, piece);
+  }
+
+  @Override
+  public boolean isComplete() {
+    return tracker.isComplete();
+  }
+
+  @Override
+  public byte[] getBlock() {
+    return storage.read(null, 0, blockDetails.blockSize, null);
+  }
+
+  @Override
+  public KReference<byte[]> getBlockRef() {
+    KReference<byte[]> result = ref;
+    ref = null;
+    return result;
+  }
+
+  @Override
+  public void close() {
+    if (ref != null) {
+      try {
+        ref.release();
+      } catch (KReferenceException ex) {
+        throw new RuntimeException(ex);
+      }
+      ref = null;
+    }
+  }
+
+  @Override
+  public int nrPieces() {
+    return blockDetails.nrPieces;
+  }
+
+  @Override
+  public Set<Integer> pendingPieces() {
+    return tracker.nextComponentMissing(0, blockDetails.nrPieces, new HashSet<Integer>());
+  }
+}
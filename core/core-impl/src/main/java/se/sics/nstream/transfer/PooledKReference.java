@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.transfer;
+
+import com.google.common.base.Optional;
+import se.sics.ktoolbox.util.reference.KReference;
+import se.sics.ktoolbox.util.reference.KReferenceException;
+import se.sics.ktoolbox.util.reference.KReferenceFactory;
+
+/**
+ * Reference to a pooled buffer - when the last holder releases it, the
+ * buffer goes back to its pool.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+class PooledKReference implements KReference<byte[]> {
+
+  private final BlockBufferPool pool;
+  private final KReference<Boolean> ref;
+  private final byte[] value;
+
+  PooledKReference(BlockBufferPool pool, byte[] value) {
+    this.pool = pool;
+    this.ref = KReferenceFactory.getReference(true);
+    this.value = value;
+  }
+
+  @Override
+  public boolean isValid() {
+    return ref.isValid();
+  }
+
+  @Override
+  public synchronized boolean retain() {
+    return ref.retain();
+  }
+
+  @Override
+  public synchronized void release() throws KReferenceException {
+    ref.release();
+    if (!ref.isValid()) {
+      pool.recycle(value);
+    }
+  }
+
+  @Override
+  public Optional<byte[]> getValue() {
+    if (!ref.isValid()) {
+      return Optional.absent();
+    }
+    return Optional.of(value);
+  }
+}
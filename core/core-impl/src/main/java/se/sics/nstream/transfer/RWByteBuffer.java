@@ -21,6 +21,7 @@ package se.sics.nstream.transfer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
 import java.util.Set;
 import se.sics.kompics.util.Identifier;
 
@@ -32,8 +33,15 @@ public class RWByteBuffer {
     private final int length;
     
     public RWByteBuffer(int bufLength) {
-        this.buf = Unpooled.wrappedBuffer(new byte[bufLength]);
-        this.length = bufLength;
+        this(new byte[bufLength]);
+    }
+    
+    /**
+     * works directly on the given array - no copy
+     */
+    public RWByteBuffer(byte[] backingArray) {
+        this.buf = Unpooled.wrappedBuffer(backingArray);
+        this.length = backingArray.length;
     }
     
     public byte[] read(Identifier readerId, long readPos, int readLength, Set<Integer> bufferBlocks) {
@@ -79,6 +87,34 @@ public class RWByteBuffer {
         return writeBytes;
     }
 
+    /**
+     * copies straight from the source view - the view itself is not consumed
+     */
+    public int write(long writePos, ByteBuffer bytes) {
+        if(writePos > Integer.MAX_VALUE) {
+            throw new RuntimeException("In memory buffer only allow integer sizes");
+        }
+        if(writePos > length) {
+            return 0;
+        }
+        return write((int)writePos, bytes);
+    }
+    
+    private int write(int writePos, ByteBuffer bytes) {
+        int rest = length - writePos;
+        int writeBytes = (bytes.remaining() < rest ? bytes.remaining() : rest);
+        if(writeBytes < bytes.remaining()) {
+            byte[] partial = new byte[writeBytes];
+            bytes.duplicate().get(partial);
+            return write(writePos, partial);
+        }
+        buf.setBytes(writePos, bytes.duplicate());
+        if(buf.writerIndex() < writePos + writeBytes) {
+            buf.writerIndex(writePos + writeBytes);
+        }
+        return writeBytes;
+    }
+
     public long length() {
         return length;
     }
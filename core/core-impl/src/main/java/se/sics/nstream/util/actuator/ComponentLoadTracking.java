@@ -29,6 +29,8 @@ import se.sics.ktoolbox.util.predict.SimpleSmoothing;
 import se.sics.nstream.FileId;
 import se.sics.nstream.StreamId;
 import se.sics.nstream.storage.durable.util.MyStream;
+import se.sics.nstream.util.metrics.MetricsRegistry;
+import se.sics.nstream.util.metrics.MetricsScope;
 import se.sics.nutil.tracking.load.QueueLoadConfig;
 
 /**
@@ -40,19 +42,35 @@ public class ComponentLoadTracking {
     private int instBufferLoad;
 
     private final Map<String, Integer> transferSize = new HashMap<>();
+    //<sinkName, stream> - the sizes are kept in the stream metrics, no boxing on the read/write path
     private final Map<String, Pair<StreamId, MyStream>> streams = new HashMap<>();
-    private final Map<String, Integer> bufferSize = new HashMap<>();
-    private final Map<String, Pair<Integer, Integer>> cacheSize = new HashMap<>();
+    private final Map<String, StreamMetrics> streamMetrics = new HashMap<>();
+    private final MetricsScope metrics;
 
     public ComponentLoadTracking(String componentName, ComponentProxy proxy, QueueLoadConfig queueLoadConfig) {
+        this(componentName, proxy, queueLoadConfig, MetricsRegistry.instance().scope("component", componentName));
+    }
+
+    public ComponentLoadTracking(String componentName, ComponentProxy proxy, QueueLoadConfig queueLoadConfig,
+            MetricsScope metrics) {
         this.avgBufferLoad = new STGMAvg(new ExpMovingAvg(), Pair.with(0.0, (double)ComponentLoadConfig.maxTransfer), new SimpleSmoothing());
         this.instBufferLoad = 0;
+        this.metrics = metrics;
     }
 
-    public void setBufferSize(Pair<StreamId, MyStream> stream, int size) {
+    public StreamMetrics streamMetrics(Pair<StreamId, MyStream> stream) {
         String sinkName = stream.getValue1().resource.getSinkName();
-        streams.put(sinkName, stream);
-        bufferSize.put(sinkName, size);
+        StreamMetrics sm = streamMetrics.get(sinkName);
+        if (sm == null) {
+            sm = new StreamMetrics(metrics.scope("file", stream.getValue0().fileId.toString(), "stream", sinkName));
+            streams.put(sinkName, stream);
+            streamMetrics.put(sinkName, sm);
+        }
+        return sm;
+    }
+
+    public void setBufferSize(Pair<StreamId, MyStream> stream, int size) {
+        streamMetrics(stream).bufferDepth.set(size);
     }
     
     public int getMaxBufferSize(FileId fileId) {
@@ -63,7 +81,7 @@ public class ComponentLoadTracking {
             if(!next.getValue0().fileId.equals(fileId)) {
                 continue;
             }
-            int nextSize = bufferSize.get(next.getValue1().resource.getSinkName());
+            int nextSize = (int) streamMetrics.get(next.getValue1().resource.getSinkName()).bufferDepth.get();
             if(maxSize < nextSize) {
                 maxSize = nextSize;
             }
@@ -76,9 +94,9 @@ public class ComponentLoadTracking {
     }
 
     public void setCacheSize(Pair<StreamId, MyStream> stream, int normalCacheSize, int extendedCacheSize) {
-        String sinkName = stream.getValue1().resource.getSinkName();
-        streams.put(sinkName, stream);
-        cacheSize.put(sinkName, Pair.with(normalCacheSize, extendedCacheSize));
+        StreamMetrics sm = streamMetrics(stream);
+        sm.cacheSize.set(normalCacheSize);
+        sm.extendedCacheSize.set(extendedCacheSize);
     }
 
     public double adjustment() {
@@ -95,6 +113,13 @@ public class ComponentLoadTracking {
         return adjustment;
     }
 
+    /**
+     * unregisters the metrics of the component and of its streams
+     */
+    public void close() {
+        metrics.close();
+    }
+
     public ComponentLoadReport report() {
         return new ComponentLoadReport(null, Pair.with((int)avgBufferLoad.get(), instBufferLoad));
     }
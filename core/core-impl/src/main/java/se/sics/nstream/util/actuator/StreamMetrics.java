@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.util.actuator;
+
+import se.sics.nstream.util.metrics.Counter;
+import se.sics.nstream.util.metrics.Gauge;
+import se.sics.nstream.util.metrics.LatencyHistogram;
+import se.sics.nstream.util.metrics.MetricsScope;
+
+/**
+ * Buffer, cache and storage metrics of one storage stream - registered once per stream, updated in place.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class StreamMetrics {
+
+    public final Gauge bufferDepth;
+    public final Gauge cacheSize;
+    public final Gauge extendedCacheSize;
+    public final Counter cacheHits;
+    public final Counter cacheMisses;
+    public final LatencyHistogram readLatency;
+    public final LatencyHistogram writeLatency;
+
+    public StreamMetrics(MetricsScope scope) {
+        bufferDepth = scope.gauge("dela_buffer_depth");
+        cacheSize = scope.gauge("dela_cache_size");
+        extendedCacheSize = scope.gauge("dela_cache_extended_size");
+        cacheHits = scope.counter("dela_cache_hits_total");
+        cacheMisses = scope.counter("dela_cache_misses_total");
+        scope.ratio("dela_cache_hit_ratio", cacheHits, cacheMisses);
+        readLatency = scope.latency("dela_storage_read_us");
+        writeLatency = scope.latency("dela_storage_write_us");
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class Counter implements Metric {
+
+  private final AtomicLong value = new AtomicLong(0);
+
+  public void inc() {
+    value.incrementAndGet();
+  }
+
+  public void add(long delta) {
+    value.addAndGet(delta);
+  }
+
+  public long get() {
+    return value.get();
+  }
+
+  @Override
+  public void export(String name, String labels, StringBuilder sb) {
+    MetricsRegistry.line(sb, name, labels, "", get());
+  }
+}
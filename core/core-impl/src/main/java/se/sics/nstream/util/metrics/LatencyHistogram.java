@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * HdrHistogram of latencies in microseconds, 2 significant digits, clamped to a minute. Recording is wait free and
+ * allocation free and can happen on any thread. The exporter folds the recorded interval into a histogram kept since
+ * registration and exports it as a summary.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class LatencyHistogram implements Metric {
+
+  public static final long MAX_US = TimeUnit.MINUTES.toMicros(1);
+  private static final double[] QUANTILES = new double[]{0.5, 0.9, 0.99, 0.999};
+
+  private final Recorder recorder = new Recorder(MAX_US, 2);
+  //guarded by this - exporter side
+  private final Histogram total = new Histogram(MAX_US, 2);
+  private Histogram interval;
+
+  public void recordNanos(long nanos) {
+    recordMicros(nanos / 1000);
+  }
+
+  public void recordMillis(long millis) {
+    recordMicros(millis * 1000);
+  }
+
+  public void recordMicros(long micros) {
+    recorder.recordValue(micros < 0 ? 0 : (micros > MAX_US ? MAX_US : micros));
+  }
+
+  private void collect() {
+    interval = recorder.getIntervalHistogram(interval);
+    total.add(interval);
+  }
+
+  public synchronized long count() {
+    collect();
+    return total.getTotalCount();
+  }
+
+  public synchronized long quantile(double quantile) {
+    collect();
+    return total.getValueAtPercentile(100 * quantile);
+  }
+
+  @Override
+  public synchronized void export(String name, String labels, StringBuilder sb) {
+    collect();
+    for (double q : QUANTILES) {
+      MetricsRegistry.line(sb, name, labels, "quantile=\"" + q + "\"", total.getValueAtPercentile(100 * q));
+    }
+    MetricsRegistry.line(sb, name + "_max", labels, "", total.getMaxValue());
+    MetricsRegistry.line(sb, name + "_sum", labels, "", (long) (total.getMean() * total.getTotalCount()));
+    MetricsRegistry.line(sb, name + "_count", labels, "", total.getTotalCount());
+  }
+}
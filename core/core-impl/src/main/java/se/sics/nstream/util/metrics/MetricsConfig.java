@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.util.metrics;
+
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class MetricsConfig {
+
+  public static class Names {
+
+    public static final String HTTP_HOST = "metrics.http.host";
+    public static final String HTTP_PORT = "metrics.http.port";
+  }
+
+  public static final String DEFAULT_HTTP_HOST = "127.0.0.1";
+  /**
+   * no endpoint - metrics are still recorded
+   */
+  public static final int DEFAULT_HTTP_PORT = 0;
+
+  public final String httpHost;
+  public final int httpPort;
+
+  public MetricsConfig(Config config) {
+    httpHost = config.getValueOrDefault(Names.HTTP_HOST, DEFAULT_HTTP_HOST);
+    httpPort = config.getValueOrDefault(Names.HTTP_PORT, DEFAULT_HTTP_PORT);
+  }
+
+  public boolean endpoint() {
+    return httpPort > 0;
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.util.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Node wide registry of counters, gauges and latency histograms. Metrics are registered through a
+ * {@link MetricsScope} carrying the labels (torrent, file, connection, stream) - registration allocates, updating a
+ * registered metric does not. Scopes registering the same name and labels share the metric, it is removed when the
+ * last of them closes.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class MetricsRegistry {
+
+  private static final MetricsRegistry instance = new MetricsRegistry();
+
+  //<name{labels}, series> - sorted, so the series of a metric are exported together
+  private final Map<String, Series> series = new ConcurrentSkipListMap<>();
+
+  public static MetricsRegistry instance() {
+    return instance;
+  }
+
+  public MetricsScope scope(String... labels) {
+    return new MetricsScope(this, MetricsScope.labels("", labels));
+  }
+
+  //the class check makes the cast safe
+  @SuppressWarnings("unchecked")
+  synchronized <M extends Metric> M register(String name, String labels, M metric) {
+    String key = key(name, labels);
+    Series s = series.get(key);
+    if (s == null) {
+      series.put(key, new Series(name, labels, metric));
+      return metric;
+    }
+    if (!s.metric.getClass().equals(metric.getClass())) {
+      throw new IllegalStateException("metric:" + key + " already registered as:" + s.metric.getClass().getSimpleName());
+    }
+    s.refs++;
+    return (M) s.metric;
+  }
+
+  synchronized void unregister(String name, String labels) {
+    String key = key(name, labels);
+    Series s = series.get(key);
+    if (s != null && --s.refs == 0) {
+      series.remove(key);
+    }
+  }
+
+  public Metric get(String name, String labels) {
+    Series s = series.get(key(name, labels));
+    return s == null ? null : s.metric;
+  }
+
+  public int size() {
+    return series.size();
+  }
+
+  public String export() {
+    StringBuilder sb = new StringBuilder();
+    for (Series s : series.values()) {
+      s.metric.export(s.name, s.labels, sb);
+    }
+    return sb.toString();
+  }
+
+  private static String key(String name, String labels) {
+    return name + "{" + labels + "}";
+  }
+
+  static void line(StringBuilder sb, String name, String labels, String extraLabel, long value) {
+    labels(sb, name, labels, extraLabel);
+    sb.append(value).append('\n');
+  }
+
+  static void line(StringBuilder sb, String name, String labels, String extraLabel, double value) {
+    labels(sb, name, labels, extraLabel);
+    sb.append(value).append('\n');
+  }
+
+  private static void labels(StringBuilder sb, String name, String labels, String extraLabel) {
+    sb.append(name);
+    if (!labels.isEmpty() || !extraLabel.isEmpty()) {
+      sb.append('{').append(labels);
+      if (!labels.isEmpty() && !extraLabel.isEmpty()) {
+        sb.append(',');
+      }
+      sb.append(extraLabel).append('}');
+    }
+    sb.append(' ');
+  }
+
+  private static class Series {
+
+    final String name;
+    final String labels;
+    final Metric metric;
+    int refs = 1;
+
+    Series(String name, String labels, Metric metric) {
+      this.name = name;
+      this.labels = labels;
+      this.metric = metric;
+    }
+  }
+}
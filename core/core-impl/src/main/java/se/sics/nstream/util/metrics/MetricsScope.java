@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.util.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The metrics of one owner (torrent, file, connection, stream) - all carry the labels of the scope and are
+ * unregistered together on close. Child scopes add labels and are closed with their parent.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class MetricsScope {
+
+  private final MetricsRegistry registry;
+  private final String labels;
+  private final List<String> names = new ArrayList<>();
+  private final List<MetricsScope> children = new ArrayList<>();
+  private boolean closed = false;
+
+  MetricsScope(MetricsRegistry registry, String labels) {
+    this.registry = registry;
+    this.labels = labels;
+  }
+
+  /**
+   * @param labels name, value pairs
+   */
+  public synchronized MetricsScope scope(String... labels) {
+    MetricsScope child = new MetricsScope(registry, labels(this.labels, labels));
+    children.add(child);
+    return child;
+  }
+
+  public Counter counter(String name) {
+    return register(name, new Counter());
+  }
+
+  public Gauge gauge(String name) {
+    return register(name, new Gauge());
+  }
+
+  public LatencyHistogram latency(String name) {
+    return register(name, new LatencyHistogram());
+  }
+
+  /**
+   * exported as part/(part+rest)
+   */
+  public void ratio(String name, Counter part, Counter rest) {
+    register(name, new Ratio(part, rest));
+  }
+
+  private synchronized <M extends Metric> M register(String name, M metric) {
+    if (closed) {
+      throw new IllegalStateException("metrics scope:" + labels + " closed");
+    }
+    M m = registry.register(name, labels, metric);
+    names.add(name);
+    return m;
+  }
+
+  public String labels() {
+    return labels;
+  }
+
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (MetricsScope child : children) {
+      child.close();
+    }
+    for (String name : names) {
+      registry.unregister(name, labels);
+    }
+  }
+
+  static String labels(String base, String... labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("labels come in name, value pairs");
+    }
+    StringBuilder sb = new StringBuilder(base);
+    for (int i = 0; i < labels.length; i += 2) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+    }
+    return sb.toString();
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.gvod.stream.congestion;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Per message cost of the delay filters - the estimator against the boxed LinkedList filters it replaced. Run with
+ * -prof gc to see the allocation rate.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedbatDelayEstimatorBenchmark {
+
+    private static final int SAMPLES = 1024;
+    private final long[] delays = new long[SAMPLES];
+    private int next = 0;
+    private LedbatDelayEstimator estimator;
+    private LinkedList<Long> baseHistory;
+    private LinkedList<Long> currentHistory;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1234);
+        for (int i = 0; i < SAMPLES; i++) {
+            delays[i] = TimeUnit.MILLISECONDS.toNanos(20) + rand.nextInt(1000000);
+        }
+        estimator = new LedbatDelayEstimator(PullLedbat.HISTORY_SIZE, PullLedbat.HISTORY_SIZE);
+        baseHistory = new LinkedList<>();
+        currentHistory = new LinkedList<>();
+        for (int i = 0; i < PullLedbat.HISTORY_SIZE; i++) {
+            baseHistory.add(Long.MAX_VALUE);
+            estimator.round();
+        }
+    }
+
+    private long nextDelay() {
+        next = (next + 1) & (SAMPLES - 1);
+        return delays[next];
+    }
+
+    @Benchmark
+    public long estimator() {
+        estimator.sample(nextDelay());
+        return estimator.queuingDelay();
+    }
+
+    @Benchmark
+    public long linkedList() {
+        long delay = nextDelay();
+        baseHistory.set(0, Math.min(baseHistory.get(0), delay));
+        currentHistory.addFirst(delay);
+        if (currentHistory.size() > PullLedbat.HISTORY_SIZE) {
+            currentHistory.removeLast();
+        }
+        Long baseDelay = Collections.min(baseHistory);
+        double avg = 0;
+        int t = 1;
+        for (double x : currentHistory) {
+            avg += (x - avg) / t;
+            ++t;
+        }
+        return (long) Math.floor(avg) - baseDelay;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(LedbatDelayEstimatorBenchmark.class.getSimpleName())
+            .build();
+        new Runner(opt).run();
+    }
+}
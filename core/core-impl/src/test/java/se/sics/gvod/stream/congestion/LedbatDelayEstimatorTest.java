@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.gvod.stream.congestion;
+
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the estimator against the RFC 6817 description of the delay filters - base delay as the minimum of the
+ * per round minima over the base history, current delay as the filter over the last samples.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class LedbatDelayEstimatorTest {
+
+    @Test
+    public void emptyTest() {
+        LedbatDelayEstimator e = new LedbatDelayEstimator(3, 4);
+        Assert.assertFalse(e.hasBase());
+        Assert.assertEquals(LedbatDelayEstimator.NO_SAMPLE, e.queuingDelay());
+        e.round();
+        Assert.assertFalse(e.hasBase());
+    }
+
+    @Test
+    public void baseHistoryExpiresTest() {
+        LedbatDelayEstimator e = new LedbatDelayEstimator(3, 4);
+        e.sample(10);
+        e.round();
+        e.sample(30);
+        e.round();
+        e.sample(20);
+        Assert.assertEquals(10, e.base());
+        e.round();
+        Assert.assertEquals(20, e.base());
+        e.round();
+        Assert.assertEquals(20, e.base());
+        e.round();
+        //no sample in the whole history - the base is forgotten
+        Assert.assertFalse(e.hasBase());
+    }
+
+    @Test
+    public void currentFilterTest() {
+        LedbatDelayEstimator e = new LedbatDelayEstimator(3, 4);
+        e.sample(100);
+        Assert.assertEquals(100, e.current());
+        e.sample(200);
+        e.sample(300);
+        e.sample(400);
+        Assert.assertEquals(250, e.current());
+        e.sample(500);
+        Assert.assertEquals(350, e.current());
+        Assert.assertEquals(250, e.queuingDelay());
+    }
+
+    /**
+     * the clocks of the two ends differ by an unknown offset - the queuing delay must not depend on it
+     */
+    @Test
+    public void clockOffsetTest() {
+        Random rand = new Random(1234);
+        LedbatDelayEstimator e1 = new LedbatDelayEstimator(10, 8);
+        LedbatDelayEstimator e2 = new LedbatDelayEstimator(10, 8);
+        long offset = Long.MIN_VALUE / 2;
+        for (int i = 0; i < 10000; i++) {
+            long delay = TimeUnit.MILLISECONDS.toNanos(20) + rand.nextInt(1000000);
+            e1.sample(delay);
+            e2.sample(delay + offset);
+            if (i % 100 == 0) {
+                e1.round();
+                e2.round();
+            }
+            Assert.assertEquals(e1.queuingDelay(), e2.queuingDelay());
+        }
+    }
+
+    @Test
+    public void referenceTest() {
+        Random rand = new Random(1234);
+        int baseHistory = 7;
+        int currentFilter = 5;
+        LedbatDelayEstimator e = new LedbatDelayEstimator(baseHistory, currentFilter);
+        LinkedList<Long> baseRef = new LinkedList<>();
+        baseRef.add(Long.MAX_VALUE);
+        LinkedList<Long> currentRef = new LinkedList<>();
+        for (int i = 0; i < 20000; i++) {
+            if (rand.nextInt(20) == 0) {
+                e.round();
+                baseRef.addFirst(Long.MAX_VALUE);
+                if (baseRef.size() > baseHistory) {
+                    baseRef.removeLast();
+                }
+            } else {
+                long delay = rand.nextInt(1000000);
+                e.sample(delay);
+                baseRef.set(0, Math.min(baseRef.get(0), delay));
+                currentRef.addFirst(delay);
+                if (currentRef.size() > currentFilter) {
+                    currentRef.removeLast();
+                }
+            }
+            long base = Long.MAX_VALUE;
+            for (long b : baseRef) {
+                base = Math.min(base, b);
+            }
+            Assert.assertEquals(base, e.base());
+            if (!currentRef.isEmpty()) {
+                long sum = 0;
+                for (long c : currentRef) {
+                    sum += c;
+                }
+                Assert.assertEquals(Math.floorDiv(sum, currentRef.size()), e.current());
+            }
+        }
+    }
+
+    @Test
+    public void targetTest() {
+        PullLedbat ledbat = new PullLedbat(null, new Random(1234));
+        long base = TimeUnit.MILLISECONDS.toNanos(5);
+        Assert.assertEquals(PLedbatState.Status.SPEED_UP, ledbat.status(base));
+        //queuing delay below the 100ms target
+        for (int i = 0; i < PullLedbat.HISTORY_SIZE; i++) {
+            Assert.assertEquals(PLedbatState.Status.SPEED_UP, ledbat.status(base + PullLedbat.TARGET_NS / 2));
+        }
+        //sub-millisecond changes are seen
+        long justOver = base + PullLedbat.TARGET_NS + TimeUnit.MICROSECONDS.toNanos(200);
+        PLedbatState.Status status = null;
+        for (int i = 0; i < PullLedbat.HISTORY_SIZE; i++) {
+            status = ledbat.status(justOver);
+        }
+        Assert.assertEquals(PLedbatState.Status.SLOW_DOWN, status);
+    }
+}
@@ -18,7 +18,9 @@
  */
 package se.sics.nstream.storage.buffer;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.UUID;
 import org.javatuples.Pair;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -26,7 +28,11 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.sics.kompics.config.Config;
+import se.sics.kompics.config.ConfigUpdate;
 import se.sics.kompics.config.TypesafeConfig;
+import se.sics.kompics.config.ValueMerger;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timer;
 import se.sics.kompics.util.Identifier;
 import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
 import se.sics.ktoolbox.util.identifiable.IdentifierFactory;
@@ -54,6 +60,8 @@ import se.sics.nstream.test.MockStreamEndpoint;
 import se.sics.nstream.test.MockStreamPort;
 import se.sics.nstream.test.MockStreamResource;
 import se.sics.nstream.test.MockWC;
+import se.sics.nstream.test.ScheduleTimeoutEC;
+import se.sics.nstream.transfer.BlockBufferPool;
 import se.sics.nstream.util.actuator.ComponentLoadTracking;
 import se.sics.nstream.util.range.KBlock;
 import se.sics.nstream.util.range.KBlockImpl;
@@ -239,9 +247,15 @@ public class TestSimpleAppendKBuffer {
         Assert.assertTrue(ref2.isValid());
         Assert.assertFalse(ref3.isValid());
         Assert.assertFalse(sakBuf.isIdle());
-        //close before answer to write2
+        //close before answer to write2 - the storage still writes ref2
         sakBuf.close();
+        Assert.assertTrue(ref2.isValid());
+        //late answer to write2
+        DStorageWrite.Request req2 = (DStorageWrite.Request) ecv2.getFound();
+        sakBuf.handleWriteResp.handle(req2.respond(Result.success(true)));
         Assert.assertFalse(ref2.isValid());
+        //no callback after close - the last one is still write3
+        Assert.assertEquals(b3.lowerAbsEndpoint(), allWriteResult.result.fromPos);
         Assert.assertEquals(0, syncExHandler.getExceptionCounter());
 
         //validation
@@ -309,10 +323,274 @@ public class TestSimpleAppendKBuffer {
         //answer to write3
         DStorageWrite.Request req3 = (DStorageWrite.Request) ecv3.getFound();
         sakBuf.handleWriteResp.handle(req3.respond(Result.externalUnsafeFailure(new IllegalStateException("test failure"))));
-        Assert.assertFalse(ref2.isValid());
+        //write2 is still in flight - ref2 is held until its answer
+        Assert.assertTrue(ref2.isValid());
         Assert.assertFalse(ref3.isValid());
         Assert.assertTrue(sakBuf.isIdle());
         Assert.assertEquals(1, syncExHandler.getExceptionCounter());
+        //answer to write2
+        DStorageWrite.Request req2 = (DStorageWrite.Request) ecv2.getFound();
+        sakBuf.handleWriteResp.handle(req2.respond(Result.success(true)));
+        Assert.assertFalse(ref2.isValid());
+        Assert.assertEquals(1, syncExHandler.getExceptionCounter());
+
+        //validation
+        validator = proxy.validate();
+        if (validator != null) {
+            Assert.fail(validator.toString());
+        }
+    }
+
+    /**
+     * a pooled block under a write in flight does not go back to the pool on close, only once the storage answered
+     */
+    @Test
+    public void closeWithPooledWriteInFlight() throws KReferenceException {
+        LOG.info("close with pooled write in flight");
+        //setup
+        Config config = TypesafeConfig.load();
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+        MockWC allWriteResult = new MockWC();
+        //a block size no other test uses - the pools are node wide
+        BlockBufferPool pool = BlockBufferPool.getPool(5, 4);
+
+        Validator validator;
+        KBlock b1 = new KBlockImpl(0, 0, 4);
+        KReference<byte[]> ref1 = pool.acquire();
+        DStorageWrite.Request swr1 = new DStorageWrite.Request(writeStream.getValue0(), b1.lowerAbsEndpoint(), ref1.getValue().get());
+
+        //settig up validators;
+        proxy.expect(new PortValidator(MockStreamPort.class, false));
+        EventContentValidator ecv1 = new EventContentValidator(new DStorageWriteReqEC(), swr1);
+        proxy.expect(ecv1);
+
+        //actual run
+        SimpleAppendKBuffer sakBuf = new SimpleAppendKBuffer(config, proxy, syncExHandler, new ComponentLoadTracking("test", proxy, new QueueLoadConfig(config)), writeStream, 0);
+        sakBuf.write(b1, ref1, allWriteResult);
+        ref1.release();
+        int idle = pool.idle();
+        //close while the storage writes the block
+        sakBuf.close();
+        Assert.assertTrue(ref1.isValid());
+        Assert.assertEquals(idle, pool.idle());
+        //the storage is done with it - back to the pool
+        DStorageWrite.Request req1 = (DStorageWrite.Request) ecv1.getFound();
+        sakBuf.handleWriteResp.handle(req1.respond(Result.success(true)));
+        Assert.assertFalse(ref1.isValid());
+        Assert.assertEquals(idle + 1, pool.idle());
+        Assert.assertFalse(allWriteResult.done);
+        Assert.assertEquals(0, syncExHandler.getExceptionCounter());
+
+        //validation
+        validator = proxy.validate();
+        if (validator != null) {
+            Assert.fail(validator.toString());
+        }
+    }
+
+    /**
+     * blocks written out of order - once the head arrives the contiguous run goes out in batches of at most
+     * maxBatchBytes and each batch ack completes the callbacks of all its blocks
+     */
+    @Test
+    public void coalesceTest() throws KReferenceException {
+        LOG.info("coalesce");
+        //setup
+        Config config = bufferConfig(6, 0);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        Validator validator;
+        KBlock b0 = new KBlockImpl(0, 0, 2);
+        KBlock b1 = new KBlockImpl(1, 3, 5);
+        KBlock b2 = new KBlockImpl(2, 6, 8);
+        KReference<byte[]> ref0 = KReferenceFactory.getReference(new byte[]{1, 2, 3});
+        KReference<byte[]> ref1 = KReferenceFactory.getReference(new byte[]{4, 5, 6});
+        KReference<byte[]> ref2 = KReferenceFactory.getReference(new byte[]{7, 8, 9});
+        MockWC wc0 = new MockWC();
+        MockWC wc1 = new MockWC();
+        MockWC wc2 = new MockWC();
+        //b0+b1 fill a batch, b2 would go over
+        DStorageWrite.Request swr01 = new DStorageWrite.Request(writeStream.getValue0(), b0.lowerAbsEndpoint(),
+                Arrays.asList(ref0.getValue().get(), ref1.getValue().get()));
+        DStorageWrite.Request swr2 = new DStorageWrite.Request(writeStream.getValue0(), b2.lowerAbsEndpoint(),
+                ref2.getValue().get());
+
+        //settig up validators;
+        proxy.expect(new PortValidator(MockStreamPort.class, false));
+        EventContentValidator ecv01 = new EventContentValidator(new DStorageWriteReqEC(), swr01);
+        EventContentValidator ecv2 = new EventContentValidator(new DStorageWriteReqEC(), swr2);
+        proxy.expect(ecv01);
+        proxy.expect(ecv2);
+
+        //actual run
+        SimpleAppendKBuffer sakBuf = new SimpleAppendKBuffer(config, proxy, syncExHandler, new ComponentLoadTracking("test", proxy, new QueueLoadConfig(config)), writeStream, 0);
+        sakBuf.write(b2, ref2, wc2);
+        ref2.release();
+        sakBuf.write(b1, ref1, wc1);
+        ref1.release();
+        //head missing - nothing written
+        Assert.assertNull(ecv01.getFound());
+        sakBuf.write(b0, ref0, wc0);
+        ref0.release();
+        //answer to the b0+b1 batch - split back per block
+        DStorageWrite.Request req01 = (DStorageWrite.Request) ecv01.getFound();
+        Assert.assertEquals(6, req01.length);
+        sakBuf.handleWriteResp.handle(req01.respond(Result.success(true)));
+        Assert.assertFalse(ref0.isValid());
+        Assert.assertFalse(ref1.isValid());
+        Assert.assertTrue(ref2.isValid());
+        Assert.assertTrue(wc0.done);
+        Assert.assertEquals(0, wc0.result.fromPos);
+        Assert.assertEquals(3, wc0.result.written);
+        Assert.assertTrue(wc1.done);
+        Assert.assertEquals(3, wc1.result.fromPos);
+        Assert.assertEquals(3, wc1.result.written);
+        Assert.assertFalse(wc2.done);
+        Assert.assertFalse(sakBuf.isIdle());
+        //answer to b2
+        DStorageWrite.Request req2 = (DStorageWrite.Request) ecv2.getFound();
+        sakBuf.handleWriteResp.handle(req2.respond(Result.success(true)));
+        Assert.assertFalse(ref2.isValid());
+        Assert.assertTrue(wc2.done);
+        Assert.assertTrue(sakBuf.isIdle());
+
+        sakBuf.close();
+        Assert.assertEquals(0, syncExHandler.getExceptionCounter());
+
+        //validation
+        validator = proxy.validate();
+        if (validator != null) {
+            Assert.fail(validator.toString());
+        }
+    }
+
+    /**
+     * a short batch waits for the linger timeout, a full batch goes out right away, a stale linger is ignored
+     */
+    @Test
+    public void lingerTest() throws KReferenceException {
+        LOG.info("linger");
+        //setup
+        Config config = bufferConfig(9, 100);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        Validator validator;
+        KBlock[] b = new KBlock[5];
+        KReference<byte[]>[] ref = new KReference[5];
+        MockWC allWriteResult = new MockWC();
+        for (int i = 0; i < 5; i++) {
+            b[i] = new KBlockImpl(i, 3 * i, 3 * i + 2);
+            ref[i] = KReferenceFactory.getReference(new byte[]{(byte) i, (byte) i, (byte) i});
+        }
+        DStorageWrite.Request swr01 = new DStorageWrite.Request(writeStream.getValue0(), b[0].lowerAbsEndpoint(),
+                Arrays.asList(ref[0].getValue().get(), ref[1].getValue().get()));
+        DStorageWrite.Request swr234 = new DStorageWrite.Request(writeStream.getValue0(), b[2].lowerAbsEndpoint(),
+                Arrays.asList(ref[2].getValue().get(), ref[3].getValue().get(), ref[4].getValue().get()));
+        ScheduleTimeout sst = new ScheduleTimeout(100);
+        sst.setTimeoutEvent(new SimpleAppendKBuffer.Linger(sst));
+
+        //settig up validators;
+        proxy.expect(new PortValidator(MockStreamPort.class, false));
+        proxy.expect(new PortValidator(Timer.class, false));
+        EventContentValidator ecvLinger = new EventContentValidator(new ScheduleTimeoutEC(), sst);
+        EventContentValidator ecv01 = new EventContentValidator(new DStorageWriteReqEC(), swr01);
+        EventContentValidator ecv234 = new EventContentValidator(new DStorageWriteReqEC(), swr234);
+        proxy.expect(ecvLinger);
+        proxy.expect(ecv01);
+        proxy.expect(ecv234);
+
+        //actual run
+        SimpleAppendKBuffer sakBuf = new SimpleAppendKBuffer(config, proxy, syncExHandler, new ComponentLoadTracking("test", proxy, new QueueLoadConfig(config)), writeStream, 0);
+        //short batch - linger
+        sakBuf.write(b[0], ref[0], allWriteResult);
+        sakBuf.write(b[1], ref[1], allWriteResult);
+        Assert.assertNull(ecv01.getFound());
+        //linger expired - b0+b1 go out short
+        SimpleAppendKBuffer.Linger linger = (SimpleAppendKBuffer.Linger) ((ScheduleTimeout) ecvLinger.getFound()).getTimeoutEvent();
+        sakBuf.handleLinger.handle(linger);
+        Assert.assertNotNull(ecv01.getFound());
+        //full batch - no linger
+        sakBuf.write(b[3], ref[3], allWriteResult);
+        sakBuf.write(b[4], ref[4], allWriteResult);
+        sakBuf.write(b[2], ref[2], allWriteResult);
+        Assert.assertNotNull(ecv234.getFound());
+        //stale linger - nothing to send
+        sakBuf.handleLinger.handle(linger);
+
+        DStorageWrite.Request req01 = (DStorageWrite.Request) ecv01.getFound();
+        sakBuf.handleWriteResp.handle(req01.respond(Result.success(true)));
+        DStorageWrite.Request req234 = (DStorageWrite.Request) ecv234.getFound();
+        sakBuf.handleWriteResp.handle(req234.respond(Result.success(true)));
+        Assert.assertTrue(sakBuf.isIdle());
+        for (int i = 0; i < 5; i++) {
+            ref[i].release();
+            Assert.assertFalse(ref[i].isValid());
+        }
+
+        sakBuf.close();
+        Assert.assertEquals(0, syncExHandler.getExceptionCounter());
+
+        //validation
+        validator = proxy.validate();
+        if (validator != null) {
+            Assert.fail(validator.toString());
+        }
+    }
+
+    /**
+     * the storage holds back the first two blocks (a partial record) - its InFlight report lets the third one out
+     * past maxInFlightBytes, so the record can complete
+     */
+    @Test
+    public void storageInFlightTest() throws KReferenceException {
+        LOG.info("storage in flight");
+        //setup
+        Config config = inFlightConfig(6);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        Validator validator;
+        KBlock[] b = new KBlock[3];
+        KReference<byte[]>[] ref = new KReference[3];
+        EventContentValidator[] ecv = new EventContentValidator[3];
+        MockWC allWriteResult = new MockWC();
+
+        //settig up validators;
+        proxy.expect(new PortValidator(MockStreamPort.class, false));
+        for (int i = 0; i < 3; i++) {
+            b[i] = new KBlockImpl(i, 3 * i, 3 * i + 2);
+            ref[i] = KReferenceFactory.getReference(new byte[]{(byte) i, (byte) i, (byte) i});
+            DStorageWrite.Request swr = new DStorageWrite.Request(writeStream.getValue0(), b[i].lowerAbsEndpoint(),
+                    ref[i].getValue().get());
+            ecv[i] = new EventContentValidator(new DStorageWriteReqEC(), swr);
+            proxy.expect(ecv[i]);
+        }
+
+        //actual run
+        SimpleAppendKBuffer sakBuf = new SimpleAppendKBuffer(config, proxy, syncExHandler, new ComponentLoadTracking("test", proxy, new QueueLoadConfig(config)), writeStream, 0);
+        for (int i = 0; i < 3; i++) {
+            sakBuf.write(b[i], ref[i], allWriteResult);
+            ref[i].release();
+        }
+        //6 bytes unacked - b2 waits
+        Assert.assertNotNull(ecv[1].getFound());
+        Assert.assertNull(ecv[2].getFound());
+        //the storage received both, but nothing is in flight on its side
+        sakBuf.handleInFlight.handle(new DStorageWrite.InFlight(writeStream.getValue0(), 6, 0));
+        Assert.assertNotNull(ecv[2].getFound());
+        //b2 completes the record - all acked
+        for (int i = 0; i < 3; i++) {
+            DStorageWrite.Request req = (DStorageWrite.Request) ecv[i].getFound();
+            sakBuf.handleWriteResp.handle(req.respond(Result.success(true)));
+            Assert.assertFalse(ref[i].isValid());
+        }
+        Assert.assertTrue(sakBuf.isIdle());
+
+        sakBuf.close();
+        Assert.assertEquals(0, syncExHandler.getExceptionCounter());
 
         //validation
         validator = proxy.validate();
@@ -320,4 +598,23 @@ public class TestSimpleAppendKBuffer {
             Assert.fail(validator.toString());
         }
     }
+
+    private Config inFlightConfig(long maxInFlightBytes) {
+        Config.Impl config = (Config.Impl) TypesafeConfig.load();
+        Config.Builder cb = config.modify(UUID.randomUUID());
+        cb.setValue(KBufferConfig.Names.MAX_IN_FLIGHT_BYTES, maxInFlightBytes);
+        ConfigUpdate cu = cb.finalise();
+        config.apply(cu, ValueMerger.NONE);
+        return config;
+    }
+
+    private Config bufferConfig(long maxBatchBytes, long lingerMs) {
+        Config.Impl config = (Config.Impl) TypesafeConfig.load();
+        Config.Builder cb = config.modify(UUID.randomUUID());
+        cb.setValue(KBufferConfig.Names.MAX_BATCH_BYTES, maxBatchBytes);
+        cb.setValue(KBufferConfig.Names.LINGER_MS, lingerMs);
+        ConfigUpdate cu = cb.finalise();
+        config.apply(cu, ValueMerger.NONE);
+        return config;
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class TestSegmentedLRU {
+
+    @Test
+    public void probationFirst() {
+        SegmentedLRU lru = new SegmentedLRU(20);
+        lru.add(0, 10);
+        lru.add(10, 10);
+        lru.add(20, 10);
+        Assert.assertEquals(30, lru.bytes());
+        //second access protects block 0
+        lru.touch(0);
+        Assert.assertEquals(10l, (long) lru.victim(-1));
+        lru.remove(10);
+        Assert.assertEquals(20l, (long) lru.victim(-1));
+        //the block just cached is never a victim
+        Assert.assertEquals(0l, (long) lru.victim(20));
+        lru.remove(20);
+        Assert.assertEquals(0l, (long) lru.victim(-1));
+        Assert.assertNull(lru.victim(0));
+        Assert.assertEquals(10, lru.bytes());
+    }
+
+    @Test
+    public void protectedOverflow() {
+        SegmentedLRU lru = new SegmentedLRU(20);
+        lru.add(0, 10);
+        lru.add(10, 10);
+        lru.add(20, 10);
+        lru.touch(0);
+        lru.touch(10);
+        //protected segment is full - 0 is demoted back to probation as most recent
+        lru.touch(20);
+        Assert.assertEquals(0l, (long) lru.victim(-1));
+        Assert.assertEquals(30, lru.bytes());
+        lru.clear();
+        Assert.assertEquals(0, lru.bytes());
+        Assert.assertNull(lru.victim(-1));
+    }
+}
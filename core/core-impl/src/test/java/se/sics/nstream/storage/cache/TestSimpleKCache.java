@@ -21,6 +21,7 @@ package se.sics.nstream.storage.cache;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.UUID;
 import org.javatuples.Pair;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -28,7 +29,9 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.sics.kompics.config.Config;
+import se.sics.kompics.config.ConfigUpdate;
 import se.sics.kompics.config.TypesafeConfig;
+import se.sics.kompics.config.ValueMerger;
 import se.sics.kompics.util.Identifier;
 import se.sics.kompics.timer.CancelPeriodicTimeout;
 import se.sics.kompics.timer.SchedulePeriodicTimeout;
@@ -59,6 +62,8 @@ import se.sics.nstream.test.DStorageReadReqEC;
 import se.sics.nstream.test.MockStreamEndpoint;
 import se.sics.nstream.test.MockStreamPort;
 import se.sics.nstream.test.MockStreamResource;
+import se.sics.nstream.util.BlockDetails;
+import se.sics.nstream.util.FileBaseDetails;
 import se.sics.nstream.util.actuator.ComponentLoadTracking;
 import se.sics.nstream.util.range.KBlock;
 import se.sics.nstream.util.range.KBlockImpl;
@@ -75,6 +80,7 @@ public class TestSimpleKCache {
     private static final Logger LOG = LoggerFactory.getLogger(TestSimpleKCache.class);
 
     private static Pair<StreamId, MyStream> readStream;
+    private static FileBaseDetails fileDetails;
     private static Identifier readerId;
 
     private static KBlock b0, b1, b2;
@@ -82,6 +88,9 @@ public class TestSimpleKCache {
     private static Map<Long, KBlock> hint0 = new TreeMap<>();
     private static Map<Long, KBlock> hint0_1 = new TreeMap<>();
     private static Map<Long, KBlock> hint1_2 = new TreeMap<>();
+    private static Map<Long, KBlock> hint0_1_2 = new TreeMap<>();
+    private static Map<Long, KBlock> hint1 = new TreeMap<>();
+    private static Map<Long, KBlock> hint2 = new TreeMap<>();
     private static SimpleKCache.ExtendedCacheClean timeout;
     private static byte[] r = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
 
@@ -126,6 +135,8 @@ public class TestSimpleKCache {
         SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(0, 0);
         timeout = new SimpleKCache.ExtendedCacheClean(spt);
 
+        BlockDetails blockDetails = new BlockDetails(10, 1, 10, 10);
+        fileDetails = new FileBaseDetails(30, 3, blockDetails, blockDetails, "SHA");
         b0 = new KBlockImpl(0, 0, 9);
         b1 = new KBlockImpl(1, 10, 19);
         b2 = new KBlockImpl(2, 20, 29);
@@ -134,6 +145,10 @@ public class TestSimpleKCache {
         hint0_1.put(b1.lowerAbsEndpoint(), b1);
         hint1_2.put(b1.lowerAbsEndpoint(), b1);
         hint1_2.put(b2.lowerAbsEndpoint(), b2);
+        hint0_1_2.putAll(hint0_1);
+        hint0_1_2.put(b2.lowerAbsEndpoint(), b2);
+        hint1.put(b1.lowerAbsEndpoint(), b1);
+        hint2.put(b2.lowerAbsEndpoint(), b2);
 
         req0 = new DStorageRead.Request(readStream.getValue0(), b0);
         resp0 = req0.respond(Result.success(r));
@@ -399,11 +414,317 @@ public class TestSimpleKCache {
 
     }
 
+    /**
+     * 2 block budget, 3 hinted blocks - the third fetch evicts, a read of the evicted block refetches it
+     */
+    @Test
+    public void testBoundedEviction() throws KReferenceException {
+        LOG.info("***********************************************************");
+        LOG.info("bounded eviction");
+        //setup
+        Config config = cacheConfig(20, 0);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        Validator validator;
+        MockDelayedRead read = new MockDelayedRead(new KPieceImpl(0, -1, 0l, 3l));
+        //**********************************************************************
+        int hintStamp = 1;
+        SimpleKCache skCache = buildCache(config, proxy, syncExHandler);
+        startCache(skCache, proxy, syncExHandler);
+        //*****************************CACHE************************************
+        proxy.expect(new EventContentValidator(comparator, req0));
+        proxy.expect(new EventContentValidator(comparator, req1));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint0_1));
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        skCache.handleReadResp.handle(resp0);
+        skCache.handleReadResp.handle(resp1);
+        checkCacheState(skCache, new CacheState(2, 0, 0, 0));
+        //*****************************EVICT************************************
+        proxy.expect(new EventContentValidator(comparator, req2));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint0_1_2));
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        skCache.handleReadResp.handle(resp2);
+        //b0 - eldest in probation - evicted, but still hinted
+        checkCacheState(skCache, new CacheState(2, 0, 0, 0));
+        Assert.assertFalse(skCache.cacheRef.containsKey(b0.lowerAbsEndpoint()));
+        Assert.assertTrue(skCache.evicted.containsKey(b0.lowerAbsEndpoint()));
+        //****************************REFETCH***********************************
+        proxy.expect(new EventContentValidator(comparator, req0));
+        skCache.read(read.range, read);
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        Assert.assertFalse(skCache.evicted.containsKey(b0.lowerAbsEndpoint()));
+        checkCacheState(skCache, new CacheState(2, 0, 1, 1));
+        Assert.assertFalse(read.done);
+        skCache.handleReadResp.handle(resp0);
+        Assert.assertTrue(read.done);
+        read.returned.release();
+        //the budget holds - another hinted block made room for b0
+        checkCacheState(skCache, new CacheState(2, 0, 0, 0));
+        Assert.assertTrue(skCache.cacheRef.containsKey(b0.lowerAbsEndpoint()));
+        Assert.assertEquals(1, skCache.evicted.size());
+        //*****************************CLEAN************************************
+        //no longer hinted - no longer waiting for a refetch
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hintE));
+        Assert.assertTrue(skCache.evicted.isEmpty());
+        checkCacheState(skCache, new CacheState(0, 0, 0, 0));
+        //**********************************************************************
+        closeCache(skCache, proxy, syncExHandler);
+    }
+
+    @Test
+    public void testEvictedCleanedWithReader() throws KReferenceException {
+        LOG.info("***********************************************************");
+        LOG.info("evicted cleaned with reader");
+        //setup
+        Config config = cacheConfig(20, 0);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        //**********************************************************************
+        int hintStamp = 1;
+        SimpleKCache skCache = buildCache(config, proxy, syncExHandler);
+        startCache(skCache, proxy, syncExHandler);
+        proxy.expect(new EventContentValidator(comparator, req0));
+        proxy.expect(new EventContentValidator(comparator, req1));
+        proxy.expect(new EventContentValidator(comparator, req2));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint0_1_2));
+        for (int i = 0; i < 3; i++) {
+            Validator validator = proxy.validateNext();
+            Assert.assertTrue(validator.toString(), validator.isValid());
+        }
+        skCache.handleReadResp.handle(resp0);
+        skCache.handleReadResp.handle(resp1);
+        skCache.handleReadResp.handle(resp2);
+        Assert.assertEquals(2, skCache.cacheRef.size());
+        Assert.assertEquals(1, skCache.evicted.size());
+        //*****************************CLEAN************************************
+        skCache.clean(readerId);
+        Assert.assertTrue(skCache.evicted.isEmpty());
+        //**********************************************************************
+        closeCache(skCache, proxy, syncExHandler);
+    }
+
+    /**
+     * two forward hints - b2 read ahead - lands in system - next hint moves it to cache without a fetch
+     */
+    @Test
+    public void testReadAheadLanded() throws KReferenceException {
+        LOG.info("***********************************************************");
+        LOG.info("read ahead landed");
+        //setup
+        Config config = cacheConfig(0, 1);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        //**********************************************************************
+        int hintStamp = 1;
+        SimpleKCache skCache = buildCache(config, proxy, syncExHandler);
+        startCache(skCache, proxy, syncExHandler);
+        sequentialHints(skCache, proxy, hintStamp);
+        hintStamp += 2;
+        //*****************************LANDED***********************************
+        skCache.handleReadResp.handle(resp2);
+        Assert.assertTrue(skCache.pendingPrefetch.isEmpty());
+        Assert.assertTrue(skCache.prefetched.containsKey(b2.lowerAbsEndpoint()));
+        checkCacheState(skCache, new CacheState(0, 1, 1, 0));
+        skCache.handleReadResp.handle(resp1);
+        checkCacheState(skCache, new CacheState(1, 1, 0, 0));
+        //*****************************HINTED***********************************
+        //no fetch - served by the landed read ahead
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint1_2));
+        Assert.assertTrue(skCache.prefetched.isEmpty());
+        checkCacheState(skCache, new CacheState(2, 0, 0, 0));
+        //*****************************CLEAN************************************
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hintE));
+        checkCacheState(skCache, new CacheState(0, 0, 0, 0));
+        //**********************************************************************
+        closeCache(skCache, proxy, syncExHandler);
+    }
+
+    /**
+     * b2 hinted while its read ahead is still outstanding - the read ahead response serves the hint, no second fetch
+     */
+    @Test
+    public void testReadAheadTakenOver() throws KReferenceException {
+        LOG.info("***********************************************************");
+        LOG.info("read ahead taken over");
+        //setup
+        Config config = cacheConfig(0, 1);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        //**********************************************************************
+        int hintStamp = 1;
+        SimpleKCache skCache = buildCache(config, proxy, syncExHandler);
+        startCache(skCache, proxy, syncExHandler);
+        sequentialHints(skCache, proxy, hintStamp);
+        hintStamp += 2;
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint1_2));
+        Assert.assertTrue(skCache.pendingPrefetch.isEmpty());
+        checkCacheState(skCache, new CacheState(0, 0, 2, 0));
+        skCache.handleReadResp.handle(resp1);
+        skCache.handleReadResp.handle(resp2);
+        Assert.assertTrue(skCache.prefetched.isEmpty());
+        checkCacheState(skCache, new CacheState(2, 0, 0, 0));
+        //*****************************CLEAN************************************
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hintE));
+        checkCacheState(skCache, new CacheState(0, 0, 0, 0));
+        //**********************************************************************
+        closeCache(skCache, proxy, syncExHandler);
+    }
+
+    /**
+     * a landed read ahead that is never hinted is dropped after prefetchTTL
+     */
+    @Test
+    public void testReadAheadExpired() throws KReferenceException {
+        LOG.info("***********************************************************");
+        LOG.info("read ahead expired");
+        //setup
+        Config config = cacheConfig(0, 1);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        //**********************************************************************
+        int hintStamp = 1;
+        SimpleKCache skCache = buildCache(config, proxy, syncExHandler);
+        startCache(skCache, proxy, syncExHandler);
+        sequentialHints(skCache, proxy, hintStamp);
+        hintStamp += 2;
+        skCache.handleReadResp.handle(resp1);
+        skCache.handleReadResp.handle(resp2);
+        checkCacheState(skCache, new CacheState(1, 1, 0, 0));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hintE));
+        checkCacheState(skCache, new CacheState(0, 1, 0, 0));
+        //****************************EXPIRED***********************************
+        long rounds = KCacheConfig.DEFAULT_PREFETCH_TTL / new KCacheConfig(config).extendedCacheCleanPeriod;
+        for (int i = 0; i < rounds - 1; i++) {
+            skCache.handleExtendedCacheClean.handle(timeout);
+        }
+        Assert.assertEquals(1, skCache.prefetched.size());
+        skCache.handleExtendedCacheClean.handle(timeout);
+        Assert.assertTrue(skCache.prefetched.isEmpty());
+        checkCacheState(skCache, new CacheState(0, 0, 0, 0));
+        //**********************************************************************
+        closeCache(skCache, proxy, syncExHandler);
+    }
+
+    /**
+     * read ahead is admitted and evicted under the same budget - landed read ahead goes before cached blocks
+     */
+    @Test
+    public void testReadAheadBudget() throws KReferenceException {
+        LOG.info("***********************************************************");
+        LOG.info("read ahead budget");
+        //setup
+        Config config = cacheConfig(20, 1);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        Validator validator;
+        //**********************************************************************
+        int hintStamp = 1;
+        SimpleKCache skCache = buildCache(config, proxy, syncExHandler);
+        startCache(skCache, proxy, syncExHandler);
+        //b1 pending + b2 read ahead fill the budget
+        sequentialHints(skCache, proxy, hintStamp);
+        hintStamp += 2;
+        skCache.handleReadResp.handle(resp2);
+        skCache.handleReadResp.handle(resp1);
+        checkCacheState(skCache, new CacheState(1, 1, 0, 0));
+        //***************************EVICT_PREFETCH*****************************
+        proxy.expect(new EventContentValidator(comparator, req0));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint0_1));
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        skCache.handleReadResp.handle(resp0);
+        Assert.assertTrue(skCache.prefetched.isEmpty());
+        Assert.assertTrue(skCache.evicted.isEmpty());
+        checkCacheState(skCache, new CacheState(2, 0, 0, 0));
+        //*****************************CLEAN************************************
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hintE));
+        checkCacheState(skCache, new CacheState(0, 0, 0, 0));
+        //**********************************************************************
+        closeCache(skCache, proxy, syncExHandler);
+    }
+
+    @Test
+    public void testReadAheadNotAdmitted() throws KReferenceException {
+        LOG.info("***********************************************************");
+        LOG.info("read ahead not admitted");
+        //setup
+        Config config = cacheConfig(10, 1);
+        MockComponentProxy proxy = new MockComponentProxy();
+        MockExceptionHandler syncExHandler = new MockExceptionHandler();
+
+        Validator validator;
+        //**********************************************************************
+        int hintStamp = 1;
+        SimpleKCache skCache = buildCache(config, proxy, syncExHandler);
+        startCache(skCache, proxy, syncExHandler);
+        proxy.expect(new EventContentValidator(comparator, req0));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint0));
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        skCache.handleReadResp.handle(resp0);
+        //b1 pending fills the budget - no read ahead
+        proxy.expect(new EventContentValidator(comparator, req1));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint1));
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        Assert.assertTrue(skCache.pendingPrefetch.isEmpty());
+        skCache.handleReadResp.handle(resp1);
+        //*****************************CLEAN************************************
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hintE));
+        checkCacheState(skCache, new CacheState(0, 0, 0, 0));
+        //**********************************************************************
+        closeCache(skCache, proxy, syncExHandler);
+    }
+
+    /**
+     * hint0, resp0, hint1 - the second forward hint fetches b1 and reads ahead b2
+     */
+    private void sequentialHints(SimpleKCache skCache, MockComponentProxy proxy, int hintStamp) {
+        Validator validator;
+        proxy.expect(new EventContentValidator(comparator, req0));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint0));
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        skCache.handleReadResp.handle(resp0);
+        //**************************READ_AHEAD**********************************
+        proxy.expect(new EventContentValidator(comparator, req1));
+        proxy.expect(new EventContentValidator(comparator, req2));
+        skCache.setFutureReads(readerId, new KHint.Expanded(hintStamp++, hint1));
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        validator = proxy.validateNext();
+        Assert.assertTrue(validator.toString(), validator.isValid());
+        Assert.assertTrue(skCache.pendingPrefetch.containsKey(b2.lowerAbsEndpoint()));
+        checkCacheState(skCache, new CacheState(0, 0, 1, 0));
+    }
+
+    private Config cacheConfig(long maxBytes, int readAhead) {
+        Config.Impl config = (Config.Impl) TypesafeConfig.load();
+        Config.Builder cb = config.modify(UUID.randomUUID());
+        cb.setValue(KCacheConfig.Names.MAX_BYTES, maxBytes);
+        cb.setValue(KCacheConfig.Names.READ_AHEAD, readAhead);
+        ConfigUpdate cu = cb.finalise();
+        config.apply(cu, ValueMerger.NONE);
+        return config;
+    }
+
     private SimpleKCache buildCache(Config config, MockComponentProxy proxy, MockExceptionHandler syncExHandler) {
         proxy.expect(new PortValidator(MockStreamPort.class, false));
         proxy.expect(
                 new PortValidator(Timer.class, false));
-        SimpleKCache skCache = new SimpleKCache(config, proxy, syncExHandler, new ComponentLoadTracking("test", proxy, new QueueLoadConfig(config)), readStream);
+        SimpleKCache skCache = new SimpleKCache(config, proxy, syncExHandler, new ComponentLoadTracking("test", proxy, new QueueLoadConfig(config)), 
+                fileDetails, readStream);
 
         Assert.assertTrue(proxy.validateNext().isValid());
         Assert.assertTrue(proxy.validateNext().isValid());
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.storage.hash;
+
+import com.google.common.base.Optional;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HashSidecarTest {
+
+    private static final int NR_BLOCKS = 10;
+    private static final int HASH_SIZE = 4;
+    //3 pages, the last one partial
+    private static final int RECORDS_PER_PAGE = 4;
+
+    private static ByteBuffer header() {
+        return HashSidecar.header(1000, NR_BLOCKS, 100, "SHA", HASH_SIZE);
+    }
+
+    private static HashSidecar open(File f) {
+        Optional<HashSidecar> sidecar = HashSidecar.open(f, header(), NR_BLOCKS, HASH_SIZE, RECORDS_PER_PAGE, "");
+        Assert.assertTrue(sidecar.isPresent());
+        return sidecar.get();
+    }
+
+    private static byte[] hash(int blockNr) {
+        return new byte[]{(byte) blockNr, 1, 2, (byte) (blockNr + 3)};
+    }
+
+    private static File tmpFile() throws IOException {
+        File f = Files.createTempDirectory("sidecar").resolve("file.hashes").toFile();
+        f.deleteOnExit();
+        f.getParentFile().deleteOnExit();
+        return f;
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        File f = tmpFile();
+        HashSidecar sidecar = open(f);
+        sidecar.put(0, hash(0));
+        sidecar.put(5, hash(5));
+        sidecar.put(9, hash(9));
+        Assert.assertArrayEquals(hash(5), sidecar.get(5).get());
+        sidecar.close();
+        //header + records up to the end of the last page touched
+        Assert.assertEquals(HashSidecar.HEADER_SIZE + NR_BLOCKS * HashSidecar.recordSize(HASH_SIZE), f.length());
+
+        sidecar = open(f);
+        Assert.assertArrayEquals(hash(0), sidecar.get(0).get());
+        Assert.assertArrayEquals(hash(5), sidecar.get(5).get());
+        Assert.assertArrayEquals(hash(9), sidecar.get(9).get());
+        sidecar.close();
+    }
+
+    @Test
+    public void missingRecordTest() throws IOException {
+        File f = tmpFile();
+        HashSidecar sidecar = open(f);
+        sidecar.put(1, hash(1));
+        Assert.assertFalse(sidecar.get(0).isPresent());
+        Assert.assertFalse(sidecar.get(2).isPresent());
+        //never mapped page
+        Assert.assertFalse(sidecar.get(8).isPresent());
+        try {
+            sidecar.get(NR_BLOCKS);
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            sidecar.put(0, new byte[HASH_SIZE + 1]);
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        sidecar.close();
+    }
+
+    @Test
+    public void shortFileTest() throws IOException {
+        File f = tmpFile();
+        HashSidecar sidecar = open(f);
+        sidecar.put(0, hash(0));
+        sidecar.put(9, hash(9));
+        sidecar.close();
+        //records of the last page lost - they read as absent, the rest survives
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(HashSidecar.HEADER_SIZE + 2 * RECORDS_PER_PAGE * HashSidecar.recordSize(HASH_SIZE));
+        }
+        sidecar = open(f);
+        Assert.assertArrayEquals(hash(0), sidecar.get(0).get());
+        Assert.assertFalse(sidecar.get(9).isPresent());
+        sidecar.close();
+
+        //shorter than the header - reset
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(HashSidecar.HEADER_SIZE / 2);
+        }
+        sidecar = open(f);
+        Assert.assertFalse(sidecar.get(0).isPresent());
+        sidecar.close();
+    }
+
+    @Test
+    public void corruptedRecordTest() throws IOException {
+        File f = tmpFile();
+        HashSidecar sidecar = open(f);
+        sidecar.put(4, hash(4));
+        sidecar.put(5, hash(5));
+        sidecar.close();
+        //present flag intact, hash bytes of block 5 damaged - the checksum no longer matches
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            long hashPos = HashSidecar.HEADER_SIZE + 5 * HashSidecar.recordSize(HASH_SIZE) + 1;
+            raf.seek(hashPos + 1);
+            raf.writeByte(0x7f);
+        }
+        sidecar = open(f);
+        Assert.assertFalse(sidecar.get(5).isPresent());
+        Assert.assertArrayEquals(hash(4), sidecar.get(4).get());
+        //rewritten - valid again
+        sidecar.put(5, hash(5));
+        Assert.assertArrayEquals(hash(5), sidecar.get(5).get());
+        sidecar.close();
+    }
+
+    @Test
+    public void corruptedHeaderTest() throws IOException {
+        File f = tmpFile();
+        HashSidecar sidecar = open(f);
+        sidecar.put(0, hash(0));
+        sidecar.close();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(0);
+            raf.writeInt(0xdeadbeef);
+        }
+        sidecar = open(f);
+        Assert.assertFalse(sidecar.get(0).isPresent());
+        sidecar.close();
+
+        //header of another file - stale, reset
+        sidecar = open(f);
+        sidecar.put(0, hash(0));
+        sidecar.close();
+        Optional<HashSidecar> other = HashSidecar.open(f, HashSidecar.header(2000, NR_BLOCKS, 200, "SHA", HASH_SIZE),
+                NR_BLOCKS, HASH_SIZE, RECORDS_PER_PAGE, "");
+        Assert.assertFalse(other.get().get(0).isPresent());
+        other.get().close();
+    }
+}
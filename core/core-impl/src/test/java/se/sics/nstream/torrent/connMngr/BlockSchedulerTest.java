@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.connMngr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.nstream.FileId;
+import se.sics.nstream.TorrentIds;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class BlockSchedulerTest {
+
+    private final FileConnection f0 = file(0, 3);
+    private final FileConnection f1 = file(1, 1);
+    private final FileConnection f2 = file(2, 1);
+
+    @Test
+    public void sequentialTest() {
+        BlockScheduler scheduler = new BlockScheduler.Sequential();
+        Assert.assertEquals(Arrays.asList(f0, f1, f2), scheduler.order(Arrays.asList(f2, f0, f1)));
+        Assert.assertEquals(Integer.MAX_VALUE, scheduler.quantum());
+    }
+
+    @Test
+    public void rarestTest() {
+        BlockScheduler scheduler = new BlockScheduler.Rarest();
+        //fewest blocks in flight first, ties by file
+        Assert.assertEquals(Arrays.asList(f1, f2, f0), scheduler.order(Arrays.asList(f2, f0, f1)));
+        Assert.assertEquals(1, scheduler.quantum());
+        //a placed block moves the file back
+        f1.useSlot();
+        Assert.assertEquals(Arrays.asList(f2, f1, f0), scheduler.order(Arrays.asList(f0, f1, f2)));
+    }
+
+    @Test
+    public void priorityTest() {
+        Map<Integer, Integer> priorities = new HashMap<>();
+        priorities.put(2, 5);
+        priorities.put(0, 1);
+        BlockScheduler scheduler = new BlockScheduler.Priority(priorities, 4);
+        //higher priority first, files without one have 0
+        List<FileConnection> ordered = scheduler.order(Arrays.asList(f0, f1, f2));
+        Assert.assertEquals(Arrays.asList(f2, f0, f1), ordered);
+        Assert.assertEquals(4, scheduler.quantum());
+        //equal priorities by file - blocks in flight do not matter
+        priorities.put(1, 5);
+        scheduler = new BlockScheduler.Priority(priorities, 4);
+        Assert.assertEquals(Arrays.asList(f1, f2, f0), scheduler.order(Arrays.asList(f0, f2, f1)));
+    }
+
+    @Test
+    public void priorityRoundsTest() {
+        Map<Integer, Integer> priorities = new HashMap<>();
+        priorities.put(3, 5);
+        priorities.put(4, 1);
+        priorities.put(5, 1);
+        BlockScheduler scheduler = new BlockScheduler.Priority(priorities, 2);
+        List<FileConnection> files = Arrays.asList(file(6, 0), file(5, 0), file(4, 0), file(3, 0));
+        List<List<FileId>> tiers = BlockScheduler.Rounds.tiers(scheduler, files);
+        Assert.assertEquals(3, tiers.size());
+        Assert.assertEquals(Arrays.asList(files.get(3).getId()), tiers.get(0));
+        Assert.assertEquals(Arrays.asList(files.get(2).getId(), files.get(1).getId()), tiers.get(1));
+        Assert.assertEquals(Arrays.asList(files.get(0).getId()), tiers.get(2));
+
+        //the top file takes only 3 blocks, the rest of the budget goes to the next tier, the lowest tier gets nothing
+        Map<FileId, Integer> placed = advance(tiers, new int[]{10, 10, 10, 3}, 12, 2);
+        Assert.assertEquals(3, (int) placed.get(files.get(3).getId()));
+        Assert.assertEquals(5, (int) placed.get(files.get(2).getId()));
+        Assert.assertEquals(4, (int) placed.get(files.get(1).getId()));
+        Assert.assertEquals(0, (int) placed.get(files.get(0).getId()));
+
+        //the higher tiers can not take the whole budget - the lowest tier gets what is left
+        placed = advance(tiers, new int[]{10, 2, 2, 3}, 12, 2);
+        Assert.assertEquals(3, (int) placed.get(files.get(3).getId()));
+        Assert.assertEquals(2, (int) placed.get(files.get(2).getId()));
+        Assert.assertEquals(2, (int) placed.get(files.get(1).getId()));
+        Assert.assertEquals(5, (int) placed.get(files.get(0).getId()));
+    }
+
+    /**
+     * @param capacity blocks each file can take - files 6, 5, 4, 3
+     */
+    private static Map<FileId, Integer> advance(final List<List<FileId>> tiers, final int[] capacity, int budget,
+            int quantum) {
+        final Map<FileId, Integer> placed = new HashMap<>();
+        for (List<FileId> tier : tiers) {
+            for (FileId fileId : tier) {
+                placed.put(fileId, 0);
+            }
+        }
+        int left = BlockScheduler.Rounds.advance(new BlockScheduler.Turns() {
+            @Override
+            public List<List<FileId>> tiers() {
+                return tiers;
+            }
+
+            @Override
+            public int turn(FileId fileId, int max) {
+                int free = capacity[6 - fileId.fileNr] - placed.get(fileId);
+                int blocks = Math.min(free, max);
+                placed.put(fileId, placed.get(fileId) + blocks);
+                return blocks;
+            }
+        }, budget, quantum);
+        Assert.assertEquals(0, left);
+        return placed;
+    }
+
+    private static FileConnection file(int fileNr, int usedSlots) {
+        FileConnection fc = new SimpleFileConnection(TorrentIds.fileId(null, fileNr), null, 100);
+        for (int i = 0; i < usedSlots; i++) {
+            fc.useSlot();
+        }
+        return fc;
+    }
+}
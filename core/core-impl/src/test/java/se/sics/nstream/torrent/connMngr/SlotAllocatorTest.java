@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.connMngr;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class SlotAllocatorTest {
+
+    @Test
+    public void proportionalTest() {
+        SlotAllocator allocator = new SlotAllocator(100, 2, 20);
+        FilePeerConnection fast = new SimpleFilePeerConnection(null, null, 20);
+        FilePeerConnection slow = new SimpleFilePeerConnection(null, null, 20);
+        FilePeerConnection fresh = new SimpleFilePeerConnection(null, null, 20);
+        fast.throughput(900);
+        slow.throughput(100);
+        allocator.allocate(Arrays.asList(fast, slow, fresh));
+        Assert.assertEquals(20, fresh.maxSlots());
+        Assert.assertEquals(70, fast.maxSlots());
+        Assert.assertEquals(9, slow.maxSlots());
+        Assert.assertTrue(fresh.maxSlots() + fast.maxSlots() + slow.maxSlots() <= 100);
+    }
+
+    @Test
+    public void stalledTest() {
+        SlotAllocator allocator = new SlotAllocator(100, 2, 20);
+        FilePeerConnection fast = new SimpleFilePeerConnection(null, null, 20);
+        FilePeerConnection stalled = new SimpleFilePeerConnection(null, null, 20);
+        fast.throughput(1000);
+        stalled.throughput(0);
+        allocator.allocate(Arrays.asList(fast, stalled));
+        //the floor of the stalled peer comes out of the budget
+        Assert.assertEquals(98, fast.maxSlots());
+        Assert.assertEquals(2, stalled.maxSlots());
+        Assert.assertTrue(stalled.available());
+
+        stalled.throughput(0);
+        fast.throughput(0);
+        allocator.allocate(Arrays.asList(fast, stalled));
+        Assert.assertEquals(50, fast.maxSlots());
+        Assert.assertEquals(50, stalled.maxSlots());
+    }
+
+    @Test
+    public void crowdedTest() {
+        SlotAllocator allocator = new SlotAllocator(4, 2, 2);
+        FilePeerConnection p1 = new SimpleFilePeerConnection(null, null, 2);
+        FilePeerConnection p2 = new SimpleFilePeerConnection(null, null, 2);
+        FilePeerConnection p3 = new SimpleFilePeerConnection(null, null, 2);
+        p1.throughput(1000);
+        p2.throughput(10);
+        p3.throughput(0);
+        allocator.allocate(Arrays.asList(p1, p2, p3));
+        //the floors do not fit the budget - every peer keeps minSlots
+        Assert.assertEquals(2, p1.maxSlots());
+        Assert.assertEquals(2, p2.maxSlots());
+        Assert.assertEquals(2, p3.maxSlots());
+    }
+}
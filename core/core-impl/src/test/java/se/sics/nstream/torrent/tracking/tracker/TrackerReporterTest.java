@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.tracking.tracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class TrackerReporterTest {
+
+    private static final long NO_FLUSH = 3600 * 1000;
+
+    @Test
+    public void batchPerPathTest() {
+        RecordingSender sender = new RecordingSender();
+        TrackerReporter reporter = new TrackerReporter(sender, NO_FLUSH, 10, 10);
+        reporter.report(Hopssite.dataValues(), report("t1", "d1"), false);
+        reporter.report(Hopssite.downloadValues(), report("t1", "w1"), false);
+        reporter.report(Hopssite.dataValues(), report("t2", "d2"), true);
+        reporter.flush();
+        Assert.assertEquals(2, sender.paths.size());
+        Assert.assertEquals(Hopssite.dataValues(), sender.paths.get(0));
+        Assert.assertEquals(Arrays.asList("d1", "d2"), values(sender.batches.get(0)));
+        Assert.assertEquals(Arrays.asList("w1"), values(sender.batches.get(1)));
+        Assert.assertEquals(3, reporter.sent());
+        Assert.assertEquals(0, reporter.pending());
+        reporter.close();
+    }
+
+    @Test
+    public void fullQueueTest() {
+        RecordingSender sender = new RecordingSender();
+        TrackerReporter reporter = new TrackerReporter(sender, NO_FLUSH, 2, 10);
+        Assert.assertTrue(reporter.report(Hopssite.dataValues(), report("t1", "a1"), true));
+        Assert.assertTrue(reporter.report(Hopssite.dataValues(), report("t2", "b1"), true));
+        //aggregated into the queued snapshot of t1
+        Assert.assertTrue(reporter.report(Hopssite.dataValues(), report("t1", "a2"), true));
+        //no queued snapshot of t3
+        Assert.assertFalse(reporter.report(Hopssite.dataValues(), report("t3", "c1"), true));
+        //evicts the oldest snapshot
+        Assert.assertTrue(reporter.report(Hopssite.transferValues(), report("t3", "c2"), false));
+        Assert.assertEquals(1, reporter.aggregated());
+        Assert.assertEquals(2, reporter.dropped());
+        reporter.flush();
+        Assert.assertEquals(Arrays.asList("b1"), values(sender.batches.get(0)));
+        Assert.assertEquals(Arrays.asList("c2"), values(sender.batches.get(1)));
+        reporter.close();
+    }
+
+    @Test
+    public void failedSendTest() {
+        RecordingSender sender = new RecordingSender();
+        sender.fail = true;
+        TrackerReporter reporter = new TrackerReporter(sender, NO_FLUSH, 10, 2);
+        reporter.report(Hopssite.dataValues(), report("t1", "a1"), false);
+        reporter.report(Hopssite.downloadValues(), report("t1", "a2"), false);
+        reporter.report(Hopssite.dataValues(), report("t1", "a3"), false);
+        reporter.close();
+        Assert.assertEquals(3, reporter.failed());
+        Assert.assertEquals(0, reporter.pending());
+        Assert.assertFalse(reporter.report(Hopssite.dataValues(), report("t1", "a4"), false));
+    }
+
+    @Test
+    public void requeueTest() {
+        RecordingSender sender = new RecordingSender();
+        sender.failPath = Hopssite.downloadValues();
+        TrackerReporter reporter = new TrackerReporter(sender, NO_FLUSH, 10, 10);
+        reporter.report(Hopssite.dataValues(), report("t1", "d1"), false);
+        reporter.report(Hopssite.downloadValues(), report("t1", "w1"), false);
+        reporter.report(Hopssite.downloadValues(), report("t2", "w2"), true);
+        reporter.report(Hopssite.transferValues(), report("t1", "x1"), false);
+        reporter.flush();
+        Assert.assertEquals(1, reporter.sent());
+        //the failed snapshot is lost, the failed and the never attempted reports wait for the next flush
+        Assert.assertEquals(1, reporter.failed());
+        Assert.assertEquals(2, reporter.pending());
+
+        sender.failPath = null;
+        reporter.flush();
+        Assert.assertEquals(3, reporter.sent());
+        Assert.assertEquals(Arrays.asList("w1"), values(sender.batches.get(1)));
+        Assert.assertEquals(Arrays.asList("x1"), values(sender.batches.get(2)));
+        reporter.close();
+    }
+
+    @Test
+    public void partialSendTest() {
+        RecordingSender sender = new RecordingSender();
+        sender.failPath = Hopssite.dataValues();
+        sender.partial = 1;
+        TrackerReporter reporter = new TrackerReporter(sender, NO_FLUSH, 10, 10);
+        reporter.report(Hopssite.dataValues(), report("t1", "d1"), false);
+        reporter.report(Hopssite.dataValues(), report("t1", "d2"), false);
+        reporter.flush();
+        //the first report was posted - only the second goes back
+        Assert.assertEquals(1, reporter.sent());
+        Assert.assertEquals(0, reporter.failed());
+        Assert.assertEquals(1, reporter.pending());
+
+        sender.failPath = null;
+        reporter.flush();
+        Assert.assertEquals(Arrays.asList("d2"), values(sender.batches.get(0)));
+        Assert.assertEquals(2, reporter.sent());
+        reporter.close();
+    }
+
+    @Test
+    public void httpTest() throws IOException, InterruptedException {
+        TrackerStandIn tracker = new TrackerStandIn();
+        try {
+            HttpTrackerSender sender = new HttpTrackerSender(tracker.target(), false);
+            sender.send(Hopssite.dataValues(), Arrays.asList(report("t1", "a1"), report("t1", "a2")));
+            sender.send(Hopssite.downloadValues(), Arrays.asList(report("t1", "a3")));
+            //the posts are async
+            Assert.assertTrue(tracker.await(3));
+            Assert.assertTrue(tracker.paths.contains("/" + Hopssite.dataValues()));
+            Assert.assertTrue(tracker.paths.contains("/" + Hopssite.downloadValues()));
+            Assert.assertTrue(tracker.bodies.toString().contains("\"reportVal\":\"a3\""));
+
+            HttpTrackerSender bulkSender = new HttpTrackerSender(tracker.target(), true);
+            bulkSender.send(Hopssite.dataValues(), Arrays.asList(report("t1", "a4"), report("t2", "b1")));
+            Assert.assertTrue(tracker.await(4));
+            Assert.assertEquals("/" + Hopssite.bulk(Hopssite.dataValues()), tracker.paths.get(3));
+            Assert.assertTrue(tracker.bodies.get(3).startsWith("["));
+            Assert.assertTrue(tracker.bodies.get(3).contains("\"torrentId\":\"t2\""));
+        } finally {
+            tracker.stop();
+        }
+    }
+
+    private static DelaReportDTO report(String torrentId, String val) {
+        return new DelaReportDTO("dela", torrentId, 1, val);
+    }
+
+    private static List<String> values(List<DelaReportDTO> reports) {
+        List<String> values = new ArrayList<>();
+        for (DelaReportDTO r : reports) {
+            values.add(r.getReportVal());
+        }
+        return values;
+    }
+
+    private static class RecordingSender implements TrackerSender {
+
+        final List<String> paths = new ArrayList<>();
+        final List<List<DelaReportDTO>> batches = new ArrayList<>();
+        boolean fail = false;
+        String failPath = null;
+        int partial = 0;
+
+        @Override
+        public void send(String path, List<DelaReportDTO> reports) throws IOException {
+            if (fail) {
+                throw new IOException("tracker down");
+            }
+            if (path.equals(failPath)) {
+                if (partial > 0) {
+                    throw new TrackerSender.PartialSend(partial, new IOException("tracker down"));
+                }
+                throw new IOException("tracker down");
+            }
+            paths.add(path);
+            batches.add(new ArrayList<>(reports));
+        }
+    }
+
+    private static class TrackerStandIn implements HttpHandler {
+
+        final HttpServer server;
+        final List<String> paths = new ArrayList<>();
+        final List<String> bodies = new ArrayList<>();
+
+        TrackerStandIn() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", this);
+            server.start();
+        }
+
+        String target() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buf = new byte[1024];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    body.write(buf, 0, read);
+                }
+            }
+            paths.add(exchange.getRequestURI().getPath());
+            bodies.add(new String(body.toByteArray(), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            notifyAll();
+        }
+
+        synchronized boolean await(int posts) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (bodies.size() < posts && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            return bodies.size() >= posts;
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.nstream.util.BlockDetails;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DwnlConnWorkCtrlTest {
+
+    private static Set<Integer> blocks(int from, int to) {
+        Set<Integer> blocks = new TreeSet<>();
+        for (int i = from; i < to; i++) {
+            blocks.add(i);
+        }
+        return blocks;
+    }
+
+    @Test
+    public void lowWatermarkTest() {
+        DwnlConnWorkCtrl ctrl = new DwnlConnWorkCtrl(new BlockDetails(1024, 4, 256, 256), false, null, 3);
+        Assert.assertTrue(ctrl.needsWork());
+
+        ctrl.add(blocks(0, 2), new HashMap<Integer, BlockDetails>());
+        Assert.assertEquals(2, ctrl.queuedBlocks());
+        Assert.assertTrue(ctrl.needsWork());
+        //one request per refill
+        ctrl.workRequested();
+        Assert.assertFalse(ctrl.needsWork());
+
+        ctrl.add(blocks(2, 4), new HashMap<Integer, BlockDetails>());
+        Assert.assertEquals(4, ctrl.queuedBlocks());
+        Assert.assertFalse(ctrl.needsWork());
+
+        //new blocks cleared the request - dropping under the watermark asks again
+        ctrl.cancel(blocks(0, 2));
+        Assert.assertEquals(2, ctrl.queuedBlocks());
+        Assert.assertTrue(ctrl.needsWork());
+    }
+}
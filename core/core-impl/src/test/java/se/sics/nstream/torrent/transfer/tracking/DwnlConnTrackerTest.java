@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.tracking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.basic.IntIdFactory;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DwnlConnTrackerTest {
+
+    @Test
+    public void fullRingTest() throws IOException {
+        TraceRing ring = new TraceRing(4, DwnlConnTracker.PAYLOAD);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(ring.offer(DwnlConnTracker.TIMEOUT, i, i, i, 0, 0));
+        }
+        Assert.assertFalse(ring.offer(DwnlConnTracker.TIMEOUT, 4, 4, 4, 0, 0));
+        Assert.assertEquals(1, ring.dropped());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Assert.assertEquals(4, ring.drain(new DataOutputStream(bytes)));
+        //type, time and 2 payload longs
+        Assert.assertEquals(4 * (1 + 8 + 2 * 8), bytes.size());
+        Assert.assertEquals(0, ring.size());
+        Assert.assertTrue(ring.offer(DwnlConnTracker.TIMEOUT, 5, 5, 5, 0, 0));
+    }
+
+    @Test
+    public void convertTest() throws IOException {
+        TraceWriter writer = new TraceWriter(10);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DwnlConnTracker tracker = new DwnlConnTracker(writer, new DataOutputStream(bytes), "conn", 2, 16);
+        long now = System.currentTimeMillis();
+        Identifier eventId = new IntIdFactory(new Random(1234)).randomId();
+        tracker.reportPortEvent(now, 0);
+        tracker.reportPortEvent(now, 1);
+        tracker.reportPortEvent(now + 2 * DwnlConnTracker.PORTS_PERIOD, 1);
+        tracker.reportTimeout(now + 300, eventId, 50);
+        tracker.close();
+        writer.close();
+
+        StringWriter timeouts = new StringWriter();
+        StringWriter late = new StringWriter();
+        StringWriter ports = new StringWriter();
+        long dropped = DwnlConnTraceConverter.convert(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+            timeouts, late, ports);
+        Assert.assertEquals(0, dropped);
+        Assert.assertTrue(ports.toString().endsWith(",1,2\n"));
+        Assert.assertEquals(1, ports.toString().split("\n").length);
+        Assert.assertTrue(timeouts.toString().endsWith("," + Long.toHexString(eventId.hashCode()) + ",50\n"));
+        Assert.assertEquals("", late.toString());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.tracking;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class PipelineIdleTrackerTest {
+
+    @Test
+    public void idleIntervalsTest() {
+        PipelineIdleTracker tracker = new PipelineIdleTracker(1000);
+        tracker.update(1000, false);
+        tracker.update(1100, true);
+        //repeated idle updates do not restart the interval
+        tracker.update(1150, true);
+        tracker.update(1200, false);
+        Assert.assertEquals(100, tracker.idleMs(1300));
+        tracker.update(1300, true);
+        //the open interval is counted up to now
+        Assert.assertEquals(150, tracker.idleMs(1350));
+        tracker.update(1400, false);
+        Assert.assertEquals(200, tracker.idleMs(1500));
+        Assert.assertEquals(500, tracker.elapsedMs(1500));
+    }
+
+    @Test
+    public void idleDeltaTest() {
+        PipelineIdleTracker tracker = new PipelineIdleTracker(0);
+        tracker.update(0, true);
+        Assert.assertEquals(100, tracker.idleDelta(100));
+        Assert.assertEquals(0, tracker.idleDelta(100));
+        tracker.update(150, false);
+        Assert.assertEquals(50, tracker.idleDelta(200));
+        Assert.assertEquals(0, tracker.idleDelta(300));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.util.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void exportTest() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsScope torrent = registry.scope("torrent", "t1");
+        MetricsScope stream = torrent.scope("file", "f\"1", "stream", "s1");
+        Counter hits = stream.counter("dela_cache_hits_total");
+        Counter misses = stream.counter("dela_cache_misses_total");
+        stream.ratio("dela_cache_hit_ratio", hits, misses);
+        Gauge depth = stream.gauge("dela_buffer_depth");
+        hits.add(3);
+        misses.inc();
+        depth.set(7);
+
+        String export = registry.export();
+        String labels = "{torrent=\"t1\",file=\"f\\\"1\",stream=\"s1\"}";
+        Assert.assertTrue(export.contains("dela_cache_hits_total" + labels + " 3\n"));
+        Assert.assertTrue(export.contains("dela_cache_misses_total" + labels + " 1\n"));
+        Assert.assertTrue(export.contains("dela_cache_hit_ratio" + labels + " 0.75\n"));
+        Assert.assertTrue(export.contains("dela_buffer_depth" + labels + " 7\n"));
+
+        torrent.close();
+        Assert.assertEquals(0, registry.size());
+        Assert.assertEquals("", registry.export());
+    }
+
+    @Test
+    public void sharedTest() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsScope w1 = registry.scope();
+        MetricsScope w2 = registry.scope();
+        LatencyHistogram l1 = w1.latency("dela_hash_verify_us");
+        LatencyHistogram l2 = w2.latency("dela_hash_verify_us");
+        Assert.assertTrue(l1 == l2);
+        try {
+            w1.counter("dela_hash_verify_us");
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+        }
+        w1.close();
+        Assert.assertEquals(1, registry.size());
+        w2.close();
+        Assert.assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void latencyTest() {
+        LatencyHistogram latency = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            latency.recordMillis(i);
+        }
+        latency.recordMicros(-1);
+        latency.recordNanos(Long.MAX_VALUE);
+        Assert.assertEquals(102, latency.count());
+        long p50 = latency.quantile(0.5);
+        Assert.assertTrue(p50 >= 49 * 1000 && p50 <= 51 * 1000);
+        Assert.assertTrue(latency.quantile(1) >= LatencyHistogram.MAX_US);
+
+        StringBuilder sb = new StringBuilder();
+        latency.export("dela_piece_rtt_us", "peer=\"p1\"", sb);
+        Assert.assertTrue(sb.toString().contains("dela_piece_rtt_us{peer=\"p1\",quantile=\"0.5\"} "));
+        Assert.assertTrue(sb.toString().contains("dela_piece_rtt_us_count{peer=\"p1\"} 102\n"));
+    }
+
+    @Test
+    public void endpointTest() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.scope("torrent", "t1").counter("dela_pieces_received_total").add(5);
+        MetricsEndpoint endpoint = MetricsEndpoint.start(registry, "127.0.0.1", 0);
+        try {
+            URL url = new URL("http://127.0.0.1:" + endpoint.port() + MetricsEndpoint.PATH);
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(200, conn.getResponseCode());
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buf = new byte[1024];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    body.write(buf, 0, read);
+                }
+            }
+            Assert.assertEquals("dela_pieces_received_total{torrent=\"t1\"} 5\n",
+                new String(body.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            endpoint.stop();
+        }
+    }
+}
@@ -20,17 +20,19 @@ package se.sics.nstream.hops.library.util;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -135,14 +137,18 @@ public class LibrarySummaryHelper {
         return Result.externalSafeFailure(ex);
       }
     }
-    try {
-      Scanner fileScanner = new Scanner(torrentListFile);
-      String jsonContent = fileScanner.useDelimiter("\\Z").next();
+    //streamed - no intermediary copy of the whole file
+    try (Reader reader = new BufferedReader(new FileReader(torrentListFile))) {
       Gson gson = new Gson();
-      LibrarySummaryJSON c = gson.fromJson(jsonContent, LibrarySummaryJSON.class);
+      LibrarySummaryJSON c = gson.fromJson(reader, LibrarySummaryJSON.class);
+      if (c == null) {
+        return createEmptyTorrentList(torrentListFile);
+      }
       return Result.success(c);
     } catch (FileNotFoundException ex) {
       return Result.internalFailure(ex);
+    } catch (IOException ex) {
+      return Result.externalSafeFailure(ex);
     }
   }
 
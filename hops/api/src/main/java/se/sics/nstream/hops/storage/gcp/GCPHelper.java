@@ -32,7 +32,9 @@ import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.StorageOptions;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.function.BiFunction;
 import java.util.logging.Level;
@@ -330,6 +332,64 @@ public class GCPHelper {
     });
   }
 
+  /**
+   * fills the given array from readPos - no intermediary chunk buffer
+   */
+  public static Try<Integer> readRange(ReadChannel reader, long readPos, byte[] into) {
+    try {
+      ByteBuffer buf = ByteBuffer.wrap(into);
+      reader.seek(readPos);
+      while (buf.hasRemaining()) {
+        int read = reader.read(buf);
+        if (read == -1) {
+          break;
+        }
+      }
+      return new Try.Success(buf.position());
+    } catch (IOException ex) {
+      return new Try.Failure(ex);
+    }
+  }
+
+  /**
+   * gcs composes at most 32 sources at a time - larger lists are composed in rounds through intermediary objects.
+   * Sources and intermediaries are deleted afterwards.
+   */
+  public static Try<Blob> composeAll(Storage storage, BlobId target, List<String> sources) {
+    List<String> toDelete = new ArrayList<>(sources);
+    List<String> current = sources;
+    int round = 0;
+    try {
+      while (current.size() > COMPOSE_MAX_SOURCES) {
+        List<String> next = new ArrayList<>();
+        for (int i = 0; i < current.size(); i += COMPOSE_MAX_SOURCES) {
+          List<String> group = current.subList(i, Math.min(i + COMPOSE_MAX_SOURCES, current.size()));
+          String intermediary = target.getName() + ".compose-" + round + "-" + (i / COMPOSE_MAX_SOURCES);
+          storage.compose(Storage.ComposeRequest.newBuilder()
+            .addSource(group)
+            .setTarget(BlobInfo.newBuilder(target.getBucket(), intermediary).build())
+            .build());
+          next.add(intermediary);
+          toDelete.add(intermediary);
+        }
+        current = next;
+        round++;
+      }
+      Blob blob = storage.compose(Storage.ComposeRequest.newBuilder()
+        .addSource(current)
+        .setTarget(BlobInfo.newBuilder(target).setContentType("text/plain").build())
+        .build());
+      for (String name : toDelete) {
+        storage.delete(BlobId.of(target.getBucket(), name));
+      }
+      return new Try.Success(blob);
+    } catch (StorageException ex) {
+      return new Try.Failure(ex);
+    }
+  }
+
+  public static final int COMPOSE_MAX_SOURCES = 32;
+
   public static WriteChannel writeChannel(GoogleCredentials credentials, String projectId, BlobId blobId) {
     Storage storage = getStorage(credentials, projectId);
     BlobInfo blobInfo = BlobInfo.newBuilder(blobId).setContentType("text/plain").build();
@@ -391,6 +451,20 @@ public class GCPHelper {
     });
   }
 
+  public static BiFunction<List<byte[]>, Throwable, Try<Integer>> writeAllToBlob(WriteChannel writer) {
+    return TryHelper.tryFSucc1((List<byte[]> vals) -> {
+      int total = 0;
+      for (byte[] val : vals) {
+        Try<Integer> written = writeToBlobAux(writer, val);
+        if (written.isFailure()) {
+          return written;
+        }
+        total += val.length;
+      }
+      return new Try.Success(total);
+    });
+  }
+
   private static Try<Integer> writeToBlobAux(WriteChannel writer, byte[] val) {
     try {
       int chunkSize = 64 * 1024;
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.storage.hdfs;
+
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.ktoolbox.util.trysf.Try;
+
+/**
+ * Process wide pool of hdfs clients - one DistributedFileSystem and UserGroupInformation per endpoint (hops url +
+ * user). Clients are ref counted, checked before reuse after being idle and closed after a longer idle period.
+ * Eviction is lazy, done on acquire/release, so the pool does not need a thread of its own. Connecting, health checks
+ * and closing are blocking rpcs and never run under the pool lock.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HDFSClientPool {
+
+  private final static Logger LOG = LoggerFactory.getLogger(HDFSClientPool.class);
+  private static String logPrefix = "hdfs pool:";
+
+  private static final HDFSClientPool INSTANCE = new HDFSClientPool(new HadoopConnector(), System::currentTimeMillis);
+
+  public static HDFSClientPool instance() {
+    return INSTANCE;
+  }
+
+  private final Connector connector;
+  private final LongSupplier clock;
+  private final Map<String, Client> clients = new HashMap<>();
+  //endpoints with a client being opened or health checked - the other acquirers of that endpoint wait on it
+  private final Map<String, CompletableFuture<Try<Client>>> opening = new HashMap<>();
+  //metrics
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long failedChecks = 0;
+
+  HDFSClientPool(Connector connector, LongSupplier clock) {
+    this.connector = connector;
+    this.clock = clock;
+  }
+
+  /**
+   * The blocking connect and health check rpcs run outside the pool lock. Only the first acquirer of an endpoint
+   * does them, the others wait for its result, so acquirers of other endpoints are never blocked.
+   */
+  public Try<Client> acquire(HDFSEndpoint endpoint) {
+    String key = endpoint.getEndpointName();
+    while (true) {
+      List<Client> evicted = new ArrayList<>();
+      CompletableFuture<Try<Client>> open = null;
+      Client hit = null;
+      Client check = null;
+      boolean opener = false;
+      synchronized (this) {
+        long now = clock.getAsLong();
+        evictIdle(now, evicted);
+        Client client = clients.get(key);
+        if (client != null && (client.refCount > 0 || now - client.lastUsed <= HardCodedConfig.healthCheckPeriod)) {
+          hits++;
+          client.refCount++;
+          client.lastUsed = now;
+          hit = client;
+        } else {
+          open = opening.get(key);
+          if (open == null) {
+            open = new CompletableFuture<>();
+            opening.put(key, open);
+            opener = true;
+            //idle for a while - checked before reuse
+            check = clients.remove(key);
+          }
+        }
+      }
+      closeAll(evicted);
+      if (hit != null) {
+        return new Try.Success(hit);
+      }
+      if (opener) {
+        return open(endpoint, open, check);
+      }
+      Try<Client> opened = open.join();
+      if (opened.isFailure()) {
+        return opened;
+      }
+      synchronized (this) {
+        Client client = opened.get();
+        //might have been evicted in the meantime - try again
+        if (clients.get(key) == client) {
+          hits++;
+          client.refCount++;
+          client.lastUsed = clock.getAsLong();
+          return opened;
+        }
+      }
+    }
+  }
+
+  private Try<Client> open(HDFSEndpoint endpoint, CompletableFuture<Try<Client>> open, Client check) {
+    String key = endpoint.getEndpointName();
+    Try<Client> result = null;
+    boolean failedCheck = false;
+    try {
+      if (check != null) {
+        if (connector.healthy(check)) {
+          result = new Try.Success(check);
+        } else {
+          LOG.info("{}client:{} failed health check", logPrefix, key);
+          failedCheck = true;
+          connector.close(check);
+        }
+      }
+      if (result == null) {
+        result = connector.open(endpoint);
+      }
+    } finally {
+      if (result == null) {
+        result = new Try.Failure(new HDFSException("hdfs client open - unexpected failure"));
+      }
+      synchronized (this) {
+        opening.remove(key);
+        if (failedCheck) {
+          failedChecks++;
+        }
+        if (result.isSuccess()) {
+          Client client = result.get();
+          if (client == check) {
+            hits++;
+          } else {
+            misses++;
+          }
+          client.refCount++;
+          client.lastUsed = clock.getAsLong();
+          clients.put(key, client);
+        } else {
+          misses++;
+        }
+      }
+      open.complete(result);
+    }
+    return result;
+  }
+
+  public void release(Client client) {
+    List<Client> evicted = new ArrayList<>();
+    synchronized (this) {
+      client.refCount--;
+      client.lastUsed = clock.getAsLong();
+      evictIdle(client.lastUsed, evicted);
+    }
+    closeAll(evicted);
+  }
+
+  /**
+   * acquire, run, release
+   */
+  public <O> Try<O> with(HDFSEndpoint endpoint, Function<Client, Try<O>> action) {
+    Try<Client> client = acquire(endpoint);
+    if (client.isFailure()) {
+      return (Try.Failure) client;
+    }
+    try {
+      return action.apply(client.get());
+    } finally {
+      release(client.get());
+    }
+  }
+
+  /**
+   * under the pool lock - the evicted clients are closed by the caller, outside of it
+   */
+  private void evictIdle(long now, List<Client> evicted) {
+    Iterator<Client> it = clients.values().iterator();
+    while (it.hasNext()) {
+      Client client = it.next();
+      if (client.refCount == 0 && now - client.lastUsed > HardCodedConfig.idleTimeout) {
+        LOG.info("{}evicting idle client:{}", logPrefix, client.endpoint);
+        it.remove();
+        evicted.add(client);
+        evictions++;
+      }
+    }
+  }
+
+  private void closeAll(List<Client> evicted) {
+    for (Client client : evicted) {
+      connector.close(client);
+    }
+  }
+
+  public synchronized Metrics metrics() {
+    int openHandles = 0;
+    for (Client client : clients.values()) {
+      openHandles += client.refCount;
+    }
+    return new Metrics(hits, misses, evictions, failedChecks, clients.size(), openHandles);
+  }
+
+  /**
+   * the blocking hdfs side of the pool
+   */
+  interface Connector {
+
+    public Try<Client> open(HDFSEndpoint endpoint);
+
+    public boolean healthy(Client client);
+
+    public void close(Client client);
+  }
+
+  static class HadoopConnector implements Connector {
+
+    /**
+     * a private instance - FileSystem.get returns a cached instance that others might close under us
+     */
+    @Override
+    public Try<Client> open(HDFSEndpoint endpoint) {
+      UserGroupInformation ugi = UserGroupInformation.createRemoteUser(endpoint.user);
+      try {
+        DistributedFileSystem dfs = ugi.doAs((PrivilegedExceptionAction<DistributedFileSystem>) ()
+          -> (DistributedFileSystem) FileSystem.newInstance(endpoint.hdfsConfig));
+        return new Try.Success(new Client(endpoint, dfs, ugi));
+      } catch (IOException | InterruptedException ex) {
+        LOG.warn("{}could not connect to:{} ex:{}", new Object[]{logPrefix, endpoint, ex.getMessage()});
+        return new Try.Failure(new HDFSException("hdfs client open", ex));
+      }
+    }
+
+    @Override
+    public boolean healthy(Client client) {
+      try {
+        client.ugi.doAs((PrivilegedExceptionAction<Object>) () -> client.dfs.getStatus());
+        return true;
+      } catch (IOException | InterruptedException ex) {
+        return false;
+      }
+    }
+
+    @Override
+    public void close(Client client) {
+      try {
+        client.dfs.close();
+      } catch (IOException ex) {
+        LOG.warn("{}could not close client:{} ex:{}", new Object[]{logPrefix, client.endpoint, ex.getMessage()});
+      }
+    }
+  }
+
+  public static class Client {
+
+    public final HDFSEndpoint endpoint;
+    public final DistributedFileSystem dfs;
+    public final UserGroupInformation ugi;
+    private int refCount = 0;
+    private long lastUsed;
+
+    Client(HDFSEndpoint endpoint, DistributedFileSystem dfs, UserGroupInformation ugi) {
+      this.endpoint = endpoint;
+      this.dfs = dfs;
+      this.ugi = ugi;
+    }
+  }
+
+  public static class Metrics {
+
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final long failedChecks;
+    public final int clients;
+    public final int openHandles;
+
+    public Metrics(long hits, long misses, long evictions, long failedChecks, int clients, int openHandles) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.failedChecks = failedChecks;
+      this.clients = clients;
+      this.openHandles = openHandles;
+    }
+
+    @Override
+    public String toString() {
+      return "HDFSPool{" + "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+        + ", failedChecks=" + failedChecks + ", clients=" + clients + ", openHandles=" + openHandles + '}';
+    }
+  }
+
+  public static class HardCodedConfig {
+
+    public static final long healthCheckPeriod = 60 * 1000; //1min
+    public static final long idleTimeout = 5 * 60 * 1000; //5min
+  }
+}
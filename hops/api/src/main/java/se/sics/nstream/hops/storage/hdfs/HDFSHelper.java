@@ -22,6 +22,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
+import java.util.List;
 import java.util.Random;
 import java.util.function.Supplier;
 import org.apache.hadoop.conf.Configuration;
@@ -229,6 +230,30 @@ public class HDFSHelper {
     };
   }
 
+  /**
+   * all buffers are written within a single append
+   */
+  public static Try<Boolean> append(DistributedFileSystem fs, UserGroupInformation ugi,
+    HDFSEndpoint endpoint, HDFSResource resource, List<byte[]> data) {
+    return doAs(ugi, append(fs, endpoint, resource, data));
+  }
+
+  public static Supplier<Try<Boolean>> append(DistributedFileSystem fs,
+    HDFSEndpoint endpoint, HDFSResource resource, List<byte[]> data) {
+    return () -> {
+      String filePath = resource.dirPath + Path.SEPARATOR + resource.fileName;
+      try (FSDataOutputStream out = fs.append(new Path(filePath))) {
+        for (byte[] d : data) {
+          out.write(d);
+        }
+        return new Try.Success(true);
+      } catch (IOException ex) {
+        LOG.warn("{}could not append to file:{} ex:{}", new Object[]{logPrefix, filePath, ex.getMessage()});
+        return new Try.Failure(new HDFSException("hdfs file append", ex));
+      }
+    };
+  }
+
   public static Try<Boolean> flush(DistributedFileSystem fs, UserGroupInformation ugi,
     HDFSEndpoint endpoint, HDFSResource resource) {
     return doAs(ugi, flush(fs, endpoint, resource));
@@ -248,6 +273,85 @@ public class HDFSHelper {
     };
   }
 
+  /**
+   * long lived append stream - the caller owns it and has to close it
+   */
+  public static Try<FSDataOutputStream> openAppend(DistributedFileSystem fs, UserGroupInformation ugi,
+    HDFSEndpoint endpoint, HDFSResource resource) {
+    return doAs(ugi, openAppend(fs, endpoint, resource));
+  }
+
+  public static Supplier<Try<FSDataOutputStream>> openAppend(DistributedFileSystem fs,
+    HDFSEndpoint endpoint, HDFSResource resource) {
+    return () -> {
+      String filePath = resource.dirPath + Path.SEPARATOR + resource.fileName;
+      try {
+        return new Try.Success(fs.append(new Path(filePath)));
+      } catch (IOException ex) {
+        LOG.warn("{}could not open append stream to file:{} ex:{}", new Object[]{logPrefix, filePath, ex.getMessage()});
+        return new Try.Failure(new HDFSException("hdfs file open append", ex));
+      }
+    };
+  }
+
+  public static Try<Boolean> write(UserGroupInformation ugi, FSDataOutputStream out, List<byte[]> data) {
+    return doAs(ugi, write(out, data));
+  }
+
+  public static Supplier<Try<Boolean>> write(FSDataOutputStream out, List<byte[]> data) {
+    return () -> {
+      try {
+        for (byte[] d : data) {
+          out.write(d);
+        }
+        return new Try.Success(true);
+      } catch (IOException ex) {
+        LOG.warn("{}could not write to stream ex:{}", logPrefix, ex.getMessage());
+        return new Try.Failure(new HDFSException("hdfs stream write", ex));
+      }
+    };
+  }
+
+  /**
+   * @param hsync false - hflush, data visible to new readers; true - hsync, data also on the datanode disks
+   * @return the stream position covered by the flush
+   */
+  public static Try<Long> sync(UserGroupInformation ugi, FSDataOutputStream out, boolean hsync) {
+    return doAs(ugi, sync(out, hsync));
+  }
+
+  public static Supplier<Try<Long>> sync(FSDataOutputStream out, boolean hsync) {
+    return () -> {
+      try {
+        if (hsync) {
+          out.hsync();
+        } else {
+          out.hflush();
+        }
+        return new Try.Success(out.getPos());
+      } catch (IOException ex) {
+        LOG.warn("{}could not flush stream ex:{}", logPrefix, ex.getMessage());
+        return new Try.Failure(new HDFSException("hdfs stream flush", ex));
+      }
+    };
+  }
+
+  public static Try<Boolean> close(UserGroupInformation ugi, FSDataOutputStream out) {
+    return doAs(ugi, close(out));
+  }
+
+  public static Supplier<Try<Boolean>> close(FSDataOutputStream out) {
+    return () -> {
+      try {
+        out.close();
+        return new Try.Success(true);
+      } catch (IOException ex) {
+        LOG.warn("{}could not close stream ex:{}", logPrefix, ex.getMessage());
+        return new Try.Failure(new HDFSException("hdfs stream close", ex));
+      }
+    };
+  }
+
   public static Try<Long> blockSize(DistributedFileSystem fs, UserGroupInformation ugi,
     HDFSEndpoint endpoint, HDFSResource resource) {
     return doAs(ugi, blockSize(fs, endpoint, resource));
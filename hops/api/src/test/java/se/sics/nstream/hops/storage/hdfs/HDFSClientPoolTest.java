@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.storage.hdfs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.ktoolbox.util.trysf.Try;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HDFSClientPoolTest {
+
+  private final HDFSEndpoint e1 = endpoint("hdfs://h1:8020");
+  private final HDFSEndpoint e2 = endpoint("hdfs://h2:8020");
+  private final AtomicLong clock = new AtomicLong(1000);
+
+  private static HDFSEndpoint endpoint(String hopsURL) {
+    Configuration conf = new Configuration();
+    conf.set(HDFSHelper.HOPS_URL, hopsURL);
+    return new HDFSEndpoint(conf, "user");
+  }
+
+  @Test
+  public void reuseTest() {
+    MockConnector connector = new MockConnector();
+    HDFSClientPool pool = new HDFSClientPool(connector, clock::get);
+    HDFSClientPool.Client c1 = pool.acquire(e1).get();
+    HDFSClientPool.Client c2 = pool.acquire(e1).get();
+    Assert.assertSame(c1, c2);
+    Assert.assertEquals(1, connector.opened.size());
+    HDFSClientPool.Metrics m = pool.metrics();
+    Assert.assertEquals(1, m.hits);
+    Assert.assertEquals(1, m.misses);
+    Assert.assertEquals(2, m.openHandles);
+    pool.release(c1);
+    pool.release(c2);
+    Assert.assertEquals(0, pool.metrics().openHandles);
+    Assert.assertEquals(1, pool.metrics().clients);
+    Assert.assertTrue(connector.closed.isEmpty());
+  }
+
+  @Test
+  public void healthCheckTest() {
+    MockConnector connector = new MockConnector();
+    HDFSClientPool pool = new HDFSClientPool(connector, clock::get);
+    HDFSClientPool.Client c1 = pool.acquire(e1).get();
+    pool.release(c1);
+    //idle past the check period - healthy clients are reused
+    clock.addAndGet(HDFSClientPool.HardCodedConfig.healthCheckPeriod + 1);
+    HDFSClientPool.Client c2 = pool.acquire(e1).get();
+    Assert.assertSame(c1, c2);
+    Assert.assertEquals(1, connector.checks);
+    pool.release(c2);
+    //unhealthy clients are closed and replaced
+    clock.addAndGet(HDFSClientPool.HardCodedConfig.healthCheckPeriod + 1);
+    connector.healthy = false;
+    HDFSClientPool.Client c3 = pool.acquire(e1).get();
+    Assert.assertNotSame(c1, c3);
+    Assert.assertEquals(2, connector.opened.size());
+    Assert.assertEquals(1, connector.closed.size());
+    Assert.assertSame(c1, connector.closed.get(0));
+    Assert.assertEquals(1, pool.metrics().failedChecks);
+    pool.release(c3);
+  }
+
+  @Test
+  public void idleEvictionTest() {
+    MockConnector connector = new MockConnector();
+    HDFSClientPool pool = new HDFSClientPool(connector, clock::get);
+    HDFSClientPool.Client c1 = pool.acquire(e1).get();
+    pool.release(c1);
+    clock.addAndGet(HDFSClientPool.HardCodedConfig.idleTimeout + 1);
+    HDFSClientPool.Client c2 = pool.acquire(e2).get();
+    Assert.assertEquals(1, connector.closed.size());
+    Assert.assertSame(c1, connector.closed.get(0));
+    Assert.assertEquals(1, pool.metrics().evictions);
+    Assert.assertEquals(1, pool.metrics().clients);
+    pool.release(c2);
+  }
+
+  @Test
+  public void failedOpenTest() {
+    MockConnector connector = new MockConnector();
+    HDFSClientPool pool = new HDFSClientPool(connector, clock::get);
+    connector.fail = true;
+    Assert.assertTrue(pool.acquire(e1).isFailure());
+    Assert.assertEquals(0, pool.metrics().clients);
+    connector.fail = false;
+    Try<HDFSClientPool.Client> c1 = pool.acquire(e1);
+    Assert.assertTrue(c1.isSuccess());
+    pool.release(c1.get());
+  }
+
+  /**
+   * a slow connect only holds up the acquirers of its own endpoint - they share its result
+   */
+  @Test
+  public void slowOpenTest() throws Exception {
+    MockConnector connector = new MockConnector();
+    connector.block = new CountDownLatch(1);
+    connector.blocked = new CountDownLatch(1);
+    HDFSClientPool pool = new HDFSClientPool(connector, clock::get);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Try<HDFSClientPool.Client>> a1 = executor.submit(() -> pool.acquire(e1));
+      Assert.assertTrue(connector.blocked.await(10, TimeUnit.SECONDS));
+      Future<Try<HDFSClientPool.Client>> a2 = executor.submit(() -> pool.acquire(e1));
+      //not blocked by the e1 connect
+      HDFSClientPool.Client c = pool.acquire(e2).get();
+      pool.release(c);
+      Assert.assertFalse(a1.isDone());
+      connector.block.countDown();
+
+      HDFSClientPool.Client c1 = a1.get(10, TimeUnit.SECONDS).get();
+      HDFSClientPool.Client c2 = a2.get(10, TimeUnit.SECONDS).get();
+      Assert.assertSame(c1, c2);
+      //one connect for e1, one for e2
+      Assert.assertEquals(2, connector.opened.size());
+      Assert.assertEquals(2, pool.metrics().openHandles);
+      pool.release(c1);
+      pool.release(c2);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private class MockConnector implements HDFSClientPool.Connector {
+
+    final List<HDFSClientPool.Client> opened = new ArrayList<>();
+    final List<HDFSClientPool.Client> closed = new ArrayList<>();
+    int checks = 0;
+    volatile boolean healthy = true;
+    volatile boolean fail = false;
+    volatile CountDownLatch block;
+    volatile CountDownLatch blocked;
+
+    @Override
+    public Try<HDFSClientPool.Client> open(HDFSEndpoint endpoint) {
+      CountDownLatch b = block;
+      if (b != null && endpoint == e1) {
+        blocked.countDown();
+        try {
+          b.await();
+        } catch (InterruptedException ex) {
+          return new Try.Failure(ex);
+        }
+      }
+      if (fail) {
+        return new Try.Failure(new HDFSException("test failure"));
+      }
+      HDFSClientPool.Client client = new HDFSClientPool.Client(endpoint, null, null);
+      synchronized (this) {
+        opened.add(client);
+      }
+      return new Try.Success(client);
+    }
+
+    @Override
+    public boolean healthy(HDFSClientPool.Client client) {
+      checks++;
+      return healthy;
+    }
+
+    @Override
+    public void close(HDFSClientPool.Client client) {
+      closed.add(client);
+    }
+  }
+}
@@ -20,15 +20,18 @@ package se.sics.nstream.gcp;
 
 import se.sics.nstream.hops.storage.gcp.GCPHelper;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.cloud.ReadChannel;
 import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.Storage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.sics.kompics.Component;
 import se.sics.kompics.ComponentDefinition;
 import se.sics.kompics.Handler;
 import se.sics.kompics.Negative;
@@ -36,6 +39,8 @@ import se.sics.kompics.Positive;
 import se.sics.kompics.Start;
 import se.sics.kompics.timer.Timer;
 import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.network.ports.One2NChannel;
 import se.sics.ktoolbox.util.result.Result;
 import se.sics.ktoolbox.util.trysf.Try;
 import se.sics.nstream.hops.storage.gcp.GCPEndpoint;
@@ -48,6 +53,11 @@ import se.sics.nstream.storage.durable.util.StreamEndpoint;
 import se.sics.nstream.storage.durable.util.StreamResource;
 
 /**
+ * Writes go either through a single resumable upload or, with gcp.upload.partSize set, are cut in part objects
+ * uploaded in parallel by GCPPartWorkerComp children and composed into the blob, by a worker, on write complete. A
+ * failed part fails every write answered after it and the component, once the write completes. Reads are served by a
+ * window cache over the blob.
+ *
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class GCPComp extends ComponentDefinition {
@@ -57,13 +67,20 @@ public class GCPComp extends ComponentDefinition {
 
   Positive<Timer> timerPort = requires(Timer.class);
   private final Negative storagePort = provides(DStoragePort.class);
+  Positive<GCPPartPort> partPort = requires(GCPPartPort.class);
+  private One2NChannel<GCPPartPort> partChannel;
   //**************************************************************************
   private final Identifier self;
   private final String projectName;
   private final BlobId blobId;
-  private final GoogleCredentials credentials;
-  private final WriteChannel writer;
-  private ReadChannel reader;
+  private final GCPStorageConfig gcpConfig;
+  private final Storage storage;
+  private final GCPReadCache readCache;
+  //single stream upload
+  private WriteChannel writer;
+  //parallel part upload
+  private final List<Identifier> workers = new ArrayList<>();
+  private final GCPPartUploads partUploads = new GCPPartUploads();
   //object are immutable in GCP - you cannot append once the writechannel is closed - always start from 0
   private long writePos = 0;
 
@@ -71,18 +88,39 @@ public class GCPComp extends ComponentDefinition {
     self = init.self;
     projectName = init.projectName;
     blobId = init.blobId;
-    credentials = init.credentials;
-    writer = GCPHelper.writeChannel(credentials, projectName, blobId);
-    reader = GCPHelper.readChannel(credentials, projectName, blobId);
+    gcpConfig = new GCPStorageConfig(config());
+    storage = GCPHelper.getStorage(init.credentials, projectName);
 
     logPrefix = "<nid:" + self.toString() + ">gcp:" + projectName + "/" + init.blobId + " ";
     LOG.info("{}init", logPrefix);
+    readCache = new GCPReadCache(storage, blobId, gcpConfig.readWindow, gcpConfig.readWindows, logPrefix);
+    if (gcpConfig.parallelUpload()) {
+      partChannel = One2NChannel.getChannel(logPrefix + "parts", (Negative) partPort.getPair(),
+        new GCPPartWorkerIdExtractor());
+      createWorkers();
+    } else {
+      writer = GCPHelper.writeChannel(storage, blobId);
+      writer.setChunkSize(gcpConfig.uploadChunkSize);
+    }
 
     subscribe(handleStart, control);
     subscribe(handleRead, storagePort);
     subscribe(handleReadComplete, storagePort);
     subscribe(handleWrite, storagePort);
     subscribe(handleWriteComplete, storagePort);
+    subscribe(handlePartWriteDone, partPort);
+    subscribe(handlePartCloseDone, partPort);
+    subscribe(handleComposeDone, partPort);
+  }
+
+  private void createWorkers() {
+    for (int i = 0; i < gcpConfig.uploadWorkers; i++) {
+      Identifier workerId = BasicIdentifiers.eventId();
+      Component worker = create(GCPPartWorkerComp.class,
+        new GCPPartWorkerComp.Init(workerId, storage, gcpConfig.uploadChunkSize));
+      partChannel.addChannel(workerId, worker.getNegative(GCPPartPort.class));
+      workers.add(workerId);
+    }
   }
 
   Handler handleStart = new Handler<Start>() {
@@ -94,11 +132,9 @@ public class GCPComp extends ComponentDefinition {
 
   @Override
   public void tearDown() {
-    LOG.info("{}tearing down", logPrefix);
-    if (reader.isOpen()) {
-      reader.close();
-    }
-    if (writer.isOpen()) {
+    LOG.info("{}tearing down read fetches:{} hits:{}", new Object[]{logPrefix, readCache.fetches, readCache.hits});
+    readCache.close();
+    if (writer != null && writer.isOpen()) {
       try {
         writer.close();
       } catch (IOException ex) {
@@ -110,15 +146,11 @@ public class GCPComp extends ComponentDefinition {
   Handler handleRead = new Handler<DStorageRead.Request>() {
     @Override
     public void handle(DStorageRead.Request req) {
-      if (!reader.isOpen()) {
-        reader = GCPHelper.readChannel(credentials, projectName, blobId);
-      }
       LOG.debug("{}read:{}", logPrefix, req);
       int readLength = (int) (req.readRange.upperAbsEndpoint() - req.readRange.lowerAbsEndpoint() + 1);
-      int readPos = (int) req.readRange.lowerAbsEndpoint();
+      long readPos = req.readRange.lowerAbsEndpoint();
       LOG.debug("{}reading at pos:{} amount:{}", new Object[]{logPrefix, readPos, readLength});
-      Try<byte[]> read = new Try.Success(true)
-        .flatMap(GCPHelper.readFromBlob(reader, readPos, readLength));
+      Try<byte[]> read = readCache.read(readPos, readLength);
       try {
         answer(req, req.respond(Result.success(read.checkedGet())));
       } catch (Throwable t) {
@@ -130,9 +162,7 @@ public class GCPComp extends ComponentDefinition {
   Handler handleReadComplete = new Handler<DStorageRead.Complete>() {
     @Override
     public void handle(DStorageRead.Complete event) {
-      if (reader.isOpen()) {
-        reader.close();
-      }
+      readCache.close();
     }
   };
 
@@ -140,8 +170,29 @@ public class GCPComp extends ComponentDefinition {
     @Override
     public void handle(DStorageWrite.Request req) {
       LOG.debug("{}write:{}", logPrefix, req);
-      Try<Integer> write = skipExistingBytes(req)
-        .flatMap(GCPHelper.writeToBlob(writer));
+      if (writePos >= req.pos + req.length) {
+        LOG.debug("{}write with pos:{} skipped", logPrefix, req.pos);
+        answer(req, req.respond(Result.success(true)));
+        return;
+      }
+      Try<List<byte[]>> values = skipExistingBytes(req);
+      if (values.isFailure()) {
+        try {
+          values.checkedGet();
+        } catch (Throwable t) {
+          answer(req, req.respond(Result.internalFailure((Exception) t)));
+        }
+        return;
+      }
+      if (gcpConfig.parallelUpload()) {
+        if (partUploads.failed()) {
+          answer(req, req.respond(Result.internalFailure(partUploads.failure())));
+          return;
+        }
+        writeParts(req, values.get());
+        return;
+      }
+      Try<Integer> write = values.flatMap(GCPHelper.writeAllToBlob(writer));
       try {
         long fromWritePos = writePos;
         writePos += write.checkedGet();
@@ -153,22 +204,14 @@ public class GCPComp extends ComponentDefinition {
     }
   };
 
-  private Try<byte[]> skipExistingBytes(DStorageWrite.Request req) {
-    if (writePos >= req.pos + req.value.length) {
-      LOG.debug("{}write with pos:{} skipped", logPrefix, req.pos);
-      answer(req, req.respond(Result.success(true)));
-      return new Try.Success(new byte[0]);
-    } else if (writePos > req.pos) {
-      long pos = writePos;
-      int sourcePos = (int) (pos - req.pos);
-      int writeAmount = req.value.length - sourcePos;
-      byte[] writeValue = new byte[writeAmount];
-      System.arraycopy(req.value, sourcePos, writeValue, 0, writeAmount);
+  private Try<List<byte[]>> skipExistingBytes(DStorageWrite.Request req) {
+    if (writePos > req.pos) {
+      long writeAmount = req.pos + req.length - writePos;
       LOG.debug("{}convert write pos from:{} to:{} write amount from:{} to:{}",
-        new Object[]{logPrefix, req.pos, pos, req.value.length, writeAmount});
-      return new Try.Success(writeValue);
+        new Object[]{logPrefix, req.pos, writePos, req.length, writeAmount});
+      return new Try.Success(req.from(writePos));
     } else if (writePos == req.pos) {
-      return new Try.Success(req.value);
+      return new Try.Success(req.values);
     } else {
       String cause = "GCPComp can only append"
         + " - writePos:" + writePos
@@ -177,9 +220,138 @@ public class GCPComp extends ComponentDefinition {
     }
   }
 
+  /**
+   * cuts the values at part boundaries - a value is only copied when it straddles a boundary. A part always goes to
+   * the same worker and is closed as soon as it is full.
+   */
+  private void writeParts(DStorageWrite.Request req, List<byte[]> values) {
+    GCPPartUploads.PendingWrite pending = new GCPPartUploads.PendingWrite(req);
+    List<byte[]> segment = new ArrayList<>();
+    long partRemaining = gcpConfig.uploadPartSize - (writePos % gcpConfig.uploadPartSize);
+    for (byte[] value : values) {
+      int offset = 0;
+      while (offset < value.length) {
+        int amount = (int) Math.min(value.length - offset, partRemaining);
+        if (offset == 0 && amount == value.length) {
+          segment.add(value);
+        } else {
+          segment.add(Arrays.copyOfRange(value, offset, offset + amount));
+        }
+        offset += amount;
+        partRemaining -= amount;
+        writePos += amount;
+        if (partRemaining == 0) {
+          sendPart(pending, segment, partOf(writePos - 1), true);
+          segment = new ArrayList<>();
+          partRemaining = gcpConfig.uploadPartSize;
+        }
+      }
+    }
+    if (!segment.isEmpty()) {
+      sendPart(pending, segment, partOf(writePos - 1), false);
+    }
+  }
+
+  private int partOf(long pos) {
+    return (int) (pos / gcpConfig.uploadPartSize);
+  }
+
+  private BlobId partBlob(int part) {
+    return BlobId.of(blobId.getBucket(), blobId.getName() + ".part-" + part);
+  }
+
+  private Identifier partWorker(int part) {
+    return workers.get(part % workers.size());
+  }
+
+  private void sendPart(GCPPartUploads.PendingWrite pending, List<byte[]> segment, int part, boolean close) {
+    GCPPart.Write write = new GCPPart.Write(partWorker(part), partBlob(part), segment);
+    partUploads.partWrite(write.getId(), pending);
+    trigger(write, partPort);
+    if (close) {
+      closePart(part);
+    }
+  }
+
+  private void closePart(int part) {
+    GCPPart.Close close = new GCPPart.Close(partWorker(part), partBlob(part));
+    partUploads.partClose(close.getId());
+    trigger(close, partPort);
+  }
+
+  Handler handlePartWriteDone = new Handler<GCPPart.WriteDone>() {
+    @Override
+    public void handle(GCPPart.WriteDone resp) {
+      LOG.trace("{}received:{}", logPrefix, resp);
+      DStorageWrite.Request req = partUploads.partWriteDone(resp.getId(), resp.result);
+      if (req != null) {
+        if (partUploads.failed()) {
+          answer(req, req.respond(Result.internalFailure(partUploads.failure())));
+        } else {
+          answer(req, req.respond(Result.success(true)));
+        }
+      }
+      tryCompose();
+    }
+  };
+
+  Handler handlePartCloseDone = new Handler<GCPPart.CloseDone>() {
+    @Override
+    public void handle(GCPPart.CloseDone resp) {
+      LOG.trace("{}received:{}", logPrefix, resp);
+      if (!resp.result.isSuccess()) {
+        LOG.warn("{}part close failed:{}", logPrefix, resp.result.getException().getMessage());
+      }
+      partUploads.partCloseDone(resp.getId(), resp.result);
+      tryCompose();
+    }
+  };
+
+  /**
+   * a failed upload fails the component - the stream owner sees the fault, the blob is never composed
+   */
+  private void tryCompose() {
+    if (!partUploads.ready()) {
+      return;
+    }
+    if (partUploads.failed()) {
+      LOG.error("{}part upload failed - not composing", logPrefix);
+      throw new RuntimeException("gcp part upload failed", partUploads.failure());
+    }
+    if (writePos == 0) {
+      return;
+    }
+    List<String> parts = new ArrayList<>();
+    for (int i = 0; i <= partOf(writePos - 1); i++) {
+      parts.add(partBlob(i).getName());
+    }
+    trigger(new GCPPart.Compose(partWorker(0), blobId, parts), partPort);
+  }
+
+  Handler handleComposeDone = new Handler<GCPPart.ComposeDone>() {
+    @Override
+    public void handle(GCPPart.ComposeDone resp) {
+      LOG.trace("{}received:{}", logPrefix, resp);
+      if (!resp.result.isSuccess()) {
+        LOG.error("{}compose failed:{}", logPrefix, resp.result.getException().getMessage());
+        throw new RuntimeException("gcp compose failed", resp.result.getException());
+      }
+      LOG.info("{}composed {} parts size:{}", new Object[]{logPrefix, resp.io.parts.size(), writePos});
+      readCache.invalidate();
+    }
+  };
+
   Handler handleWriteComplete = new Handler<DStorageWrite.Complete>() {
     @Override
     public void handle(DStorageWrite.Complete event) {
+      if (gcpConfig.parallelUpload()) {
+        partUploads.complete();
+        if (writePos % gcpConfig.uploadPartSize != 0) {
+          closePart(partOf(writePos - 1));
+        }
+        tryCompose();
+        return;
+      }
       if (writer.isOpen()) {
         try {
           writer.close();
@@ -187,6 +359,7 @@ public class GCPComp extends ComponentDefinition {
           throw new RuntimeException(ex);
         }
       }
+      readCache.invalidate();
     }
   };
 
@@ -226,6 +399,11 @@ public class GCPComp extends ComponentDefinition {
       return Pair.with(init, filePos);
     }
 
+    @Override
+    public void abort(se.sics.kompics.Init<GCPComp> init) {
+      //nothing acquired
+    }
+
     private Blob checkCreateBlob(BlobId blobId) {
       Storage storage = GCPHelper.getStorage(endpoint.credentials, endpoint.projectName);
       Try<Blob> blob = new Try.Success(storage)
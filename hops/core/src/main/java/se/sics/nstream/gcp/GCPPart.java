@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.gcp;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import java.util.List;
+import se.sics.kompics.Direct;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.util.Identifiable;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.result.Result;
+
+/**
+ * Part uploads handed by the GCPComp to its workers. A part is always handled by the same worker, so its writes and
+ * its close arrive in order. The final compose of the parts also runs on a worker.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class GCPPart {
+
+  public static interface WorkerEvent extends KompicsEvent {
+
+    public Identifier workerId();
+  }
+
+  public static class Write extends Direct.Request<WriteDone> implements WorkerEvent, Identifiable {
+
+    public final Identifier eventId;
+    public final Identifier workerId;
+    public final BlobId part;
+    public final List<byte[]> values;
+
+    public Write(Identifier workerId, BlobId part, List<byte[]> values) {
+      this.eventId = BasicIdentifiers.eventId();
+      this.workerId = workerId;
+      this.part = part;
+      this.values = values;
+    }
+
+    @Override
+    public Identifier workerId() {
+      return workerId;
+    }
+
+    @Override
+    public Identifier getId() {
+      return eventId;
+    }
+
+    public WriteDone answer(Result<Integer> result) {
+      return new WriteDone(this, result);
+    }
+
+    @Override
+    public String toString() {
+      return "GCPPartWrite<" + part.getName() + ">";
+    }
+  }
+
+  public static class WriteDone implements Direct.Response, Identifiable {
+
+    public final Write io;
+    public final Result<Integer> result;
+
+    public WriteDone(Write io, Result<Integer> result) {
+      this.io = io;
+      this.result = result;
+    }
+
+    @Override
+    public Identifier getId() {
+      return io.getId();
+    }
+
+    @Override
+    public String toString() {
+      return "GCPPartWriteDone<" + io.part.getName() + ">";
+    }
+  }
+
+  public static class Close extends Direct.Request<CloseDone> implements WorkerEvent, Identifiable {
+
+    public final Identifier eventId;
+    public final Identifier workerId;
+    public final BlobId part;
+
+    public Close(Identifier workerId, BlobId part) {
+      this.eventId = BasicIdentifiers.eventId();
+      this.workerId = workerId;
+      this.part = part;
+    }
+
+    @Override
+    public Identifier workerId() {
+      return workerId;
+    }
+
+    @Override
+    public Identifier getId() {
+      return eventId;
+    }
+
+    public CloseDone answer(Result<Boolean> result) {
+      return new CloseDone(this, result);
+    }
+
+    @Override
+    public String toString() {
+      return "GCPPartClose<" + part.getName() + ">";
+    }
+  }
+
+  public static class CloseDone implements Direct.Response, Identifiable {
+
+    public final Close io;
+    public final Result<Boolean> result;
+
+    public CloseDone(Close io, Result<Boolean> result) {
+      this.io = io;
+      this.result = result;
+    }
+
+    @Override
+    public Identifier getId() {
+      return io.getId();
+    }
+
+    @Override
+    public String toString() {
+      return "GCPPartCloseDone<" + io.part.getName() + ">";
+    }
+  }
+
+  public static class Compose extends Direct.Request<ComposeDone> implements WorkerEvent, Identifiable {
+
+    public final Identifier eventId;
+    public final Identifier workerId;
+    public final BlobId target;
+    public final List<String> parts;
+
+    public Compose(Identifier workerId, BlobId target, List<String> parts) {
+      this.eventId = BasicIdentifiers.eventId();
+      this.workerId = workerId;
+      this.target = target;
+      this.parts = parts;
+    }
+
+    @Override
+    public Identifier workerId() {
+      return workerId;
+    }
+
+    @Override
+    public Identifier getId() {
+      return eventId;
+    }
+
+    public ComposeDone answer(Result<Blob> result) {
+      return new ComposeDone(this, result);
+    }
+
+    @Override
+    public String toString() {
+      return "GCPPartCompose<" + target.getName() + ">";
+    }
+  }
+
+  public static class ComposeDone implements Direct.Response, Identifiable {
+
+    public final Compose io;
+    public final Result<Blob> result;
+
+    public ComposeDone(Compose io, Result<Blob> result) {
+      this.io = io;
+      this.result = result;
+    }
+
+    @Override
+    public Identifier getId() {
+      return io.getId();
+    }
+
+    @Override
+    public String toString() {
+      return "GCPPartComposeDone<" + io.target.getName() + ">";
+    }
+  }
+}
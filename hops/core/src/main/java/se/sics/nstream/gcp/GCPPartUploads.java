@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.gcp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.nstream.storage.durable.events.DStorageWrite;
+
+/**
+ * Bookkeeping of the part uploads of a GCPComp. The first failed part write or close fails the whole upload - every
+ * write answered after it fails and the blob is not composed.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+class GCPPartUploads {
+
+  //<part write id, request>
+  private final Map<Identifier, PendingWrite> pendingParts = new HashMap<>();
+  private final Set<Identifier> pendingCloses = new HashSet<>();
+  private boolean completing = false;
+  private Exception failure = null;
+
+  void partWrite(Identifier partWriteId, PendingWrite pending) {
+    pending.parts++;
+    pendingParts.put(partWriteId, pending);
+  }
+
+  void partClose(Identifier partCloseId) {
+    pendingCloses.add(partCloseId);
+  }
+
+  /**
+   * @return the write to answer now, if any - with success only if the upload did not fail
+   */
+  DStorageWrite.Request partWriteDone(Identifier partWriteId, Result<?> result) {
+    PendingWrite pending = pendingParts.remove(partWriteId);
+    if (pending == null) {
+      return null;
+    }
+    pending.parts--;
+    if (!result.isSuccess() && failure == null) {
+      failure = result.getException();
+    }
+    if (pending.answered || (pending.parts > 0 && failure == null)) {
+      return null;
+    }
+    pending.answered = true;
+    return pending.req;
+  }
+
+  void partCloseDone(Identifier partCloseId, Result<?> result) {
+    pendingCloses.remove(partCloseId);
+    if (!result.isSuccess() && failure == null) {
+      failure = result.getException();
+    }
+  }
+
+  void complete() {
+    completing = true;
+  }
+
+  /**
+   * @return true once - when the write is complete and all parts are written and closed
+   */
+  boolean ready() {
+    if (!completing || !pendingParts.isEmpty() || !pendingCloses.isEmpty()) {
+      return false;
+    }
+    completing = false;
+    return true;
+  }
+
+  boolean failed() {
+    return failure != null;
+  }
+
+  Exception failure() {
+    return failure;
+  }
+
+  static class PendingWrite {
+
+    final DStorageWrite.Request req;
+    int parts = 0;
+    boolean answered = false;
+
+    PendingWrite(DStorageWrite.Request req) {
+      this.req = req;
+    }
+  }
+}
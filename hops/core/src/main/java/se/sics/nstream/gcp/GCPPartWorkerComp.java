@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.gcp;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Start;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.ktoolbox.util.trysf.Try;
+import se.sics.nstream.hops.storage.gcp.GCPHelper;
+
+/**
+ * Uploads the parts of a GCPComp blob on its own scheduler slot - each part is its own resumable upload. Composing the
+ * parts into the blob also runs here, off the GCPComp handler thread.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class GCPPartWorkerComp extends ComponentDefinition {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GCPPartWorkerComp.class);
+  private String logPrefix;
+
+  Negative<GCPPartPort> partPort = provides(GCPPartPort.class);
+  //**************************************************************************
+  private final Storage storage;
+  private final int chunkSize;
+  private final Map<BlobId, WriteChannel> writers = new HashMap<>();
+
+  public GCPPartWorkerComp(Init init) {
+    logPrefix = "<gcpw:" + init.workerId + ">";
+    storage = init.storage;
+    chunkSize = init.chunkSize;
+    subscribe(handleStart, control);
+    subscribe(handleWrite, partPort);
+    subscribe(handleClose, partPort);
+    subscribe(handleCompose, partPort);
+  }
+
+  Handler handleStart = new Handler<Start>() {
+    @Override
+    public void handle(Start event) {
+      LOG.info("{}starting...", logPrefix);
+    }
+  };
+
+  @Override
+  public void tearDown() {
+    for (WriteChannel writer : writers.values()) {
+      try {
+        writer.close();
+      } catch (IOException ex) {
+        LOG.warn("{}close:{}", logPrefix, ex.getMessage());
+      }
+    }
+    writers.clear();
+  }
+
+  Handler handleWrite = new Handler<GCPPart.Write>() {
+    @Override
+    public void handle(GCPPart.Write io) {
+      LOG.trace("{}received:{}", logPrefix, io);
+      WriteChannel writer = writers.get(io.part);
+      if (writer == null) {
+        writer = GCPHelper.writeChannel(storage, io.part);
+        writer.setChunkSize(chunkSize);
+        writers.put(io.part, writer);
+      }
+      Try<Integer> write = new Try.Success(io.values)
+        .flatMap(GCPHelper.writeAllToBlob(writer));
+      try {
+        answer(io, io.answer(Result.success(write.checkedGet())));
+      } catch (Throwable t) {
+        answer(io, io.answer(Result.internalFailure((Exception) t)));
+      }
+    }
+  };
+
+  Handler handleClose = new Handler<GCPPart.Close>() {
+    @Override
+    public void handle(GCPPart.Close io) {
+      LOG.trace("{}received:{}", logPrefix, io);
+      WriteChannel writer = writers.remove(io.part);
+      if (writer == null) {
+        answer(io, io.answer(Result.success(true)));
+        return;
+      }
+      try {
+        writer.close();
+        answer(io, io.answer(Result.success(true)));
+      } catch (IOException ex) {
+        answer(io, io.answer(Result.internalFailure(ex)));
+      }
+    }
+  };
+
+  Handler handleCompose = new Handler<GCPPart.Compose>() {
+    @Override
+    public void handle(GCPPart.Compose io) {
+      LOG.trace("{}received:{}", logPrefix, io);
+      Try<Blob> blob = GCPHelper.composeAll(storage, io.target, io.parts);
+      try {
+        answer(io, io.answer(Result.success(blob.checkedGet())));
+      } catch (Throwable t) {
+        answer(io, io.answer(Result.internalFailure((Exception) t)));
+      }
+    }
+  };
+
+  public static class Init extends se.sics.kompics.Init<GCPPartWorkerComp> {
+
+    public final Identifier workerId;
+    public final Storage storage;
+    public final int chunkSize;
+
+    public Init(Identifier workerId, Storage storage, int chunkSize) {
+      this.workerId = workerId;
+      this.storage = storage;
+      this.chunkSize = chunkSize;
+    }
+  }
+}
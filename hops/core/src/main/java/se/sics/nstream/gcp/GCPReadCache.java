@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.gcp;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.ktoolbox.util.trysf.Try;
+import se.sics.nstream.hops.storage.gcp.GCPHelper;
+
+/**
+ * Positional read ahead over a gcs blob. Reads are served from fixed size windows fetched with ranged reads of a
+ * pinned blob generation, so a rewrite of the blob (compose) can never mix old and new bytes. Windows are kept in LRU
+ * order.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class GCPReadCache {
+
+  private final static Logger LOG = LoggerFactory.getLogger(GCPReadCache.class);
+  private final String logPrefix;
+
+  private final Storage storage;
+  private final BlobId blobId;
+  private final int windowSize;
+  private final int maxWindows;
+  //<window start, window> - access ordered
+  private final LinkedHashMap<Long, byte[]> windows = new LinkedHashMap<>(16, 0.75f, true);
+  private Long generation;
+  private long blobSize;
+  private ReadChannel reader;
+  //
+  public long fetches = 0;
+  public long hits = 0;
+
+  public GCPReadCache(Storage storage, BlobId blobId, int windowSize, int maxWindows, String logPrefix) {
+    this.storage = storage;
+    this.blobId = blobId;
+    this.windowSize = windowSize;
+    this.maxWindows = maxWindows;
+    this.logPrefix = logPrefix;
+  }
+
+  public Try<byte[]> read(long readPos, int readLength) {
+    if (generation == null) {
+      Try<Blob> blob = GCPHelper.getBlob(storage, blobId);
+      if (blob.isFailure()) {
+        return (Try.Failure) blob;
+      }
+      generation = blob.get().getGeneration();
+      blobSize = blob.get().getSize();
+    }
+    if (reader == null) {
+      reader = storage.reader(BlobId.of(blobId.getBucket(), blobId.getName(), generation));
+    }
+    byte[] result = new byte[readLength];
+    int resultPos = 0;
+    while (resultPos < readLength) {
+      long pos = readPos + resultPos;
+      long windowStart = (pos / windowSize) * windowSize;
+      Try<byte[]> window = window(windowStart);
+      if (window.isFailure()) {
+        return window;
+      }
+      int windowPos = (int) (pos - windowStart);
+      int amount = Math.min(readLength - resultPos, window.get().length - windowPos);
+      if (amount <= 0) {
+        return new Try.Failure(new IllegalArgumentException("read past the blob end at pos:" + pos));
+      }
+      System.arraycopy(window.get(), windowPos, result, resultPos, amount);
+      resultPos += amount;
+    }
+    return new Try.Success(result);
+  }
+
+  private Try<byte[]> window(long windowStart) {
+    byte[] window = windows.get(windowStart);
+    if (window != null) {
+      hits++;
+      return new Try.Success(window);
+    }
+    int size = (int) Math.min(windowSize, blobSize - windowStart);
+    if (size <= 0) {
+      return new Try.Failure(new IllegalArgumentException("read past the blob end at pos:" + windowStart));
+    }
+    window = new byte[size];
+    Try<Integer> read = GCPHelper.readRange(reader, windowStart, window);
+    if (read.isFailure()) {
+      return (Try.Failure) read;
+    }
+    fetches++;
+    windows.put(windowStart, window);
+    Iterator<Map.Entry<Long, byte[]>> it = windows.entrySet().iterator();
+    while (windows.size() > maxWindows && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+    return new Try.Success(window);
+  }
+
+  /**
+   * the blob was rewritten - next read pins the new generation
+   */
+  public void invalidate() {
+    LOG.debug("{}read cache invalidated generation:{}", logPrefix, generation);
+    close();
+    windows.clear();
+    generation = null;
+  }
+
+  /**
+   * releases the read channel - cached windows are kept
+   */
+  public void close() {
+    if (reader != null && reader.isOpen()) {
+      reader.close();
+    }
+    reader = null;
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.gcp;
+
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class GCPStorageConfig {
+
+  public static class Names {
+
+    public static final String UPLOAD_PART_SIZE = "gcp.upload.partSize";
+    public static final String UPLOAD_WORKERS = "gcp.upload.workers";
+    public static final String UPLOAD_CHUNK_SIZE = "gcp.upload.chunkSize";
+    public static final String READ_WINDOW = "gcp.read.window";
+    public static final String READ_WINDOWS = "gcp.read.windows";
+  }
+  /**
+   * 0 - a single resumable upload; otherwise the stream is cut in part objects of this size, uploaded in parallel and
+   * composed into the blob on write complete
+   */
+  public static final long DEFAULT_UPLOAD_PART_SIZE = 0;
+  public static final int DEFAULT_UPLOAD_WORKERS = 4;
+  /**
+   * resumable upload chunk - gcs wants a multiple of 256KB
+   */
+  public static final int DEFAULT_UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024; //8MB
+  /**
+   * ranged reads fetch whole windows - adjacent block reads are served by the same fetch
+   */
+  public static final int DEFAULT_READ_WINDOW = 16 * 1024 * 1024; //16MB
+  public static final int DEFAULT_READ_WINDOWS = 4;
+
+  public final long uploadPartSize;
+  public final int uploadWorkers;
+  public final int uploadChunkSize;
+  public final int readWindow;
+  public final int readWindows;
+
+  public GCPStorageConfig(Config config) {
+    uploadPartSize = config.getValueOrDefault(Names.UPLOAD_PART_SIZE, DEFAULT_UPLOAD_PART_SIZE);
+    uploadWorkers = Math.max(1, config.getValueOrDefault(Names.UPLOAD_WORKERS, DEFAULT_UPLOAD_WORKERS));
+    uploadChunkSize = config.getValueOrDefault(Names.UPLOAD_CHUNK_SIZE, DEFAULT_UPLOAD_CHUNK_SIZE);
+    readWindow = config.getValueOrDefault(Names.READ_WINDOW, DEFAULT_READ_WINDOW);
+    readWindows = Math.max(1, config.getValueOrDefault(Names.READ_WINDOWS, DEFAULT_READ_WINDOWS));
+  }
+
+  public boolean parallelUpload() {
+    return uploadPartSize > 0;
+  }
+}
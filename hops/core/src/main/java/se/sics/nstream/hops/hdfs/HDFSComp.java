@@ -18,15 +18,14 @@
  */
 package se.sics.nstream.hops.hdfs;
 
-import java.io.IOException;
 import se.sics.nstream.hops.storage.hdfs.HDFSHelper;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
-import java.util.logging.Level;
-import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.javatuples.Pair;
@@ -47,6 +46,7 @@ import se.sics.ktoolbox.util.network.ports.One2NChannel;
 import se.sics.ktoolbox.util.result.Result;
 import se.sics.ktoolbox.util.trysf.Try;
 import se.sics.ktoolbox.util.trysf.TryHelper;
+import se.sics.nstream.hops.storage.hdfs.HDFSClientPool;
 import se.sics.nstream.hops.storage.hdfs.HDFSEndpoint;
 import se.sics.nstream.hops.storage.hdfs.HDFSResource;
 import se.sics.nstream.storage.durable.DStoragePort;
@@ -71,24 +71,34 @@ public class HDFSComp extends ComponentDefinition {
   private Map<Identifier, Component> components = new HashMap<>();
   private final HDFSEndpoint hdfsEndpoint;
   private final HDFSResource hdfsResource;
+  private final HDFSClientPool.Client client;
   private final DistributedFileSystem dfs;
   private final UserGroupInformation ugi;
+  private final HDFSFlushConfig flushConfig;
+  private final long hdfsBlockSize;
+  //one append stream kept open for the lifetime of the component
+  private FSDataOutputStream out;
   private long writePos;
+  //acked up to here
+  private long flushedPos;
   private final TreeMap<Long, DStorageWrite.Request> pending = new TreeMap<>();
   //
   private boolean progressed = false;
   private UUID flushTimer;
-  private int forceFlushCounter;
 
   public HDFSComp(Init init) {
     LOG.info("{}init", logPrefix);
 
     hdfsEndpoint = init.endpoint;
     hdfsResource = init.resource;
-    dfs = init.dfs;
-    ugi = init.ugi;
+    client = init.client;
+    dfs = client.dfs;
+    ugi = client.ugi;
     writePos = init.streamPos;
-    forceFlushCounter = forceFlushCounter();
+    flushedPos = init.streamPos;
+    flushConfig = new HDFSFlushConfig(config());
+    Try<Long> blockSize = HDFSHelper.blockSize(dfs, ugi, hdfsEndpoint, hdfsResource);
+    hdfsBlockSize = blockSize.isSuccess() ? blockSize.get() : flushConfig.bytes;
 
     subscribe(handleStart, control);
     subscribe(handleFlush, timerPort);
@@ -96,14 +106,6 @@ public class HDFSComp extends ComponentDefinition {
     subscribe(handleWriteRequest, resourcePort);
   }
 
-  private int forceFlushCounter() {
-    Try<Long> hdfsBlockSize = HDFSHelper.blockSize(dfs, ugi, hdfsEndpoint, hdfsResource);
-    long forceFlushDataSize
-      = Math.max(HardCodedConfig.minForceFlushDataSize, (hdfsBlockSize.isSuccess() ? hdfsBlockSize.get() : 0));
-    int counter = (int) (forceFlushDataSize / HardCodedConfig.delaBlockSize);
-    return counter;
-  }
-
   //********************************CONTROL***********************************
   Handler handleStart = new Handler<Start>() {
     @Override
@@ -116,6 +118,14 @@ public class HDFSComp extends ComponentDefinition {
   @Override
   public void tearDown() {
     cancelPeriodicCheck();
+    if (out != null) {
+      if (!pending.isEmpty()) {
+        flush();
+      }
+      HDFSHelper.close(ugi, out);
+      out = null;
+    }
+    HDFSClientPool.instance().release(client);
   }
   //**************************************************************************
   Handler handleReadRequest = new Handler<DStorageRead.Request>() {
@@ -133,76 +143,117 @@ public class HDFSComp extends ComponentDefinition {
     @Override
     public void handle(DStorageWrite.Request req) {
       LOG.info("{}write:{}", logPrefix, req);
-      if (writePos >= req.pos + req.value.length) {
+      if (writePos >= req.pos + req.length) {
         LOG.info("{}write with pos:{} skipped", logPrefix, req.pos);
         answer(req, req.respond(Result.success(true)));
         return;
       }
-      long pos = req.pos;
-      byte[] writeValue = req.value;
+      List<byte[]> writeValues = req.from(writePos);
+      long writeAmount = req.length;
       if (writePos > req.pos) {
-        pos = writePos;
-        int sourcePos = (int) (pos - writePos);
-        int writeAmount = req.value.length - sourcePos;
-        writeValue = new byte[writeAmount];
-        System.arraycopy(req.value, sourcePos, writeValue, 0, writeAmount);
+        writeAmount = req.pos + req.length - writePos;
         LOG.info("{}convert write pos from:{} to:{} write amount from:{} to:{}",
-          new Object[]{logPrefix, req.pos, pos, req.value.length, writeAmount});
-      } else {
-        writeValue = req.value;
+          new Object[]{logPrefix, req.pos, writePos, req.length, writeAmount});
       }
 
-      Try<Boolean> writeResult = HDFSHelper.append(dfs, ugi, hdfsEndpoint, hdfsResource, writeValue);
+      if (out == null) {
+        Try<FSDataOutputStream> open = HDFSHelper.openAppend(dfs, ugi, hdfsEndpoint, hdfsResource);
+        if (open.isFailure()) {
+          answer(req, req.respond(convert(open)));
+          return;
+        }
+        out = open.get();
+      }
+      Try<Boolean> writeResult = HDFSHelper.write(ugi, out, writeValues);
       if (writeResult.isSuccess()) {
-        writePos += writeValue.length;
+        long prevPos = writePos;
+        writePos += writeAmount;
         pending.put(writePos, req);
-        if (pending.size() > forceFlushCounter) {
-          inspectHDFSFile();
+        progressed = true;
+        if (forceFlush(prevPos)) {
+          flush();
         }
       } else {
-        DStorageWrite.Response resp = req.respond(convert(writeResult));
-        answer(req, req.respond(Result.success(true)));
+        answer(req, req.respond(convert(writeResult)));
+        streamFailed(writeResult);
       }
     }
   };
 
+  private boolean forceFlush(long prevPos) {
+    switch (flushConfig.policy) {
+      case BYTES:
+        return writePos - flushedPos >= flushConfig.bytes;
+      case BLOCK:
+        return writePos / hdfsBlockSize > prevPos / hdfsBlockSize;
+      default:
+        return false;
+    }
+  }
+
   Handler handleFlush = new Handler<FlushTimeout>() {
 
     @Override
     public void handle(FlushTimeout event) {
-      if (pending.isEmpty() || progressed) {
+      if (pending.isEmpty()) {
+        progressed = false;
+        return;
+      }
+      //BYTES/BLOCK - only the idle tail is flushed on timer
+      if (progressed && !HDFSFlushConfig.Policy.TIME.equals(flushConfig.policy)) {
         progressed = false;
         return;
       }
-      HDFSHelper.flush(dfs, ugi, hdfsEndpoint, hdfsResource);
-      inspectHDFSFile();
+      flush();
       progressed = false;
     }
   };
 
-  private void inspectHDFSFile() {
-    Try<Long> currentFilePos = HDFSHelper.length(dfs, ugi, hdfsEndpoint, hdfsResource);
-    if (!currentFilePos.isSuccess()) {
+  /**
+   * acks are driven by the stream position after the flush - no file length polling
+   */
+  private void flush() {
+    Try<Long> syncPos = HDFSHelper.sync(ugi, out, flushConfig.hsync);
+    if (syncPos.isFailure()) {
+      streamFailed(syncPos);
       return;
     }
+    flushedPos = syncPos.get();
     Iterator<Map.Entry<Long, DStorageWrite.Request>> it = pending.entrySet().iterator();
     while (it.hasNext()) {
       Map.Entry<Long, DStorageWrite.Request> next = it.next();
-      if (next.getKey() <= currentFilePos.get()) {
+      if (next.getKey() <= flushedPos) {
         answer(next.getValue(), next.getValue().respond(Result.success(true)));
         it.remove();
-        progressed = true;
       } else {
         break;
       }
     }
   }
 
+  /**
+   * unflushed writes are lost with the stream - fail them and continue from what hdfs has
+   */
+  private void streamFailed(Try<?> cause) {
+    LOG.warn("{}append stream failed", logPrefix);
+    for (DStorageWrite.Request req : pending.values()) {
+      answer(req, req.respond(convert((Try) cause)));
+    }
+    pending.clear();
+    if (out != null) {
+      HDFSHelper.close(ugi, out);
+      out = null;
+    }
+    Try<Long> fileLength = HDFSHelper.length(dfs, ugi, hdfsEndpoint, hdfsResource);
+    writePos = fileLength.isSuccess() ? fileLength.get() : flushedPos;
+    flushedPos = writePos;
+  }
+
   private void schedulePeriodicCheck() {
     if (flushTimer != null) {
       return;
     }
-    SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(HardCodedConfig.flushPeriod, HardCodedConfig.flushPeriod);
+    SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(flushConfig.period, flushConfig.period);
     FlushTimeout sc = new FlushTimeout(spt);
     spt.setTimeoutEvent(sc);
     flushTimer = sc.getTimeoutId();
@@ -222,16 +273,16 @@ public class HDFSComp extends ComponentDefinition {
 
     public final HDFSEndpoint endpoint;
     public final HDFSResource resource;
-    public final UserGroupInformation ugi;
-    public final DistributedFileSystem dfs;
+    /**
+     * acquired from the pool - released by the component on tearDown
+     */
+    public final HDFSClientPool.Client client;
     public final long streamPos;
 
-    public Init(DistributedFileSystem dfs, UserGroupInformation ugi, HDFSEndpoint endpoint, HDFSResource resource, 
-      long streamPos) {
+    public Init(HDFSClientPool.Client client, HDFSEndpoint endpoint, HDFSResource resource, long streamPos) {
       this.endpoint = endpoint;
       this.resource = resource;
-      this.ugi = ugi;
-      this.dfs = dfs;
+      this.client = client;
       this.streamPos = streamPos;
     }
   }
@@ -248,28 +299,34 @@ public class HDFSComp extends ComponentDefinition {
 
     @Override
     public Pair<HDFSComp.Init, Long> initiate(StreamResource resource) {
-      DistributedFileSystem dfs;
-      try {
-        dfs = (DistributedFileSystem)FileSystem.get(endpoint.hdfsConfig);
-      } catch (IOException ex) {
-        throw new RuntimeException(ex);
+      Try<HDFSClientPool.Client> client = HDFSClientPool.instance().acquire(endpoint);
+      if (client.isFailure()) {
+        throw new RuntimeException(TryHelper.tryError(client));
       }
+      DistributedFileSystem dfs = client.get().dfs;
+      UserGroupInformation ugi = client.get().ugi;
       HDFSResource hdfsResource = (HDFSResource) resource;
-      UserGroupInformation ugi = UserGroupInformation.createRemoteUser(endpoint.user);
       Try<Long> streamPos = HDFSHelper.length(dfs, ugi, endpoint, hdfsResource);
       if (!streamPos.isSuccess()) {
+        HDFSClientPool.instance().release(client.get());
         throw new RuntimeException(TryHelper.tryError(streamPos));
       }
       if (streamPos.get() == -1) {
         Try<Boolean> simpleCreate = HDFSHelper.simpleCreate(dfs, ugi, endpoint, hdfsResource);
         if(simpleCreate.isFailure()) {
+          HDFSClientPool.instance().release(client.get());
           throw new RuntimeException(TryHelper.tryError(simpleCreate));
         }
       }
-      HDFSComp.Init init = new HDFSComp.Init(dfs, ugi, endpoint, hdfsResource, streamPos.get());
+      HDFSComp.Init init = new HDFSComp.Init(client.get(), endpoint, hdfsResource, streamPos.get());
       return Pair.with(init, streamPos.get());
     }
 
+    @Override
+    public void abort(se.sics.kompics.Init<HDFSComp> init) {
+      HDFSClientPool.instance().release(((HDFSComp.Init) init).client);
+    }
+
     @Override
     public String getName() {
       return endpoint.getEndpointName();
@@ -299,11 +356,4 @@ public class HDFSComp extends ComponentDefinition {
       super(spt);
     }
   }
-
-  public static class HardCodedConfig {
-
-    public static final long flushPeriod = 1000;
-    public static final long delaBlockSize = 10 * 1024 * 1024; //10MB
-    public static final long minForceFlushDataSize = 100 * 1024 * 1024; //100MB
-  }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.hdfs;
+
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class HDFSFlushConfig {
+
+  public static class Names {
+
+    public static final String POLICY = "hops.hdfs.flush.policy";
+    public static final String BYTES = "hops.hdfs.flush.bytes";
+    public static final String PERIOD = "hops.hdfs.flush.period";
+    public static final String HSYNC = "hops.hdfs.flush.hsync";
+  }
+
+  public static enum Policy {
+    /**
+     * flush after every flush.bytes of unflushed data
+     */
+    BYTES,
+    /**
+     * flush every flush.period
+     */
+    TIME,
+    /**
+     * flush when the stream crosses an hdfs block boundary
+     */
+    BLOCK
+  }
+
+  public static final String DEFAULT_POLICY = Policy.BLOCK.name();
+  public static final long DEFAULT_BYTES = 100 * 1024 * 1024; //100MB
+  /**
+   * with the BYTES/BLOCK policies this is the idle period after which the tail of the stream is flushed
+   */
+  public static final long DEFAULT_PERIOD = 1000;
+  public static final boolean DEFAULT_HSYNC = false;
+
+  public final Policy policy;
+  public final long bytes;
+  public final long period;
+  public final boolean hsync;
+
+  public HDFSFlushConfig(Config config) {
+    policy = Policy.valueOf(config.getValueOrDefault(Names.POLICY, DEFAULT_POLICY));
+    bytes = config.getValueOrDefault(Names.BYTES, DEFAULT_BYTES);
+    period = config.getValueOrDefault(Names.PERIOD, DEFAULT_PERIOD);
+    hsync = config.getValueOrDefault(Names.HSYNC, DEFAULT_HSYNC);
+  }
+}
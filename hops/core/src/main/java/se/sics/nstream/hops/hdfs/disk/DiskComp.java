@@ -22,9 +22,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.sics.kompics.Component;
 import se.sics.kompics.ComponentDefinition;
 import se.sics.kompics.Handler;
 import se.sics.kompics.Negative;
@@ -32,6 +36,8 @@ import se.sics.kompics.Positive;
 import se.sics.kompics.Start;
 import se.sics.kompics.timer.Timer;
 import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.network.ports.One2NChannel;
 import se.sics.ktoolbox.util.result.Result;
 import se.sics.nstream.hops.storage.disk.DiskEndpoint;
 import se.sics.nstream.hops.storage.disk.DiskResource;
@@ -43,6 +49,8 @@ import se.sics.nstream.storage.durable.util.StreamEndpoint;
 import se.sics.nstream.storage.durable.util.StreamResource;
 
 /**
+ * The disk I/O itself runs on DiskIOComp workers. Writes go in order to the first worker, reads are spread over the
+ * others, so reads for seeding do not wait behind appends.
  *
  * @author Alex Ormenisan <aaor@kth.se>
  */
@@ -53,23 +61,61 @@ public class DiskComp extends ComponentDefinition {
 
     Positive<Timer> timerPort = requires(Timer.class);
     private final Negative storagePort = provides(DStoragePort.class);
+    Positive<DiskIOPort> ioPort = requires(DiskIOPort.class);
+    private One2NChannel<DiskIOPort> ioChannel;
     //**************************************************************************
     private final Identifier self;
+    private final DiskIOConfig ioConfig;
     //**************************************************************************
-    private RandomAccessFile raf;
+    //closed by whoever of us and the workers is torn down last
+    private final SharedFile file;
+    private final FileChannel channel;
     private long writePos;
+    private final List<Identifier> workers = new ArrayList<>();
+    private int nextReader = 0;
+    //only when mmap is enabled
+    private MappedFile mapped;
+    private boolean written = false;
 
     public DiskComp(Init init) {
         self = init.self;
         logPrefix = "<nid:" + self.toString() + ">disk:" + init.filePath + " ";
         LOG.info("{}init", logPrefix);
 
-        raf = init.raf;
         writePos = init.writePos;
+        ioConfig = new DiskIOConfig(config());
+        file = new SharedFile(init.raf, 1 + ioConfig.workers);
+        channel = file.channel;
+        ioChannel = One2NChannel.getChannel(logPrefix + "io", (Negative) ioPort.getPair(), new DiskIOWorkerIdExtractor());
+        createWorkers();
 
         subscribe(handleStart, control);
         subscribe(handleRead, storagePort);
         subscribe(handleWrite, storagePort);
+        subscribe(handleWriteComplete, storagePort);
+        subscribe(handleReadDone, ioPort);
+        subscribe(handleWriteDone, ioPort);
+    }
+
+    private void createWorkers() {
+        for (int i = 0; i < ioConfig.workers; i++) {
+            Identifier workerId = BasicIdentifiers.eventId();
+            Component worker = create(DiskIOComp.class, new DiskIOComp.Init(workerId, file));
+            ioChannel.addChannel(workerId, worker.getNegative(DiskIOPort.class));
+            workers.add(workerId);
+        }
+    }
+
+    private Identifier writer() {
+        return workers.get(0);
+    }
+
+    private Identifier nextReader() {
+        if (workers.size() == 1) {
+            return workers.get(0);
+        }
+        nextReader = 1 + (nextReader % (workers.size() - 1));
+        return workers.get(nextReader);
     }
 
     Handler handleStart = new Handler<Start>() {
@@ -82,23 +128,26 @@ public class DiskComp extends ComponentDefinition {
     @Override
     public void tearDown() {
         LOG.info("{}tearing down", logPrefix);
+        file.release(logPrefix);
     }
 
     Handler handleRead = new Handler<DStorageRead.Request>() {
         @Override
         public void handle(DStorageRead.Request req) {
             LOG.debug("{}read:{}", logPrefix, req);
-            int readLength = (int) (req.readRange.upperAbsEndpoint() - req.readRange.lowerAbsEndpoint() + 1);
-            byte[] readVal = new byte[readLength];
-            int readPos = (int) req.readRange.lowerAbsEndpoint();
-            try {
-                LOG.debug("{}reading at pos:{} amount:{}", new Object[]{logPrefix, readPos, readLength});
-                raf.seek(readPos);
-                raf.readFully(readVal);
-            } catch (IOException ex) {
-                answer(req, req.respond(Result.internalFailure(ex)));
+            if (ioConfig.mmap && mapped == null && !written) {
+                //seeding an existing file
+                map();
             }
-            answer(req, req.respond(Result.success(readVal)));
+            trigger(new DiskIO.Read(nextReader(), channel, mapped, req), ioPort);
+        }
+    };
+
+    Handler handleReadDone = new Handler<DiskIO.ReadDone>() {
+        @Override
+        public void handle(DiskIO.ReadDone resp) {
+            LOG.trace("{}received:{}", logPrefix, resp);
+            answer(resp.io.req, resp.io.req.respond(resp.result));
         }
     };
 
@@ -106,33 +155,56 @@ public class DiskComp extends ComponentDefinition {
         @Override
         public void handle(DStorageWrite.Request req) {
             LOG.debug("{}write:{}", logPrefix, req);
-            if (writePos >= req.pos + req.value.length) {
+            if (writePos >= req.pos + req.length) {
                 LOG.debug("{}write with pos:{} skipped", logPrefix, req.pos);
                 answer(req, req.respond(Result.success(true)));
                 return;
             }
             long pos = req.pos;
-            byte[] writeValue = req.value;
+            long writeAmount = req.length;
             if (writePos > req.pos) {
                 pos = writePos;
-                int sourcePos = (int) (pos - writePos);
-                int writeAmount = req.value.length - sourcePos;
-                writeValue = new byte[writeAmount];
-                System.arraycopy(req.value, sourcePos, writeValue, 0, writeAmount);
+                writeAmount = req.pos + req.length - writePos;
                 LOG.debug("{}convert write pos from:{} to:{} write amount from:{} to:{}",
-                        new Object[]{logPrefix, req.pos, pos, req.value.length, writeAmount});
+                        new Object[]{logPrefix, req.pos, pos, req.length, writeAmount});
             }
-            try {
-                raf.seek(req.pos);
-                raf.write(req.value);
-            } catch (IOException ex) {
-                answer(req, req.respond(Result.internalFailure(ex)));
+            //a single writer keeps the appends in order
+            trigger(new DiskIO.Write(writer(), channel, pos, req.from(pos), req), ioPort);
+            writePos = pos + writeAmount;
+            written = true;
+        }
+    };
+
+    Handler handleWriteDone = new Handler<DiskIO.WriteDone>() {
+        @Override
+        public void handle(DiskIO.WriteDone resp) {
+            LOG.trace("{}received:{}", logPrefix, resp);
+            answer(resp.io.req, resp.io.req.respond(resp.result));
+        }
+    };
+
+    Handler handleWriteComplete = new Handler<DStorageWrite.Complete>() {
+        @Override
+        public void handle(DStorageWrite.Complete event) {
+            LOG.info("{}write complete", logPrefix);
+            if (ioConfig.mmap) {
+                map();
             }
-            writePos += writeValue.length;
-            answer(req, req.respond(Result.success(true)));
         }
     };
 
+    private void map() {
+        if (writePos == 0) {
+            return;
+        }
+        try {
+            mapped = MappedFile.map(channel, writePos);
+        } catch (IOException ex) {
+            LOG.warn("{}could not map file:{}", logPrefix, ex.getMessage());
+            mapped = null;
+        }
+    }
+
     public static class Init extends se.sics.kompics.Init<DiskComp> {
 
         public final Identifier self;
@@ -176,6 +248,15 @@ public class DiskComp extends ComponentDefinition {
             return Pair.with(init, filePos);
         }
 
+        @Override
+        public void abort(se.sics.kompics.Init<DiskComp> init) {
+            try {
+                ((Init) init).raf.close();
+            } catch (IOException ex) {
+                LOG.warn("close:{}", ex.getMessage());
+            }
+        }
+
         @Override
         public String getName() {
             return endpoint.getEndpointName();
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.hdfs.disk;
+
+import java.nio.channels.FileChannel;
+import java.util.List;
+import se.sics.kompics.Direct;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.util.Identifiable;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.nstream.storage.durable.events.DStorageRead;
+import se.sics.nstream.storage.durable.events.DStorageWrite;
+
+/**
+ * Positional I/O handed by the DiskComp to its workers. The original storage request travels along, so the
+ * DiskComp can answer it when the worker is done.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DiskIO {
+
+    public static interface WorkerEvent extends KompicsEvent {
+
+        public Identifier workerId();
+    }
+
+    public static class Read extends Direct.Request<ReadDone> implements WorkerEvent, Identifiable {
+
+        public final Identifier workerId;
+        public final FileChannel channel;
+        public final MappedFile mapped;
+        public final DStorageRead.Request req;
+
+        /**
+         * @param mapped null if reads go through the channel
+         */
+        public Read(Identifier workerId, FileChannel channel, MappedFile mapped, DStorageRead.Request req) {
+            this.workerId = workerId;
+            this.channel = channel;
+            this.mapped = mapped;
+            this.req = req;
+        }
+
+        @Override
+        public Identifier workerId() {
+            return workerId;
+        }
+
+        @Override
+        public Identifier getId() {
+            return req.getId();
+        }
+
+        public ReadDone answer(Result<byte[]> result) {
+            return new ReadDone(this, result);
+        }
+
+        @Override
+        public String toString() {
+            return "DiskRead<" + req.getId() + ">";
+        }
+    }
+
+    public static class ReadDone implements Direct.Response, Identifiable {
+
+        public final Read io;
+        public final Result<byte[]> result;
+
+        public ReadDone(Read io, Result<byte[]> result) {
+            this.io = io;
+            this.result = result;
+        }
+
+        @Override
+        public Identifier getId() {
+            return io.getId();
+        }
+
+        @Override
+        public String toString() {
+            return "DiskReadDone<" + io.getId() + ">";
+        }
+    }
+
+    public static class Write extends Direct.Request<WriteDone> implements WorkerEvent, Identifiable {
+
+        public final Identifier workerId;
+        public final FileChannel channel;
+        public final long pos;
+        public final List<byte[]> values;
+        public final DStorageWrite.Request req;
+
+        public Write(Identifier workerId, FileChannel channel, long pos, List<byte[]> values, DStorageWrite.Request req) {
+            this.workerId = workerId;
+            this.channel = channel;
+            this.pos = pos;
+            this.values = values;
+            this.req = req;
+        }
+
+        @Override
+        public Identifier workerId() {
+            return workerId;
+        }
+
+        @Override
+        public Identifier getId() {
+            return req.getId();
+        }
+
+        public WriteDone answer(Result<Boolean> result) {
+            return new WriteDone(this, result);
+        }
+
+        @Override
+        public String toString() {
+            return "DiskWrite<" + req.getId() + ">";
+        }
+    }
+
+    public static class WriteDone implements Direct.Response, Identifiable {
+
+        public final Write io;
+        public final Result<Boolean> result;
+
+        public WriteDone(Write io, Result<Boolean> result) {
+            this.io = io;
+            this.result = result;
+        }
+
+        @Override
+        public Identifier getId() {
+            return io.getId();
+        }
+
+        @Override
+        public String toString() {
+            return "DiskWriteDone<" + io.getId() + ">";
+        }
+    }
+}
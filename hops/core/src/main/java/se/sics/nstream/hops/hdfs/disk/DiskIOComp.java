@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.hdfs.disk;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Start;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.result.Result;
+
+/**
+ * Does the blocking disk I/O of a DiskComp on its own scheduler slot. FileChannel positional reads and writes do
+ * not share a file pointer, so several workers can use the same channel.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DiskIOComp extends ComponentDefinition {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskIOComp.class);
+    private String logPrefix;
+
+    Negative<DiskIOPort> ioPort = provides(DiskIOPort.class);
+    private final SharedFile file;
+
+    public DiskIOComp(Init init) {
+        logPrefix = "<dio:" + init.workerId + ">";
+        file = init.file;
+        subscribe(handleStart, control);
+        subscribe(handleRead, ioPort);
+        subscribe(handleWrite, ioPort);
+    }
+
+    Handler handleStart = new Handler<Start>() {
+        @Override
+        public void handle(Start event) {
+            LOG.info("{}starting...", logPrefix);
+        }
+    };
+
+    @Override
+    public void tearDown() {
+        file.release(logPrefix);
+    }
+
+    Handler handleRead = new Handler<DiskIO.Read>() {
+        @Override
+        public void handle(DiskIO.Read io) {
+            LOG.trace("{}received:{}", logPrefix, io);
+            long readPos = io.req.readRange.lowerAbsEndpoint();
+            int readLength = (int) (io.req.readRange.upperAbsEndpoint() - readPos + 1);
+            answer(io, io.answer(read(io.channel, io.mapped, readPos, readLength)));
+        }
+    };
+
+    Handler handleWrite = new Handler<DiskIO.Write>() {
+        @Override
+        public void handle(DiskIO.Write io) {
+            LOG.trace("{}received:{}", logPrefix, io);
+            answer(io, io.answer(write(io.channel, io.pos, io.values)));
+        }
+    };
+
+    /**
+     * @param mapped null if reads go through the channel
+     */
+    static Result<byte[]> read(FileChannel channel, MappedFile mapped, long readPos, int readLength) {
+        if (mapped != null && mapped.covers(readPos, readLength)) {
+            return Result.success(mapped.read(readPos, readLength));
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(readLength);
+            while (buf.hasRemaining()) {
+                int read = channel.read(buf, readPos + buf.position());
+                if (read == -1) {
+                    throw new EOFException("read past the end of file at pos:" + (readPos + buf.position()));
+                }
+            }
+            return Result.success(buf.array());
+        } catch (IOException ex) {
+            return Result.internalFailure(ex);
+        }
+    }
+
+    static Result<Boolean> write(FileChannel channel, long pos, List<byte[]> values) {
+        try {
+            for (byte[] value : values) {
+                ByteBuffer buf = ByteBuffer.wrap(value);
+                while (buf.hasRemaining()) {
+                    pos += channel.write(buf, pos);
+                }
+            }
+            return Result.success(true);
+        } catch (IOException ex) {
+            return Result.internalFailure(ex);
+        }
+    }
+
+    public static class Init extends se.sics.kompics.Init<DiskIOComp> {
+
+        public final Identifier workerId;
+        public final SharedFile file;
+
+        public Init(Identifier workerId, SharedFile file) {
+            this.workerId = workerId;
+            this.file = file;
+        }
+    }
+}
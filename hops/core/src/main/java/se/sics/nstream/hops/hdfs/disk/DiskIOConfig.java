@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.hdfs.disk;
+
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DiskIOConfig {
+
+    public static class Names {
+
+        public static final String WORKERS = "hops.disk.io.workers";
+        public static final String MMAP = "hops.disk.io.mmap";
+    }
+    /**
+     * worker 0 does all the writes, in order - reads are spread over all workers
+     */
+    public static final int DEFAULT_WORKERS = 2;
+    /**
+     * serve reads of already written data from a read only mapping of the file
+     */
+    public static final boolean DEFAULT_MMAP = false;
+
+    public final int workers;
+    public final boolean mmap;
+
+    public DiskIOConfig(Config config) {
+        workers = Math.max(1, config.getValueOrDefault(Names.WORKERS, DEFAULT_WORKERS));
+        mmap = config.getValueOrDefault(Names.MMAP, DEFAULT_MMAP);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.hdfs.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only mapping of the first length bytes of a file. A MappedByteBuffer is limited to 2GB so the file is
+ * mapped in segments. Reads only touch duplicates, so several workers can read at the same time.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class MappedFile {
+
+    private static final int SEGMENT_SIZE = 1 << 30; //1GB
+
+    public final long length;
+    private final int segmentSize;
+    private final MappedByteBuffer[] segments;
+
+    private MappedFile(long length, int segmentSize, MappedByteBuffer[] segments) {
+        this.length = length;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+    }
+
+    public static MappedFile map(FileChannel channel, long length) throws IOException {
+        return map(channel, length, SEGMENT_SIZE);
+    }
+
+    static MappedFile map(FileChannel channel, long length, int segmentSize) throws IOException {
+        int nrSegments = (int) ((length + segmentSize - 1) / segmentSize);
+        MappedByteBuffer[] segments = new MappedByteBuffer[nrSegments];
+        for (int i = 0; i < nrSegments; i++) {
+            long segmentPos = (long) i * segmentSize;
+            long size = Math.min(segmentSize, length - segmentPos);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentPos, size);
+        }
+        return new MappedFile(length, segmentSize, segments);
+    }
+
+    public boolean covers(long pos, int readLength) {
+        return pos + readLength <= length;
+    }
+
+    public byte[] read(long pos, int readLength) {
+        byte[] result = new byte[readLength];
+        int resultPos = 0;
+        while (resultPos < readLength) {
+            long filePos = pos + resultPos;
+            int segment = (int) (filePos / segmentSize);
+            int segmentPos = (int) (filePos % segmentSize);
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(segmentPos);
+            int amount = Math.min(readLength - resultPos, view.remaining());
+            view.get(result, resultPos, amount);
+            resultPos += amount;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.hdfs.disk;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The file of a DiskComp, shared with its DiskIOComp workers. Each holder releases it on tearDown and the last one
+ * closes it, so the file is never closed under a worker that still does I/O on it.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class SharedFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedFile.class);
+
+    private final RandomAccessFile raf;
+    public final FileChannel channel;
+    private final AtomicInteger holders;
+
+    public SharedFile(RandomAccessFile raf, int holders) {
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.holders = new AtomicInteger(holders);
+    }
+
+    /**
+     * @return true if this was the last holder and the file was closed
+     */
+    public boolean release(String logPrefix) {
+        if (holders.decrementAndGet() > 0) {
+            return false;
+        }
+        try {
+            raf.close();
+        } catch (IOException ex) {
+            LOG.warn("{}close:{}", logPrefix, ex.getMessage());
+        }
+        return true;
+    }
+}
@@ -18,6 +18,8 @@
  */
 package se.sics.nstream.hops.kafka;
 
+import com.google.common.base.Optional;
+import java.util.UUID;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +28,9 @@ import se.sics.kompics.Handler;
 import se.sics.kompics.Negative;
 import se.sics.kompics.Positive;
 import se.sics.kompics.Start;
+import se.sics.kompics.timer.CancelPeriodicTimeout;
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timeout;
 import se.sics.kompics.timer.Timer;
 import se.sics.kompics.util.Identifier;
 import se.sics.nstream.storage.durable.DStoragePort;
@@ -44,11 +49,15 @@ public class KafkaComp extends ComponentDefinition {
     Positive<Timer> timerPort = requires(Timer.class);
     Negative<DStoragePort> streamPort = provides(DStoragePort.class);
     KafkaProxy kafka;
+    private final KafkaSinkConfig sinkConfig;
+    private UUID ackCheckTid;
     
     public KafkaComp(Init init) {
         LOG.info("{}init", logPrefix);
-        kafka = new KafkaProxy(proxy, init.endpoint, init.resource);
+        sinkConfig = new KafkaSinkConfig(config());
+        kafka = new KafkaProxy(proxy, init.endpoint, init.resource, Optional.of(sinkConfig));
         proxy.subscribe(handleStart, control);
+        proxy.subscribe(handleAckCheck, timerPort);
     }
 
     //******************************CONTROL*************************************
@@ -57,12 +66,45 @@ public class KafkaComp extends ComponentDefinition {
         public void handle(Start event) {
             LOG.info("{}starting", logPrefix);
             kafka.start();
+            //sync producers need it as well - for the in flight reports
+            scheduleAckCheck();
         }
     };
     @Override
     public void tearDown() {
+        cancelAckCheck();
         kafka.close();
     }
+
+    Handler handleAckCheck = new Handler<AckCheck>() {
+        @Override
+        public void handle(AckCheck event) {
+            kafka.checkAcks();
+        }
+    };
+
+    private void scheduleAckCheck() {
+        SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(sinkConfig.ackCheckPeriod, sinkConfig.ackCheckPeriod);
+        AckCheck ac = new AckCheck(spt);
+        spt.setTimeoutEvent(ac);
+        ackCheckTid = ac.getTimeoutId();
+        trigger(spt, timerPort);
+    }
+
+    private void cancelAckCheck() {
+        if (ackCheckTid == null) {
+            return;
+        }
+        trigger(new CancelPeriodicTimeout(ackCheckTid), timerPort);
+        ackCheckTid = null;
+    }
+
+    public static class AckCheck extends Timeout {
+
+        public AckCheck(SchedulePeriodicTimeout spt) {
+            super(spt);
+        }
+    }
     //**************************************************************************
     public static class Init extends se.sics.kompics.Init<KafkaComp> {
 
@@ -93,6 +135,11 @@ public class KafkaComp extends ComponentDefinition {
             return Pair.with(init, 0l);
         }
 
+        @Override
+        public void abort(se.sics.kompics.Init<KafkaComp> init) {
+            //nothing acquired
+        }
+
         @Override
         public String getName() {
             return endpoint.getEndpointName();
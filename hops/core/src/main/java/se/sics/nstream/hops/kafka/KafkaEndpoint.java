@@ -18,6 +18,7 @@
  */
 package se.sics.nstream.hops.kafka;
 
+import se.sics.nstream.hops.kafka.avro.AsyncKafkaProducer;
 import se.sics.nstream.hops.kafka.avro.AvroMsgProducer;
 import se.sics.nstream.hops.kafka.avro.KafkaProducer;
 import se.sics.nstream.storage.durable.util.StreamEndpoint;
@@ -46,6 +47,10 @@ public class KafkaEndpoint implements StreamEndpoint {
     public AvroMsgProducer getProducer(KafkaResource resource) {
         return new KafkaProducer(this, resource);
     }
+
+    public AvroMsgProducer getAsyncProducer(KafkaResource resource, KafkaSinkConfig sinkConfig) {
+        return new AsyncKafkaProducer(this, resource, sinkConfig);
+    }
     
     @Override
     public String getEndpointName() {
@@ -22,6 +22,7 @@ import io.hops.util.exceptions.SchemaNotFoundException;
 import io.hops.util.dela.DelaConsumer;
 import io.hops.util.DelaHelper;
 import io.hops.util.dela.DelaProducer;
+import java.util.Properties;
 import org.apache.avro.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,18 +33,18 @@ import org.slf4j.LoggerFactory;
 public class KafkaHelper {
 
   private static final Logger LOG = LoggerFactory.getLogger(KafkaHelper.class);
+  //TODO Alex - hardcoded
+  private static final String KEYSTORE_PWD = "adminpw";
+  private static final String TRUSTSTORE_PWD = "adminpw";
 
   public static DelaProducer getKafkaProducer(KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource) {
     LOG.warn("do not start multiple kafka workers in parallel - risk of race condition (setup/getProducer/getConsumer");
     try {
-      //TODO Alex - hardcoded
-      String keystorePwd = "adminpw";
-      String truststorePwd = "adminpw";
       long lingerDelay = 5;
       int projectId = Integer.parseInt(kafkaEndpoint.projectId);
       LOG.info("project:{} topic:{} endpoint:{}", new Object[]{projectId, kafkaResource.topicName, kafkaEndpoint.restEndpoint});
       DelaProducer kp = DelaHelper.getHopsProducer(projectId, kafkaResource.topicName, kafkaEndpoint.brokerEndpoint,
-        kafkaEndpoint.restEndpoint, kafkaEndpoint.keyStore, kafkaEndpoint.trustStore, keystorePwd, truststorePwd,
+        kafkaEndpoint.restEndpoint, kafkaEndpoint.keyStore, kafkaEndpoint.trustStore, KEYSTORE_PWD, TRUSTSTORE_PWD,
         lingerDelay);
       return kp;
     } catch (SchemaNotFoundException ex) {
@@ -54,19 +55,30 @@ public class KafkaHelper {
   public static DelaConsumer getKafkaConsumer(KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource) {
     LOG.warn("do not start multiple kafka workers in parallel - risk of race condition (setup/getProducer/getConsumer");
     try {
-      //TODO Alex - hardcoded
-      String keystorePwd = "adminpw";
-      String truststorePwd = "adminpw";
       long lingerDelay = 5;
       int projectId = Integer.parseInt(kafkaEndpoint.projectId);
       DelaConsumer kc = DelaHelper.getHopsConsumer(projectId, kafkaResource.topicName, kafkaEndpoint.brokerEndpoint,
-        kafkaEndpoint.restEndpoint, kafkaEndpoint.keyStore, kafkaEndpoint.trustStore, keystorePwd, truststorePwd);
+        kafkaEndpoint.restEndpoint, kafkaEndpoint.keyStore, kafkaEndpoint.trustStore, KEYSTORE_PWD, TRUSTSTORE_PWD);
       return kc;
     } catch (SchemaNotFoundException ex) {
       throw new RuntimeException(ex);
     }
   }
 
+  /**
+   * ssl client settings of the endpoint - for clients built directly on kafka-clients
+   */
+  public static Properties sslProperties(KafkaEndpoint kafkaEndpoint) {
+    Properties props = new Properties();
+    props.put("security.protocol", "SSL");
+    props.put("ssl.keystore.location", kafkaEndpoint.keyStore);
+    props.put("ssl.keystore.password", KEYSTORE_PWD);
+    props.put("ssl.key.password", KEYSTORE_PWD);
+    props.put("ssl.truststore.location", kafkaEndpoint.trustStore);
+    props.put("ssl.truststore.password", TRUSTSTORE_PWD);
+    return props;
+  }
+
   public static Schema getKafkaSchemaByTopic(KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource) {
     String stringSchema;
     try {
@@ -18,21 +18,33 @@
  */
 package se.sics.nstream.hops.kafka;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import com.google.common.base.Optional;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import org.apache.avro.Schema;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.apache.avro.generic.GenericRecord;
+import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.sics.kompics.ComponentProxy;
 import se.sics.ktoolbox.util.result.Result;
+import se.sics.nstream.StreamId;
+import se.sics.nstream.hops.kafka.avro.AvroFramer;
 import se.sics.nstream.hops.kafka.avro.AvroMsgProducer;
-import se.sics.nstream.hops.kafka.avro.AvroParser;
 import se.sics.nstream.storage.durable.events.DStorageWrite;
 
 /**
+ * Writes are framed into avro records incrementally. A write is acked once every record overlapping its bytes (and
+ * every record before them) was acked by the producer. With a sync producer that is right after the record is handed
+ * over, with an async producer it is when the broker acked it. A partial record at the tail of a write holds back its
+ * ack until a later write completes the record. inFlightBytes does not count such a partial record - the writer bounds
+ * its unacked bytes on the InFlight reports, so it keeps writing until the record is complete.
+ * <p>
+ * Kafka streams start at pos 0, so stream positions and framer positions are the same.
+ *
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class KafkaProducerMngr {
@@ -43,70 +55,136 @@ public class KafkaProducerMngr {
     private final ComponentProxy proxy;
 
     private final AvroMsgProducer producer;
+    private final AvroFramer framer;
+    private final int recordsPerBatch;
     public int producedMsgs = 0;
-    private final List<DStorageWrite.Request> waitingOnLeftover = new LinkedList<>();
-    private ByteBuf leftover;
+    //<stream end pos of write, write> - in stream order
+    private final LinkedList<Pair<Long, DStorageWrite.Request>> waitingOnAck = new LinkedList<>();
+    private StreamId streamId;
+    private long receivedPos = 0;
+    //<received pos, in flight bytes> - last InFlight report
+    private Pair<Long, Long> reported = null;
+    private final List<GenericRecord> batch = new ArrayList<>();
+    private final List<Long> batchEnds = new ArrayList<>();
+    //<record end pos, acked> - records sent and not yet part of the acked prefix
+    private final TreeMap<Long, Boolean> inFlight = new TreeMap<>();
+    private long ackedPos = 0;
+    //a failed record breaks the stream - every write after it fails as well
+    private Exception failure = null;
+    //filled by the producer, possibly from the kafka io thread
+    private final ConcurrentLinkedQueue<Pair<Long, Exception>> acks = new ConcurrentLinkedQueue<>();
 
-    public KafkaProducerMngr(ComponentProxy proxy, KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource) {
+    public KafkaProducerMngr(ComponentProxy proxy, AvroMsgProducer producer, int recordsPerBatch) {
         this.proxy = proxy;
-        this.producer = kafkaEndpoint.getProducer(kafkaResource);
-        leftover = Unpooled.buffer();
+        this.producer = producer;
+        this.framer = new AvroFramer(producer.getSchema());
+        this.recordsPerBatch = recordsPerBatch;
+    }
+
+    public KafkaProducerMngr(ComponentProxy proxy, AvroMsgProducer producer) {
+        this(proxy, producer, KafkaSinkConfig.DEFAULT_RECORDS_PER_BATCH);
+    }
+
+    public KafkaProducerMngr(ComponentProxy proxy, KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource) {
+        this(proxy, kafkaEndpoint.getProducer(kafkaResource));
     }
 
     public void write(DStorageWrite.Request req) {
-        Schema schema = producer.getSchema();
-        leftover.writeBytes(req.value);
-        getRidOfLeftovers(schema);
-        parseWithLeftovers(schema, req);
+        if (failure != null) {
+            proxy.answer(req, req.respond(Result.externalUnsafeFailure(failure)));
+            return;
+        }
+        for (byte[] value : req.values) {
+            framer.append(value);
+        }
+        streamId = req.streamId;
+        receivedPos = req.pos + req.length;
+        waitingOnAck.add(Pair.with(receivedPos, req));
+        while (failure == null && framer.next(batch, batchEnds, recordsPerBatch) > 0) {
+            produce();
+            checkAcks();
+        }
+        if (framer.leftover() > 0) {
+            LOG.debug("{}leftover:{}", logPrefix, framer.leftover());
+        }
     }
 
-    private void getRidOfLeftovers(Schema schema) {
-        if (!waitingOnLeftover.isEmpty()) {
-            GenericRecord record = AvroParser.blobToAvro(schema, leftover);
-            if (record != null) {
-                producedMsgs++;
-                producer.append(record);
-                for (DStorageWrite.Request req : waitingOnLeftover) {
-                    DStorageWrite.Response resp = req.respond(Result.success(true));
-                    LOG.trace("{}answering:{}", logPrefix, resp);
-                    proxy.answer(req, resp);
-                }
-                waitingOnLeftover.clear();
-            }
+    private void produce() {
+        for (int i = 0; i < batch.size(); i++) {
+            final long recordEnd = batchEnds.get(i);
+            inFlight.put(recordEnd, false);
+            producer.append(batch.get(i), (cause) -> acks.add(Pair.with(recordEnd, cause)));
         }
+        producedMsgs += batch.size();
+        batch.clear();
+        batchEnds.clear();
     }
 
-    private void parseWithLeftovers(Schema schema, DStorageWrite.Request req) {
-        while (true) {
-            GenericRecord record = AvroParser.blobToAvro(schema, leftover);
-            if (record != null) {
-                producedMsgs++;
-                producer.append(record);
-            } else {
-                int leftoverSize = leftover.writerIndex() - leftover.readerIndex();
-                if (leftoverSize > 0) {
-                    LOG.debug("{}leftover:{}", logPrefix, leftoverSize);
-
-                    byte[] newLeftover = new byte[leftoverSize];
-                    leftover.readBytes(newLeftover);
-                    leftover = Unpooled.buffer();
-                    leftover.writeBytes(newLeftover);
-                    //confirm write only when all data was written - for the moment there are some leftovers
-                    waitingOnLeftover.add(req);
-                } else {
-                    leftover = Unpooled.buffer();
-                    DStorageWrite.Response resp = req.respond(Result.success(true));
-                    LOG.trace("{}answering:{}", logPrefix, resp);
-                    proxy.answer(req, resp);
-                }
-                break;
+    /**
+     * called on the owner thread - after each batch and periodically
+     */
+    public void checkAcks() {
+        Pair<Long, Exception> ack;
+        while (failure == null && (ack = acks.poll()) != null) {
+            if (ack.getValue1() != null) {
+                failure = ack.getValue1();
+                LOG.warn("{}kafka send failed:{}", logPrefix, failure.getMessage());
+            } else if (inFlight.containsKey(ack.getValue0())) {
+                inFlight.put(ack.getValue0(), true);
             }
         }
+        while (!inFlight.isEmpty() && inFlight.firstEntry().getValue()) {
+            ackedPos = inFlight.pollFirstEntry().getKey();
+        }
+        while (!waitingOnAck.isEmpty() && waitingOnAck.peek().getValue0() <= ackedPos) {
+            DStorageWrite.Request req = waitingOnAck.poll().getValue1();
+            DStorageWrite.Response resp = req.respond(Result.success(true));
+            LOG.trace("{}answering:{}", logPrefix, resp);
+            proxy.answer(req, resp);
+        }
+        if (failure != null) {
+            failWaiting();
+        }
+    }
+
+    private void failWaiting() {
+        for (Pair<Long, DStorageWrite.Request> waiting : waitingOnAck) {
+            DStorageWrite.Request req = waiting.getValue1();
+            proxy.answer(req, req.respond(Result.externalUnsafeFailure(failure)));
+        }
+        waitingOnAck.clear();
+        inFlight.clear();
+        acks.clear();
+    }
+
+    /**
+     * bytes handed to the producer and not yet acked - the writer should hold back while this is high. A partial record
+     * still in the framer is not in flight.
+     */
+    public long inFlightBytes() {
+        return framer.parsedPos() - ackedPos;
+    }
+
+    /**
+     * @return the InFlight report for the writer, absent if nothing changed since the last one
+     */
+    public Optional<DStorageWrite.InFlight> inFlightUpdate() {
+        if (streamId == null) {
+            return Optional.absent();
+        }
+        Pair<Long, Long> current = Pair.with(receivedPos, inFlightBytes());
+        if (current.equals(reported)) {
+            return Optional.absent();
+        }
+        reported = current;
+        return Optional.of(new DStorageWrite.InFlight(streamId, receivedPos, current.getValue1()));
     }
 
     public void start() {
     }
 
     public void close() {
+        producer.close();
+        framer.release();
     }
 }
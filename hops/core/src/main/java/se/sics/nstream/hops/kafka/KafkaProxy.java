@@ -18,6 +18,7 @@
  */
 package se.sics.nstream.hops.kafka;
 
+import com.google.common.base.Optional;
 import java.util.HashMap;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -42,14 +43,22 @@ public class KafkaProxy {
     //**************************************************************************
     private final KafkaEndpoint kafkaEndpoint;
     private final KafkaResource kafkaResource;
+    //absent - sync producer
+    private final Optional<KafkaSinkConfig> sinkConfig;
     //<topic, producer>
     private final Map<String, KafkaProducerMngr> producers = new HashMap<>();
 
     public KafkaProxy(ComponentProxy proxy, KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource) {
+        this(proxy, kafkaEndpoint, kafkaResource, Optional.absent());
+    }
+
+    public KafkaProxy(ComponentProxy proxy, KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource,
+            Optional<KafkaSinkConfig> sinkConfig) {
         LOG.info("{}init", logPrefix);
         this.proxy = proxy;
         this.kafkaEndpoint = kafkaEndpoint;
         this.kafkaResource = kafkaResource;
+        this.sinkConfig = sinkConfig;
         //proxy specific
         streamPort = proxy.getPositive(DStoragePort.class).getPair();
         //proxy adapted
@@ -71,15 +80,37 @@ public class KafkaProxy {
             LOG.trace("{}received:{}", logPrefix, req);
             KafkaProducerMngr mngr = producers.get(kafkaResource.topicName);
             if (mngr == null) {
-                mngr = new KafkaProducerMngr(proxy, kafkaEndpoint, kafkaResource);
+                if (sinkConfig.isPresent() && sinkConfig.get().async) {
+                    mngr = new KafkaProducerMngr(proxy, kafkaEndpoint.getAsyncProducer(kafkaResource, sinkConfig.get()),
+                            sinkConfig.get().recordsPerBatch);
+                } else if (sinkConfig.isPresent()) {
+                    mngr = new KafkaProducerMngr(proxy, kafkaEndpoint.getProducer(kafkaResource),
+                            sinkConfig.get().recordsPerBatch);
+                } else {
+                    mngr = new KafkaProducerMngr(proxy, kafkaEndpoint, kafkaResource);
+                }
                 mngr.start();
                 producers.put(kafkaResource.topicName, mngr);
             }
             mngr.write(req);
-            LOG.debug("{}produced:{}", logPrefix, mngr.producedMsgs);
+            LOG.debug("{}produced:{} in flight:{}", new Object[]{logPrefix, mngr.producedMsgs, mngr.inFlightBytes()});
         }
     };
 
+    /**
+     * picks up producer acks and reports the bytes in flight to the writer - its backpressure
+     */
+    public void checkAcks() {
+        for (KafkaProducerMngr mngr : producers.values()) {
+            mngr.checkAcks();
+            Optional<DStorageWrite.InFlight> inFlight = mngr.inFlightUpdate();
+            if (inFlight.isPresent()) {
+                LOG.trace("{}in flight:{}", logPrefix, inFlight.get().inFlightBytes);
+                proxy.trigger(inFlight.get(), streamPort);
+            }
+        }
+    }
+
     public void start() {
     }
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.kafka;
+
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class KafkaSinkConfig {
+
+    public static class Names {
+
+        public static final String ASYNC = "hops.kafka.sink.async";
+        public static final String LINGER_MS = "hops.kafka.sink.lingerMs";
+        public static final String BATCH_BYTES = "hops.kafka.sink.batchBytes";
+        public static final String COMPRESSION = "hops.kafka.sink.compression";
+        public static final String ACK_CHECK_PERIOD = "hops.kafka.sink.ackCheckPeriod";
+        public static final String RECORDS_PER_BATCH = "hops.kafka.sink.recordsPerBatch";
+    }
+    /**
+     * false - records are acked when handed to the producer; true - when the broker acked them
+     */
+    public static final boolean DEFAULT_ASYNC = false;
+    public static final long DEFAULT_LINGER_MS = 5;
+    public static final int DEFAULT_BATCH_BYTES = 1024 * 1024; //1MB
+    /**
+     * none, gzip, snappy, lz4
+     */
+    public static final String DEFAULT_COMPRESSION = "none";
+    /**
+     * broker acks arrive on the kafka io thread and are picked up on this period, the bytes in flight are reported to
+     * the writer on it as well
+     */
+    public static final long DEFAULT_ACK_CHECK_PERIOD = 50;
+    /**
+     * records framed and handed to the producer at a time, before acks are checked again
+     */
+    public static final int DEFAULT_RECORDS_PER_BATCH = 1000;
+
+    public final boolean async;
+    public final long lingerMs;
+    public final int batchBytes;
+    public final String compression;
+    public final long ackCheckPeriod;
+    public final int recordsPerBatch;
+
+    public KafkaSinkConfig(Config config) {
+        async = config.getValueOrDefault(Names.ASYNC, DEFAULT_ASYNC);
+        lingerMs = config.getValueOrDefault(Names.LINGER_MS, DEFAULT_LINGER_MS);
+        batchBytes = config.getValueOrDefault(Names.BATCH_BYTES, DEFAULT_BATCH_BYTES);
+        compression = config.getValueOrDefault(Names.COMPRESSION, DEFAULT_COMPRESSION);
+        ackCheckPeriod = config.getValueOrDefault(Names.ACK_CHECK_PERIOD, DEFAULT_ACK_CHECK_PERIOD);
+        recordsPerBatch = config.getValueOrDefault(Names.RECORDS_PER_BATCH, DEFAULT_RECORDS_PER_BATCH);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.kafka.avro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import se.sics.nstream.hops.kafka.KafkaEndpoint;
+import se.sics.nstream.hops.kafka.KafkaHelper;
+import se.sics.nstream.hops.kafka.KafkaResource;
+import se.sics.nstream.hops.kafka.KafkaSinkConfig;
+
+/**
+ * Pipelines records through the kafka producer async send. Acks come back on the kafka io thread.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class AsyncKafkaProducer implements AvroMsgProducer {
+
+    private final String topic;
+    private final Schema schema;
+    private final org.apache.kafka.clients.producer.KafkaProducer<String, byte[]> producer;
+    private final GenericDatumWriter<GenericRecord> writer;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private BinaryEncoder encoder;
+
+    public AsyncKafkaProducer(KafkaEndpoint kafkaEndpoint, KafkaResource kafkaResource, KafkaSinkConfig sinkConfig) {
+        this.topic = kafkaResource.topicName;
+        this.schema = KafkaHelper.getKafkaSchemaByTopic(kafkaEndpoint, kafkaResource);
+        this.writer = new GenericDatumWriter<>(schema);
+        this.producer = new org.apache.kafka.clients.producer.KafkaProducer<>(properties(kafkaEndpoint, sinkConfig));
+    }
+
+    private static Properties properties(KafkaEndpoint kafkaEndpoint, KafkaSinkConfig sinkConfig) {
+        Properties props = KafkaHelper.sslProperties(kafkaEndpoint);
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaEndpoint.brokerEndpoint);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.LINGER_MS_CONFIG, sinkConfig.lingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, sinkConfig.batchBytes);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, sinkConfig.compression);
+        return props;
+    }
+
+    @Override
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public void append(GenericRecord record) {
+        producer.send(new ProducerRecord<String, byte[]>(topic, serialize(record)));
+    }
+
+    @Override
+    public void append(GenericRecord record, Ack ack) {
+        producer.send(new ProducerRecord<String, byte[]>(topic, serialize(record)),
+                (metadata, ex) -> ack.done(ex));
+    }
+
+    private byte[] serialize(GenericRecord record) {
+        out.reset();
+        encoder = EncoderFactory.get().binaryEncoder(out, encoder);
+        try {
+            writer.write(record, encoder);
+            encoder.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        producer.close();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.kafka.avro;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.IOException;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+/**
+ * Incremental framing of a stream of binary avro records. Record boundaries are found by walking the schema over the
+ * bytes, so a partial record at the end of the buffer is detected without decoding it (and without an EOFException).
+ * The reader and decoder are created once per schema and reused for every record. Bytes that do not yet form a full
+ * record stay in a pooled cumulative buffer.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class AvroFramer {
+
+    private static final int INCOMPLETE = -1;
+
+    private final Schema schema;
+    private final GenericDatumReader<GenericRecord> reader;
+    private BinaryDecoder decoder;
+    private final ByteBuf cumulation;
+    //stream position of the cumulation reader index
+    private long parsedPos = 0;
+
+    public AvroFramer(Schema schema) {
+        this.schema = schema;
+        this.reader = new GenericDatumReader<>(schema);
+        this.cumulation = PooledByteBufAllocator.DEFAULT.heapBuffer();
+    }
+
+    public void append(byte[] data) {
+        cumulation.writeBytes(data);
+    }
+
+    /**
+     * @param records parsed records are added here
+     * @param maxRecords stop after this many records
+     * @return number of records parsed
+     */
+    public int next(List<GenericRecord> records, int maxRecords) {
+        return next(records, null, maxRecords);
+    }
+
+    /**
+     * @param recordEnds if not null - the stream position right after each parsed record is added here
+     */
+    public int next(List<GenericRecord> records, List<Long> recordEnds, int maxRecords) {
+        int parsed = 0;
+        while (parsed < maxRecords) {
+            int start = cumulation.readerIndex();
+            int end = skip(schema, start, cumulation.writerIndex());
+            if (end == INCOMPLETE || end == start) {
+                break;
+            }
+            decoder = DecoderFactory.get().binaryDecoder(cumulation.array(), cumulation.arrayOffset() + start,
+                end - start, decoder);
+            try {
+                records.add(reader.read(null, decoder));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            cumulation.readerIndex(end);
+            parsedPos += end - start;
+            if (recordEnds != null) {
+                recordEnds.add(parsedPos);
+            }
+            parsed++;
+        }
+        //reclaim space of parsed records, the buffer itself is kept
+        if (cumulation.readerIndex() > cumulation.capacity() / 2) {
+            cumulation.discardReadBytes();
+        }
+        return parsed;
+    }
+
+    /**
+     * @return stream bytes consumed by records returned so far
+     */
+    public long parsedPos() {
+        return parsedPos;
+    }
+
+    public int leftover() {
+        return cumulation.readableBytes();
+    }
+
+    public void release() {
+        cumulation.release();
+    }
+
+    //**************************************************************************
+    /**
+     * @return position after the value of the given schema starting at pos or INCOMPLETE if limit is reached first
+     */
+    private int skip(Schema s, int pos, int limit) {
+        switch (s.getType()) {
+            case NULL:
+                return pos;
+            case BOOLEAN:
+                return fixed(pos, 1, limit);
+            case INT:
+            case LONG:
+            case ENUM:
+                return varint(pos, limit);
+            case FLOAT:
+                return fixed(pos, 4, limit);
+            case DOUBLE:
+                return fixed(pos, 8, limit);
+            case FIXED:
+                return fixed(pos, s.getFixedSize(), limit);
+            case STRING:
+            case BYTES:
+                return lengthPrefixed(pos, limit);
+            case UNION: {
+                int next = varint(pos, limit);
+                if (next == INCOMPLETE) {
+                    return INCOMPLETE;
+                }
+                return skip(s.getTypes().get((int) readVarint(pos)), next, limit);
+            }
+            case RECORD: {
+                int next = pos;
+                for (Schema.Field field : s.getFields()) {
+                    next = skip(field.schema(), next, limit);
+                    if (next == INCOMPLETE) {
+                        return INCOMPLETE;
+                    }
+                }
+                return next;
+            }
+            case ARRAY:
+            case MAP:
+                return skipBlocks(s, pos, limit);
+            default:
+                throw new IllegalArgumentException("unknown avro type:" + s.getType());
+        }
+    }
+
+    private int skipBlocks(Schema s, int pos, int limit) {
+        int next = pos;
+        while (true) {
+            int countEnd = varint(next, limit);
+            if (countEnd == INCOMPLETE) {
+                return INCOMPLETE;
+            }
+            long count = readVarint(next);
+            next = countEnd;
+            if (count == 0) {
+                return next;
+            }
+            if (count < 0) {
+                //block prefixed by its size in bytes
+                int sizeEnd = varint(next, limit);
+                if (sizeEnd == INCOMPLETE) {
+                    return INCOMPLETE;
+                }
+                next = fixed(sizeEnd, readVarint(next), limit);
+                if (next == INCOMPLETE) {
+                    return INCOMPLETE;
+                }
+                continue;
+            }
+            for (long i = 0; i < count; i++) {
+                if (Schema.Type.MAP.equals(s.getType())) {
+                    next = lengthPrefixed(next, limit);
+                    if (next == INCOMPLETE) {
+                        return INCOMPLETE;
+                    }
+                }
+                Schema item = Schema.Type.MAP.equals(s.getType()) ? s.getValueType() : s.getElementType();
+                next = skip(item, next, limit);
+                if (next == INCOMPLETE) {
+                    return INCOMPLETE;
+                }
+            }
+        }
+    }
+
+    private int lengthPrefixed(int pos, int limit) {
+        int next = varint(pos, limit);
+        if (next == INCOMPLETE) {
+            return INCOMPLETE;
+        }
+        return fixed(next, readVarint(pos), limit);
+    }
+
+    private int fixed(int pos, long size, int limit) {
+        if (size < 0 || pos + size > limit) {
+            return INCOMPLETE;
+        }
+        return (int) (pos + size);
+    }
+
+    private int varint(int pos, int limit) {
+        int next = pos;
+        while (next < limit) {
+            byte b = cumulation.getByte(next++);
+            if ((b & 0x80) == 0) {
+                return next;
+            }
+        }
+        return INCOMPLETE;
+    }
+
+    /**
+     * zig zag varint - only call after varint found it complete
+     */
+    private long readVarint(int pos) {
+        long raw = 0;
+        int shift = 0;
+        int next = pos;
+        byte b;
+        do {
+            b = cumulation.getByte(next++);
+            raw |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -29,4 +29,23 @@ import org.apache.avro.generic.GenericRecord;
 public interface AvroMsgProducer {
     public Schema getSchema();
     public void append(GenericRecord record);
+
+    /**
+     * the ack might be called from another thread (async producers)
+     */
+    public default void append(GenericRecord record, Ack ack) {
+        append(record);
+        ack.done(null);
+    }
+
+    public default void close() {
+    }
+
+    public static interface Ack {
+
+        /**
+         * @param cause null on success
+         */
+        public void done(Exception cause);
+    }
 }
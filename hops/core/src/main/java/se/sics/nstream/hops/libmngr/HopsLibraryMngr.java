@@ -29,6 +29,7 @@ import se.sics.kompics.ComponentProxy;
 import se.sics.kompics.Handler;
 import se.sics.kompics.Negative;
 import se.sics.kompics.Positive;
+import se.sics.kompics.Promise;
 import se.sics.kompics.config.Config;
 import se.sics.kompics.fsm.FSMException;
 import se.sics.kompics.fsm.MultiFSM;
@@ -45,6 +46,7 @@ import se.sics.nstream.hops.library.HopsTorrentPort;
 import se.sics.nstream.hops.library.LibraryCtrl;
 import se.sics.nstream.hops.library.LibraryType;
 import se.sics.nstream.hops.library.Torrent;
+import se.sics.nstream.hops.library.event.core.HopsTorrentStopEvent;
 import se.sics.nstream.hops.storage.gcp.GCPConfig;
 import se.sics.nstream.library.disk.DiskLibrary;
 import se.sics.nstream.library.endpointmngr.EndpointIdRegistry;
@@ -54,6 +56,8 @@ import se.sics.nstream.library.restart.TorrentRestart;
 import se.sics.nstream.library.restart.TorrentRestartPort;
 import se.sics.nstream.library.util.TorrentState;
 import se.sics.nstream.mngr.util.ElementSummary;
+import se.sics.nstream.torrent.TorrentMngrPort;
+import se.sics.nstream.torrent.event.DormantTorrent;
 import se.sics.nstream.torrent.tracking.TorrentStatusPort;
 import se.sics.nstream.torrent.tracking.event.StatusSummaryEvent;
 import se.sics.nstream.util.TorrentExtendedStatus;
@@ -80,7 +84,7 @@ public class HopsLibraryMngr {
     this.logPrefix = logPrefix;
     this.config = config;
     this.selfAdr = selfAdr;
-    this.restart = new Restart(proxy);
+    this.restart = new Restart(proxy, config);
 
     try {
       hopsLibraryConfig = HopsLibraryKConfig.read(config).checkedGet();
@@ -125,48 +129,132 @@ public class HopsLibraryMngr {
     library.stop();
   }
 
+  /**
+   * Restarts the torrents of the library a few at a time - in-progress downloads first. With lazy seeding the
+   * seeding torrents are only registered as dormant and restarted when a leecher asks for them. A torrent stopped
+   * before its restart was sent is dropped from the queue.
+   */
   public static class Restart {
 
     private static final Logger LOG = LoggerFactory.getLogger(HopsLibraryMngr.class);
     private String logPrefix = "";
 
     private final ComponentProxy proxy;
+    private final RestartConfig restartConfig;
+    private final RestartQueue queue;
     private Positive<TorrentRestartPort> restartPort;
+    private Positive<TorrentMngrPort> torrentMngrPort;
+    private Negative<HopsTorrentPort> libraryCtrlPort;
+    private LibraryCtrl library;
+    private long startedAt;
+    private boolean seeding = false;
 
-    public Restart(ComponentProxy proxy) {
+    public Restart(ComponentProxy proxy, Config config) {
       this.proxy = proxy;
+      this.restartConfig = new RestartConfig(config);
+      this.queue = new RestartQueue(restartConfig.concurrency);
     }
 
     public void setup() {
       LOG.info("{}restart init", logPrefix);
       restartPort = proxy.getNegative(TorrentRestartPort.class).getPair();
+      torrentMngrPort = proxy.getNegative(TorrentMngrPort.class).getPair();
+      libraryCtrlPort = proxy.getPositive(HopsTorrentPort.class).getPair();
       proxy.subscribe(handleDownloadRestartSuccess, restartPort);
       proxy.subscribe(handleDownloadRestartFail, restartPort);
       proxy.subscribe(handleUploadRestartSuccess, restartPort);
       proxy.subscribe(handleUploadRestartFail, restartPort);
+      proxy.subscribe(handleWakeup, torrentMngrPort);
+      proxy.subscribe(handleStop, libraryCtrlPort);
     }
 
     public void start(LibraryCtrl library, Optional<GCPConfig> config) {
       LOG.info("{}restart start", logPrefix);
+      this.library = library;
+      startedAt = System.currentTimeMillis();
       Map<OverlayId, Torrent> torrents = library.start();
 
       for (Map.Entry<OverlayId, Torrent> t : torrents.entrySet()) {
         Torrent torrent = t.getValue();
-        LOG.debug("{}restarting torrent:{}", logPrefix, t.getKey());
         if (t.getValue().getTorrentStatus().equals(TorrentState.UPLOADING)) {
-          proxy.trigger(new TorrentRestart.UpldReq(t.getKey(), torrent.torrentName, torrent.projectId,
-            torrent.datasetId, torrent.getPartners(), torrent.getManifestStream()), restartPort);
+          TorrentRestart.UpldReq req = new TorrentRestart.UpldReq(t.getKey(), torrent.torrentName, torrent.projectId,
+            torrent.datasetId, torrent.getPartners(), torrent.getManifestStream());
+          if (restartConfig.lazySeeding) {
+            queue.dormant(req);
+            proxy.trigger(new DormantTorrent.Register(t.getKey()), torrentMngrPort);
+          } else {
+            queue.upload(req);
+          }
         } else if (t.getValue().getTorrentStatus().equals(TorrentState.DOWNLOADING)) {
-          proxy.trigger(new TorrentRestart.DwldReq(t.getKey(), torrent.torrentName, torrent.projectId,
-            torrent.datasetId, torrent.getPartners(), torrent.getManifestStream()), restartPort);
+          queue.download(new TorrentRestart.DwldReq(t.getKey(), torrent.torrentName, torrent.projectId,
+            torrent.datasetId, torrent.getPartners(), torrent.getManifestStream()));
+        }
+      }
+      LOG.info("{}restart - queued:{} dormant:{} concurrency:{}", new Object[]{logPrefix,
+        queue.pending(), queue.dormant(), restartConfig.concurrency});
+      next();
+    }
+
+    private void next() {
+      for (Promise req : queue.next()) {
+        LOG.debug("{}restarting:{}", logPrefix, req);
+        proxy.trigger(req, restartPort);
+      }
+    }
+
+    private void done(OverlayId torrentId, boolean success, boolean upload) {
+      long wokenAt = queue.done(torrentId, success);
+      long now = System.currentTimeMillis();
+      LOG.info("{}restart progress - restarted:{} failed:{} total:{} pending:{} elapsed:{}ms", new Object[]{logPrefix,
+        queue.restarted(), queue.failed(), queue.total(), queue.pending(), now - startedAt});
+      if (success && upload) {
+        if (!seeding) {
+          seeding = true;
+          LOG.info("{}restart - time to first seed:{}ms", logPrefix, now - startedAt);
+        }
+        if (wokenAt != -1) {
+          LOG.info("{}restart - dormant torrent:{} seeding:{}ms after the first leecher", new Object[]{logPrefix,
+            torrentId, now - wokenAt});
         }
       }
+      next();
     }
 
+    Handler handleWakeup = new Handler<DormantTorrent.Wakeup>() {
+      @Override
+      public void handle(DormantTorrent.Wakeup event) {
+        if (library.containsTorrent(event.torrentId)) {
+          //the user started it again in the meantime
+          if (queue.stop(event.torrentId)) {
+            LOG.info("{}dormant torrent:{} already active", logPrefix, event.torrentId);
+          }
+          return;
+        }
+        if (queue.wakeup(event.torrentId, System.currentTimeMillis())) {
+          LOG.info("{}waking up dormant torrent:{}", logPrefix, event.torrentId);
+          next();
+        }
+      }
+    };
+
+    /**
+     * the library fsm answers the stop - here the torrent only leaves the restart queue or the dormant set
+     */
+    Handler handleStop = new Handler<HopsTorrentStopEvent.Request>() {
+      @Override
+      public void handle(HopsTorrentStopEvent.Request req) {
+        if (queue.stop(req.torrentId)) {
+          LOG.info("{}dormant torrent:{} stopped", logPrefix, req.torrentId);
+          proxy.trigger(new DormantTorrent.Unregister(req.torrentId), torrentMngrPort);
+        }
+      }
+    };
+
     Handler handleDownloadRestartSuccess = new Handler<TorrentRestart.DwldSuccess>() {
       @Override
       public void handle(TorrentRestart.DwldSuccess resp) {
         LOG.info("{}restarted torrent:{}", logPrefix, resp.req.torrentId);
+        done(resp.req.torrentId, true, false);
       }
     };
 
@@ -174,6 +262,7 @@ public class HopsLibraryMngr {
       @Override
       public void handle(TorrentRestart.DwldFail resp) {
         LOG.info("{}failed to restart torrent:{}", logPrefix, resp.req.torrentId);
+        done(resp.req.torrentId, false, false);
       }
     };
 
@@ -181,6 +270,7 @@ public class HopsLibraryMngr {
       @Override
       public void handle(TorrentRestart.UpldSuccess resp) {
         LOG.info("{}restarted torrent:{}", logPrefix, resp.req.torrentId);
+        done(resp.req.torrentId, true, true);
       }
     };
 
@@ -188,6 +278,7 @@ public class HopsLibraryMngr {
       @Override
       public void handle(TorrentRestart.UpldFail resp) {
         LOG.info("{}failed to restart torrent:{}", logPrefix, resp.req.torrentId);
+        done(resp.req.torrentId, false, true);
       }
     };
   }
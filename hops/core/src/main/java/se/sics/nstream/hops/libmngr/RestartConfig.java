@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.libmngr;
+
+import se.sics.kompics.config.Config;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class RestartConfig {
+
+  public static class Names {
+
+    public static final String CONCURRENCY = "hops.library.restart.concurrency";
+    public static final String LAZY_SEEDING = "hops.library.restart.lazySeeding";
+  }
+
+  /**
+   * torrents being set up at the same time - each reads its manifest and opens its storage endpoints
+   */
+  public static final int DEFAULT_CONCURRENCY = 4;
+  /**
+   * seeding torrents stay dormant until a leecher asks for them - they are not listed in the library until then
+   */
+  public static final boolean DEFAULT_LAZY_SEEDING = false;
+
+  public final int concurrency;
+  public final boolean lazySeeding;
+
+  public RestartConfig(Config config) {
+    concurrency = Math.max(1, config.getValueOrDefault(Names.CONCURRENCY, DEFAULT_CONCURRENCY));
+    lazySeeding = config.getValueOrDefault(Names.LAZY_SEEDING, DEFAULT_LAZY_SEEDING);
+  }
+}
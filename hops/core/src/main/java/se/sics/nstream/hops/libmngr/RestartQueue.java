@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.libmngr;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import se.sics.kompics.Promise;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.nstream.library.restart.TorrentRestart;
+
+/**
+ * Bookkeeping of the staged restart - the requests still to send, the ones in flight and the dormant seeders.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+class RestartQueue {
+
+  private final int concurrency;
+  //downloads ahead of uploads - woken seeders ahead of all
+  private final LinkedList<Promise> pending = new LinkedList<>();
+  private final LinkedList<Promise> uploads = new LinkedList<>();
+  private final Map<OverlayId, TorrentRestart.UpldReq> dormant = new HashMap<>();
+  private final Map<OverlayId, Long> woken = new HashMap<>();
+  private int ongoing = 0;
+  private int total = 0;
+  private int restarted = 0;
+  private int failed = 0;
+
+  RestartQueue(int concurrency) {
+    this.concurrency = concurrency;
+  }
+
+  void download(TorrentRestart.DwldReq req) {
+    pending.add(req);
+    total++;
+  }
+
+  void upload(TorrentRestart.UpldReq req) {
+    uploads.add(req);
+    total++;
+  }
+
+  void dormant(TorrentRestart.UpldReq req) {
+    dormant.put(req.torrentId, req);
+  }
+
+  boolean isDormant(OverlayId torrentId) {
+    return dormant.containsKey(torrentId);
+  }
+
+  /**
+   * @return false if the torrent is not dormant
+   */
+  boolean wakeup(OverlayId torrentId, long now) {
+    TorrentRestart.UpldReq req = dormant.remove(torrentId);
+    if (req == null) {
+      return false;
+    }
+    woken.put(torrentId, now);
+    total++;
+    pending.addFirst(req);
+    return true;
+  }
+
+  /**
+   * the torrent was stopped before its restart was sent - it is not restarted anymore
+   *
+   * @return true if the torrent was dormant
+   */
+  boolean stop(OverlayId torrentId) {
+    total -= remove(pending, torrentId) + remove(uploads, torrentId);
+    return dormant.remove(torrentId) != null;
+  }
+
+  private static int remove(List<Promise> reqs, OverlayId torrentId) {
+    int removed = 0;
+    Iterator<Promise> it = reqs.iterator();
+    while (it.hasNext()) {
+      if (torrentId.equals(torrentId(it.next()))) {
+        it.remove();
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  private static OverlayId torrentId(Promise req) {
+    if (req instanceof TorrentRestart.DwldReq) {
+      return ((TorrentRestart.DwldReq) req).torrentId;
+    }
+    return ((TorrentRestart.UpldReq) req).torrentId;
+  }
+
+  /**
+   * @return the requests to send now - counted as ongoing
+   */
+  List<Promise> next() {
+    List<Promise> next = new LinkedList<>();
+    while (ongoing < concurrency && (!pending.isEmpty() || !uploads.isEmpty())) {
+      next.add(pending.isEmpty() ? uploads.removeFirst() : pending.removeFirst());
+      ongoing++;
+    }
+    return next;
+  }
+
+  /**
+   * @return when the torrent was woken up by a leecher, -1 if it was not dormant
+   */
+  long done(OverlayId torrentId, boolean success) {
+    ongoing--;
+    if (success) {
+      restarted++;
+    } else {
+      failed++;
+    }
+    Long wokenAt = woken.remove(torrentId);
+    return wokenAt == null ? -1 : wokenAt;
+  }
+
+  int pending() {
+    return pending.size() + uploads.size();
+  }
+
+  int dormant() {
+    return dormant.size();
+  }
+
+  int total() {
+    return total;
+  }
+
+  int restarted() {
+    return restarted;
+  }
+
+  int failed() {
+    return failed;
+  }
+}
@@ -19,7 +19,6 @@
 package se.sics.nstream.hops.libmngr.fsm;
 
 import com.google.common.base.Optional;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -27,9 +26,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.hdfs.DistributedFileSystem;
-import org.apache.hadoop.security.UserGroupInformation;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +51,7 @@ import se.sics.nstream.gcp.GCPComp;
 import se.sics.nstream.gcp.GCPFED;
 import se.sics.nstream.hops.HopsFED;
 import se.sics.nstream.hops.hdfs.HDFSComp;
+import se.sics.nstream.hops.storage.hdfs.HDFSClientPool;
 import se.sics.nstream.hops.storage.hdfs.HDFSHelper;
 import se.sics.nstream.hops.hdfs.disk.DiskComp;
 import se.sics.nstream.hops.hdfs.disk.DiskFED;
@@ -614,13 +611,8 @@ public class LibTHandlers {
       return DelaGCPHelper.readManifest(gcpEndpoint, gcpResource);
     } else {
       HDFSEndpoint hdfsEndpoint = (HDFSEndpoint) manifestStream.endpoint;
-      //TODO Alex - creating too many ugi's
-      UserGroupInformation ugi = UserGroupInformation.createRemoteUser(hdfsEndpoint.user);
-      try(DistributedFileSystem dfs = (DistributedFileSystem) FileSystem.get(hdfsEndpoint.hdfsConfig)) {
-        return convert(HDFSHelper.readManifest(dfs, ugi, hdfsEndpoint, (HDFSResource) manifestStream.resource));
-      } catch (IOException ex) {
-        throw new RuntimeException(ex);
-      }
+      return convert(HDFSClientPool.instance().with(hdfsEndpoint,
+        (client) -> HDFSHelper.readManifest(client.dfs, client.ugi, hdfsEndpoint, (HDFSResource) manifestStream.resource)));
     }
   }
   
@@ -647,13 +639,8 @@ public class LibTHandlers {
       ManifestJSON manifestJSON = ManifestHelper.getManifestJSON(manifest.manifestByte);
       HDFSEndpoint hdfsEndpoint = (HDFSEndpoint) manifestStream.endpoint;
       HDFSResource hdfsResource = (HDFSResource) manifestStream.resource;
-      //TODO Alex - creating too many ugi's
-      UserGroupInformation ugi = UserGroupInformation.createRemoteUser(hdfsEndpoint.user);
-      try(DistributedFileSystem dfs = (DistributedFileSystem) FileSystem.get(hdfsEndpoint.hdfsConfig)) {
-        return convert(HDFSHelper.writeManifest(dfs, ugi, hdfsEndpoint, hdfsResource, manifestJSON));
-      } catch (IOException ex) {
-        throw new RuntimeException(ex);
-      }
+      return convert(HDFSClientPool.instance().with(hdfsEndpoint,
+        (client) -> HDFSHelper.writeManifest(client.dfs, client.ugi, hdfsEndpoint, hdfsResource, manifestJSON)));
     }
   }
 
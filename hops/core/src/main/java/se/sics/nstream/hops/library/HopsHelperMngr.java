@@ -18,10 +18,8 @@
  */
 package se.sics.nstream.hops.library;
 
-import java.io.IOException;
 import java.util.Random;
 import org.apache.avro.Schema;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.slf4j.Logger;
@@ -32,6 +30,7 @@ import se.sics.kompics.Negative;
 import se.sics.ktoolbox.util.result.Result;
 import se.sics.ktoolbox.util.trysf.Try;
 import se.sics.ktoolbox.util.trysf.TryHelper;
+import se.sics.nstream.hops.storage.hdfs.HDFSClientPool;
 import se.sics.nstream.hops.storage.hdfs.HDFSHelper;
 import se.sics.nstream.hops.kafka.KafkaHelper;
 import se.sics.nstream.hops.kafka.avro.AvroParser;
@@ -84,13 +83,9 @@ public class HopsHelperMngr {
         @Override
         public void handle(HDFSFileDeleteEvent.Request req) {
             LOG.trace("{}received:{}", logPrefix, req);
-            try (DistributedFileSystem dfs = (DistributedFileSystem) FileSystem.get(req.hdfsEndpoint.hdfsConfig)) {
-              UserGroupInformation ugi = UserGroupInformation.createRemoteUser(req.hdfsEndpoint.user);
-              Try<Boolean> result = HDFSHelper.delete(dfs, ugi, req.hdfsEndpoint, req.hdfsResource);
-              proxy.answer(req, req.answer(convert(result)));
-            } catch (IOException ex) {
-              throw new RuntimeException(ex);
-            }
+            Try<Boolean> result = HDFSClientPool.instance().with(req.hdfsEndpoint,
+              (client) -> HDFSHelper.delete(client.dfs, client.ugi, req.hdfsEndpoint, req.hdfsResource));
+            proxy.answer(req, req.answer(convert(result)));
         }
     };
 
@@ -98,14 +93,9 @@ public class HopsHelperMngr {
         @Override
         public void handle(HDFSFileCreateEvent.Request req) {
             LOG.trace("{}received:{}", logPrefix, req);
-            try (DistributedFileSystem dfs = (DistributedFileSystem) FileSystem.get(req.hdfsEndpoint.hdfsConfig)) {
-              UserGroupInformation ugi = UserGroupInformation.createRemoteUser(req.hdfsEndpoint.user);
-              Try<Boolean> result 
-                = HDFSHelper.createWithLength(dfs, ugi, req.hdfsEndpoint, req.hdfsResource,req.fileSize);
-              proxy.answer(req, req.answer(convert(result)));
-            } catch (IOException ex) {
-              throw new RuntimeException(ex);
-            }
+            Try<Boolean> result = HDFSClientPool.instance().with(req.hdfsEndpoint,
+              (client) -> HDFSHelper.createWithLength(client.dfs, client.ugi, req.hdfsEndpoint, req.hdfsResource, req.fileSize));
+            proxy.answer(req, req.answer(convert(result)));
         }
     };
 
@@ -114,9 +104,14 @@ public class HopsHelperMngr {
         public void handle(HDFSAvroFileCreateEvent.Request req) {
             LOG.trace("{}received:{}", logPrefix, req);
             Random rand = new Random(1234);
-            try (DistributedFileSystem dfs = (DistributedFileSystem) FileSystem.get(req.hdfsEndpoint.hdfsConfig)) {
-              UserGroupInformation ugi = UserGroupInformation.createRemoteUser(req.hdfsEndpoint.user);
-
+            Try<HDFSClientPool.Client> client = HDFSClientPool.instance().acquire(req.hdfsEndpoint);
+            if (client.isFailure()) {
+              proxy.answer(req, req.answer(TryHelper.tryError(client)));
+              return;
+            }
+            DistributedFileSystem dfs = client.get().dfs;
+            UserGroupInformation ugi = client.get().ugi;
+            try {
               Try<Boolean> createResult = HDFSHelper.simpleCreate(dfs, ugi, req.hdfsEndpoint, req.hdfsResource);
               if (!createResult.isSuccess()) {
                   proxy.answer(req, req.answer(TryHelper.tryError(createResult)));
@@ -142,8 +137,8 @@ public class HopsHelperMngr {
                   }
               }
               proxy.answer(req, req.answer(filesize));
-            } catch (IOException ex) {
-              throw new RuntimeException(ex);
+            } finally {
+              HDFSClientPool.instance().release(client.get());
             }
         }
     };
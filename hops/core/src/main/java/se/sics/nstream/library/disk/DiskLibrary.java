@@ -28,8 +28,6 @@ import se.sics.ktoolbox.util.network.KAddress;
 import se.sics.ktoolbox.util.result.Result;
 import se.sics.nstream.hops.library.LibraryCtrl;
 import se.sics.nstream.hops.library.Torrent;
-import se.sics.nstream.hops.library.util.LibrarySummaryHelper;
-import se.sics.nstream.hops.library.util.LibrarySummaryJSON;
 import se.sics.nstream.library.util.TorrentState;
 import se.sics.nstream.storage.durable.util.MyStream;
 import se.sics.nstream.util.TorrentExtendedStatus;
@@ -42,6 +40,7 @@ public class DiskLibrary implements LibraryCtrl {
   private final OverlayIdFactory torrentIdFactory;
   private final Config config;
   private final DiskLibraryConfig diskLibraryConfig;
+  private final LibraryJournal journal;
 
   private Map<OverlayId, Torrent> torrents = new HashMap<>();
 
@@ -49,6 +48,7 @@ public class DiskLibrary implements LibraryCtrl {
     this.torrentIdFactory = torrentIdFactory;
     this.config = config;
     this.diskLibraryConfig = new DiskLibraryConfig(config);
+    this.journal = new LibraryJournal(diskLibraryConfig, torrentIdFactory, config);
   }
 
   @Override
@@ -58,14 +58,15 @@ public class DiskLibrary implements LibraryCtrl {
 
   @Override
   public void stop() {
+    journal.close();
   }
 
   private Map<OverlayId, Torrent> readTorrents(Config config) {
-    Result<LibrarySummaryJSON> librarySummary = LibrarySummaryHelper.readTorrentList(diskLibraryConfig.librarySummary);
-    if (!librarySummary.isSuccess()) {
+    Result<Map<OverlayId, Torrent>> library = journal.recover();
+    if (!library.isSuccess()) {
       throw new RuntimeException("TODO fix me - corrupted library");
     }
-    return LibrarySummaryHelper.fromSummary(librarySummary.getValue(), torrentIdFactory, config);
+    return library.getValue();
   }
 
   @Override
@@ -95,8 +96,9 @@ public class DiskLibrary implements LibraryCtrl {
   @Override
   public void killed(OverlayId torrentId) {
     Torrent torrent = torrents.remove(torrentId);
-    if (torrent != null) {
-      updateSummary();
+    //a torrent stopped before its restart is still in the snapshot
+    if (torrent != null || journal.isInactive(torrentId)) {
+      checkJournal(journal.remove(torrentId, torrents));
     }
   }
 
@@ -112,7 +114,7 @@ public class DiskLibrary implements LibraryCtrl {
     Torrent torrent = torrents.get(torrentId);
     torrent.setTorrentStatus(TorrentState.UPLOADING);
     torrent.setManifestStream(manifestStream);
-    updateSummary();
+    checkJournal(journal.put(torrentId, torrent, torrents));
   }
 
   @Override
@@ -129,20 +131,17 @@ public class DiskLibrary implements LibraryCtrl {
     Torrent torrent = torrents.get(torrentId);
     torrent.setTorrentStatus(TorrentState.DOWNLOADING);
     torrent.setManifestStream(manifestStream);
-    updateSummary();
+    checkJournal(journal.put(torrentId, torrent, torrents));
   }
 
   @Override
   public void finishDownload(OverlayId torrentId) {
     Torrent torrent = torrents.get(torrentId);
     torrent.setTorrentStatus(TorrentState.UPLOADING);
-    updateSummary();
+    checkJournal(journal.put(torrentId, torrent, torrents));
   }
 
-  private void updateSummary() {
-    LibrarySummaryJSON summaryResult = LibrarySummaryHelper.toSummary(torrents);
-    Result<Boolean> writeResult 
-      = LibrarySummaryHelper.writeTorrentList(diskLibraryConfig.librarySummary, summaryResult);
+  private void checkJournal(Result<Boolean> writeResult) {
     if (!writeResult.isSuccess()) {
       //TODO - try again next time?
     }
@@ -26,14 +26,32 @@ import se.sics.kompics.config.Config;
 public class DiskLibraryConfig {
   public static class Names {
     public static final String LIBRARY_SUMMARY = "hops.library.disk.summary";
+    public static final String JOURNAL = "hops.library.disk.journal";
+    public static final String COMPACT_AFTER = "hops.library.disk.compactAfter";
+    public static final String FSYNC = "hops.library.disk.fsync";
   }
+  public static final String JOURNAL_SUFFIX = ".journal";
+  public static final int DEFAULT_COMPACT_AFTER = 1000;
+  public static final boolean DEFAULT_FSYNC = true;
   
   public final String librarySummary;
+  /**
+   * defaults to the summary path with the .journal suffix
+   */
+  public final String journal;
+  /**
+   * journal entries before they are folded into the summary snapshot
+   */
+  public final int compactAfter;
+  public final boolean fsync;
   
   public DiskLibraryConfig(Config config) {
     librarySummary = config.getValue(Names.LIBRARY_SUMMARY, String.class);
     if(librarySummary == null) {
       throw new RuntimeException("disk library path not configured");
     }
+    journal = config.getValueOrDefault(Names.JOURNAL, librarySummary + JOURNAL_SUFFIX);
+    compactAfter = Math.max(1, config.getValueOrDefault(Names.COMPACT_AFTER, DEFAULT_COMPACT_AFTER));
+    fsync = config.getValueOrDefault(Names.FSYNC, DEFAULT_FSYNC);
   }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.library.disk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.kompics.config.Config;
+import se.sics.ktoolbox.util.identifiable.BasicBuilders;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayIdFactory;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.nstream.hops.library.Torrent;
+import se.sics.nstream.hops.library.util.LibrarySummaryHelper;
+import se.sics.nstream.hops.library.util.LibrarySummaryJSON;
+
+/**
+ * Append only log of library changes next to the library summary, which becomes a snapshot. A change costs one journal
+ * line instead of a rewrite of the whole summary. The journal is compacted into the snapshot on start and once it
+ * grows past the configured number of entries.
+ * <p>
+ * Entries are full torrent states (or removals), so replaying an entry twice is harmless - a crash between the
+ * snapshot rename and the journal truncate only replays entries already in the snapshot. A torn last line is
+ * ignored.
+ * <p>
+ * Recovered torrents that are not active yet - queued or dormant restarts - are kept in every snapshot until a journal
+ * entry replaces or removes them.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class LibraryJournal {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LibraryJournal.class);
+  private static final String PUT = "PUT";
+  private static final String DEL = "DEL";
+
+  private final DiskLibraryConfig libConfig;
+  private final OverlayIdFactory torrentIdFactory;
+  private final Config config;
+  private final Gson gson = new Gson();
+  private FileOutputStream journalOut;
+  private Writer journal;
+  private int entries = 0;
+  //recovered state not superseded by a journal entry since
+  private final Map<OverlayId, Torrent> inactive = new HashMap<>();
+
+  public LibraryJournal(DiskLibraryConfig libConfig, OverlayIdFactory torrentIdFactory, Config config) {
+    this.libConfig = libConfig;
+    this.torrentIdFactory = torrentIdFactory;
+    this.config = config;
+  }
+
+  /**
+   * snapshot plus journal - the result is compacted into a fresh snapshot before the journal is opened for appends
+   */
+  public Result<Map<OverlayId, Torrent>> recover() {
+    Result<LibrarySummaryJSON> snapshot = LibrarySummaryHelper.readTorrentList(libConfig.librarySummary);
+    if (!snapshot.isSuccess()) {
+      return (Result) snapshot;
+    }
+    Map<OverlayId, Torrent> torrents
+      = LibrarySummaryHelper.fromSummary(snapshot.getValue(), torrentIdFactory, config);
+    int replayed = 0;
+    File journalFile = new File(libConfig.journal);
+    if (journalFile.isFile()) {
+      try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.isEmpty()) {
+            continue;
+          }
+          EntryJSON entry;
+          try {
+            entry = gson.fromJson(line, EntryJSON.class);
+          } catch (JsonParseException ex) {
+            //only the last line can be torn - anything after it was never acknowledged
+            LOG.warn("library journal:{} torn entry after:{} entries - ignoring rest", libConfig.journal, replayed);
+            break;
+          }
+          apply(torrents, entry);
+          replayed++;
+        }
+      } catch (IOException ex) {
+        return Result.externalSafeFailure(ex);
+      }
+    }
+    LOG.info("library recovered snapshot:{} journal entries:{}", libConfig.librarySummary, replayed);
+    inactive.clear();
+    inactive.putAll(torrents);
+    Result<Boolean> compacted = compact(torrents);
+    if (!compacted.isSuccess()) {
+      return (Result) compacted;
+    }
+    return Result.success(torrents);
+  }
+
+  private void apply(Map<OverlayId, Torrent> torrents, EntryJSON entry) {
+    OverlayId torrentId = torrentIdFactory.id(new BasicBuilders.StringBuilder(entry.getBaseId()));
+    torrents.remove(torrentId);
+    if (PUT.equals(entry.getOp()) && entry.getTorrent() != null) {
+      torrents.putAll(LibrarySummaryHelper.fromSummary(entry.getTorrent(), torrentIdFactory, config));
+    }
+  }
+
+  public Result<Boolean> put(OverlayId torrentId, Torrent torrent, Map<OverlayId, Torrent> torrents) {
+    EntryJSON entry = new EntryJSON(PUT, torrentId.baseId.toString(),
+      LibrarySummaryHelper.toSummary(Collections.singletonMap(torrentId, torrent)));
+    inactive.remove(torrentId);
+    return append(entry, torrents);
+  }
+
+  public Result<Boolean> remove(OverlayId torrentId, Map<OverlayId, Torrent> torrents) {
+    inactive.remove(torrentId);
+    return append(new EntryJSON(DEL, torrentId.baseId.toString(), null), torrents);
+  }
+
+  /**
+   * @return true if the torrent was recovered and is not active yet
+   */
+  public boolean isInactive(OverlayId torrentId) {
+    return inactive.containsKey(torrentId);
+  }
+
+  private Result<Boolean> append(EntryJSON entry, Map<OverlayId, Torrent> torrents) {
+    try {
+      if (journal == null) {
+        openJournal();
+      }
+      journal.write(gson.toJson(entry));
+      journal.write('\n');
+      journal.flush();
+      if (libConfig.fsync) {
+        journalOut.getChannel().force(false);
+      }
+      entries++;
+    } catch (IOException ex) {
+      return Result.externalSafeFailure(ex);
+    }
+    if (entries >= libConfig.compactAfter) {
+      return compact(torrents);
+    }
+    return Result.success(true);
+  }
+
+  /**
+   * snapshot written to a temp file and renamed over the old one - the journal is truncated only after the rename is
+   * durable
+   *
+   * @param torrents the active torrents - merged with the recovered ones that are not active yet
+   */
+  public Result<Boolean> compact(Map<OverlayId, Torrent> torrents) {
+    Map<OverlayId, Torrent> snapshotTorrents = new HashMap<>(torrents);
+    snapshotTorrents.putAll(inactive);
+    Path snapshot = Paths.get(libConfig.librarySummary);
+    Path tmp = Paths.get(libConfig.librarySummary + ".tmp");
+    try {
+      try (FileOutputStream out = new FileOutputStream(tmp.toFile());
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+        gson.toJson(LibrarySummaryHelper.toSummary(snapshotTorrents), writer);
+        writer.flush();
+        out.getChannel().force(true);
+      }
+      Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      syncDir(snapshot.toAbsolutePath().getParent());
+      closeJournal();
+      try (FileOutputStream truncate = new FileOutputStream(libConfig.journal, false)) {
+        truncate.getChannel().force(true);
+      }
+      entries = 0;
+      LOG.debug("library compacted torrents:{} inactive:{}", torrents.size(), inactive.size());
+      return Result.success(true);
+    } catch (IOException ex) {
+      return Result.externalSafeFailure(ex);
+    }
+  }
+
+  /**
+   * the rename lives in the directory entry - without this a crash can bring back the old snapshot after the journal
+   * was truncated. Some platforms cannot open a directory, there the rename is left to the file system.
+   */
+  private static void syncDir(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException ex) {
+      LOG.debug("library dir:{} sync not supported:{}", dir, ex.getMessage());
+    }
+  }
+
+  private void openJournal() throws IOException {
+    journalOut = new FileOutputStream(libConfig.journal, true);
+    journal = new OutputStreamWriter(journalOut, StandardCharsets.UTF_8);
+  }
+
+  public void close() {
+    closeJournal();
+  }
+
+  private void closeJournal() {
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException ex) {
+        LOG.warn("library journal close:{}", ex.getMessage());
+      }
+      journal = null;
+      journalOut = null;
+    }
+  }
+
+  public static class EntryJSON {
+
+    private String op;
+    private String baseId;
+    private LibrarySummaryJSON torrent;
+
+    public EntryJSON() {
+    }
+
+    public EntryJSON(String op, String baseId, LibrarySummaryJSON torrent) {
+      this.op = op;
+      this.baseId = baseId;
+      this.torrent = torrent;
+    }
+
+    public String getOp() {
+      return op;
+    }
+
+    public void setOp(String op) {
+      this.op = op;
+    }
+
+    public String getBaseId() {
+      return baseId;
+    }
+
+    public void setBaseId(String baseId) {
+      this.baseId = baseId;
+    }
+
+    public LibrarySummaryJSON getTorrent() {
+      return torrent;
+    }
+
+    public void setTorrent(LibrarySummaryJSON torrent) {
+      this.torrent = torrent;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.gcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.nstream.FileId;
+import se.sics.nstream.StreamId;
+import se.sics.nstream.TorrentIds;
+import se.sics.nstream.storage.durable.events.DStorageWrite;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class GCPPartUploadsTest {
+
+  private final StreamId streamId;
+
+  {
+    Identifier endpointId = null;
+    FileId fileId = TorrentIds.fileId(null, 0);
+    streamId = TorrentIds.streamId(endpointId, fileId);
+  }
+
+  @Test
+  public void uploadTest() {
+    GCPPartUploads uploads = new GCPPartUploads();
+    DStorageWrite.Request req = new DStorageWrite.Request(streamId, 0, new byte[10]);
+    GCPPartUploads.PendingWrite pending = new GCPPartUploads.PendingWrite(req);
+    Identifier w1 = BasicIdentifiers.eventId();
+    Identifier w2 = BasicIdentifiers.eventId();
+    Identifier c1 = BasicIdentifiers.eventId();
+    uploads.partWrite(w1, pending);
+    uploads.partClose(c1);
+    uploads.partWrite(w2, pending);
+    uploads.complete();
+
+    //answered once all its parts are written
+    Assert.assertNull(uploads.partWriteDone(w1, Result.success(5)));
+    Assert.assertFalse(uploads.ready());
+    Assert.assertSame(req, uploads.partWriteDone(w2, Result.success(5)));
+    //unknown or late part answers are ignored
+    Assert.assertNull(uploads.partWriteDone(w2, Result.success(5)));
+    //compose waits on the part close
+    Assert.assertFalse(uploads.ready());
+    uploads.partCloseDone(c1, Result.success(true));
+    Assert.assertTrue(uploads.ready());
+    Assert.assertFalse(uploads.failed());
+    //ready only once
+    Assert.assertFalse(uploads.ready());
+  }
+
+  @Test
+  public void partWriteFailTest() {
+    GCPPartUploads uploads = new GCPPartUploads();
+    DStorageWrite.Request req1 = new DStorageWrite.Request(streamId, 0, new byte[10]);
+    DStorageWrite.Request req2 = new DStorageWrite.Request(streamId, 10, new byte[10]);
+    GCPPartUploads.PendingWrite pending1 = new GCPPartUploads.PendingWrite(req1);
+    GCPPartUploads.PendingWrite pending2 = new GCPPartUploads.PendingWrite(req2);
+    Identifier w1 = BasicIdentifiers.eventId();
+    Identifier w2 = BasicIdentifiers.eventId();
+    Identifier w3 = BasicIdentifiers.eventId();
+    uploads.partWrite(w1, pending1);
+    uploads.partWrite(w2, pending1);
+    uploads.partWrite(w3, pending2);
+
+    //the failed write is answered right away, without waiting on its other parts
+    Exception cause = new IllegalStateException("upload");
+    Assert.assertSame(req1, uploads.partWriteDone(w1, Result.internalFailure(cause)));
+    Assert.assertTrue(uploads.failed());
+    Assert.assertSame(cause, uploads.failure());
+    Assert.assertNull(uploads.partWriteDone(w2, Result.success(5)));
+    //a later write with successful parts is answered - the caller fails it as the upload failed
+    Assert.assertSame(req2, uploads.partWriteDone(w3, Result.success(10)));
+    Assert.assertTrue(uploads.failed());
+
+    uploads.complete();
+    Assert.assertTrue(uploads.ready());
+    Assert.assertSame(cause, uploads.failure());
+  }
+
+  @Test
+  public void partCloseFailTest() {
+    GCPPartUploads uploads = new GCPPartUploads();
+    DStorageWrite.Request req = new DStorageWrite.Request(streamId, 0, new byte[10]);
+    GCPPartUploads.PendingWrite pending = new GCPPartUploads.PendingWrite(req);
+    Identifier w1 = BasicIdentifiers.eventId();
+    Identifier c1 = BasicIdentifiers.eventId();
+    uploads.partWrite(w1, pending);
+    uploads.partClose(c1);
+    Assert.assertSame(req, uploads.partWriteDone(w1, Result.success(10)));
+    Assert.assertFalse(uploads.failed());
+
+    Exception cause = new IllegalStateException("close");
+    uploads.partCloseDone(c1, Result.internalFailure(cause));
+    //not complete yet
+    Assert.assertFalse(uploads.ready());
+    uploads.complete();
+    Assert.assertTrue(uploads.ready());
+    Assert.assertTrue(uploads.failed());
+    Assert.assertSame(cause, uploads.failure());
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.hdfs.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.ktoolbox.util.result.Result;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DiskIOTest {
+
+    private static final byte[] DATA = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+    private static RandomAccessFile tmpFile() throws IOException {
+        File f = File.createTempFile("disk", ".data");
+        f.deleteOnExit();
+        return new RandomAccessFile(f, "rw");
+    }
+
+    private static void writeData(FileChannel channel) {
+        //one write request with several buffers, followed by a second request
+        Result<Boolean> w1 = DiskIOComp.write(channel, 0, Arrays.asList(Arrays.copyOfRange(DATA, 0, 3),
+                Arrays.copyOfRange(DATA, 3, 6)));
+        Assert.assertTrue(w1.isSuccess());
+        Result<Boolean> w2 = DiskIOComp.write(channel, 6, Arrays.asList(Arrays.copyOfRange(DATA, 6, 10)));
+        Assert.assertTrue(w2.isSuccess());
+    }
+
+    @Test
+    public void channelTest() throws IOException {
+        try (RandomAccessFile raf = tmpFile()) {
+            FileChannel channel = raf.getChannel();
+            writeData(channel);
+            Assert.assertEquals(DATA.length, channel.size());
+
+            Result<byte[]> r = DiskIOComp.read(channel, null, 2, 6);
+            Assert.assertTrue(r.isSuccess());
+            Assert.assertArrayEquals(Arrays.copyOfRange(DATA, 2, 8), r.getValue());
+            //past the end of the file
+            Assert.assertFalse(DiskIOComp.read(channel, null, 8, 3).isSuccess());
+        }
+    }
+
+    @Test
+    public void mappedTest() throws IOException {
+        try (RandomAccessFile raf = tmpFile()) {
+            FileChannel channel = raf.getChannel();
+            writeData(channel);
+            //small segments - reads cross segment boundaries
+            MappedFile mapped = MappedFile.map(channel, DATA.length, 4);
+            Assert.assertTrue(mapped.covers(0, 10));
+            Assert.assertFalse(mapped.covers(8, 3));
+            Assert.assertArrayEquals(Arrays.copyOfRange(DATA, 2, 9), mapped.read(2, 7));
+            Assert.assertArrayEquals(Arrays.copyOfRange(DATA, 4, 8), mapped.read(4, 4));
+            Assert.assertArrayEquals(Arrays.copyOfRange(DATA, 9, 10), mapped.read(9, 1));
+
+            Result<byte[]> r = DiskIOComp.read(channel, mapped, 1, 9);
+            Assert.assertTrue(r.isSuccess());
+            Assert.assertArrayEquals(Arrays.copyOfRange(DATA, 1, 10), r.getValue());
+            //grown after mapping - read outside the mapping goes through the channel
+            Assert.assertTrue(DiskIOComp.write(channel, 10, Arrays.asList(new byte[]{10, 11})).isSuccess());
+            r = DiskIOComp.read(channel, mapped, 8, 4);
+            Assert.assertTrue(r.isSuccess());
+            Assert.assertArrayEquals(new byte[]{8, 9, 10, 11}, r.getValue());
+        }
+    }
+
+    @Test
+    public void sharedFileTest() throws IOException {
+        RandomAccessFile raf = tmpFile();
+        //disk comp + 2 workers
+        SharedFile file = new SharedFile(raf, 3);
+        Assert.assertFalse(file.release(""));
+        Assert.assertFalse(file.release(""));
+        //a worker still running can use the file
+        Assert.assertTrue(file.channel.isOpen());
+        writeData(file.channel);
+        Assert.assertTrue(file.release(""));
+        Assert.assertFalse(file.channel.isOpen());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.nstream.hops.kafka.avro.AvroFramer;
+import se.sics.nstream.hops.kafka.avro.AvroParser;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class AvroFramerTest {
+
+    private final Schema schema = SchemaBuilder
+            .record("schema")
+            .namespace("org.apache.avro.ipc")
+            .fields()
+            .name("field1").type().nullable().stringType().noDefault()
+            .name("field2").type().longType().noDefault()
+            .name("field3").type().array().items().doubleType().noDefault()
+            .name("field4").type().map().values().intType().noDefault()
+            .endRecord();
+
+    private byte[] record(int i) {
+        GenericRecordBuilder recordBuilder = new GenericRecordBuilder(schema);
+        recordBuilder.set("field1", i % 2 == 0 ? null : "val" + i);
+        recordBuilder.set("field2", -1000l * i);
+        recordBuilder.set("field3", Arrays.asList(1.0 * i, 2.0 * i));
+        Map<String, Integer> m = new HashMap<>();
+        for (int j = 0; j < i; j++) {
+            m.put("k" + j, j);
+        }
+        recordBuilder.set("field4", m);
+        return AvroParser.avroToBlob(schema, recordBuilder.build());
+    }
+
+    @Test
+    public void byteByByte() {
+        AvroFramer framer = new AvroFramer(schema);
+        List<GenericRecord> records = new ArrayList<>();
+        long streamPos = 0;
+        for (int i = 0; i < 10; i++) {
+            byte[] r = record(i);
+            for (int j = 0; j < r.length; j++) {
+                framer.append(new byte[]{r[j]});
+                framer.next(records, Integer.MAX_VALUE);
+                if (j < r.length - 1) {
+                    //partial record
+                    Assert.assertEquals(i, records.size());
+                    Assert.assertEquals(streamPos, framer.parsedPos());
+                }
+            }
+            streamPos += r.length;
+            Assert.assertEquals(i + 1, records.size());
+            Assert.assertEquals(streamPos, framer.parsedPos());
+            Assert.assertEquals(-1000l * i, records.get(i).get("field2"));
+        }
+        Assert.assertEquals(0, framer.leftover());
+        framer.release();
+    }
+
+    @Test
+    public void batches() {
+        AvroFramer framer = new AvroFramer(schema);
+        for (int i = 0; i < 10; i++) {
+            framer.append(record(i));
+        }
+        List<GenericRecord> records = new ArrayList<>();
+        Assert.assertEquals(4, framer.next(records, 4));
+        Assert.assertEquals(4, framer.next(records, 4));
+        Assert.assertEquals(2, framer.next(records, 4));
+        Assert.assertEquals(0, framer.next(records, 4));
+        Assert.assertEquals(10, records.size());
+        framer.release();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * KompicsToolbox is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.kafka;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.ktoolbox.util.test.EventContentValidator;
+import se.sics.ktoolbox.util.test.MockComponentProxy;
+import se.sics.ktoolbox.util.test.Validator;
+import se.sics.nstream.FileId;
+import se.sics.nstream.StreamId;
+import se.sics.nstream.TorrentIds;
+import se.sics.nstream.hops.kafka.avro.AvroMsgProducer;
+import se.sics.nstream.hops.kafka.avro.AvroParser;
+import se.sics.nstream.storage.durable.events.DStorageWrite;
+import se.sics.nstream.test.DStorageWriteRespEC;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class KafkaProducerMngrTest {
+
+    private static final int RECORD_SIZE = 18;
+
+    private final Schema schema;
+    private final ByteBuf stream;
+    private final StreamId streamId;
+
+    {
+        schema = SchemaBuilder
+                .record("schema")
+                .namespace("org.apache.avro.ipc")
+                .fields()
+                .name("field1").type().nullable().stringType().noDefault()
+                .name("field2").type().nullable().stringType().noDefault()
+                .name("field3").type().nullable().stringType().noDefault()
+                .endRecord();
+
+        GenericRecordBuilder recordBuilder = new GenericRecordBuilder(schema);
+        int nrRecords = 4;
+        stream = Unpooled.buffer(nrRecords * RECORD_SIZE);
+        for (int i = 0; i < nrRecords; i++) {
+            recordBuilder.set("field1", "val" + i);
+            recordBuilder.set("field2", "val" + i);
+            recordBuilder.set("field3", "val" + i);
+            stream.writeBytes(AvroParser.avroToBlob(schema, recordBuilder.build()));
+        }
+        Assert.assertEquals(nrRecords * RECORD_SIZE, stream.writerIndex());
+
+        Identifier endpointId = null;
+        OverlayId torrentId = null;
+        FileId fileId = TorrentIds.fileId(torrentId, 0);
+        streamId = TorrentIds.streamId(endpointId, fileId);
+    }
+
+    @Test
+    public void ackOrderTest() {
+        MockComponentProxy proxy = new MockComponentProxy();
+        ManualAckProducer producer = new ManualAckProducer(schema);
+        KafkaProducerMngr mngr = new KafkaProducerMngr(proxy, producer);
+        Validator v;
+
+        DStorageWrite.Request req1 = nextWrite(0, RECORD_SIZE);
+        DStorageWrite.Request req2 = nextWrite(RECORD_SIZE, RECORD_SIZE);
+        //one full record and a partial one
+        DStorageWrite.Request req3 = nextWrite(2 * RECORD_SIZE, RECORD_SIZE + 5);
+        DStorageWrite.Request req4 = nextWrite(3 * RECORD_SIZE + 5, RECORD_SIZE - 5);
+
+        mngr.write(req1);
+        mngr.write(req2);
+        mngr.write(req3);
+        Assert.assertEquals(3, producer.acks.size());
+        Assert.assertEquals(3 * RECORD_SIZE, mngr.inFlightBytes());
+
+        //out of order ack - nothing is answered before the first record is acked
+        producer.ack(1, null);
+        producer.ack(2, null);
+        mngr.checkAcks();
+        v = proxy.validateNext();
+        Assert.assertFalse(v.toString(), v.isValid());
+
+        //the acked prefix answers writes in stream order - req3 waits on its partial tail record
+        proxy.expect(new EventContentValidator(new DStorageWriteRespEC(), req1.respond(Result.success(true))));
+        proxy.expect(new EventContentValidator(new DStorageWriteRespEC(), req2.respond(Result.success(true))));
+        producer.ack(0, null);
+        mngr.checkAcks();
+        v = proxy.validate();
+        if (v != null) {
+            Assert.fail(v.toString());
+        }
+        v = proxy.validateNext();
+        Assert.assertFalse(v.toString(), v.isValid());
+        //the partial record is not in flight - the writer can keep writing
+        Assert.assertEquals(0, mngr.inFlightBytes());
+        DStorageWrite.InFlight inFlight = mngr.inFlightUpdate().get();
+        Assert.assertEquals(3 * RECORD_SIZE + 5, inFlight.receivedPos);
+        Assert.assertEquals(0, inFlight.inFlightBytes);
+        Assert.assertFalse(mngr.inFlightUpdate().isPresent());
+
+        //the write completing the partial record - both wait on it
+        mngr.write(req4);
+        Assert.assertEquals(4, producer.acks.size());
+        v = proxy.validateNext();
+        Assert.assertFalse(v.toString(), v.isValid());
+        proxy.expect(new EventContentValidator(new DStorageWriteRespEC(), req3.respond(Result.success(true))));
+        proxy.expect(new EventContentValidator(new DStorageWriteRespEC(), req4.respond(Result.success(true))));
+        producer.ack(3, null);
+        mngr.checkAcks();
+        v = proxy.validate();
+        if (v != null) {
+            Assert.fail(v.toString());
+        }
+        mngr.close();
+    }
+
+    @Test
+    public void failTest() {
+        MockComponentProxy proxy = new MockComponentProxy();
+        ManualAckProducer producer = new ManualAckProducer(schema);
+        KafkaProducerMngr mngr = new KafkaProducerMngr(proxy, producer);
+        Validator v;
+
+        DStorageWrite.Request req1 = nextWrite(0, RECORD_SIZE);
+        DStorageWrite.Request req2 = nextWrite(RECORD_SIZE, RECORD_SIZE);
+        DStorageWrite.Request req3 = nextWrite(2 * RECORD_SIZE, RECORD_SIZE);
+
+        mngr.write(req1);
+        mngr.write(req2);
+        producer.ack(0, null);
+        producer.ack(1, new RuntimeException("broker down"));
+        //the acked prefix succeeds, the writes waiting on the failed record fail
+        proxy.expect(new EventContentValidator(new DStorageWriteRespEC(), req1.respond(Result.success(true))));
+        proxy.expect(new EventContentValidator(new DStorageWriteRespEC(), req2.respond(Result.success(true))));
+        mngr.checkAcks();
+        v = proxy.validateNext();
+        Assert.assertTrue(v.toString(), v.isValid());
+        Assert.assertTrue(found(v).result.isSuccess());
+        v = proxy.validateNext();
+        Assert.assertTrue(v.toString(), v.isValid());
+        Assert.assertFalse(found(v).result.isSuccess());
+
+        //later writes fail right away and are not sent
+        proxy.expect(new EventContentValidator(new DStorageWriteRespEC(), req3.respond(Result.success(true))));
+        mngr.write(req3);
+        v = proxy.validateNext();
+        Assert.assertTrue(v.toString(), v.isValid());
+        Assert.assertFalse(found(v).result.isSuccess());
+        Assert.assertEquals(2, producer.acks.size());
+        mngr.close();
+    }
+
+    private DStorageWrite.Request nextWrite(long pos, int length) {
+        byte[] value = new byte[length];
+        stream.readBytes(value);
+        return new DStorageWrite.Request(streamId, pos, value);
+    }
+
+    private static DStorageWrite.Response found(Validator v) {
+        return (DStorageWrite.Response) ((EventContentValidator) v).getFound();
+    }
+
+    /**
+     * records are acked by the test, in any order
+     */
+    private static class ManualAckProducer implements AvroMsgProducer {
+
+        private final Schema schema;
+        final List<Ack> acks = new ArrayList<>();
+
+        ManualAckProducer(Schema schema) {
+            this.schema = schema;
+        }
+
+        @Override
+        public Schema getSchema() {
+            return schema;
+        }
+
+        @Override
+        public void append(GenericRecord record) {
+            acks.add((cause) -> {
+            });
+        }
+
+        @Override
+        public void append(GenericRecord record, Ack ack) {
+            acks.add(ack);
+        }
+
+        void ack(int record, Exception cause) {
+            acks.get(record).done(cause);
+        }
+    }
+}
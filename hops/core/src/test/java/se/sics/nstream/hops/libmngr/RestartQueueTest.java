@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.hops.libmngr;
+
+import java.util.List;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.sics.kompics.Promise;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.identifiable.IdentifierFactory;
+import se.sics.ktoolbox.util.identifiable.IdentifierRegistry;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayIdFactory;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayRegistry;
+import se.sics.nstream.library.restart.TorrentRestart;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class RestartQueueTest {
+
+  private static OverlayIdFactory torrentIdFactory;
+
+  @BeforeClass
+  public static void setup() {
+    BasicIdentifiers.registerDefaults(1234l);
+    OverlayRegistry.initiate(new OverlayId.BasicTypeFactory((byte) 0), new OverlayId.BasicTypeComparator());
+    byte ownerId = 1;
+    IdentifierFactory baseIdFactory = IdentifierRegistry.lookup(BasicIdentifiers.Values.OVERLAY.toString());
+    torrentIdFactory = new OverlayIdFactory(baseIdFactory, OverlayId.BasicTypes.OTHER, ownerId);
+  }
+
+  @Test
+  public void stagedTest() {
+    RestartQueue queue = new RestartQueue(2);
+    TorrentRestart.UpldReq u1 = upload();
+    TorrentRestart.DwldReq d1 = download();
+    TorrentRestart.DwldReq d2 = download();
+    queue.upload(u1);
+    queue.download(d1);
+    queue.download(d2);
+    Assert.assertEquals(3, queue.total());
+
+    //downloads first, at most concurrency at a time
+    List<Promise> next = queue.next();
+    Assert.assertEquals(2, next.size());
+    Assert.assertSame(d1, next.get(0));
+    Assert.assertSame(d2, next.get(1));
+    Assert.assertTrue(queue.next().isEmpty());
+
+    Assert.assertEquals(-1, queue.done(d1.torrentId, false));
+    next = queue.next();
+    Assert.assertEquals(1, next.size());
+    Assert.assertSame(u1, next.get(0));
+    queue.done(d2.torrentId, true);
+    queue.done(u1.torrentId, true);
+    Assert.assertEquals(2, queue.restarted());
+    Assert.assertEquals(1, queue.failed());
+    Assert.assertEquals(0, queue.pending());
+  }
+
+  @Test
+  public void wakeupTest() {
+    RestartQueue queue = new RestartQueue(1);
+    TorrentRestart.UpldReq dormant = upload();
+    TorrentRestart.DwldReq d1 = download();
+    TorrentRestart.DwldReq d2 = download();
+    queue.dormant(dormant);
+    queue.download(d1);
+    queue.download(d2);
+    Assert.assertEquals(2, queue.total());
+    Assert.assertTrue(queue.isDormant(dormant.torrentId));
+    Assert.assertSame(d1, queue.next().get(0));
+
+    //a woken seeder jumps the queue
+    Assert.assertTrue(queue.wakeup(dormant.torrentId, 100));
+    Assert.assertFalse(queue.wakeup(dormant.torrentId, 200));
+    Assert.assertFalse(queue.isDormant(dormant.torrentId));
+    Assert.assertEquals(3, queue.total());
+    queue.done(d1.torrentId, true);
+    Assert.assertSame(dormant, queue.next().get(0));
+    Assert.assertEquals(100, queue.done(dormant.torrentId, true));
+    Assert.assertSame(d2, queue.next().get(0));
+  }
+
+  @Test
+  public void stopTest() {
+    RestartQueue queue = new RestartQueue(1);
+    TorrentRestart.UpldReq dormant = upload();
+    TorrentRestart.UpldReq u1 = upload();
+    TorrentRestart.DwldReq d1 = download();
+    queue.dormant(dormant);
+    queue.download(d1);
+    queue.upload(u1);
+    Assert.assertSame(d1, queue.next().get(0));
+
+    //queued - not sent anymore
+    Assert.assertFalse(queue.stop(u1.torrentId));
+    Assert.assertEquals(0, queue.pending());
+    Assert.assertEquals(1, queue.total());
+    //dormant - a leecher no longer wakes it up
+    Assert.assertTrue(queue.stop(dormant.torrentId));
+    Assert.assertFalse(queue.wakeup(dormant.torrentId, 100));
+    queue.done(d1.torrentId, true);
+    Assert.assertTrue(queue.next().isEmpty());
+  }
+
+  private TorrentRestart.UpldReq upload() {
+    return new TorrentRestart.UpldReq(torrentIdFactory.randomId(), "upload", 1, 1, null, null);
+  }
+
+  private TorrentRestart.DwldReq download() {
+    return new TorrentRestart.DwldReq(torrentIdFactory.randomId(), "download", 1, 1, null, null);
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.library.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.sics.kompics.config.Config;
+import se.sics.kompics.config.ConfigUpdate;
+import se.sics.kompics.config.TypesafeConfig;
+import se.sics.kompics.config.ValueMerger;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.identifiable.IdentifierFactory;
+import se.sics.ktoolbox.util.identifiable.IdentifierRegistry;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayIdFactory;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayRegistry;
+import se.sics.ktoolbox.util.result.Result;
+import se.sics.nstream.hops.library.Torrent;
+import se.sics.nstream.hops.storage.disk.DiskEndpoint;
+import se.sics.nstream.hops.storage.disk.DiskResource;
+import se.sics.nstream.library.util.TorrentState;
+import se.sics.nstream.storage.durable.util.MyStream;
+import se.sics.nstream.transfer.MyTorrent;
+import se.sics.nstream.util.TorrentExtendedStatus;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class LibraryJournalTest {
+
+  private static OverlayIdFactory torrentIdFactory;
+
+  private Path dir;
+  private Config config;
+  private DiskLibraryConfig libConfig;
+
+  @BeforeClass
+  public static void setup() {
+    BasicIdentifiers.registerDefaults(1234l);
+    OverlayRegistry.initiate(new OverlayId.BasicTypeFactory((byte) 0), new OverlayId.BasicTypeComparator());
+    byte ownerId = 1;
+    IdentifierFactory baseIdFactory = IdentifierRegistry.lookup(BasicIdentifiers.Values.OVERLAY.toString());
+    torrentIdFactory = new OverlayIdFactory(baseIdFactory, OverlayId.BasicTypes.OTHER, ownerId);
+  }
+
+  @Before
+  public void before() throws IOException {
+    dir = Files.createTempDirectory("library");
+    Config.Impl c = (Config.Impl) TypesafeConfig.load();
+    Config.Builder cb = c.modify(UUID.randomUUID());
+    cb.setValue(DiskLibraryConfig.Names.LIBRARY_SUMMARY, dir.resolve("summary.json").toString());
+    cb.setValue(DiskLibraryConfig.Names.COMPACT_AFTER, 1000);
+    ConfigUpdate cu = cb.finalise();
+    c.apply(cu, ValueMerger.NONE);
+    config = c;
+    libConfig = new DiskLibraryConfig(config);
+  }
+
+  @After
+  public void after() {
+    for (File f : dir.toFile().listFiles()) {
+      f.delete();
+    }
+    dir.toFile().delete();
+  }
+
+  @Test
+  public void replayOverSnapshotTest() {
+    OverlayId t1 = torrentIdFactory.randomId();
+    OverlayId t2 = torrentIdFactory.randomId();
+    OverlayId t3 = torrentIdFactory.randomId();
+    Map<OverlayId, Torrent> torrents = new HashMap<>();
+    torrents.put(t1, torrent(t1, "t1", TorrentState.UPLOADING));
+    torrents.put(t2, torrent(t2, "t2", TorrentState.UPLOADING));
+
+    LibraryJournal journal = new LibraryJournal(libConfig, torrentIdFactory, config);
+    Assert.assertTrue(journal.compact(torrents).isSuccess());
+    //changes after the snapshot only live in the journal
+    torrents.put(t1, torrent(t1, "t1", TorrentState.DOWNLOADING));
+    Assert.assertTrue(journal.put(t1, torrents.get(t1), torrents).isSuccess());
+    torrents.remove(t2);
+    Assert.assertTrue(journal.remove(t2, torrents).isSuccess());
+    torrents.put(t3, torrent(t3, "t3", TorrentState.UPLOADING));
+    Assert.assertTrue(journal.put(t3, torrents.get(t3), torrents).isSuccess());
+    journal.close();
+    Assert.assertTrue(new File(libConfig.journal).length() > 0);
+
+    Map<OverlayId, Torrent> recovered = recover();
+    Assert.assertEquals(2, recovered.size());
+    Assert.assertEquals(TorrentState.DOWNLOADING, recovered.get(t1).getTorrentStatus());
+    Assert.assertFalse(recovered.containsKey(t2));
+    Assert.assertEquals("t3", recovered.get(t3).torrentName);
+    //recovery compacts into a fresh snapshot
+    Assert.assertEquals(0, new File(libConfig.journal).length());
+    Assert.assertEquals(2, recover().size());
+  }
+
+  @Test
+  public void tornLastLineTest() throws IOException {
+    OverlayId t1 = torrentIdFactory.randomId();
+    OverlayId t2 = torrentIdFactory.randomId();
+    Map<OverlayId, Torrent> torrents = new HashMap<>();
+
+    LibraryJournal journal = new LibraryJournal(libConfig, torrentIdFactory, config);
+    torrents.put(t1, torrent(t1, "t1", TorrentState.UPLOADING));
+    Assert.assertTrue(journal.put(t1, torrents.get(t1), torrents).isSuccess());
+    torrents.put(t2, torrent(t2, "t2", TorrentState.UPLOADING));
+    Assert.assertTrue(journal.put(t2, torrents.get(t2), torrents).isSuccess());
+    journal.close();
+    //crash in the middle of an append
+    Files.write(Paths.get(libConfig.journal), "{\"op\":\"DEL\",\"baseId\":\"".getBytes(StandardCharsets.UTF_8),
+      StandardOpenOption.APPEND);
+
+    Map<OverlayId, Torrent> recovered = recover();
+    Assert.assertEquals(2, recovered.size());
+    Assert.assertTrue(recovered.containsKey(t1));
+    Assert.assertTrue(recovered.containsKey(t2));
+  }
+
+  @Test
+  public void crashBeforeTruncateTest() throws IOException {
+    OverlayId t1 = torrentIdFactory.randomId();
+    OverlayId t2 = torrentIdFactory.randomId();
+    Map<OverlayId, Torrent> torrents = new HashMap<>();
+
+    LibraryJournal journal = new LibraryJournal(libConfig, torrentIdFactory, config);
+    torrents.put(t1, torrent(t1, "t1", TorrentState.UPLOADING));
+    Assert.assertTrue(journal.put(t1, torrents.get(t1), torrents).isSuccess());
+    torrents.put(t2, torrent(t2, "t2", TorrentState.UPLOADING));
+    Assert.assertTrue(journal.put(t2, torrents.get(t2), torrents).isSuccess());
+    torrents.remove(t1);
+    Assert.assertTrue(journal.remove(t1, torrents).isSuccess());
+    byte[] untruncated = Files.readAllBytes(Paths.get(libConfig.journal));
+    //the snapshot is renamed in place, the crash loses the journal truncate
+    Assert.assertTrue(journal.compact(torrents).isSuccess());
+    journal.close();
+    Files.write(Paths.get(libConfig.journal), untruncated);
+
+    //entries already in the snapshot are replayed again - harmless
+    Map<OverlayId, Torrent> recovered = recover();
+    Assert.assertEquals(1, recovered.size());
+    Assert.assertTrue(recovered.containsKey(t2));
+    Assert.assertFalse(new File(libConfig.librarySummary + ".tmp").exists());
+  }
+
+  @Test
+  public void inactiveKeptOnCompactTest() {
+    OverlayId t1 = torrentIdFactory.randomId();
+    OverlayId t2 = torrentIdFactory.randomId();
+    OverlayId t3 = torrentIdFactory.randomId();
+    Map<OverlayId, Torrent> snapshot = new HashMap<>();
+    snapshot.put(t1, torrent(t1, "t1", TorrentState.UPLOADING));
+    snapshot.put(t2, torrent(t2, "t2", TorrentState.UPLOADING));
+    LibraryJournal journal = new LibraryJournal(libConfig, torrentIdFactory, config);
+    Assert.assertTrue(journal.compact(snapshot).isSuccess());
+    journal.close();
+
+    journal = new LibraryJournal(libConfig, torrentIdFactory, config);
+    Assert.assertEquals(2, journal.recover().getValue().size());
+    //dormant or queued restarts - none of them active yet
+    Map<OverlayId, Torrent> active = new HashMap<>();
+    Assert.assertTrue(journal.isInactive(t1));
+    active.put(t3, torrent(t3, "t3", TorrentState.UPLOADING));
+    Assert.assertTrue(journal.put(t3, active.get(t3), active).isSuccess());
+    Assert.assertTrue(journal.compact(active).isSuccess());
+    //stopped while dormant
+    Assert.assertTrue(journal.remove(t1, active).isSuccess());
+    Assert.assertFalse(journal.isInactive(t1));
+    Assert.assertTrue(journal.compact(active).isSuccess());
+    journal.close();
+
+    Map<OverlayId, Torrent> recovered = recover();
+    Assert.assertEquals(2, recovered.size());
+    Assert.assertFalse(recovered.containsKey(t1));
+    Assert.assertTrue(recovered.containsKey(t2));
+    Assert.assertTrue(recovered.containsKey(t3));
+  }
+
+  private Map<OverlayId, Torrent> recover() {
+    LibraryJournal journal = new LibraryJournal(libConfig, torrentIdFactory, config);
+    Result<Map<OverlayId, Torrent>> recovered = journal.recover();
+    journal.close();
+    Assert.assertTrue(recovered.isSuccess());
+    return recovered.getValue();
+  }
+
+  private Torrent torrent(OverlayId torrentId, String name, TorrentState state) {
+    Torrent torrent = new Torrent(1, 1, name, new TorrentExtendedStatus(torrentId, state, 0, 0));
+    torrent.setManifestStream(new MyStream(new DiskEndpoint(), new DiskResource(dir.toString(), MyTorrent.MANIFEST_NAME)));
+    return torrent;
+  }
+}
@@ -44,6 +44,7 @@ public class MysqlLibrary implements LibraryCtrl {
   private final Config config;
   private final OverlayIdFactory torrentIdFactory;
   private EntityManagerFactory emf;
+  private WriteBehindWriter writer;
   private Map<OverlayId, Torrent> torrents = new HashMap<>();
   private Map<OverlayId, TorrentDAO> tdaos;
 
@@ -54,13 +55,20 @@ public class MysqlLibrary implements LibraryCtrl {
 
   @Override
   public Map<OverlayId, Torrent> start() {
+    PersistenceConfig persistenceConfig = new PersistenceConfig(config);
     emf = PersistenceMngr.getEMF(config);
+    writer = new WriteBehindWriter(new TorrentStore.JPA(emf), persistenceConfig.flushPeriod,
+      persistenceConfig.flushBatch);
     return readTorrents();
   }
 
   @Override
   public void stop() {
-    emf.close();
+    try {
+      writer.close();
+    } finally {
+      emf.close();
+    }
   }
 
   private Map<OverlayId, Torrent> readTorrents() {
@@ -85,29 +93,6 @@ public class MysqlLibrary implements LibraryCtrl {
     }
   }
 
-  private void delete(TorrentDAO torrent) {
-    EntityManager em = emf.createEntityManager();
-    try {
-      em.getTransaction().begin();
-      em.remove(torrent);
-      em.getTransaction().commit();
-    } finally {
-      em.close();
-    }
-  }
-
-  private TorrentDAO merge(TorrentDAO torrent) {
-    EntityManager em = emf.createEntityManager();
-    try {
-      em.getTransaction().begin();
-      TorrentDAO res = em.merge(torrent);
-      em.getTransaction().commit();
-      return res;
-    } finally {
-      em.close();
-    }
-  }
-
   @Override
   public Map<OverlayId, Torrent> getTorrents() {
     return torrents;
@@ -139,7 +124,7 @@ public class MysqlLibrary implements LibraryCtrl {
     tdao.setName(torrentName);
     tdao.setStatus(TorrentState.PREPARE_UPLOAD.name());
     tdaos.put(torrentId, tdao);
-    merge(tdao);
+    writer.put(tdao);
   }
 
   @Override
@@ -151,8 +136,7 @@ public class MysqlLibrary implements LibraryCtrl {
     TorrentDAO tdao = tdaos.get(torrentId);
     tdao.setStatus(TorrentState.UPLOADING.name());
     tdao.setStream(LibrarySummaryHelper.streamToJSON(manifestStream, config));
-    tdao = merge(tdao);
-    tdaos.put(torrentId, tdao);
+    writer.put(tdao);
   }
 
   @Override
@@ -171,7 +155,7 @@ public class MysqlLibrary implements LibraryCtrl {
     tdao.setStatus(TorrentState.PREPARE_DOWNLOAD.name());
     tdao.setPartners(LibrarySummaryHelper.partnersToJSON(partners));
     tdaos.put(torrentId, tdao);
-    merge(tdao);
+    writer.put(tdao);
   }
 
   @Override
@@ -183,6 +167,7 @@ public class MysqlLibrary implements LibraryCtrl {
     TorrentDAO tdao = tdaos.get(torrentId);
     tdao.setStatus(TorrentState.DOWNLOADING.name());
     tdao.setStream(LibrarySummaryHelper.streamToJSON(manifestStream, config));
+    writer.put(tdao);
   }
 
   @Override
@@ -192,8 +177,7 @@ public class MysqlLibrary implements LibraryCtrl {
 
     TorrentDAO tdao = tdaos.get(torrentId);
     tdao.setStatus(TorrentState.UPLOADING.name());
-    tdao = merge(tdao);
-    tdaos.put(torrentId, tdao);
+    writer.put(tdao);
   }
 
   @Override
@@ -202,8 +186,7 @@ public class MysqlLibrary implements LibraryCtrl {
 
     TorrentDAO tdao = tdaos.get(torrentId);
     tdao.setStatus(TorrentState.KILLING.name());
-    tdao = merge(tdao);
-    tdaos.put(torrentId, tdao);
+    writer.put(tdao);
   }
 
   @Override
@@ -211,7 +194,7 @@ public class MysqlLibrary implements LibraryCtrl {
     torrents.remove(torrentId);
     TorrentDAO tdao = tdaos.remove(torrentId);
     if (tdao != null) {
-      delete(tdao);
+      writer.delete(tdao);
     }
   }
 
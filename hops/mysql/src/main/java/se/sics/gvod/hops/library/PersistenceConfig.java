@@ -29,17 +29,35 @@ public class PersistenceConfig {
     public static String MYSQL_PORT = "hops.library.mysql.port";
     public static String MYSQL_USER = "hops.library.mysql.user";
     public static String MYSQL_PASSWORD = "hops.library.mysql.password";
+    public static String SHOW_SQL = "hops.library.mysql.showSql";
+    public static String FLUSH_PERIOD = "hops.library.mysql.flush.period";
+    public static String FLUSH_BATCH = "hops.library.mysql.flush.batch";
   }
+  public static final boolean DEFAULT_SHOW_SQL = false;
+  /**
+   * ms - max staleness of a library change in mysql
+   */
+  public static final long DEFAULT_FLUSH_PERIOD = 1000;
+  /**
+   * dirty torrents that trigger an early flush - also the jdbc batch size
+   */
+  public static final int DEFAULT_FLUSH_BATCH = 100;
   
   public final String mysqlIp;
   public final int mysqlPort;
   public final String mysqlUser;
   public final String mysqlPassword;
+  public final boolean showSql;
+  public final long flushPeriod;
+  public final int flushBatch;
   
   public PersistenceConfig(Config config) {
     mysqlIp = config.getValue(Names.MYSQL_IP, String.class);
     mysqlPort = config.getValue(Names.MYSQL_PORT, Integer.class);
     mysqlUser = config.getValue(Names.MYSQL_USER, String.class);
     mysqlPassword = config.getValue(Names.MYSQL_PASSWORD, String.class);
+    showSql = config.getValueOrDefault(Names.SHOW_SQL, DEFAULT_SHOW_SQL);
+    flushPeriod = config.getValueOrDefault(Names.FLUSH_PERIOD, DEFAULT_FLUSH_PERIOD);
+    flushBatch = Math.max(1, config.getValueOrDefault(Names.FLUSH_BATCH, DEFAULT_FLUSH_BATCH));
   }
 }
@@ -75,8 +75,11 @@ public class PersistenceMngr {
       .put(AvailableSettings.PASS, c.mysqlPassword)
       .put(AvailableSettings.DIALECT, "org.hibernate.dialect.MySQL5InnoDBDialect")
       .put(AvailableSettings.HBM2DDL_AUTO, "validate")
-      .put(AvailableSettings.SHOW_SQL, "true")
-      .put(AvailableSettings.FORMAT_SQL, "true")
+      .put(AvailableSettings.SHOW_SQL, Boolean.toString(c.showSql))
+      .put(AvailableSettings.FORMAT_SQL, Boolean.toString(c.showSql))
+      .put(AvailableSettings.STATEMENT_BATCH_SIZE, Integer.toString(c.flushBatch))
+      .put(AvailableSettings.ORDER_UPDATES, "true")
+      .put(AvailableSettings.ORDER_INSERTS, "true")
       .put(AvailableSettings.C3P0_MIN_SIZE, "5")
       .put(AvailableSettings.C3P0_MAX_SIZE, "20")
       .put(AvailableSettings.C3P0_TIMEOUT, "0")
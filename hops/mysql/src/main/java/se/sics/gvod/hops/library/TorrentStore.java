@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.gvod.hops.library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import se.sics.gvod.hops.library.dao.TorrentDAO;
+
+/**
+ * Where the write behind flusher puts the library state. One call is one transaction.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public interface TorrentStore {
+
+  public void write(Collection<TorrentDAO> upserts, Collection<String> deletes);
+
+  public static class JPA implements TorrentStore {
+
+    private final EntityManagerFactory emf;
+
+    public JPA(EntityManagerFactory emf) {
+      this.emf = emf;
+    }
+
+    /**
+     * the existing rows are loaded with one query, so the merges do not select one by one and hibernate can send the
+     * updates as jdbc batches
+     */
+    @Override
+    public void write(Collection<TorrentDAO> upserts, Collection<String> deletes) {
+      EntityManager em = emf.createEntityManager();
+      try {
+        em.getTransaction().begin();
+        if (!deletes.isEmpty()) {
+          List<TorrentDAO> existing = em.createNamedQuery("dela.findByIds", TorrentDAO.class)
+            .setParameter("ids", deletes)
+            .getResultList();
+          for (TorrentDAO t : existing) {
+            em.remove(t);
+          }
+        }
+        if (!upserts.isEmpty()) {
+          List<String> ids = new ArrayList<>(upserts.size());
+          for (TorrentDAO t : upserts) {
+            ids.add(t.getId());
+          }
+          em.createNamedQuery("dela.findByIds", TorrentDAO.class)
+            .setParameter("ids", ids)
+            .getResultList();
+          for (TorrentDAO t : upserts) {
+            em.merge(t);
+          }
+        }
+        em.getTransaction().commit();
+      } catch (RuntimeException ex) {
+        if (em.getTransaction().isActive()) {
+          em.getTransaction().rollback();
+        }
+        throw ex;
+      } finally {
+        em.close();
+      }
+    }
+  }
+}
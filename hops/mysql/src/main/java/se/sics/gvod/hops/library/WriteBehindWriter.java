@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.gvod.hops.library;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.gvod.hops.library.dao.TorrentDAO;
+
+/**
+ * Write behind for the library rows - changes are recorded per torrent id, so repeated updates to a torrent
+ * coalesce into one row write, and are flushed on a dedicated thread at most flushPeriod after they were made, or as
+ * soon as batchSize torrents are dirty. close() flushes whatever is left.
+ * <p>
+ * A failed flush puts its changes back, unless the torrent changed again meanwhile - the newer change wins. close()
+ * retries a failed flush a few times and throws if rows are still unwritten.
+ *
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class WriteBehindWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WriteBehindWriter.class);
+  private static final int CLOSE_RETRIES = 3;
+  //ms
+  private static final long CLOSE_RETRY_DELAY = 100;
+
+  private final TorrentStore store;
+  private final int batchSize;
+  private final ScheduledExecutorService executor;
+  private final ScheduledFuture<?> periodicFlush;
+  //guarded by this - <id, row> - a null row is a delete
+  private Map<String, TorrentDAO> dirty = new LinkedHashMap<>();
+  private boolean flushScheduled = false;
+  private boolean closed = false;
+  //
+  private long flushes = 0;
+  private long rowsWritten = 0;
+  private long coalesced = 0;
+
+  public WriteBehindWriter(TorrentStore store, long flushPeriod, int batchSize) {
+    this.store = store;
+    this.batchSize = batchSize;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "dela-library-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.periodicFlush = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, flushPeriod, flushPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  public void put(TorrentDAO torrent) {
+    record(torrent.getId(), torrent.copy());
+  }
+
+  public void delete(TorrentDAO torrent) {
+    record(torrent.getId(), null);
+  }
+
+  private synchronized void record(String id, TorrentDAO row) {
+    if (closed) {
+      throw new IllegalStateException("library writer closed");
+    }
+    if (dirty.containsKey(id)) {
+      coalesced++;
+    }
+    dirty.put(id, row);
+    if (dirty.size() < batchSize || flushScheduled) {
+      return;
+    }
+    flushScheduled = true;
+    //under the lock - close() marks closed under it before it shuts the executor down
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    });
+  }
+
+  /**
+   * only ever runs on the writer thread (or on close, once the writer thread is done)
+   *
+   * @return the failure, null if the flush succeeded
+   */
+  private RuntimeException flush() {
+    Map<String, TorrentDAO> batch;
+    synchronized (this) {
+      flushScheduled = false;
+      if (dirty.isEmpty()) {
+        return null;
+      }
+      batch = dirty;
+      dirty = new LinkedHashMap<>();
+    }
+    Map<String, TorrentDAO> upserts = new LinkedHashMap<>();
+    List<String> deletes = new ArrayList<>();
+    for (Map.Entry<String, TorrentDAO> e : batch.entrySet()) {
+      if (e.getValue() == null) {
+        deletes.add(e.getKey());
+      } else {
+        upserts.put(e.getKey(), e.getValue());
+      }
+    }
+    try {
+      store.write(upserts.values(), deletes);
+      flushes++;
+      rowsWritten += batch.size();
+      LOG.debug("library flush rows:{} total flushes:{} rows:{} coalesced:{}",
+        new Object[]{batch.size(), flushes, rowsWritten, coalesced});
+      return null;
+    } catch (RuntimeException ex) {
+      LOG.warn("library flush of:{} rows failed:{} - retrying next flush", batch.size(), ex.getMessage());
+      synchronized (this) {
+        for (Map.Entry<String, TorrentDAO> e : batch.entrySet()) {
+          if (!dirty.containsKey(e.getKey())) {
+            dirty.put(e.getKey(), e.getValue());
+          }
+        }
+      }
+      return ex;
+    }
+  }
+
+  public synchronized int pending() {
+    return dirty.size();
+  }
+
+  /**
+   * stops the periodic flush and writes the remaining changes on the caller thread
+   *
+   * @throws IllegalStateException if rows are still unwritten after the retries - they are lost
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    periodicFlush.cancel(false);
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.warn("library writer did not stop in time");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    RuntimeException failure = flush();
+    for (int i = 0; failure != null && i < CLOSE_RETRIES; i++) {
+      try {
+        Thread.sleep(CLOSE_RETRY_DELAY);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      failure = flush();
+    }
+    if (failure != null) {
+      LOG.error("library writer closed with:{} unwritten rows", pending());
+      throw new IllegalStateException("library writer closed with:" + pending() + " unwritten rows", failure);
+    }
+  }
+}
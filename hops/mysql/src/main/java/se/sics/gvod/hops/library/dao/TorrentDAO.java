@@ -41,6 +41,8 @@ import javax.xml.bind.annotation.XmlRootElement;
     query = "SELECT d FROM dela d"),
   @NamedQuery(name = "dela.findById",
     query = "SELECT d FROM dela d WHERE d.id = :id"),
+  @NamedQuery(name = "dela.findByIds",
+    query = "SELECT d FROM dela d WHERE d.id IN :ids"),
   @NamedQuery(name = "dela.findByPid",
     query = "SELECT d FROM dela d WHERE d.pid = :pid")})
 public class TorrentDAO implements Serializable {
@@ -131,6 +133,20 @@ public class TorrentDAO implements Serializable {
     this.partners = partners;
   }
 
+  /**
+   * detached copy - handed to the write behind flusher so the library can keep changing its own instance
+   */
+  public TorrentDAO copy() {
+    TorrentDAO copy = new TorrentDAO(id);
+    copy.did = did;
+    copy.pid = pid;
+    copy.name = name;
+    copy.status = status;
+    copy.stream = stream;
+    copy.partners = partners;
+    return copy;
+  }
+
   @Override
   public int hashCode() {
     int hash = 0;
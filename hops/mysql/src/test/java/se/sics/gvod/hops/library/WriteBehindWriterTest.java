@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.gvod.hops.library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.gvod.hops.library.dao.TorrentDAO;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class WriteBehindWriterTest {
+
+  @Test
+  public void testCoalesceAndFlushOnClose() {
+    MemStore store = new MemStore();
+    //long period - only close flushes
+    WriteBehindWriter writer = new WriteBehindWriter(store, 60000, 100);
+    TorrentDAO t1 = torrent("t1", "PREPARE_UPLOAD");
+    writer.put(t1);
+    t1.setStatus("UPLOADING");
+    writer.put(t1);
+    //later changes to the library instance do not leak into the recorded row
+    t1.setStatus("KILLING");
+    writer.put(torrent("t2", "DOWNLOADING"));
+    writer.delete(torrent("t2", "DOWNLOADING"));
+    Assert.assertEquals(2, writer.pending());
+    Assert.assertTrue(store.writes.isEmpty());
+
+    writer.close();
+    Assert.assertEquals(1, store.writes.size());
+    Assert.assertEquals("UPLOADING", store.rows.get("t1").getStatus());
+    Assert.assertFalse(store.rows.containsKey("t2"));
+    Assert.assertEquals(0, writer.pending());
+  }
+
+  @Test
+  public void testBatchTriggersFlush() throws InterruptedException {
+    MemStore store = new MemStore();
+    WriteBehindWriter writer = new WriteBehindWriter(store, 60000, 2);
+    writer.put(torrent("t1", "UPLOADING"));
+    writer.put(torrent("t2", "UPLOADING"));
+    for (int i = 0; i < 100 && writer.pending() > 0; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, writer.pending());
+    Assert.assertEquals(2, store.rows.size());
+    writer.close();
+  }
+
+  @Test
+  public void testFailedFlushRetried() {
+    MemStore store = new MemStore();
+    store.failures = Integer.MAX_VALUE;
+    WriteBehindWriter writer = new WriteBehindWriter(store, 60000, 100);
+    writer.put(torrent("t1", "UPLOADING"));
+    try {
+      writer.close();
+      Assert.fail("unwritten rows on close");
+    } catch (IllegalStateException ex) {
+      Assert.assertEquals("store down", ex.getCause().getMessage());
+    }
+    Assert.assertEquals(1, writer.pending());
+    Assert.assertTrue(store.rows.isEmpty());
+  }
+
+  @Test
+  public void testCloseRetriesFlush() {
+    MemStore store = new MemStore();
+    store.failures = 2;
+    WriteBehindWriter writer = new WriteBehindWriter(store, 60000, 100);
+    writer.put(torrent("t1", "UPLOADING"));
+    writer.close();
+    Assert.assertEquals(0, writer.pending());
+    Assert.assertEquals("UPLOADING", store.rows.get("t1").getStatus());
+  }
+
+  private static TorrentDAO torrent(String id, String status) {
+    TorrentDAO t = new TorrentDAO(id);
+    t.setPid(1);
+    t.setDid(1);
+    t.setName(id);
+    t.setStatus(status);
+    return t;
+  }
+
+  private static class MemStore implements TorrentStore {
+
+    final Map<String, TorrentDAO> rows = new HashMap<>();
+    final List<Integer> writes = new ArrayList<>();
+    //writes that fail before the store is back
+    int failures = 0;
+
+    @Override
+    public synchronized void write(Collection<TorrentDAO> upserts, Collection<String> deletes) {
+      if (failures > 0) {
+        failures--;
+        throw new IllegalStateException("store down");
+      }
+      writes.add(upserts.size() + deletes.size());
+      for (String id : deletes) {
+        rows.remove(id);
+      }
+      for (TorrentDAO t : upserts) {
+        rows.put(t.getId(), t);
+      }
+    }
+  }
+}
@@ -39,6 +39,8 @@ import se.sics.nstream.torrent.transfer.msg.DownloadHash;
 import se.sics.nstream.torrent.transfer.msg.DownloadHashSerializer;
 import se.sics.nstream.torrent.transfer.msg.DownloadPiece;
 import se.sics.nstream.torrent.transfer.msg.DownloadPieceSerializer;
+import se.sics.nstream.torrent.transfer.msg.DownloadPieces;
+import se.sics.nstream.torrent.transfer.msg.DownloadPiecesSerializer;
 import se.sics.nstream.util.BlockDetails;
 import se.sics.nstream.util.BlockDetailsSerializer;
 
@@ -48,7 +50,7 @@ import se.sics.nstream.util.BlockDetailsSerializer;
 public class GVoDSerializerSetup {
     //You may add up to max serializers without the need to recompile all the projects that use the serializer space after gvod
     public static int maxSerializers = 25;
-    public static int serializerIds = 18;
+    public static int serializerIds = 21;
     
     public static enum GVoDSerializers {
         FileIdentifier(FileId.class, "nStreamFileIdentifier"),
@@ -68,7 +70,10 @@ public class GVoDSerializerSetup {
         DownloadPieceBadReq(DownloadPiece.BadRequest.class, "nstreamDownloadPieceBadReq"),
         DownloadHashRequest(DownloadHash.Request.class, "nstreamDownloadHashRequest"),
         DownloadHashSuccess(DownloadHash.Success.class, "nstreamDownloadHashSuccess"),
-        DownloadHashBadReq(DownloadHash.BadRequest.class, "nstreamDownloadHashBadReq");
+        DownloadHashBadReq(DownloadHash.BadRequest.class, "nstreamDownloadHashBadReq"),
+        DownloadPiecesRequest(DownloadPieces.Request.class, "nstreamDownloadPiecesRequest"),
+        DownloadPiecesSuccess(DownloadPieces.Success.class, "nstreamDownloadPiecesSuccess"),
+        DownloadPiecesBadReq(DownloadPieces.BadRequest.class, "nstreamDownloadPiecesBadReq");
         
         public final Class serializedClass;
         public final String serializerName;
@@ -166,6 +171,18 @@ public class GVoDSerializerSetup {
         Serializers.register(downloadHashBadRequestuestSerializer, GVoDSerializers.DownloadHashBadReq.serializerName);
         Serializers.register(GVoDSerializers.DownloadHashBadReq.serializedClass, GVoDSerializers.DownloadHashBadReq.serializerName);
         
+        DownloadPiecesSerializer.Request downloadPiecesRequestSerializer = new DownloadPiecesSerializer.Request(currentId++);
+        Serializers.register(downloadPiecesRequestSerializer, GVoDSerializers.DownloadPiecesRequest.serializerName);
+        Serializers.register(GVoDSerializers.DownloadPiecesRequest.serializedClass, GVoDSerializers.DownloadPiecesRequest.serializerName);
+        
+        DownloadPiecesSerializer.Success downloadPiecesSuccessSerializer = new DownloadPiecesSerializer.Success(currentId++);
+        Serializers.register(downloadPiecesSuccessSerializer, GVoDSerializers.DownloadPiecesSuccess.serializerName);
+        Serializers.register(GVoDSerializers.DownloadPiecesSuccess.serializedClass, GVoDSerializers.DownloadPiecesSuccess.serializerName);
+        
+        DownloadPiecesSerializer.BadRequest downloadPiecesBadRequestSerializer = new DownloadPiecesSerializer.BadRequest(currentId++);
+        Serializers.register(downloadPiecesBadRequestSerializer, GVoDSerializers.DownloadPiecesBadReq.serializerName);
+        Serializers.register(GVoDSerializers.DownloadPiecesBadReq.serializedClass, GVoDSerializers.DownloadPiecesBadReq.serializerName);
+        
         assert startingId + serializerIds == currentId;
         assert serializerIds <= maxSerializers;
         return startingId + maxSerializers;
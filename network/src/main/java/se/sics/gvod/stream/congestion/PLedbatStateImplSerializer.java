@@ -20,13 +20,19 @@ package se.sics.gvod.stream.congestion;
 
 import com.google.common.base.Optional;
 import io.netty.buffer.ByteBuf;
+import java.util.concurrent.TimeUnit;
 import se.sics.kompics.network.netty.serialization.Serializer;
 
 /**
+ * The sending time goes on the wire in nanoseconds, behind a NANOS flag byte. Older peers write a bare millisecond
+ * long whose top byte is always 0 (currentTimeMillis stays below 2^56), so a leading 0 is read as their format and
+ * scaled to nanoseconds. The origin of the clock does not matter, only differences of delays are used.
  *
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class PLedbatStateImplSerializer implements Serializer {
+    static final byte NANOS = 1;
+    
     private final int id;
     
     public PLedbatStateImplSerializer(int id) {
@@ -41,12 +47,19 @@ public class PLedbatStateImplSerializer implements Serializer {
     @Override
     public void toBinary(Object o, ByteBuf buf) {
         PLedbatState obj = (PLedbatState)o;
+        buf.writeByte(NANOS);
         buf.writeLong(obj.getSendingTime());
     }
 
     @Override
     public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
-        Long sendingTime = buf.readLong();
+        long sendingTime;
+        if (buf.getByte(buf.readerIndex()) == NANOS) {
+            buf.readByte();
+            sendingTime = buf.readLong();
+        } else {
+            sendingTime = TimeUnit.MILLISECONDS.toNanos(buf.readLong());
+        }
         return new PLedbatState.Impl(sendingTime);
     }
 }
@@ -20,15 +20,26 @@ package se.sics.nstream.storage.cache;
 
 import com.google.common.base.Optional;
 import io.netty.buffer.ByteBuf;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.BitSet;
 import se.sics.kompics.network.netty.serialization.Serializer;
 
 /**
+ * The blocks are written relative to the lowest hinted block, either as runs of consecutive blocks or as a bitmap -
+ * whichever is smaller. Hints are mostly a few contiguous ranges, so runs usually win.
+ * <p>
+ * The summary is embedded in other messages, so there is no serializer id on the wire to tell formats apart. The old
+ * format was [lStamp, nrBlocks, blocks]. The compact one writes COMPACT in place of nrBlocks - older peers read it as
+ * an empty summary (a lost hint, not a broken message) and we still read their summaries.
+ *
  * @author Alex Ormenisan <aaor@kth.se>
  */
 public class KHintSummarySerializer implements Serializer {
 
+    //a negative block count for older peers
+    private static final int COMPACT = -1;
+    private static final byte RUNS = 0;
+    private static final byte BITMAP = 1;
+
     private final int id;
 
     public KHintSummarySerializer(int id) {
@@ -44,21 +55,104 @@ public class KHintSummarySerializer implements Serializer {
     public void toBinary(Object o, ByteBuf buf) {
         KHint.Summary obj = (KHint.Summary) o;
         buf.writeLong(obj.lStamp);
-        buf.writeInt(obj.blocks.size());
-        for (Integer block : obj.blocks) {
-            buf.writeInt(block);
+        BitSet blocks = obj.bitmap();
+        int base = blocks.nextSetBit(0);
+        if (base < 0) {
+            //same in both formats
+            buf.writeInt(0);
+            return;
+        }
+        buf.writeInt(COMPACT);
+        writeVarInt(buf, base);
+        //runs as <gap from previous run end, run length>
+        int runsSize = 0;
+        int nrRuns = 0;
+        int prevEnd = base;
+        for (int start = base; start >= 0; start = blocks.nextSetBit(prevEnd)) {
+            int end = blocks.nextClearBit(start);
+            runsSize += varIntSize(start - prevEnd) + varIntSize(end - start);
+            nrRuns++;
+            prevEnd = end;
+        }
+        int bitmapSize = (blocks.length() - base + 7) / 8;
+        if (runsSize <= bitmapSize) {
+            buf.writeByte(RUNS);
+            writeVarInt(buf, nrRuns);
+            prevEnd = base;
+            for (int start = base; start >= 0; start = blocks.nextSetBit(prevEnd)) {
+                int end = blocks.nextClearBit(start);
+                writeVarInt(buf, start - prevEnd);
+                writeVarInt(buf, end - start);
+                prevEnd = end;
+            }
+        } else {
+            buf.writeByte(BITMAP);
+            byte[] bitmap = blocks.get(base, blocks.length()).toByteArray();
+            writeVarInt(buf, bitmap.length);
+            buf.writeBytes(bitmap);
         }
     }
 
     @Override
     public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
         long lStamp = buf.readLong();
+        BitSet blocks = new BitSet();
         int nrBlocks = buf.readInt();
-        Set<Integer> blocks = new TreeSet<>();
-        for (int j = 0; j < nrBlocks; j++) {
-            blocks.add(buf.readInt());
+        if (nrBlocks != COMPACT) {
+            //older peer
+            for (int i = 0; i < nrBlocks; i++) {
+                blocks.set(buf.readInt());
+            }
+            return new KHint.Summary(lStamp, blocks);
+        }
+        int base = readVarInt(buf);
+        byte format = buf.readByte();
+        if (format == RUNS) {
+            int nrRuns = readVarInt(buf);
+            int prevEnd = base;
+            for (int i = 0; i < nrRuns; i++) {
+                int start = prevEnd + readVarInt(buf);
+                int end = start + readVarInt(buf);
+                blocks.set(start, end);
+                prevEnd = end;
+            }
+        } else {
+            byte[] bitmap = new byte[readVarInt(buf)];
+            buf.readBytes(bitmap);
+            BitSet relative = BitSet.valueOf(bitmap);
+            for (int i = relative.nextSetBit(0); i >= 0; i = relative.nextSetBit(i + 1)) {
+                blocks.set(base + i);
+            }
         }
         return new KHint.Summary(lStamp, blocks);
     }
 
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuf buf) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
 }
@@ -20,6 +20,7 @@ package se.sics.nstream.torrent.transfer.msg;
 
 import com.google.common.base.Optional;
 import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
 import org.javatuples.Pair;
 import se.sics.kompics.util.Identifier;
 import se.sics.kompics.network.netty.serialization.Serializer;
@@ -29,6 +30,7 @@ import se.sics.ktoolbox.util.identifiable.IdentifierRegistry;
 import se.sics.ktoolbox.util.reference.KReference;
 import se.sics.ktoolbox.util.reference.KReferenceException;
 import se.sics.nstream.FileId;
+import se.sics.nstream.util.range.RangeKReference;
 
 /**
  *
@@ -93,19 +95,28 @@ public class DownloadPieceSerializer {
       buf.writeInt(obj.piece.getValue0());
       buf.writeInt(obj.piece.getValue1());
 
-      byte[] piece = getPiece(obj.val.getLeft());
-      buf.writeInt(piece.length);
-      buf.writeBytes(piece);
+      writePiece(obj.val.getLeft(), buf);
     }
 
-    private byte[] getPiece(KReference<byte[]> pieceRef) {
-      byte[] piece = pieceRef.getValue().get();
+    /**
+     * range references are written straight from the cached block - no
+     * intermediate piece copy
+     */
+    private void writePiece(KReference<byte[]> pieceRef, ByteBuf buf) {
+      if (pieceRef instanceof RangeKReference) {
+        ByteBuffer piece = ((RangeKReference) pieceRef).getView().get();
+        buf.writeInt(piece.remaining());
+        buf.writeBytes(piece);
+      } else {
+        byte[] piece = pieceRef.getValue().get();
+        buf.writeInt(piece.length);
+        buf.writeBytes(piece);
+      }
       try {
         pieceRef.release();
       } catch (KReferenceException ex) {
         throw new RuntimeException(ex);
       }
-      return piece;
     }
 
     @Override
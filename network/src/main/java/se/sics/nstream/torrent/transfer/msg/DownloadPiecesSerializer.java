@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.msg;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+import se.sics.kompics.util.Identifier;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.identifiable.IdentifierRegistry;
+import se.sics.ktoolbox.util.reference.KReference;
+import se.sics.ktoolbox.util.reference.KReferenceException;
+import se.sics.nstream.FileId;
+import se.sics.nstream.util.range.RangeKReference;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DownloadPiecesSerializer {
+
+  private static final byte RUN = 0;
+  private static final byte BITMAP = 1;
+
+  /**
+   * contiguous runs are encoded as (first, nrPieces) - anything else as
+   * (first, bitmap) with the bitmap starting at the first requested piece
+   */
+  private static void writePieces(BitSet pieces, ByteBuf buf) {
+    int first = pieces.nextSetBit(0);
+    if (first == -1) {
+      buf.writeByte(RUN);
+      buf.writeInt(0);
+      buf.writeInt(0);
+      return;
+    }
+    int nrPieces = pieces.cardinality();
+    if (pieces.length() - first == nrPieces) {
+      buf.writeByte(RUN);
+      buf.writeInt(first);
+      buf.writeInt(nrPieces);
+    } else {
+      byte[] bitmap = pieces.get(first, pieces.length()).toByteArray();
+      buf.writeByte(BITMAP);
+      buf.writeInt(first);
+      buf.writeInt(bitmap.length);
+      buf.writeBytes(bitmap);
+    }
+  }
+
+  private static BitSet readPieces(ByteBuf buf) {
+    byte type = buf.readByte();
+    int first = buf.readInt();
+    BitSet pieces = new BitSet();
+    switch (type) {
+      case RUN:
+        int nrPieces = buf.readInt();
+        pieces.set(first, first + nrPieces);
+        break;
+      case BITMAP:
+        byte[] bitmap = new byte[buf.readInt()];
+        buf.readBytes(bitmap);
+        BitSet relative = BitSet.valueOf(bitmap);
+        for (int i = relative.nextSetBit(0); i >= 0; i = relative.nextSetBit(i + 1)) {
+          pieces.set(first + i);
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("unknown pieces encoding:" + type);
+    }
+    return pieces;
+  }
+
+  public static class Request implements Serializer {
+
+    private final int id;
+    private final Class msgIdType;
+
+    public Request(int id) {
+      this.id = id;
+      this.msgIdType = IdentifierRegistry.lookup(BasicIdentifiers.Values.MSG.toString()).idType();
+    }
+
+    @Override
+    public int identifier() {
+      return id;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+      DownloadPieces.Request obj = (DownloadPieces.Request) o;
+      Serializers.lookupSerializer(msgIdType).toBinary(obj.msgId, buf);
+      Serializers.lookupSerializer(FileId.class).toBinary(obj.fileId, buf);
+      buf.writeInt(obj.blockNr);
+      writePieces(obj.pieces, buf);
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+      Identifier msgId = (Identifier) Serializers.lookupSerializer(msgIdType).fromBinary(buf, hint);
+      FileId fileId = (FileId) Serializers.lookupSerializer(FileId.class).fromBinary(buf, hint);
+      int blockNr = buf.readInt();
+      BitSet pieces = readPieces(buf);
+      return new DownloadPieces.Request(msgId, fileId, blockNr, pieces);
+    }
+  }
+
+  public static class Success implements Serializer {
+
+    private final int id;
+    private final Class msgIdType;
+
+    public Success(int id) {
+      this.id = id;
+      this.msgIdType = IdentifierRegistry.lookup(BasicIdentifiers.Values.MSG.toString()).idType();
+    }
+
+    @Override
+    public int identifier() {
+      return id;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+      DownloadPieces.Success obj = (DownloadPieces.Success) o;
+      Serializers.lookupSerializer(msgIdType).toBinary(obj.msgId, buf);
+      Serializers.lookupSerializer(FileId.class).toBinary(obj.fileId, buf);
+      buf.writeInt(obj.blockNr);
+      writePieces(obj.pieces, buf);
+      //<piece lengths, payload> - lets the receiver read the whole payload in one go
+      Map<Integer, KReference<byte[]>> vals = obj.vals.getLeft();
+      ByteBuffer[] pieces = new ByteBuffer[vals.size()];
+      int idx = 0;
+      for (int i = obj.pieces.nextSetBit(0); i >= 0; i = obj.pieces.nextSetBit(i + 1)) {
+        pieces[idx] = getView(vals.get(i));
+        buf.writeInt(pieces[idx].remaining());
+        idx++;
+      }
+      for (ByteBuffer piece : pieces) {
+        buf.writeBytes(piece);
+      }
+      for (KReference<byte[]> pieceRef : vals.values()) {
+        silentRelease(pieceRef);
+      }
+    }
+
+    /**
+     * range references are written straight from the cached block - no
+     * intermediate piece copy
+     */
+    private ByteBuffer getView(KReference<byte[]> pieceRef) {
+      if (pieceRef instanceof RangeKReference) {
+        return ((RangeKReference) pieceRef).getView().get();
+      }
+      return ByteBuffer.wrap(pieceRef.getValue().get());
+    }
+
+    private void silentRelease(KReference<byte[]> pieceRef) {
+      try {
+        pieceRef.release();
+      } catch (KReferenceException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+      Identifier msgId = (Identifier) Serializers.lookupSerializer(msgIdType).fromBinary(buf, hint);
+      FileId fileId = (FileId) Serializers.lookupSerializer(FileId.class).fromBinary(buf, hint);
+      int blockNr = buf.readInt();
+      BitSet pieces = readPieces(buf);
+      int[] lengths = new int[pieces.cardinality()];
+      int payloadSize = 0;
+      for (int idx = 0; idx < lengths.length; idx++) {
+        lengths[idx] = buf.readInt();
+        payloadSize += lengths[idx];
+      }
+      //one allocation per message - the pieces are views over the payload
+      byte[] payload = new byte[payloadSize];
+      buf.readBytes(payload);
+      Map<Integer, ByteBuffer> vals = new TreeMap<>();
+      int offset = 0;
+      int idx = 0;
+      for (int i = pieces.nextSetBit(0); i >= 0; i = pieces.nextSetBit(i + 1)) {
+        vals.put(i, ByteBuffer.wrap(payload, offset, lengths[idx]).slice());
+        offset += lengths[idx];
+        idx++;
+      }
+      return new DownloadPieces.Success(msgId, fileId, blockNr, pieces, vals);
+    }
+  }
+
+  public static class BadRequest implements Serializer {
+
+    private final int id;
+    private final Class msgIdType;
+
+    public BadRequest(int id) {
+      this.id = id;
+      this.msgIdType = IdentifierRegistry.lookup(BasicIdentifiers.Values.MSG.toString()).idType();
+    }
+
+    @Override
+    public int identifier() {
+      return id;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+      DownloadPieces.BadRequest obj = (DownloadPieces.BadRequest) o;
+      Serializers.lookupSerializer(msgIdType).toBinary(obj.msgId, buf);
+      Serializers.lookupSerializer(FileId.class).toBinary(obj.fileId, buf);
+      buf.writeInt(obj.blockNr);
+      writePieces(obj.pieces, buf);
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+      Identifier msgId = (Identifier) Serializers.lookupSerializer(msgIdType).fromBinary(buf, hint);
+      FileId fileId = (FileId) Serializers.lookupSerializer(FileId.class).fromBinary(buf, hint);
+      int blockNr = buf.readInt();
+      BitSet pieces = readPieces(buf);
+      return new DownloadPieces.BadRequest(msgId, fileId, blockNr, pieces);
+    }
+  }
+}
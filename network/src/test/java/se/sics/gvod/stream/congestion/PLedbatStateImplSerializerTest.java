@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.gvod.stream.congestion;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import se.sics.kompics.network.netty.serialization.Serializer;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class PLedbatStateImplSerializerTest {
+
+    @Test
+    public void nanosOnWireTest() {
+        Serializer serializer = new PLedbatStateImplSerializer(1);
+        PLedbatState original = new PLedbatState.Impl();
+        long sendingTime = TimeUnit.MILLISECONDS.toNanos(5123) + 456789;
+        original.setSendingTime(sendingTime);
+
+        ByteBuf serialized = Unpooled.buffer();
+        serializer.toBinary(original, serialized);
+        Assert.assertEquals(9, serialized.readableBytes());
+
+        PLedbatState copy = (PLedbatState) serializer.fromBinary(serialized, Optional.absent());
+        Assert.assertEquals(sendingTime, copy.getSendingTime());
+        Assert.assertEquals(0, serialized.readableBytes());
+    }
+
+    @Test
+    public void negativeNanosTest() {
+        //nanoTime has an arbitrary origin and can be negative
+        Serializer serializer = new PLedbatStateImplSerializer(1);
+        PLedbatState original = new PLedbatState.Impl();
+        original.setSendingTime(-123456789L);
+
+        ByteBuf serialized = Unpooled.buffer();
+        serializer.toBinary(original, serialized);
+        PLedbatState copy = (PLedbatState) serializer.fromBinary(serialized, Optional.absent());
+        Assert.assertEquals(-123456789L, copy.getSendingTime());
+    }
+
+    @Test
+    public void olderPeerTest() {
+        Serializer serializer = new PLedbatStateImplSerializer(1);
+        //a peer on the millisecond clock
+        long sendingMs = System.currentTimeMillis();
+        ByteBuf serialized = Unpooled.buffer();
+        serialized.writeLong(sendingMs);
+
+        PLedbatState copy = (PLedbatState) serializer.fromBinary(serialized, Optional.absent());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(sendingMs), copy.getSendingTime());
+        Assert.assertEquals(0, serialized.readableBytes());
+    }
+}
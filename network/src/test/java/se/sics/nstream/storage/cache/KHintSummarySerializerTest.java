@@ -21,6 +21,7 @@ package se.sics.nstream.storage.cache;
 import com.google.common.base.Optional;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.TreeSet;
 import org.junit.Assert;
@@ -71,4 +72,62 @@ public class KHintSummarySerializerTest {
         Assert.assertTrue(eqc.isEqual(original, copy));
         Assert.assertEquals(0, serializedCopy.readableBytes());
     }
+
+    @Test
+    public void runsAndBitmapTest() {
+        //few long runs are written as runs
+        Set<Integer> runs = new TreeSet<>();
+        for (int i = 1000; i < 1200; i++) {
+            runs.add(i);
+        }
+        for (int i = 5000; i < 5010; i++) {
+            runs.add(i);
+        }
+        KHint.Summary runsCopy = checkCopy(new KHint.Summary(2l, runs));
+        Assert.assertTrue(runsCopy.blocks instanceof KHint.BlockSet);
+        //every other block is written as a bitmap
+        Set<Integer> sparse = new TreeSet<>();
+        for (int i = 300; i < 700; i += 2) {
+            sparse.add(i);
+        }
+        checkCopy(new KHint.Summary(3l, sparse));
+        //empty
+        checkCopy(new KHint.Summary(4l, new TreeSet<Integer>()));
+    }
+
+    @Test
+    public void olderPeerTest() {
+        Serializer serializer = Serializers.lookupSerializer(KHint.Summary.class);
+        //summary of an older peer - [lStamp, nrBlocks, blocks]
+        ByteBuf old = Unpooled.buffer();
+        old.writeLong(5l);
+        old.writeInt(3);
+        old.writeInt(2);
+        old.writeInt(3);
+        old.writeInt(70);
+        KHint.Summary copy = (KHint.Summary) serializer.fromBinary(old, Optional.absent());
+        Assert.assertEquals(5l, copy.lStamp);
+        Assert.assertEquals(new TreeSet<>(Arrays.asList(2, 3, 70)), new TreeSet<>(copy.blocks));
+        Assert.assertEquals(0, old.readableBytes());
+
+        //an older peer reads the compact format as an empty summary
+        Set<Integer> blocks = new TreeSet<>();
+        blocks.add(10);
+        blocks.add(11);
+        ByteBuf serialized = Unpooled.buffer();
+        serializer.toBinary(new KHint.Summary(6l, blocks), serialized);
+        Assert.assertEquals(6l, serialized.readLong());
+        Assert.assertTrue(serialized.readInt() < 0);
+    }
+
+    private KHint.Summary checkCopy(KHint.Summary original) {
+        Serializer serializer = Serializers.lookupSerializer(KHint.Summary.class);
+        ByteBuf serialized = Unpooled.buffer();
+        serializer.toBinary(original, serialized);
+        Assert.assertTrue(serialized.readableBytes() <= 8 + 4 * (original.blocks.size() + 1));
+        KHint.Summary copy = (KHint.Summary) serializer.fromBinary(serialized, Optional.absent());
+        Assert.assertTrue(new KHintSummaryEC().isEqual(original, copy));
+        Assert.assertEquals(0, serialized.readableBytes());
+        return copy;
+    }
 }
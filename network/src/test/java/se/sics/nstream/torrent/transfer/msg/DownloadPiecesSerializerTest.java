@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.sics.nstream.torrent.transfer.msg;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.sics.gvod.network.GVoDSerializerSetup;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+import se.sics.ktoolbox.util.identifiable.BasicIdentifiers;
+import se.sics.ktoolbox.util.identifiable.IdentifierFactory;
+import se.sics.ktoolbox.util.identifiable.IdentifierRegistry;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayId;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayIdFactory;
+import se.sics.ktoolbox.util.identifiable.overlay.OverlayRegistry;
+import se.sics.ktoolbox.util.reference.KReference;
+import se.sics.ktoolbox.util.reference.KReferenceFactory;
+import se.sics.ktoolbox.util.setup.BasicSerializerSetup;
+import se.sics.nstream.TorrentIds;
+import se.sics.nstream.test.DownloadPiecesRequestEC;
+import se.sics.nstream.test.DownloadPiecesResponseEC;
+import se.sics.nstream.util.range.KPieceImpl;
+import se.sics.nstream.util.range.RangeKReference;
+
+/**
+ * @author Alex Ormenisan <aaor@kth.se>
+ */
+public class DownloadPiecesSerializerTest {
+
+    private static OverlayIdFactory overlayIdFactory;
+
+    @BeforeClass
+    public static void setup() {
+        BasicIdentifiers.registerDefaults(1234l);
+        OverlayRegistry.initiate(new OverlayId.BasicTypeFactory((byte)0), new OverlayId.BasicTypeComparator());
+
+        int serializerId = 128;
+        serializerId = BasicSerializerSetup.registerBasicSerializers(serializerId);
+        serializerId = GVoDSerializerSetup.registerSerializers(serializerId);
+
+        byte ownerId = 1;
+        IdentifierFactory baseIdFactory = IdentifierRegistry.lookup(BasicIdentifiers.Values.OVERLAY.toString());
+        overlayIdFactory = new OverlayIdFactory(baseIdFactory, OverlayId.BasicTypes.OTHER, ownerId);
+    }
+
+    private DownloadPieces.Request reqCopy(DownloadPieces.Request original) {
+        Serializer serializer = Serializers.lookupSerializer(DownloadPieces.Request.class);
+        ByteBuf serializedOriginal, serializedCopy;
+        serializedOriginal = Unpooled.buffer();
+        serializer.toBinary(original, serializedOriginal);
+
+        serializedCopy = Unpooled.buffer();
+        serializedOriginal.getBytes(0, serializedCopy, serializedOriginal.readableBytes());
+        DownloadPieces.Request copy = (DownloadPieces.Request) serializer.fromBinary(serializedCopy, Optional.absent());
+        Assert.assertEquals(0, serializedCopy.readableBytes());
+        return copy;
+    }
+
+    @Test
+    public void runReq() {
+        DownloadPiecesRequestEC ec = new DownloadPiecesRequestEC();
+        BitSet pieces = new BitSet();
+        pieces.set(10, 26);
+        DownloadPieces.Request original = new DownloadPieces.Request(TorrentIds.fileId(overlayIdFactory.randomId(), 2), 1, pieces);
+        Assert.assertTrue(ec.isEqual(original, reqCopy(original)));
+    }
+
+    @Test
+    public void bitmapReq() {
+        DownloadPiecesRequestEC ec = new DownloadPiecesRequestEC();
+        BitSet pieces = new BitSet();
+        pieces.set(3);
+        pieces.set(5, 9);
+        pieces.set(1000);
+        DownloadPieces.Request original = new DownloadPieces.Request(TorrentIds.fileId(overlayIdFactory.randomId(), 2), 1, pieces);
+        Assert.assertTrue(ec.isEqual(original, reqCopy(original)));
+    }
+
+    @Test
+    public void emptyReq() {
+        DownloadPiecesRequestEC ec = new DownloadPiecesRequestEC();
+        DownloadPieces.Request original = new DownloadPieces.Request(TorrentIds.fileId(overlayIdFactory.randomId(), 2), 1, new BitSet());
+        Assert.assertTrue(ec.isEqual(original, reqCopy(original)));
+    }
+
+    @Test
+    public void simpleResp() {
+        Serializer serializer = Serializers.lookupSerializer(DownloadPieces.Success.class);
+        DownloadPiecesResponseEC ec = new DownloadPiecesResponseEC();
+        DownloadPieces.Success original, copy;
+        ByteBuf serializedOriginal, serializedCopy;
+
+        BitSet pieces = new BitSet();
+        pieces.set(2, 4);
+        pieces.set(7);
+        DownloadPieces.Request request = new DownloadPieces.Request(TorrentIds.fileId(overlayIdFactory.randomId(), 2), 1, pieces);
+        Map<Integer, KReference<byte[]>> vals = new TreeMap<>();
+        for (int i = pieces.nextSetBit(0); i >= 0; i = pieces.nextSetBit(i + 1)) {
+            KReference<byte[]> ref = KReferenceFactory.getReference(new byte[]{(byte)i, 2, 3, 4});
+            ref.retain(); //serializer releases the ref and we cannot compare with it anymore
+            vals.put(i, ref);
+        }
+        original = request.success(vals);
+        serializedOriginal = Unpooled.buffer();
+        serializer.toBinary(original, serializedOriginal);
+
+        serializedCopy = Unpooled.buffer();
+        serializedOriginal.getBytes(0, serializedCopy, serializedOriginal.readableBytes());
+        copy = (DownloadPieces.Success) serializer.fromBinary(serializedCopy, Optional.absent());
+
+        Assert.assertTrue(ec.isEqual(original, copy));
+        Assert.assertEquals(0, serializedCopy.readableBytes());
+    }
+
+    @Test
+    public void rangeResp() {
+        Serializer serializer = Serializers.lookupSerializer(DownloadPieces.Success.class);
+        DownloadPieces.Success original, copy;
+        ByteBuf serializedOriginal, serializedCopy;
+
+        byte[] block = new byte[40];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) i;
+        }
+        KReference<byte[]> blockRef = KReferenceFactory.getReference(block);
+        BitSet pieces = new BitSet();
+        pieces.set(1, 3);
+        pieces.set(9);
+        DownloadPieces.Request request = new DownloadPieces.Request(TorrentIds.fileId(overlayIdFactory.randomId(), 2), 0, pieces);
+        Map<Integer, KReference<byte[]>> vals = new TreeMap<>();
+        for (int i = pieces.nextSetBit(0); i >= 0; i = pieces.nextSetBit(i + 1)) {
+            vals.put(i, RangeKReference.createInstance(blockRef, 0, new KPieceImpl(0, i, i * 4, i * 4 + 3)));
+        }
+        original = request.success(vals);
+        serializedOriginal = Unpooled.buffer();
+        serializer.toBinary(original, serializedOriginal);
+        Assert.assertTrue(blockRef.isValid());
+
+        serializedCopy = Unpooled.buffer();
+        serializedOriginal.getBytes(0, serializedCopy, serializedOriginal.readableBytes());
+        copy = (DownloadPieces.Success) serializer.fromBinary(serializedCopy, Optional.absent());
+
+        Assert.assertEquals(pieces, copy.pieces);
+        for (int i = pieces.nextSetBit(0); i >= 0; i = pieces.nextSetBit(i + 1)) {
+            Assert.assertEquals(ByteBuffer.wrap(block, i * 4, 4), copy.vals.getRight().get(i));
+        }
+        Assert.assertEquals(0, serializedCopy.readableBytes());
+    }
+}